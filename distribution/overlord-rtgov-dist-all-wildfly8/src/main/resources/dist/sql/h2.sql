@@ -17,6 +17,12 @@ alter table RTGOV_ACTIVITY_CONTEXT add constraint FK7FFC19525A6A791D foreign key
 
 alter table RTGOV_ACTIVITY_PROPERTIES add constraint FK728366909BA1A17D foreign key (unitId, unitIndex) references RTGOV_ACTIVITIES;
 
+create index RTGOV_ACTIVITIES_TSTAMP on RTGOV_ACTIVITIES (tstamp);
+
+create index RTGOV_ACTIVITY_CONTEXT_VALUE on RTGOV_ACTIVITY_CONTEXT (contextType, value);
+
+create index RTGOV_ACTIVITY_CONTEXT_UNIT on RTGOV_ACTIVITY_CONTEXT (unitId, unitIndex);
+
 
 drop table RTGOV_SITUATIONS if exists;
 drop table RTGOV_SITUATION_ACTIVITY_TYPES if exists;
@@ -21,15 +21,17 @@ import java.lang.reflect.InvocationHandler;
 import java.lang.reflect.Method;
 import java.lang.reflect.Proxy;
 import java.text.MessageFormat;
-import java.util.UUID;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import org.overlord.rtgov.activity.collector.ActivityCollector;
+import org.overlord.rtgov.activity.model.common.MessageExchange;
+import org.overlord.rtgov.activity.model.soa.RPCActivityType;
 import org.overlord.rtgov.activity.model.soa.RequestReceived;
 import org.overlord.rtgov.activity.model.soa.RequestSent;
 import org.overlord.rtgov.activity.model.soa.ResponseReceived;
 import org.overlord.rtgov.activity.model.soa.ResponseSent;
+import org.overlord.rtgov.common.util.IdGeneratorUtil;
 
 /**
  * This class provides helper functions for creating proxies that record
@@ -104,143 +106,8 @@ public final class ActivityProxyHelper {
      */
     @SuppressWarnings("unchecked")
     public static <T> T createClientProxy(final Class<T> intf, final Object caller, final T callee) {
-        return ((T)Proxy.newProxyInstance(callee.getClass().getClassLoader(), new Class<?>[]{intf}, new InvocationHandler() {
-
-            public Object invoke(Object proxy, Method method, Object[] args)
-                    throws Throwable {
-                String content=null;
-                String mesgType=null;
-                String reqId=null;
-                String respId=null;
-                boolean scopeStarted=false;
-                boolean supportedMethod=!method.getName().equals("toString");
-                Throwable excResp=null;
-                
-                if (supportedMethod) {
-                    synchronized (_collector) {
-                        // Check if initial activity in thread
-                        if (!_collector.isScopeActive()) {
-                            _collector.startScope();
-                            scopeStarted = true;
-                        }
-                    }
-                    
-                    // Create a unique identifier for the request and response
-                    reqId = UUID.randomUUID().toString();
-                    respId = UUID.randomUUID().toString();
-                    
-                    if (caller != null) {
-                        RequestSent rs=new RequestSent();
-                        rs.setMessageId(reqId);
-                        rs.setOperation(method.getName());
-                        rs.setInterface(intf.getName());
-                        rs.setServiceType(caller.getClass().getName());
-                        
-                        if (args != null && args.length > 0) {
-                            mesgType = "";
-                            
-                            try {
-                                for (int i=0; i < args.length; i++) {
-                                    
-                                    if (i > 0) {
-                                        mesgType += ",";
-                                    }
-                                    mesgType += args[i].getClass().getName();
-
-                                    String data=_collector.processInformation(null, args[i].getClass().getName(),
-                                            args[i], null, rs);
-                                    
-                                    if (content == null) {
-                                        content = data;
-                                    }
-                                }
-                            } catch (Exception e) {
-                                LOG.log(Level.SEVERE, MessageFormat.format(
-                                        java.util.PropertyResourceBundle.getBundle(
-                                                "rtgov-client.Messages").getString("RTGOV-CLIENT-1"),
-                                                method.getName()), e);
-                            }
-                        }
-                        
-                        rs.setContent(content);
-                        rs.setMessageType(mesgType);
-                        
-                        try {
-                            _collector.validate(rs);
-
-                            _collector.record(rs);
-                        } catch (Throwable t) {
-                            excResp = t;
-                        }
-                    }
-                }
-                
-                // Invoke the target method
-                String respContent=null;
-                Object resp=null;
-                
-                if (excResp == null) {
-                    try {
-                        resp = method.invoke(callee, args);                       
-                    } catch (java.lang.reflect.InvocationTargetException e) {
-                        excResp = e.getCause();
-                    }
-                }
-                
-                if (supportedMethod) {
-                    if (caller != null) {
-                        ResponseReceived rr=new ResponseReceived();
-                        rr.setMessageId(respId);
-                        rr.setReplyToId(reqId);
-                        rr.setOperation(method.getName());
-                        rr.setInterface(intf.getName());
-                        rr.setServiceType(caller.getClass().getName());
-                        rr.setContent(respContent);
-                        
-                        if (resp != null) {
-                            rr.setMessageType(resp.getClass().getName());
-                            
-                            rr.setContent(_collector.processInformation(null,
-                                    resp.getClass().getName(), resp, null, rr));
-                        } else if (excResp != null) {
-                            Class<?> excType=getDefinedException(method, excResp);
-
-                            if (excType != null) {
-                                String faultName = excType.getSimpleName();
-                                
-                                if (faultName != null && faultName.endsWith("Exception")
-                                                    && faultName.length() > 9) {
-                                    faultName = faultName.substring(0, faultName.length()-9);
-                                }
-                                
-                                rr.setFault(faultName);
-                                rr.setContent(_collector.processInformation(null,
-                                        excResp.getClass().getName(), excResp, null, rr));
-                            } else {
-                                rr.setFault("ERROR");
-                                rr.setContent(excResp.toString());
-                            }
-                        }
-                        
-                        _collector.record(rr);
-                    }
-                    
-                    // Check if final activity in thread
-                    if (scopeStarted) {
-                        synchronized (_collector) {
-                            _collector.endScope();
-                        }
-                    }
-                }
-                
-                if (excResp != null) {
-                    throw excResp;
-                }
-                
-                return (resp);
-            }
-            
-        }));
+        return ((T)Proxy.newProxyInstance(callee.getClass().getClassLoader(), new Class<?>[]{intf},
+                new ClientInvocationHandler(intf, caller, callee)));
     }
     
     /**
@@ -298,149 +165,436 @@ public final class ActivityProxyHelper {
      * @return The proxy
      */
     public static Object createServiceProxy(final Class<?> intf, final Object callee) {
-        return (Proxy.newProxyInstance(callee.getClass().getClassLoader(), new Class<?>[]{intf}, new InvocationHandler() {
-
-            public Object invoke(Object proxy, Method method, Object[] args)
-                    throws Throwable {
-                String content=null;
-                String mesgType=null;
-                String reqId=null;
-                String respId=null;
-                boolean scopeStarted=false;                    
-                boolean supportedMethod=!method.getName().equals("toString");
-                Throwable excResp=null;
+        return (Proxy.newProxyInstance(callee.getClass().getClassLoader(), new Class<?>[]{intf},
+                new ServiceInvocationHandler(intf, callee)));
+    }
+    
+    /**
+     * This class provides the details associated with a proxied method, that are
+     * derived once when the proxy is created, rather than on each invocation.
+     *
+     */
+    protected static class MethodInfo {
+        
+        private String _operation;
+        private boolean _supported;
+        private Class<?>[] _exceptionTypes;
+        private String[] _faultNames;
+        
+        /**
+         * This constructor initializes the method details.
+         * 
+         * @param method The method
+         */
+        public MethodInfo(Method method) {
+            _operation = method.getName();
+            _supported = !_operation.equals("toString");
+            _exceptionTypes = method.getExceptionTypes();
+            _faultNames = new String[_exceptionTypes.length];
+            
+            for (int i=0; i < _exceptionTypes.length; i++) {
+                String faultName = _exceptionTypes[i].getSimpleName();
                 
-                if (supportedMethod) {             
-                    // Check if initial activity in thread
-                    synchronized (_collector) {
-                        if (!_collector.isScopeActive()) {
-                            _collector.startScope();
-                            scopeStarted = true;
-                            
-                            if (LOG.isLoggable(Level.FINEST)) {
-                                LOG.finest("Starting scope");
-                            }
-                        }
-                    }
-                    
-                    // Create a unique identifier for the request and response
-                    reqId = UUID.randomUUID().toString();
-                    respId = UUID.randomUUID().toString();
-                    
-                    if (callee != null) {                    
-                        RequestReceived rr=new RequestReceived();
-                        rr.setMessageId(reqId);
-                        rr.setOperation(method.getName());
-                        rr.setInterface(intf.getName());
-                        rr.setServiceType(callee.getClass().getName());
-
-                        if (args != null && args.length > 0) {
-                            mesgType = "";
-                            
-                            try {
-                                for (int i=0; i < args.length; i++) {
-                                    if (i > 0) {
-                                        mesgType += ",";
-                                    }
-                                    mesgType += args[i].getClass().getName();
-                                    
-                                    String data=_collector.processInformation(null, args[i].getClass().getName(),
-                                            args[i], null, rr);
-                                    
-                                    if (content == null) {
-                                        content = data;
-                                    }
-                                }
-                            } catch (Exception e) {
-                                LOG.log(Level.SEVERE, MessageFormat.format(
-                                        java.util.PropertyResourceBundle.getBundle(
-                                                "rtgov-client.Messages").getString("RTGOV-CLIENT-1"),
-                                                method.getName()), e);
-                            }
+                if (faultName != null && faultName.endsWith("Exception")
+                                    && faultName.length() > 9) {
+                    faultName = faultName.substring(0, faultName.length()-9);
+                }
+                
+                _faultNames[i] = faultName;
+            }
+        }
+        
+        /**
+         * This method returns the operation name.
+         * 
+         * @return The operation
+         */
+        public String getOperation() {
+            return (_operation);
+        }
+        
+        /**
+         * This method determines whether invocations of the method
+         * should be reported.
+         * 
+         * @return Whether the method is supported
+         */
+        public boolean isSupported() {
+            return (_supported);
+        }
+        
+        /**
+         * This method returns the fault name associated with the supplied
+         * exception, if declared by the method.
+         * 
+         * @param t The exception
+         * @return The fault name, or null if the exception is not declared
+         */
+        public String getFaultName(Throwable t) {
+            for (int i=0; i < _exceptionTypes.length; i++) {
+                if (_exceptionTypes[i].isAssignableFrom(t.getClass())) {
+                    return (_faultNames[i]);
+                }
+            }
+            return (null);
+        }
+    }
+    
+    /**
+     * This class provides the base invocation handler for the activity proxies,
+     * caching the details of the interface methods when created. The handlers do
+     * not synchronize, as the scope is managed by the collector per thread.
+     *
+     */
+    protected abstract static class AbstractActivityInvocationHandler implements InvocationHandler {
+        
+        private String _interfaceName;
+        private java.util.concurrent.ConcurrentHashMap<Method, MethodInfo> _methods=
+                        new java.util.concurrent.ConcurrentHashMap<Method, MethodInfo>();
+        
+        /**
+         * This constructor initializes the method details for the supplied
+         * interface.
+         * 
+         * @param intf The interface
+         */
+        public AbstractActivityInvocationHandler(Class<?> intf) {
+            _interfaceName = intf.getName();
+            
+            for (Method m : intf.getMethods()) {
+                _methods.put(m, new MethodInfo(m));
+            }
+        }
+        
+        /**
+         * This method returns the interface name.
+         * 
+         * @return The interface name
+         */
+        protected String getInterfaceName() {
+            return (_interfaceName);
+        }
+        
+        /**
+         * This method returns the details associated with the supplied
+         * method.
+         * 
+         * @param method The method
+         * @return The method details
+         */
+        protected MethodInfo getMethodInfo(Method method) {
+            MethodInfo ret=_methods.get(method);
+            
+            if (ret == null) {
+                // Methods not defined on the interface, e.g. from java.lang.Object
+                ret = new MethodInfo(method);
+                
+                MethodInfo existing=_methods.putIfAbsent(method, ret);
+                
+                if (existing != null) {
+                    ret = existing;
+                }
+            }
+            
+            return (ret);
+        }
+        
+        /**
+         * This method processes the arguments, setting the content and
+         * message type on the supplied activity.
+         * 
+         * @param method The method
+         * @param args The arguments
+         * @param mex The message exchange activity
+         */
+        protected void processArguments(Method method, Object[] args, MessageExchange mex) {
+            String content=null;
+            
+            if (args != null && args.length > 0) {
+                StringBuilder mesgType=new StringBuilder();
+                
+                try {
+                    for (int i=0; i < args.length; i++) {
+                        String argType=args[i].getClass().getName();
+                        
+                        if (i > 0) {
+                            mesgType.append(',');
                         }
+                        mesgType.append(argType);
                         
-                        rr.setContent(content);
-                        rr.setMessageType(mesgType);
+                        String data=_collector.processInformation(null, argType,
+                                args[i], null, mex);
                         
-                        try {
-                            _collector.validate(rr);
-                            
-                            _collector.record(rr);
-                        } catch (Throwable t) {
-                            excResp = t;
+                        if (content == null) {
+                            content = data;
                         }
                     }
+                } catch (Exception e) {
+                    LOG.log(Level.SEVERE, MessageFormat.format(
+                            java.util.PropertyResourceBundle.getBundle(
+                                    "rtgov-client.Messages").getString("RTGOV-CLIENT-1"),
+                                    method.getName()), e);
+                }
+                
+                mex.setMessageType(mesgType.toString());
+            }
+            
+            mex.setContent(content);
+        }
+        
+        /**
+         * This method processes the response, or exception, setting the
+         * content, message type and fault on the supplied activity.
+         * 
+         * @param info The method details
+         * @param resp The response
+         * @param excResp The exception
+         * @param rpc The response activity
+         */
+        protected void processResponse(MethodInfo info, Object resp, Throwable excResp, RPCActivityType rpc) {
+            if (resp != null) {
+                rpc.setMessageType(resp.getClass().getName());
+                
+                rpc.setContent(_collector.processInformation(null,
+                        resp.getClass().getName(), resp, null, rpc));
+            } else if (excResp != null) {
+                String faultName=info.getFaultName(excResp);
+
+                if (faultName != null) {
+                    rpc.setFault(faultName);
+                    rpc.setContent(_collector.processInformation(null,
+                            excResp.getClass().getName(), excResp, null, rpc));
+                } else {
+                    rpc.setFault("ERROR");
+                    rpc.setContent(excResp.toString());
+                }
+            }
+        }
+        
+        /**
+         * This method invokes the target method.
+         * 
+         * @param target The target
+         * @param method The method
+         * @param args The arguments
+         * @return The response
+         * @throws Throwable The exception thrown by the target
+         */
+        protected Object invokeTarget(Object target, Method method, Object[] args) throws Throwable {
+            try {
+                return (method.invoke(target, args));
+            } catch (java.lang.reflect.InvocationTargetException e) {
+                throw e.getCause();
+            }
+        }
+    }
+    
+    /**
+     * This class provides the invocation handler for client proxies.
+     *
+     */
+    protected static class ClientInvocationHandler extends AbstractActivityInvocationHandler {
+        
+        private Object _caller;
+        private Object _callee;
+        private String _serviceType;
+        
+        /**
+         * This constructor initializes the handler.
+         * 
+         * @param intf The interface
+         * @param caller The caller
+         * @param callee The callee
+         */
+        public ClientInvocationHandler(Class<?> intf, Object caller, Object callee) {
+            super(intf);
+            _caller = caller;
+            _callee = callee;
+            _serviceType = (caller == null ? null : caller.getClass().getName());
+        }
+        
+        /**
+         * {@inheritDoc}
+         */
+        public Object invoke(Object proxy, Method method, Object[] args)
+                throws Throwable {
+            MethodInfo info=getMethodInfo(method);
+            String reqId=null;
+            boolean scopeStarted=false;
+            Throwable excResp=null;
+            
+            if (info.isSupported()) {
+                // Check if initial activity in thread
+                if (!_collector.isScopeActive()) {
+                    _collector.startScope();
+                    scopeStarted = true;
                 }
                 
-                // Invoke the target method
-                String respContent=null;
-                Object resp=null;
+                // Create a unique identifier for the request
+                reqId = IdGeneratorUtil.createId();
                 
-                if (excResp == null) {
+                if (_caller != null) {
+                    RequestSent rs=new RequestSent();
+                    rs.setMessageId(reqId);
+                    rs.setOperation(info.getOperation());
+                    rs.setInterface(getInterfaceName());
+                    rs.setServiceType(_serviceType);
+                    
+                    processArguments(method, args, rs);
+                    
                     try {
-                        resp = method.invoke(callee, args);                    
-                    } catch (java.lang.reflect.InvocationTargetException e) {
-                        excResp = e.getCause();
+                        _collector.validate(rs);
+
+                        _collector.record(rs);
+                    } catch (Throwable t) {
+                        excResp = t;
                     }
                 }
+            }
+            
+            // Invoke the target method
+            Object resp=null;
+            
+            if (excResp == null) {
+                try {
+                    resp = invokeTarget(_callee, method, args);
+                } catch (Throwable t) {
+                    excResp = t;
+                }
+            }
+            
+            if (info.isSupported()) {
+                if (_caller != null) {
+                    ResponseReceived rr=new ResponseReceived();
+                    rr.setMessageId(IdGeneratorUtil.createId());
+                    rr.setReplyToId(reqId);
+                    rr.setOperation(info.getOperation());
+                    rr.setInterface(getInterfaceName());
+                    rr.setServiceType(_serviceType);
+                    
+                    processResponse(info, resp, excResp, rr);
+                    
+                    _collector.record(rr);
+                }
                 
-                if (supportedMethod) {
-                    if (callee != null) {
-                        ResponseSent rs=new ResponseSent();
-                        rs.setMessageId(respId);
-                        rs.setReplyToId(reqId);
-                        rs.setOperation(method.getName());
-                        rs.setInterface(intf.getName());
-                        rs.setServiceType(callee.getClass().getName());
-                        rs.setContent(respContent);
-                        
-                        if (resp != null) {
-                            rs.setMessageType(resp.getClass().getName());
-                            
-                            rs.setContent(_collector.processInformation(null,
-                                    resp.getClass().getName(), resp, null, rs));
-                        } else if (excResp != null) {
-                            Class<?> excType=getDefinedException(method, excResp);
-                            
-                            if (excType != null) {
-                                String faultName = excType.getSimpleName();
-                                
-                                if (faultName != null && faultName.endsWith("Exception")
-                                                    && faultName.length() > 9) {
-                                    faultName = faultName.substring(0, faultName.length()-9);
-                                }
-                                
-                                rs.setFault(faultName);
-                                rs.setContent(_collector.processInformation(null,
-                                        excResp.getClass().getName(), excResp, null, rs));
-                            } else {
-                                rs.setFault("ERROR");
-                                rs.setContent(excResp.toString());
-                            }
-                        }
-                        
-                        _collector.record(rs);
-                    }                
+                // Check if final activity in thread
+                if (scopeStarted) {
+                    _collector.endScope();
+                }
+            }
+            
+            if (excResp != null) {
+                throw excResp;
+            }
+            
+            return (resp);
+        }
+    }
+    
+    /**
+     * This class provides the invocation handler for service proxies.
+     *
+     */
+    protected static class ServiceInvocationHandler extends AbstractActivityInvocationHandler {
+        
+        private Object _callee;
+        private String _serviceType;
+        
+        /**
+         * This constructor initializes the handler.
+         * 
+         * @param intf The interface
+         * @param callee The callee
+         */
+        public ServiceInvocationHandler(Class<?> intf, Object callee) {
+            super(intf);
+            _callee = callee;
+            _serviceType = (callee == null ? null : callee.getClass().getName());
+        }
+        
+        /**
+         * {@inheritDoc}
+         */
+        public Object invoke(Object proxy, Method method, Object[] args)
+                throws Throwable {
+            MethodInfo info=getMethodInfo(method);
+            String reqId=null;
+            boolean scopeStarted=false;
+            Throwable excResp=null;
+            
+            if (info.isSupported()) {
+                // Check if initial activity in thread
+                if (!_collector.isScopeActive()) {
+                    _collector.startScope();
+                    scopeStarted = true;
                     
-                    // Check if final activity in thread
-                    if (scopeStarted) {
-                        synchronized (_collector) {                            
-                            if (LOG.isLoggable(Level.FINEST)) {
-                                LOG.finest("Ending scope");
-                            }
-
-                            _collector.endScope();
-                        }
+                    if (LOG.isLoggable(Level.FINEST)) {
+                        LOG.finest("Starting scope");
                     }
                 }
                 
-                if (excResp != null) {
-                    throw excResp;
+                // Create a unique identifier for the request
+                reqId = IdGeneratorUtil.createId();
+                
+                if (_callee != null) {
+                    RequestReceived rr=new RequestReceived();
+                    rr.setMessageId(reqId);
+                    rr.setOperation(info.getOperation());
+                    rr.setInterface(getInterfaceName());
+                    rr.setServiceType(_serviceType);
+
+                    processArguments(method, args, rr);
+                    
+                    try {
+                        _collector.validate(rr);
+                        
+                        _collector.record(rr);
+                    } catch (Throwable t) {
+                        excResp = t;
+                    }
+                }
+            }
+            
+            // Invoke the target method
+            Object resp=null;
+            
+            if (excResp == null) {
+                try {
+                    resp = invokeTarget(_callee, method, args);
+                } catch (Throwable t) {
+                    excResp = t;
+                }
+            }
+            
+            if (info.isSupported()) {
+                if (_callee != null) {
+                    ResponseSent rs=new ResponseSent();
+                    rs.setMessageId(IdGeneratorUtil.createId());
+                    rs.setReplyToId(reqId);
+                    rs.setOperation(info.getOperation());
+                    rs.setInterface(getInterfaceName());
+                    rs.setServiceType(_serviceType);
+                    
+                    processResponse(info, resp, excResp, rs);
+                    
+                    _collector.record(rs);
                 }
                 
-                return (resp);
-            }            
-        }));
+                // Check if final activity in thread
+                if (scopeStarted) {
+                    if (LOG.isLoggable(Level.FINEST)) {
+                        LOG.finest("Ending scope");
+                    }
+
+                    _collector.endScope();
+                }
+            }
+            
+            if (excResp != null) {
+                throw excResp;
+            }
+            
+            return (resp);
+        }
     }
-    
 }
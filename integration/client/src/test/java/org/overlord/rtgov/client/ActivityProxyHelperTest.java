@@ -196,6 +196,171 @@ public class ActivityProxyHelperTest {
         }
     }
     
+    @Test
+    public void testServiceProxyAcrossThreads() throws Exception {
+        final int threadCount=8;
+        final int callsPerThread=500;
+        
+        ConcurrentActivityCollector collector=new ConcurrentActivityCollector();
+        
+        ActivityProxyHelper.setActivityCollector(collector);
+        
+        final TestService ts=(TestService)ActivityProxyHelper.createServiceProxy(TestService.class,
+                            new TestServiceImpl());
+        
+        final java.util.concurrent.CountDownLatch start=new java.util.concurrent.CountDownLatch(1);
+        final java.util.List<Throwable> errors=
+                    java.util.Collections.synchronizedList(new java.util.ArrayList<Throwable>());
+        
+        Thread[] threads=new Thread[threadCount];
+        
+        for (int i=0; i < threadCount; i++) {
+            final String name="Thread"+i;
+            
+            threads[i] = new Thread(new Runnable() {
+                public void run() {
+                    try {
+                        start.await();
+                        
+                        for (int j=0; j < callsPerThread; j++) {
+                            String req=name+"-"+j;
+                            String resp=ts.testMethod(req);
+                            
+                            if (!resp.equals(response(req))) {
+                                throw new IllegalStateException("Invalid response: "+resp);
+                            }
+                        }
+                    } catch (Throwable t) {
+                        errors.add(t);
+                    }
+                }
+            });
+            threads[i].start();
+        }
+        
+        start.countDown();
+        
+        for (int i=0; i < threadCount; i++) {
+            threads[i].join();
+        }
+        
+        if (!errors.isEmpty()) {
+            fail("Should not have thrown exception: "+errors.get(0));
+        }
+        
+        int requests=0;
+        int responses=0;
+        
+        for (ActivityType actType : collector.getEvents()) {
+            if (actType instanceof RequestReceived) {
+                requests++;
+            } else if (actType instanceof ResponseSent) {
+                responses++;
+            } else {
+                fail("Unexpected activity event: "+actType);
+            }
+        }
+        
+        if (requests != threadCount*callsPerThread) {
+            fail("Expecting "+(threadCount*callsPerThread)+" request events: "+requests);
+        }
+        
+        if (responses != threadCount*callsPerThread) {
+            fail("Expecting "+(threadCount*callsPerThread)+" response events: "+responses);
+        }
+    }
+    
+    @Test
+    public void testServiceProxyOverheadAcrossThreads() throws Exception {
+        final int[] threadCounts={1, 4, 16, 64};
+        final int totalCalls=64000;
+        
+        ActivityProxyHelper.setActivityCollector(new ConcurrentActivityCollector());
+        
+        TestService ts=(TestService)ActivityProxyHelper.createServiceProxy(TestService.class,
+                            new TestServiceImpl());
+        
+        // Warm up the proxy before measuring
+        runAcrossThreads(ts, 4, totalCalls/4);
+        
+        long[] nanosPerCall=new long[threadCounts.length];
+        StringBuilder report=new StringBuilder();
+        
+        for (int i=0; i < threadCounts.length; i++) {
+            ActivityProxyHelper.setActivityCollector(new ConcurrentActivityCollector());
+            
+            long elapsed=runAcrossThreads(ts, threadCounts[i], totalCalls/threadCounts[i]);
+            
+            nanosPerCall[i] = elapsed/totalCalls;
+            
+            report.append(" threads=").append(threadCounts[i]).append(" ns/call=").append(nanosPerCall[i]);
+        }
+        
+        // The same total number of calls is shared between the threads, so the elapsed
+        // time per call should not grow significantly with the thread count, unless the
+        // proxied calls are being serialized. The bound is loose to allow for shared
+        // or heavily loaded build machines.
+        for (int i=1; i < threadCounts.length; i++) {
+            if (nanosPerCall[i] > 10*Math.max(nanosPerCall[0], 1000)) {
+                fail("Proxy overhead does not scale with the number of threads:"+report);
+            }
+        }
+    }
+    
+    /**
+     * This method invokes the supplied service concurrently from the
+     * specified number of threads.
+     * 
+     * @param ts The service
+     * @param threadCount The number of threads
+     * @param callsPerThread The number of calls performed by each thread
+     * @return The elapsed time, in nanoseconds
+     * @throws Exception Failed to invoke the service
+     */
+    protected long runAcrossThreads(final TestService ts, int threadCount,
+                        final int callsPerThread) throws Exception {
+        final java.util.concurrent.CountDownLatch start=new java.util.concurrent.CountDownLatch(1);
+        final java.util.List<Throwable> errors=
+                    java.util.Collections.synchronizedList(new java.util.ArrayList<Throwable>());
+        
+        Thread[] threads=new Thread[threadCount];
+        
+        for (int i=0; i < threadCount; i++) {
+            final String name="Thread"+i;
+            
+            threads[i] = new Thread(new Runnable() {
+                public void run() {
+                    try {
+                        start.await();
+                        
+                        for (int j=0; j < callsPerThread; j++) {
+                            ts.testMethod(name);
+                        }
+                    } catch (Throwable t) {
+                        errors.add(t);
+                    }
+                }
+            });
+            threads[i].start();
+        }
+        
+        long startTime=System.nanoTime();
+        
+        start.countDown();
+        
+        for (int i=0; i < threadCount; i++) {
+            threads[i].join();
+        }
+        
+        long elapsed=System.nanoTime()-startTime;
+        
+        if (!errors.isEmpty()) {
+            fail("Should not have thrown exception: "+errors.get(0));
+        }
+        
+        return (elapsed);
+    }
+    
     public interface TestService {
         
         public String testMethod(String name) throws RuntimeException;        
@@ -237,6 +402,41 @@ public class ActivityProxyHelperTest {
         }
     };
 
+    public class ConcurrentActivityCollector extends AbstractActivityCollector {
+
+        private java.util.Queue<ActivityType> _events=
+                    new java.util.concurrent.ConcurrentLinkedQueue<ActivityType>();
+        private ThreadLocal<Boolean> _scope=new ThreadLocal<Boolean>();
+        
+        public java.util.Collection<ActivityType> getEvents() {
+            return (_events);
+        }
+        
+        public String processInformation(String processor, String type, Object info,
+                java.util.Map<String, Object> headers, ActivityType actType) {
+            return (null);
+        }
+        
+        public void validate(ActivityType actType) {
+        }
+        
+        public void record(ActivityType actType) {
+            _events.add(actType);
+        }
+        
+        public boolean isScopeActive() {
+            return (_scope.get() != null);
+        }
+        
+        public void startScope() {
+            _scope.set(Boolean.TRUE);
+        }
+        
+        public void endScope() {
+            _scope.remove();
+        }
+    };
+
     public interface TestClass {
         public void testMethod() throws TestParentException;        
     }
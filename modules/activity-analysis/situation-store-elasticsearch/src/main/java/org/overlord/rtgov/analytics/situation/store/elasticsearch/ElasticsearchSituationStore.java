@@ -21,7 +21,6 @@ import java.util.Map.Entry;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
-import org.elasticsearch.action.search.SearchResponse;
 import org.elasticsearch.action.search.SearchType;
 import org.elasticsearch.common.unit.TimeValue;
 import org.elasticsearch.index.query.BoolQueryBuilder;
@@ -39,6 +38,7 @@ import org.overlord.rtgov.analytics.situation.store.AbstractSituationStore;
 import org.overlord.rtgov.analytics.situation.store.ResolutionState;
 import org.overlord.rtgov.analytics.util.SituationUtil;
 import org.overlord.rtgov.common.elasticsearch.ElasticsearchClient;
+import org.overlord.rtgov.common.elasticsearch.ElasticsearchCursor;
 import org.overlord.rtgov.common.util.RTGovProperties;
 
 /**
@@ -59,7 +59,7 @@ public class ElasticsearchSituationStore extends AbstractSituationStore implemen
 
     private static final int PROPERTY_VALUE_MAX_LENGTH = 250;
 
-    private static int DEFAULT_RESPONSE_SIZE = 100000;
+    private static int DEFAULT_RESPONSE_SIZE = 1000;
     private static long DEFAULT_TIMEOUT = 10000L;
     
     private int _responseSize;
@@ -67,6 +67,19 @@ public class ElasticsearchSituationStore extends AbstractSituationStore implemen
     
     private ElasticsearchClient _client=new ElasticsearchClient();
     
+    private static final ElasticsearchCursor.HitConverter<Situation> SITUATION_CONVERTER=
+                    new ElasticsearchCursor.HitConverter<Situation>() {
+        public Situation convert(SearchHit hit) {
+            try {
+                return (SituationUtil.deserializeSituation(hit.source()));
+            } catch (Exception e) {
+                LOG.log(Level.SEVERE, java.util.PropertyResourceBundle
+                        .getBundle("situation-store-elasticsearch.Messages").getString("SITUATION-STORE-ELASTICSEARCH-2"), e);
+            }
+            return (null);
+        }
+    };
+    
     /**
      * Constructor.
      */
@@ -116,7 +129,7 @@ public class ElasticsearchSituationStore extends AbstractSituationStore implemen
     protected void doStore(final Situation situation) throws Exception {
         
         if (_client != null) {
-            _client.add(situation.getId(), ElasticsearchClient.convertTypeToJson(situation));
+            _client.add(situation.getId(), ElasticsearchClient.convertTypeToBytes(situation));
         }
     }
     
@@ -154,38 +167,60 @@ public class ElasticsearchSituationStore extends AbstractSituationStore implemen
      * {@inheritDoc}
      */
     public List<Situation> getSituations(final SituationsQuery sitQuery) {        
-        List<Situation> situations = new java.util.ArrayList<Situation>();
+        List<Situation> situations = getSituationCursor(sitQuery).toList();
+        
+        if (LOG.isLoggable(Level.FINEST)) {
+            LOG.finest("Situations="+situations); //$NON-NLS-1$
+        }
         
-        SearchResponse response=_client.getElasticsearchClient().prepareSearch(_client.getIndex())
+        return (situations);
+    }
+    
+    /**
+     * This method returns a cursor over the situations that meet the supplied
+     * query. The situations are retrieved from Elasticsearch a page at a time
+     * (the page size being defined by the 'SituationStore.Elasticsearch.responseSize'
+     * property), as the cursor is iterated. The cursor must be closed if not
+     * fully consumed.
+     * 
+     * @param sitQuery The query
+     * @return The cursor
+     */
+    public ElasticsearchCursor<Situation> getSituationCursor(final SituationsQuery sitQuery) {
+        return (_client.scroll(_client.getElasticsearchClient().prepareSearch(_client.getReadIndex())
                         .setTypes(_client.getType())
                         .setSearchType(SearchType.DFS_QUERY_THEN_FETCH)
                         .setTimeout(TimeValue.timeValueMillis(_timeout))
-                        .setSize(_responseSize)
-                        .setQuery(getQueryBuilder(sitQuery))
-                        .execute().actionGet();
-        
-        long num=response.getHits().getTotalHits();
+                        .setQuery(getQueryBuilder(sitQuery)), _responseSize, SITUATION_CONVERTER));
+    }
+    
+    /**
+     * This method deletes the situations that meet the supplied query,
+     * retrieving them a page at a time.
+     * 
+     * @param situationQuery The query
+     * @return The number of deleted situations
+     */
+    @Override
+    protected int doDelete(final SituationsQuery situationQuery) {
+        int ret=0;
         
-        if (num > _responseSize) {
-            num = _responseSize;
-        }
+        ElasticsearchCursor<Situation> cursor=getSituationCursor(situationQuery);
         
-        for (int i=0; i < num; i++) {
-            SearchHit hit=response.getHits().getAt(i);
-            
-            try {
-                situations.add(SituationUtil.deserializeSituation(hit.getSourceAsString().getBytes()));
-            } catch (Exception e) {
-                LOG.log(Level.SEVERE, java.util.PropertyResourceBundle
-                        .getBundle("situation-store-elasticsearch.Messages").getString("SITUATION-STORE-ELASTICSEARCH-2"), e);
+        try {
+            while (cursor.hasNext()) {
+                Situation situation=cursor.next();
+                
+                if (situation != null) {
+                    doDelete(situation);
+                    ret++;
+                }
             }
+        } finally {
+            cursor.close();
         }
         
-        if (LOG.isLoggable(Level.FINEST)) {
-            LOG.finest("Situations="+situations); //$NON-NLS-1$
-        }
-        
-        return (situations);
+        return (ret);
     }
     
     protected QueryBuilder getQueryBuilder(SituationsQuery sitQuery) {
@@ -272,7 +307,7 @@ public class ElasticsearchSituationStore extends AbstractSituationStore implemen
             doAssignSituation(sit, userName);
             
             // Save the updated situation
-            _client.update(situationId, ElasticsearchClient.convertTypeToJson(sit));
+            _client.update(situationId, ElasticsearchClient.convertTypeToBytes(sit));
         }
     }
 
@@ -286,7 +321,7 @@ public class ElasticsearchSituationStore extends AbstractSituationStore implemen
             doUnassignSituation(sit);
             
             // Save the updated situation
-            _client.update(situationId, ElasticsearchClient.convertTypeToJson(sit));
+            _client.update(situationId, ElasticsearchClient.convertTypeToBytes(sit));
         }
     }
 
@@ -300,7 +335,7 @@ public class ElasticsearchSituationStore extends AbstractSituationStore implemen
             doUpdateResolutionState(sit, resolutionState);
             
             // Save the updated situation
-            _client.update(situationId, ElasticsearchClient.convertTypeToJson(sit));
+            _client.update(situationId, ElasticsearchClient.convertTypeToBytes(sit));
         }
     }
 
@@ -312,7 +347,7 @@ public class ElasticsearchSituationStore extends AbstractSituationStore implemen
             doRecordSuccessfulResubmit(sit, userName);
             
             // Save the updated situation
-            _client.update(situationId, ElasticsearchClient.convertTypeToJson(sit));
+            _client.update(situationId, ElasticsearchClient.convertTypeToBytes(sit));
         }
     }
 
@@ -328,7 +363,7 @@ public class ElasticsearchSituationStore extends AbstractSituationStore implemen
             doRecordResubmitFailure(sit, message, userName);
             
             // Save the updated situation
-            _client.update(situationId, ElasticsearchClient.convertTypeToJson(sit));
+            _client.update(situationId, ElasticsearchClient.convertTypeToBytes(sit));
         }
     }
 
@@ -0,0 +1,376 @@
+/*
+ * 2014 Red Hat Inc. and/or its affiliates and other contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.overlord.rtgov.internal.activity.server.jee;
+
+import java.text.MessageFormat;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.overlord.rtgov.activity.model.ActivityUnit;
+import org.overlord.rtgov.activity.server.ActivityNotifier;
+import org.overlord.rtgov.activity.util.ActivityUnitJournal;
+import org.overlord.rtgov.activity.util.StageMetrics;
+
+/**
+ * This class represents the notification stage of the activity server,
+ * responsible for informing the activity notifiers of stored activity
+ * units, independently of the transaction used to store them.
+ * <p>
+ * If constructed with an outbox journal, then the activity units are
+ * durably appended to the journal and a single dispatcher thread replays
+ * them to the notifiers, retrying from the failed record if a notifier
+ * fails. This provides at-least-once notification, in order. If a record
+ * still cannot be notified after the maximum number of attempts, it is
+ * moved to a dead letter journal, so that later records are not blocked.
+ * <p>
+ * Otherwise, the activity units are placed on a bounded queue serviced by a
+ * pool of threads. When the queue is full, the submitting thread will block
+ * until space is available. Notification failures are logged and the
+ * activity units are not retried.
+ *
+ */
+public class ActivityNotificationStage {
+
+    private static final Logger LOG=Logger.getLogger(ActivityNotificationStage.class.getName());
+
+    private static final long CLOSE_TIMEOUT=5000;
+
+    private java.util.List<ActivityNotifier> _notifiers;
+
+    private ThreadPoolExecutor _executor;
+
+    private ActivityUnitJournal _outbox;
+    private ActivityUnitJournal _deadLetter;
+    private long _retryInterval;
+    private int _maxRetries;
+    private int _failures=0;
+    private Thread _dispatcher;
+    private final Object _signal=new Object();
+    private volatile boolean _closed=false;
+
+    private StageMetrics _metrics=new StageMetrics();
+
+    /**
+     * This constructor initializes a stage that notifies the activity units
+     * asynchronously using a bounded queue and thread pool.
+     *
+     * @param notifiers The activity notifiers
+     * @param threads The number of threads
+     * @param queueSize The maximum number of activity unit lists awaiting notification
+     */
+    public ActivityNotificationStage(java.util.List<ActivityNotifier> notifiers, int threads, int queueSize) {
+        _notifiers = notifiers;
+
+        _executor = new ThreadPoolExecutor(Math.max(1, threads), Math.max(1, threads), 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(Math.max(1, queueSize)),
+                new java.util.concurrent.ThreadFactory() {
+                    private int _count=0;
+
+                    public synchronized Thread newThread(Runnable r) {
+                        Thread thread=new Thread(r, "ActivityNotificationStage-"+(++_count));
+                        thread.setDaemon(true);
+                        return (thread);
+                    }
+                },
+                new RejectedExecutionHandler() {
+                    public void rejectedExecution(Runnable r, ThreadPoolExecutor executor) {
+                        if (executor.isShutdown()) {
+                            throw new RejectedExecutionException("Activity notification stage is closed");
+                        }
+
+                        // Apply backpressure to the submitting thread
+                        try {
+                            executor.getQueue().put(r);
+                        } catch (InterruptedException ie) {
+                            Thread.currentThread().interrupt();
+                            throw new RejectedExecutionException(ie);
+                        }
+                    }
+                });
+    }
+
+    /**
+     * This constructor initializes a stage that durably records the activity
+     * units in an outbox journal, before notifying them from a dispatcher
+     * thread.
+     *
+     * @param notifiers The activity notifiers
+     * @param outbox The outbox journal
+     * @param deadLetter The journal holding activity units that could not be notified
+     * @param retryInterval The interval (in milliseconds) before retrying a failed notification
+     * @param maxRetries The maximum number of attempts to notify a record, or 0 if unlimited
+     * @throws Exception Failed to open the outbox
+     */
+    public ActivityNotificationStage(java.util.List<ActivityNotifier> notifiers, ActivityUnitJournal outbox,
+                            ActivityUnitJournal deadLetter, long retryInterval, int maxRetries) throws Exception {
+        _notifiers = notifiers;
+        _outbox = outbox;
+        _deadLetter = deadLetter;
+        _retryInterval = retryInterval;
+        _maxRetries = maxRetries;
+
+        _outbox.open();
+        _deadLetter.open();
+
+        final ActivityUnitJournal.ReplayHandler handler=new ActivityUnitJournal.ReplayHandler() {
+            public void replay(java.util.List<ActivityUnit> units) throws Exception {
+                try {
+                    notifyActivities(units, true);
+
+                    _failures = 0;
+
+                } catch (Exception e) {
+                    if (_maxRetries <= 0 || ++_failures < _maxRetries) {
+                        throw e;
+                    }
+
+                    // Move the record aside, so that it does not block later records
+                    _deadLetter.append(units);
+
+                    LOG.log(Level.SEVERE, MessageFormat.format(java.util.PropertyResourceBundle.getBundle(
+                            "activity-server-jee.Messages").getString("ACTIVITY-SERVER-JEE-6"),
+                            _failures, _deadLetter.getDirectory()), e);
+
+                    _failures = 0;
+                }
+            }
+        };
+
+        _dispatcher = new Thread(new Runnable() {
+            public void run() {
+                while (!_closed) {
+                    try {
+                        if (_outbox.replay(handler) == 0) {
+                            await();
+                        }
+                    } catch (InterruptedException ie) {
+                        break;
+                    } catch (Exception e) {
+                        LOG.log(Level.SEVERE, java.util.PropertyResourceBundle.getBundle(
+                                "activity-server-jee.Messages").getString("ACTIVITY-SERVER-JEE-1"), e);
+
+                        try {
+                            Thread.sleep(_retryInterval);
+                        } catch (InterruptedException ie) {
+                            break;
+                        }
+                    }
+                }
+            }
+        }, "ActivityNotificationStage-outbox");
+
+        _dispatcher.setDaemon(true);
+        _dispatcher.start();
+    }
+
+    /**
+     * This method waits for the retry interval, or until further
+     * activity units have been submitted to the outbox.
+     *
+     * @throws InterruptedException Interrupted
+     */
+    protected void await() throws InterruptedException {
+        synchronized (_signal) {
+            if (!_closed) {
+                _signal.wait(_retryInterval);
+            }
+        }
+    }
+
+    /**
+     * This method submits the supplied activity units for notification.
+     * In outbox mode, the activity units will have been durably recorded
+     * when this method returns.
+     *
+     * @param units The activity units
+     * @throws Exception Failed to submit the activity units
+     */
+    public void submit(final java.util.List<ActivityUnit> units) throws Exception {
+        if (_outbox != null) {
+            _outbox.append(units);
+
+            synchronized (_signal) {
+                _signal.notifyAll();
+            }
+        } else {
+            // Copy the list, as the caller may reuse it once this method returns
+            _executor.execute(new Notification(new java.util.ArrayList<ActivityUnit>(units)));
+        }
+    }
+
+    /**
+     * This method informs the notifiers of the supplied activity units.
+     *
+     * @param units The activity units
+     * @param rethrow Whether a notifier failure should be rethrown
+     * @throws Exception Failed to notify, if rethrow is true
+     */
+    protected void notifyActivities(java.util.List<ActivityUnit> units, boolean rethrow) throws Exception {
+        long start=System.nanoTime();
+
+        try {
+            for (int i=0; i < _notifiers.size(); i++) {
+                _notifiers.get(i).notify(units);
+            }
+
+            _metrics.record(System.nanoTime()-start);
+
+        } catch (Exception e) {
+            _metrics.recordFailure();
+
+            if (rethrow) {
+                throw e;
+            }
+
+            LOG.log(Level.SEVERE, java.util.PropertyResourceBundle.getBundle(
+                    "activity-server-jee.Messages").getString("ACTIVITY-SERVER-JEE-1"), e);
+        }
+    }
+
+    /**
+     * This method returns the metrics associated with notifying the
+     * activity notifiers.
+     *
+     * @return The metrics
+     */
+    public StageMetrics getMetrics() {
+        return (_metrics);
+    }
+
+    /**
+     * This method returns the number of activity unit lists
+     * awaiting notification.
+     *
+     * @return The number of pending activity unit lists
+     */
+    public long getPending() {
+        if (_outbox != null) {
+            return (_outbox.getDepth());
+        }
+        return (_executor.getQueue().size());
+    }
+
+    /**
+     * This method returns the number of activity unit lists that
+     * could not be notified, and have been moved to the dead letter
+     * journal.
+     *
+     * @return The number of dead letter activity unit lists
+     */
+    public long getDeadLetters() {
+        if (_deadLetter != null) {
+            return (_deadLetter.getDepth());
+        }
+        return (0);
+    }
+
+    /**
+     * This method returns the age, in milliseconds, of the oldest
+     * activity unit list awaiting notification.
+     *
+     * @return The lag
+     */
+    public long getLag() {
+        if (_outbox != null) {
+            return (_outbox.getReplayLag());
+        }
+
+        Runnable head=_executor.getQueue().peek();
+
+        if (head instanceof Notification) {
+            return (System.currentTimeMillis()-((Notification)head).getSubmitted());
+        }
+
+        return (0);
+    }
+
+    /**
+     * This method closes the stage. Activity units that have been queued
+     * will be notified, subject to a timeout. In outbox mode, any activity
+     * units not yet notified will remain in the outbox, to be notified
+     * when the stage is next created.
+     */
+    public void close() {
+        _closed = true;
+
+        if (_executor != null) {
+            _executor.shutdown();
+
+            try {
+                _executor.awaitTermination(CLOSE_TIMEOUT, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        if (_dispatcher != null) {
+            _dispatcher.interrupt();
+
+            try {
+                _dispatcher.join(CLOSE_TIMEOUT);
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+            }
+
+            _outbox.close();
+            _deadLetter.close();
+        }
+    }
+
+    /**
+     * This class represents a queued notification.
+     *
+     */
+    protected class Notification implements Runnable {
+
+        private java.util.List<ActivityUnit> _units;
+        private long _submitted=System.currentTimeMillis();
+
+        /**
+         * This constructor initializes the activity units.
+         *
+         * @param units The activity units
+         */
+        public Notification(java.util.List<ActivityUnit> units) {
+            _units = units;
+        }
+
+        /**
+         * This method returns the time the notification was submitted.
+         *
+         * @return The time submitted
+         */
+        public long getSubmitted() {
+            return (_submitted);
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public void run() {
+            try {
+                notifyActivities(_units, false);
+            } catch (Exception e) {
+                // Failures are logged by notifyActivities
+            }
+        }
+    }
+}
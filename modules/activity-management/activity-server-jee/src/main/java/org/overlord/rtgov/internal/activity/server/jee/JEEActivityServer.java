@@ -15,16 +15,21 @@
  */
 package org.overlord.rtgov.internal.activity.server.jee;
 
+import java.lang.management.ManagementFactory;
 import java.util.List;
-import java.util.UUID;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
 import javax.naming.InitialContext;
 import javax.naming.NamingException;
 import javax.transaction.Status;
+import javax.transaction.Synchronization;
+import javax.transaction.TransactionSynchronizationRegistry;
 import javax.transaction.UserTransaction;
 
+import org.overlord.commons.services.ServiceClose;
 import org.overlord.commons.services.ServiceInit;
 import org.overlord.commons.services.ServiceListener;
 import org.overlord.commons.services.ServiceRegistryUtil;
@@ -32,25 +37,103 @@ import org.overlord.rtgov.activity.model.ActivityType;
 import org.overlord.rtgov.activity.model.ActivityUnit;
 import org.overlord.rtgov.activity.model.Context;
 import org.overlord.rtgov.activity.server.ActivityNotifier;
+import org.overlord.rtgov.activity.server.ActivityRetentionService;
 import org.overlord.rtgov.activity.server.ActivityServer;
 import org.overlord.rtgov.activity.server.ActivityStore;
 import org.overlord.rtgov.activity.server.ActivityStoreFactory;
+import org.overlord.rtgov.activity.server.ActivityTypeCursor;
 import org.overlord.rtgov.activity.server.QuerySpec;
+import org.overlord.rtgov.activity.util.ActivityUnitJournal;
+import org.overlord.rtgov.activity.util.StageMetrics;
+import org.overlord.rtgov.common.util.IdGeneratorUtil;
+import org.overlord.rtgov.common.util.RTGovProperties;
 
 /**
  * This class represents the JEE implementation of the activity server.
+ * <p>
+ * The notification mode determines how the activity notifiers are informed
+ * of stored activity units. In the 'transactional' mode (the default), the
+ * notifiers are invoked within the transaction used to store the activity
+ * units. In the 'async' mode, the activity units are handed to a bounded
+ * notification stage once the transaction has committed. The 'outbox' mode
+ * is similar, but the activity units are first durably recorded in an outbox
+ * journal, from which they are notified with at-least-once semantics. If
+ * the server fails after committing, but before recording the activity units
+ * in the outbox, the store will not have returned successfully, so the caller
+ * is expected to resubmit them.
+ * <p>
+ * If the activity units are stored within a transaction started by the caller
+ * (e.g. a container managed transaction), then in the 'async' and 'outbox'
+ * modes they are only handed to the notification stage once that transaction
+ * has committed, and are discarded if it rolls back. In this case, a failure
+ * after the commit, but before recording the activity units in the outbox,
+ * will not be reported to the caller.
  *
  */
-public class JEEActivityServer implements ActivityServer {
+public class JEEActivityServer implements ActivityServer, JEEActivityServerMBean {
 
     private static final Logger LOG=Logger.getLogger(JEEActivityServer.class.getName());
     
+    /** The transactional notification mode. **/
+    public static final String NOTIFICATION_MODE_TRANSACTIONAL="transactional";
+    
+    /** The asynchronous notification mode. **/
+    public static final String NOTIFICATION_MODE_ASYNC="async";
+    
+    /** The outbox notification mode. **/
+    public static final String NOTIFICATION_MODE_OUTBOX="outbox";
+    
+    private static final int NOTIFIER_THREADS=1;
+    private static final int NOTIFIER_QUEUE_SIZE=1000;
+    private static final long OUTBOX_SEGMENT_SIZE=10 * 1024 * 1024;
+    private static final long OUTBOX_RETRY_INTERVAL=1000;
+    private static final int OUTBOX_MAX_RETRIES=10;
+    private static final String OUTBOX_DIRECTORY="rtgov-activity-outbox";
+    private static final String DEAD_LETTER_DIRECTORY="deadletter";
+    
+    private static final String OBJECT_NAME_SERVER="overlord.rtgov.server:name=ActivityServer";
+    
     private UserTransaction _tx;
+    private TransactionSynchronizationRegistry _txSync;
         
     private ActivityStore _store;
     
     private java.util.List<ActivityNotifier> _notifiers=new java.util.Vector<ActivityNotifier>();
     
+    private String _notificationMode=NOTIFICATION_MODE_TRANSACTIONAL;
+    private int _notifierThreads=NOTIFIER_THREADS;
+    private int _notifierQueueSize=NOTIFIER_QUEUE_SIZE;
+    private String _outboxDirectory=null;
+    private long _outboxSegmentSize=OUTBOX_SEGMENT_SIZE;
+    private long _outboxRetryInterval=OUTBOX_RETRY_INTERVAL;
+    private int _outboxMaxRetries=OUTBOX_MAX_RETRIES;
+    
+    private volatile ActivityNotificationStage _notificationStage=null;
+    
+    private StageMetrics _storeMetrics=new StageMetrics();
+    private StageMetrics _notificationMetrics=new StageMetrics();
+    
+    private ActivityRetentionService _retention=null;
+    
+    /**
+     * The default constructor.
+     */
+    public JEEActivityServer() {
+        _notificationMode = RTGovProperties.getProperty("JEEActivityServer.notificationMode",
+                                NOTIFICATION_MODE_TRANSACTIONAL);
+        _notifierThreads = RTGovProperties.getPropertyAsInteger("JEEActivityServer.notifierThreads",
+                                NOTIFIER_THREADS);
+        _notifierQueueSize = RTGovProperties.getPropertyAsInteger("JEEActivityServer.notifierQueueSize",
+                                NOTIFIER_QUEUE_SIZE);
+        _outboxDirectory = RTGovProperties.getProperty("JEEActivityServer.outboxDirectory");
+        _outboxSegmentSize = RTGovProperties.getPropertyAsLong("JEEActivityServer.outboxSegmentSize",
+                                OUTBOX_SEGMENT_SIZE);
+        _outboxRetryInterval = RTGovProperties.getPropertyAsLong("JEEActivityServer.outboxRetryInterval",
+                                OUTBOX_RETRY_INTERVAL);
+        _outboxMaxRetries = RTGovProperties.getPropertyAsInteger("JEEActivityServer.outboxMaxRetries",
+                                OUTBOX_MAX_RETRIES);
+    }
+    
     /**
      * Initialize the activity server implementation.
      */
@@ -80,6 +163,18 @@ public class JEEActivityServer implements ActivityServer {
             }
         }
         
+        if (_txSync == null) {
+            try {
+                InitialContext context = new InitialContext();
+                _txSync = (TransactionSynchronizationRegistry)context.lookup(
+                                    "java:comp/TransactionSynchronizationRegistry");
+            } catch (NamingException e) {
+                if (LOG.isLoggable(Level.FINEST)) {
+                    LOG.log(Level.FINEST, "TransactionSynchronizationRegistry not available", e);
+                }
+            }
+        }
+        
         ServiceRegistryUtil.addServiceListener(ActivityNotifier.class, new ServiceListener<ActivityNotifier>() {
 
             @Override
@@ -100,6 +195,63 @@ public class JEEActivityServer implements ActivityServer {
                 _notifiers.remove(service);                
             }            
         });
+        
+        _retention = new ActivityRetentionService(_store);
+        _retention.setUserTransaction(_tx);
+        _retention.init();
+        
+        try {
+            MBeanServer mbs = ManagementFactory.getPlatformMBeanServer();
+            
+            if (LOG.isLoggable(Level.FINE)) {
+                LOG.fine("Register the ActivityServer MBean["
+                            +OBJECT_NAME_SERVER+"]: "+this);
+            }
+            
+            mbs.registerMBean(this, new ObjectName(OBJECT_NAME_SERVER));
+            
+        } catch (Exception e) {
+            LOG.log(Level.SEVERE, java.util.PropertyResourceBundle.getBundle(
+                    "activity-server-jee.Messages").getString("ACTIVITY-SERVER-JEE-2"), e);
+        }
+    }
+    
+    /**
+     * Close the activity server implementation.
+     */
+    @ServiceClose
+    public void close() {
+        ActivityNotificationStage stage=null;
+        
+        synchronized (this) {
+            stage = _notificationStage;
+            _notificationStage = null;
+        }
+        
+        if (stage != null) {
+            stage.close();
+        }
+        
+        if (_retention != null) {
+            _retention.close();
+            _retention = null;
+        }
+        
+        try {
+            MBeanServer mbs = ManagementFactory.getPlatformMBeanServer();
+            
+            ObjectName objname=new ObjectName(OBJECT_NAME_SERVER);
+            
+            if (mbs.isRegistered(objname)) {
+                mbs.unregisterMBean(objname);
+            }
+            
+        } catch (Throwable t) {
+            if (LOG.isLoggable(Level.FINER)) {
+                LOG.log(Level.FINER, java.util.PropertyResourceBundle.getBundle(
+                    "activity-server-jee.Messages").getString("ACTIVITY-SERVER-JEE-3"), t);
+            }
+        }
     }
     
     /**
@@ -152,6 +304,192 @@ public class JEEActivityServer implements ActivityServer {
         _notifiers = notifiers;
     }
     
+    /**
+     * This method sets the notification mode, one of 'transactional',
+     * 'async' or 'outbox'.
+     * 
+     * @param mode The notification mode
+     */
+    public void setNotificationMode(String mode) {
+        _notificationMode = mode;
+    }
+    
+    /**
+     * {@inheritDoc}
+     */
+    public String getNotificationMode() {
+        return (_notificationMode);
+    }
+    
+    /**
+     * This method sets the number of threads used to notify
+     * activity units in the 'async' notification mode.
+     * 
+     * @param threads The number of threads
+     */
+    public void setNotifierThreads(int threads) {
+        _notifierThreads = threads;
+    }
+    
+    /**
+     * This method gets the number of threads used to notify
+     * activity units in the 'async' notification mode.
+     * 
+     * @return The number of threads
+     */
+    public int getNotifierThreads() {
+        return (_notifierThreads);
+    }
+    
+    /**
+     * This method sets the maximum number of activity unit lists that
+     * can be awaiting notification in the 'async' notification mode,
+     * before the storing thread is blocked.
+     * 
+     * @param size The queue size
+     */
+    public void setNotifierQueueSize(int size) {
+        _notifierQueueSize = size;
+    }
+    
+    /**
+     * This method gets the maximum number of activity unit lists that
+     * can be awaiting notification in the 'async' notification mode.
+     * 
+     * @return The queue size
+     */
+    public int getNotifierQueueSize() {
+        return (_notifierQueueSize);
+    }
+    
+    /**
+     * This method sets the directory used to hold the outbox journal
+     * in the 'outbox' notification mode. If not set, the outbox will
+     * be held in the server's data directory.
+     * 
+     * @param dir The outbox directory
+     */
+    public void setOutboxDirectory(String dir) {
+        _outboxDirectory = dir;
+    }
+    
+    /**
+     * This method gets the directory used to hold the outbox journal
+     * in the 'outbox' notification mode.
+     * 
+     * @return The outbox directory
+     */
+    public String getOutboxDirectory() {
+        return (_outboxDirectory);
+    }
+    
+    /**
+     * This method sets the interval (in milliseconds) before retrying
+     * a failed notification in the 'outbox' notification mode.
+     * 
+     * @param interval The retry interval
+     */
+    public void setOutboxRetryInterval(long interval) {
+        _outboxRetryInterval = interval;
+    }
+    
+    /**
+     * This method gets the interval (in milliseconds) before retrying
+     * a failed notification in the 'outbox' notification mode.
+     * 
+     * @return The retry interval
+     */
+    public long getOutboxRetryInterval() {
+        return (_outboxRetryInterval);
+    }
+    
+    /**
+     * This method sets the maximum number of attempts to notify an
+     * activity unit list in the 'outbox' notification mode, before
+     * it is moved to the dead letter journal. A value of 0 means
+     * the notification will be retried until successful.
+     * 
+     * @param maxRetries The maximum number of attempts
+     */
+    public void setOutboxMaxRetries(int maxRetries) {
+        _outboxMaxRetries = maxRetries;
+    }
+    
+    /**
+     * This method gets the maximum number of attempts to notify an
+     * activity unit list in the 'outbox' notification mode, before
+     * it is moved to the dead letter journal.
+     * 
+     * @return The maximum number of attempts
+     */
+    public int getOutboxMaxRetries() {
+        return (_outboxMaxRetries);
+    }
+    
+    /**
+     * This method returns the directory used to hold the outbox journal.
+     * If an outbox directory has not been configured, then the server's
+     * data directory will be used. A temporary directory is not used,
+     * as it may be cleared when the server is restarted.
+     * 
+     * @return The outbox directory
+     * @throws IllegalStateException No outbox directory configured
+     */
+    protected java.io.File getOutbox() {
+        if (_outboxDirectory != null) {
+            return (new java.io.File(_outboxDirectory));
+        }
+        
+        String dataDir=System.getProperty("jboss.server.data.dir");
+        
+        if (dataDir == null) {
+            throw new IllegalStateException(java.util.PropertyResourceBundle.getBundle(
+                    "activity-server-jee.Messages").getString("ACTIVITY-SERVER-JEE-5"));
+        }
+        
+        return (new java.io.File(dataDir, OUTBOX_DIRECTORY));
+    }
+    
+    /**
+     * This method returns the notification stage, creating it if
+     * necessary, or null if the notifiers are invoked within the
+     * store transaction.
+     * 
+     * @return The notification stage, or null if transactional
+     * @throws Exception Failed to create the notification stage
+     */
+    protected ActivityNotificationStage getNotificationStage() throws Exception {
+        ActivityNotificationStage ret=_notificationStage;
+        
+        if (ret == null && !NOTIFICATION_MODE_TRANSACTIONAL.equalsIgnoreCase(_notificationMode)) {
+            synchronized (this) {
+                ret = _notificationStage;
+                
+                if (ret == null) {
+                    if (NOTIFICATION_MODE_OUTBOX.equalsIgnoreCase(_notificationMode)) {
+                        java.io.File dir=getOutbox();
+                        
+                        ret = new ActivityNotificationStage(_notifiers,
+                                new ActivityUnitJournal(dir, _outboxSegmentSize),
+                                new ActivityUnitJournal(new java.io.File(dir, DEAD_LETTER_DIRECTORY),
+                                            _outboxSegmentSize),
+                                _outboxRetryInterval, _outboxMaxRetries);
+                        
+                    } else if (NOTIFICATION_MODE_ASYNC.equalsIgnoreCase(_notificationMode)) {
+                        ret = new ActivityNotificationStage(_notifiers, _notifierThreads, _notifierQueueSize);
+                        
+                    } else {
+                        throw new IllegalArgumentException("Unknown notification mode: "+_notificationMode);
+                    }
+                    
+                    _notificationStage = ret;
+                }
+            }
+        }
+        
+        return (ret);
+    }
+    
     /**
      * This method sets the user transaction.
      * 
@@ -170,6 +508,25 @@ public class JEEActivityServer implements ActivityServer {
         return (_tx);
     }
     
+    /**
+     * This method sets the transaction synchronization registry, used
+     * to defer notification until a caller's transaction has committed.
+     * 
+     * @param txSync The transaction synchronization registry
+     */
+    public void setTransactionSynchronizationRegistry(TransactionSynchronizationRegistry txSync) {
+        _txSync = txSync;
+    }
+    
+    /**
+     * This method gets the transaction synchronization registry.
+     * 
+     * @return The transaction synchronization registry
+     */
+    public TransactionSynchronizationRegistry getTransactionSynchronizationRegistry() {
+        return (_txSync);
+    }
+    
     /**
      * This method starts the transaction.
      * 
@@ -250,6 +607,10 @@ public class JEEActivityServer implements ActivityServer {
             throw new Exception("Activity Store is unavailable");
         }
         
+        ActivityNotificationStage stage=getNotificationStage();
+        
+        long start=System.nanoTime();
+        
         boolean f_txnStarted=startTxn();
 
         try {
@@ -261,21 +622,83 @@ public class JEEActivityServer implements ActivityServer {
             // Store the activities
             actStore.store(activities);
              
-            // Inform registered notifiers
-            for (int i=0; i < _notifiers.size(); i++) {
-                _notifiers.get(i).notify(activities);
+            // Inform registered notifiers within the transaction
+            if (stage == null) {
+                long notifyStart=System.nanoTime();
+                
+                try {
+                    for (int i=0; i < _notifiers.size(); i++) {
+                        _notifiers.get(i).notify(activities);
+                    }
+                } catch (Exception e) {
+                    _notificationMetrics.recordFailure();
+                    throw e;
+                }
+                
+                _notificationMetrics.record(System.nanoTime()-notifyStart);
             }
             
             if (f_txnStarted) {
                 commitTxn();
             }
         } catch (Exception e) {
+            _storeMetrics.recordFailure();
+            
             if (f_txnStarted) {
                 rollbackTxn();
             }            
             
             throw e;
         }
+        
+        _storeMetrics.record(System.nanoTime()-start);
+        
+        // Hand the committed activities to the notification stage
+        if (stage != null) {
+            submit(stage, activities);
+        }
+    }
+    
+    /**
+     * This method hands the supplied activity units to the notification stage.
+     * If they have been stored within a transaction started by the caller, they
+     * are only handed over once that transaction has committed.
+     * 
+     * @param stage The notification stage
+     * @param activities The activity units
+     * @throws Exception Failed to submit the activity units
+     */
+    protected void submit(final ActivityNotificationStage stage,
+                    java.util.List<ActivityUnit> activities) throws Exception {
+        if (_txSync == null || _txSync.getTransactionStatus() != Status.STATUS_ACTIVE) {
+            stage.submit(activities);
+            return;
+        }
+        
+        // Copy the list, as the caller may reuse it before the transaction completes
+        final java.util.List<ActivityUnit> units=new java.util.ArrayList<ActivityUnit>(activities);
+        
+        _txSync.registerInterposedSynchronization(new Synchronization() {
+            public void beforeCompletion() {
+            }
+            
+            public void afterCompletion(int status) {
+                if (status != Status.STATUS_COMMITTED) {
+                    if (LOG.isLoggable(Level.FINE)) {
+                        LOG.fine("Transaction not committed ("+status+"), discarding notification of "
+                                    +units.size()+" activity units");
+                    }
+                    return;
+                }
+                
+                try {
+                    stage.submit(units);
+                } catch (Exception e) {
+                    LOG.log(Level.SEVERE, java.util.PropertyResourceBundle.getBundle(
+                            "activity-server-jee.Messages").getString("ACTIVITY-SERVER-JEE-7"), e);
+                }
+            }
+        });
     }
     
     /**
@@ -302,7 +725,7 @@ public class JEEActivityServer implements ActivityServer {
      * @return The globally unique id
      */
     protected String createUniqueId() {
-        return (UUID.randomUUID().toString());
+        return (IdGeneratorUtil.createId());
     }
     
     /**
@@ -430,5 +853,118 @@ public class JEEActivityServer implements ActivityServer {
         
         return (ret);
     }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The query is not performed within a transaction, as the cursor
+     * is consumed after this method returns.
+     */
+    public ActivityTypeCursor getActivityTypeCursor(Context context, long from, long to,
+                        int fetchSize, int limit) throws Exception {
+        
+        ActivityStore actStore=retrieveActivityStore();
+        
+        if (actStore == null) {
+            throw new Exception("Activity Store is unavailable");
+        }
+        
+        return (actStore.getActivityTypeCursor(context, from, to, fetchSize, limit));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getStoreCount() {
+        return (_storeMetrics.getCount());
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getStoreFailures() {
+        return (_storeMetrics.getFailures());
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public double getStoreAverageLatency() {
+        return (_storeMetrics.getAverageLatency());
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getStoreMaxLatency() {
+        return (_storeMetrics.getMaxLatency());
+    }
+
+    /**
+     * This method returns the metrics associated with notifying
+     * the activity notifiers.
+     * 
+     * @return The notification metrics
+     */
+    protected StageMetrics getNotificationMetrics() {
+        ActivityNotificationStage stage=_notificationStage;
+        
+        return (stage == null ? _notificationMetrics : stage.getMetrics());
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getNotificationCount() {
+        return (getNotificationMetrics().getCount());
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getNotificationFailures() {
+        return (getNotificationMetrics().getFailures());
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public double getNotificationAverageLatency() {
+        return (getNotificationMetrics().getAverageLatency());
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getNotificationMaxLatency() {
+        return (getNotificationMetrics().getMaxLatency());
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getPendingNotifications() {
+        ActivityNotificationStage stage=_notificationStage;
+        
+        return (stage == null ? 0 : stage.getPending());
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getNotificationLag() {
+        ActivityNotificationStage stage=_notificationStage;
+        
+        return (stage == null ? 0 : stage.getLag());
+    }
+    
+    /**
+     * {@inheritDoc}
+     */
+    public long getDeadLetterNotifications() {
+        ActivityNotificationStage stage=_notificationStage;
+        
+        return (stage == null ? 0 : stage.getDeadLetters());
+    }
     
 }
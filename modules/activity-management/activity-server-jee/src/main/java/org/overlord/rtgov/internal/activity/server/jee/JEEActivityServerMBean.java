@@ -0,0 +1,120 @@
+/*
+ * 2014 Red Hat Inc. and/or its affiliates and other contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.overlord.rtgov.internal.activity.server.jee;
+
+/**
+ * This interface defines the management attributes for the
+ * JEE activity server.
+ *
+ */
+public interface JEEActivityServerMBean {
+
+    /**
+     * This method returns the notification mode.
+     *
+     * @return The notification mode
+     */
+    public String getNotificationMode();
+
+    /**
+     * This method returns the number of activity unit lists
+     * successfully stored.
+     *
+     * @return The store count
+     */
+    public long getStoreCount();
+
+    /**
+     * This method returns the number of activity unit lists
+     * that failed to be stored.
+     *
+     * @return The store failures
+     */
+    public long getStoreFailures();
+
+    /**
+     * This method returns the average time, in milliseconds, taken
+     * to store (and commit) an activity unit list.
+     *
+     * @return The average store latency
+     */
+    public double getStoreAverageLatency();
+
+    /**
+     * This method returns the maximum time, in milliseconds, taken
+     * to store (and commit) an activity unit list.
+     *
+     * @return The maximum store latency
+     */
+    public long getStoreMaxLatency();
+
+    /**
+     * This method returns the number of activity unit lists
+     * successfully notified.
+     *
+     * @return The notification count
+     */
+    public long getNotificationCount();
+
+    /**
+     * This method returns the number of activity unit lists
+     * that failed to be notified.
+     *
+     * @return The notification failures
+     */
+    public long getNotificationFailures();
+
+    /**
+     * This method returns the average time, in milliseconds, taken
+     * to notify an activity unit list.
+     *
+     * @return The average notification latency
+     */
+    public double getNotificationAverageLatency();
+
+    /**
+     * This method returns the maximum time, in milliseconds, taken
+     * to notify an activity unit list.
+     *
+     * @return The maximum notification latency
+     */
+    public long getNotificationMaxLatency();
+
+    /**
+     * This method returns the number of activity unit lists awaiting
+     * notification.
+     *
+     * @return The pending notifications
+     */
+    public long getPendingNotifications();
+
+    /**
+     * This method returns the age, in milliseconds, of the oldest
+     * activity unit list awaiting notification.
+     *
+     * @return The notification lag
+     */
+    public long getNotificationLag();
+
+    /**
+     * This method returns the number of activity unit lists that could
+     * not be notified, and have been moved to the dead letter journal.
+     *
+     * @return The dead letter notifications
+     */
+    public long getDeadLetterNotifications();
+
+}
@@ -0,0 +1,162 @@
+/*
+ * 2012-3 Red Hat Inc. and/or its affiliates and other contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,  
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.overlord.rtgov.internal.activity.server.jee;
+
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import javax.ejb.ActivationConfigProperty;
+import javax.ejb.MessageDriven;
+import javax.ejb.MessageDrivenContext;
+import javax.ejb.TransactionAttribute;
+import javax.ejb.TransactionAttributeType;
+import javax.ejb.TransactionManagement;
+import javax.ejb.TransactionManagementType;
+import javax.jms.BytesMessage;
+import javax.jms.Message;
+import javax.jms.MessageListener;
+import javax.jms.ObjectMessage;
+
+import org.overlord.commons.services.ServiceRegistryUtil;
+import org.overlord.rtgov.activity.model.ActivityUnit;
+import org.overlord.rtgov.activity.server.ActivityServer;
+import org.overlord.rtgov.activity.util.ActivityUtil;
+
+/**
+ * This class is the JMS receiver for the batches of activity units sent by
+ * the JMS activity server client, storing them in the activity server.
+ * <p>
+ * Each message is received within a container managed transaction, which is
+ * rolled back if the activity units cannot be stored, so that the message
+ * will be redelivered.
+ * <p>
+ * The number of concurrent consumers is configured by the 'maxSession'
+ * activation config property, which the server deployment descriptor
+ * (jboss-ejb3.xml) sets from the 'rtgov.activityServer.maxSession'
+ * system property.
+ *
+ */
+@MessageDriven(name = "JMSActivityServerReceiver", messageListenerInterface = MessageListener.class,
+               activationConfig =
+                     {
+                        @ActivationConfigProperty(propertyName = "destinationType", propertyValue = "javax.jms.Queue"),
+                        @ActivationConfigProperty(propertyName = "destination", propertyValue = "ActivityMonitorServer")
+                     })
+@TransactionManagement(value= TransactionManagementType.CONTAINER)
+@TransactionAttribute(value= TransactionAttributeType.REQUIRED)
+public class JMSActivityServerReceiver implements MessageListener {
+
+    /**
+     * The message property containing the content type of the activity units
+     * held in a bytes message.
+     */
+    public static final String CONTENT_TYPE_PROPERTY = "contentType";
+
+    private static final Logger LOG=Logger.getLogger(JMSActivityServerReceiver.class.getName());
+
+    @Resource
+    private MessageDrivenContext _context;
+
+    private ActivityServer _activityServer;
+
+    /**
+     * The default constructor.
+     */
+    public JMSActivityServerReceiver() {
+    }
+
+    /**
+     * The initialize method.
+     */
+    @PostConstruct
+    public void init() {
+        _activityServer = ServiceRegistryUtil.getSingleService(ActivityServer.class);
+
+        if (LOG.isLoggable(Level.FINE)) {
+            LOG.fine("Initialize JMS Activity Server Receiver with Activity Server="+_activityServer);
+        }
+    }
+
+    /**
+     * This method sets the activity server.
+     *
+     * @param as The activity server
+     */
+    public void setActivityServer(ActivityServer as) {
+        _activityServer = as;
+    }
+
+    /**
+     * This method gets the activity server.
+     *
+     * @return The activity server
+     */
+    public ActivityServer getActivityServer() {
+        return (_activityServer);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void onMessage(Message message) {
+        try {
+            List<ActivityUnit> activities=getActivityUnits(message);
+
+            if (LOG.isLoggable(Level.FINEST)) {
+                LOG.finest("Store "+activities.size()+" activities: "+activities);
+            }
+
+            _activityServer.store(activities);
+
+        } catch (Exception e) {
+            LOG.log(Level.SEVERE, java.util.PropertyResourceBundle.getBundle(
+                    "activity-server-jee.Messages").getString("ACTIVITY-SERVER-JEE-4"), e);
+
+            if (_context != null) {
+                _context.setRollbackOnly();
+            }
+        }
+    }
+
+    /**
+     * This method extracts the list of activity units from the supplied message.
+     * Bytes messages are decoded based on their 'contentType' property, or if
+     * not defined, the encoding identified from the message body, and object
+     * messages are expected to contain a Java serialized list.
+     *
+     * @param mesg The message
+     * @return The list of activity units
+     * @throws Exception Failed to extract the activity units
+     */
+    @SuppressWarnings("unchecked")
+    protected static List<ActivityUnit> getActivityUnits(Message mesg) throws Exception {
+        if (mesg instanceof BytesMessage) {
+            BytesMessage bm=(BytesMessage)mesg;
+
+            byte[] b=new byte[(int)bm.getBodyLength()];
+
+            bm.readBytes(b);
+
+            return (ActivityUtil.deserializeActivityUnitList(b,
+                    bm.getStringProperty(CONTENT_TYPE_PROPERTY)));
+        }
+
+        return ((List<ActivityUnit>)((ObjectMessage)mesg).getObject());
+    }
+}
@@ -19,6 +19,10 @@ import static org.junit.Assert.*;
 
 import java.util.List;
 
+import javax.transaction.Status;
+import javax.transaction.Synchronization;
+import javax.transaction.TransactionSynchronizationRegistry;
+
 import org.junit.Test;
 import org.overlord.rtgov.activity.model.ActivityType;
 import org.overlord.rtgov.activity.model.ActivityUnit;
@@ -31,6 +35,8 @@ import org.overlord.rtgov.activity.model.soa.ResponseReceived;
 import org.overlord.rtgov.activity.model.soa.ResponseSent;
 import org.overlord.rtgov.activity.server.ActivityNotifier;
 import org.overlord.rtgov.activity.server.ActivityStore;
+import org.overlord.rtgov.activity.server.ActivityTypeCursor;
+import org.overlord.rtgov.activity.server.ActivityTypeListCursor;
 import org.overlord.rtgov.activity.server.QuerySpec;
 import org.overlord.rtgov.internal.activity.server.jee.JEEActivityServer;
 
@@ -199,6 +205,315 @@ public class JEEActivityServerTest {
         }
     }
     
+    @Test
+    public void testStoreAndNotifyAsync() {
+        JEEActivityServer as=new JEEActivityServer();
+        as.setNotificationMode(JEEActivityServer.NOTIFICATION_MODE_ASYNC);
+        
+        TestStore store=new TestStore();
+        TestNotifier notifier1=new TestNotifier();
+        
+        as.setActivityStore(store);
+        as.getActivityNotifiers().add(notifier1);
+        
+        java.util.List<ActivityUnit> list1=new java.util.Vector<ActivityUnit>();
+        list1.add(new ActivityUnit());
+        list1.add(new ActivityUnit());
+        
+        try {
+            as.store(list1);
+            
+            if (store.getActivityEvents().size() != list1.size()) {
+                fail("Store does not have correct number of events");
+            }
+            
+            waitForEvents(notifier1, list1.size());
+            
+            if (notifier1.getActivityEvents().size() != list1.size()) {
+                fail("Notifier 1 does not have correct number of events");
+            }
+            
+            if (as.getStoreCount() != 1) {
+                fail("Store count should be 1: "+as.getStoreCount());
+            }
+            
+            if (as.getNotificationCount() != 1) {
+                fail("Notification count should be 1: "+as.getNotificationCount());
+            }
+        } catch(Exception e) {
+            e.printStackTrace();
+            fail("Failed to store: "+e);
+        } finally {
+            as.close();
+        }
+    }
+    
+    @Test
+    public void testStoreAndNotifyAsyncListReused() {
+        JEEActivityServer as=new JEEActivityServer();
+        as.setNotificationMode(JEEActivityServer.NOTIFICATION_MODE_ASYNC);
+        
+        TestStore store=new TestStore();
+        TestNotifier notifier1=new TestNotifier();
+        notifier1.block();
+        
+        as.setActivityStore(store);
+        as.getActivityNotifiers().add(notifier1);
+        
+        ActivityUnit au1=new ActivityUnit();
+        ActivityUnit au2=new ActivityUnit();
+        ActivityUnit au3=new ActivityUnit();
+        
+        java.util.List<ActivityUnit> list1=new java.util.ArrayList<ActivityUnit>();
+        list1.add(au1);
+        list1.add(au2);
+        
+        try {
+            as.store(list1);
+            
+            // Reuse the list, as the activity server logger does, before the notifier runs
+            list1.clear();
+            list1.add(au3);
+            
+            notifier1.release();
+            
+            waitForEvents(notifier1, 2);
+            
+            if (notifier1.getActivityEvents().size() != 2) {
+                fail("Notifier 1 should have 2 events: "+notifier1.getActivityEvents().size());
+            }
+            
+            if (notifier1.getActivityEvents().get(0) != au1 || notifier1.getActivityEvents().get(1) != au2) {
+                fail("Notifier 1 should have been notified of the stored activity units");
+            }
+        } catch(Exception e) {
+            e.printStackTrace();
+            fail("Failed to store: "+e);
+        } finally {
+            notifier1.release();
+            as.close();
+        }
+    }
+    
+    @Test
+    public void testStoreAndNotifyAsyncAfterCommit() {
+        JEEActivityServer as=new JEEActivityServer();
+        as.setNotificationMode(JEEActivityServer.NOTIFICATION_MODE_ASYNC);
+        
+        TestStore store=new TestStore();
+        TestNotifier notifier1=new TestNotifier();
+        TestSynchronizationRegistry txSync=new TestSynchronizationRegistry();
+        
+        as.setActivityStore(store);
+        as.setTransactionSynchronizationRegistry(txSync);
+        as.getActivityNotifiers().add(notifier1);
+        
+        java.util.List<ActivityUnit> list1=new java.util.ArrayList<ActivityUnit>();
+        list1.add(new ActivityUnit());
+        
+        java.util.List<ActivityUnit> list2=new java.util.ArrayList<ActivityUnit>();
+        list2.add(new ActivityUnit());
+        list2.add(new ActivityUnit());
+        
+        try {
+            // Caller's transaction rolls back
+            as.store(list1);
+            
+            if (txSync.getSynchronizations().size() != 1) {
+                fail("Expecting notification to be deferred: "+txSync.getSynchronizations().size());
+            }
+            
+            txSync.complete(Status.STATUS_ROLLEDBACK);
+            
+            // Caller's transaction commits
+            as.store(list2);
+            
+            list2.clear();
+            
+            Thread.sleep(200);
+            
+            if (notifier1.getActivityEvents().size() != 0) {
+                fail("Notifier 1 should not be notified before commit: "+notifier1.getActivityEvents().size());
+            }
+            
+            txSync.complete(Status.STATUS_COMMITTED);
+            
+            waitForEvents(notifier1, 2);
+            
+            if (notifier1.getActivityEvents().size() != 2) {
+                fail("Notifier 1 should only have committed events: "+notifier1.getActivityEvents().size());
+            }
+        } catch(Exception e) {
+            e.printStackTrace();
+            fail("Failed to store: "+e);
+        } finally {
+            as.close();
+        }
+    }
+    
+    @Test
+    public void testStoreAndNotifyOutboxRetry() {
+        java.io.File dir=new java.io.File(System.getProperty("java.io.tmpdir"),
+                            "rtgov-outbox-test-"+System.currentTimeMillis());
+        
+        JEEActivityServer as=new JEEActivityServer();
+        as.setNotificationMode(JEEActivityServer.NOTIFICATION_MODE_OUTBOX);
+        as.setOutboxDirectory(dir.getAbsolutePath());
+        as.setOutboxRetryInterval(50);
+        
+        TestStore store=new TestStore();
+        TestNotifier notifier1=new TestNotifier();
+        
+        as.setActivityStore(store);
+        as.getActivityNotifiers().add(notifier1);
+        
+        java.util.List<ActivityUnit> list1=new java.util.Vector<ActivityUnit>();
+        list1.add(new ActivityUnit());
+        list1.add(new ActivityUnit());
+        
+        try {
+            notifier1.fault();
+            
+            as.store(list1);
+            
+            if (store.getActivityEvents().size() != list1.size()) {
+                fail("Store does not have correct number of events");
+            }
+            
+            Thread.sleep(200);
+            
+            if (notifier1.getActivityEvents().size() != 0) {
+                fail("Notifier 1 should not have any events");
+            }
+            
+            if (as.getPendingNotifications() != 1) {
+                fail("Should be 1 pending notification: "+as.getPendingNotifications());
+            }
+            
+            notifier1.recover();
+            
+            waitForEvents(notifier1, list1.size());
+            
+            if (notifier1.getActivityEvents().size() != list1.size()) {
+                fail("Notifier 1 does not have correct number of events");
+            }
+            
+            if (as.getNotificationFailures() == 0) {
+                fail("Notification failures should have been recorded");
+            }
+        } catch(Exception e) {
+            e.printStackTrace();
+            fail("Failed to store: "+e);
+        } finally {
+            as.close();
+            
+            java.io.File[] files=dir.listFiles();
+            if (files != null) {
+                for (java.io.File f : files) {
+                    f.delete();
+                }
+            }
+            dir.delete();
+        }
+    }
+    
+    @Test
+    public void testStoreAndNotifyOutboxDeadLetter() {
+        java.io.File dir=new java.io.File(System.getProperty("java.io.tmpdir"),
+                            "rtgov-outbox-test-"+System.currentTimeMillis());
+        
+        JEEActivityServer as=new JEEActivityServer();
+        as.setNotificationMode(JEEActivityServer.NOTIFICATION_MODE_OUTBOX);
+        as.setOutboxDirectory(dir.getAbsolutePath());
+        as.setOutboxRetryInterval(10);
+        as.setOutboxMaxRetries(3);
+        
+        TestStore store=new TestStore();
+        TestNotifier notifier1=new TestNotifier();
+        
+        as.setActivityStore(store);
+        as.getActivityNotifiers().add(notifier1);
+        
+        java.util.List<ActivityUnit> list1=new java.util.Vector<ActivityUnit>();
+        list1.add(new ActivityUnit());
+        
+        try {
+            notifier1.fault();
+            
+            as.store(list1);
+            
+            for (int i=0; i < 100 && as.getDeadLetterNotifications() == 0; i++) {
+                Thread.sleep(50);
+            }
+            
+            if (as.getDeadLetterNotifications() != 1) {
+                fail("Should be 1 dead letter notification: "+as.getDeadLetterNotifications());
+            }
+            
+            if (as.getPendingNotifications() != 0) {
+                fail("Should be no pending notifications: "+as.getPendingNotifications());
+            }
+            
+            // Later activity units should not be blocked by the failed record
+            notifier1.recover();
+            
+            java.util.List<ActivityUnit> list2=new java.util.Vector<ActivityUnit>();
+            list2.add(new ActivityUnit());
+            list2.add(new ActivityUnit());
+            
+            as.store(list2);
+            
+            waitForEvents(notifier1, list2.size());
+            
+            if (notifier1.getActivityEvents().size() != list2.size()) {
+                fail("Notifier 1 does not have correct number of events: "
+                            +notifier1.getActivityEvents().size());
+            }
+        } catch(Exception e) {
+            e.printStackTrace();
+            fail("Failed to store: "+e);
+        } finally {
+            as.close();
+            
+            delete(dir);
+        }
+    }
+    
+    @Test
+    public void testOutboxDirectoryRequired() {
+        if (System.getProperty("jboss.server.data.dir") != null) {
+            return;
+        }
+        
+        JEEActivityServer as=new JEEActivityServer();
+        as.setNotificationMode(JEEActivityServer.NOTIFICATION_MODE_OUTBOX);
+        as.setOutboxDirectory(null);
+        
+        try {
+            as.getOutbox();
+            
+            fail("Outbox directory should be required when the server data directory is not known");
+        } catch (IllegalStateException ise) {
+            // Expected
+        }
+    }
+    
+    protected void delete(java.io.File file) {
+        java.io.File[] files=file.listFiles();
+        if (files != null) {
+            for (java.io.File f : files) {
+                delete(f);
+            }
+        }
+        file.delete();
+    }
+    
+    protected void waitForEvents(TestNotifier notifier, int size) throws Exception {
+        for (int i=0; i < 100 && notifier.getActivityEvents().size() < size; i++) {
+            Thread.sleep(50);
+        }
+    }
+    
     @Test
     public void testProcessActivityIdAssignedIfMissing() {
         JEEActivityServer as=new JEEActivityServer();
@@ -358,6 +673,11 @@ public class JEEActivityServerTest {
             return null;
         }
 
+        public ActivityTypeCursor getActivityTypeCursor(Context context, long from,
+                long to, int fetchSize, int limit) throws Exception {
+            return (new ActivityTypeListCursor(getActivityTypes(context, from, to), limit));
+        }
+
         public List<ActivityType> query(QuerySpec query) throws Exception {
             // TODO Auto-generated method stub
             return null;
@@ -368,10 +688,64 @@ public class JEEActivityServerTest {
         }
     }
 
+    public class TestSynchronizationRegistry implements TransactionSynchronizationRegistry {
+        
+        private List<Synchronization> _syncs=new java.util.Vector<Synchronization>();
+        
+        public List<Synchronization> getSynchronizations() {
+            return (_syncs);
+        }
+        
+        public void complete(int status) {
+            for (int i=0; i < _syncs.size(); i++) {
+                _syncs.get(i).beforeCompletion();
+                _syncs.get(i).afterCompletion(status);
+            }
+            _syncs.clear();
+        }
+        
+        public Object getTransactionKey() {
+            return (this);
+        }
+
+        public void putResource(Object key, Object value) {
+        }
+
+        public Object getResource(Object key) {
+            return null;
+        }
+
+        public void registerInterposedSynchronization(Synchronization sync) {
+            _syncs.add(sync);
+        }
+
+        public int getTransactionStatus() {
+            return (Status.STATUS_ACTIVE);
+        }
+
+        public void setRollbackOnly() {
+        }
+
+        public boolean getRollbackOnly() {
+            return false;
+        }
+    }
+    
     public class TestNotifier implements ActivityNotifier {
 
         private List<ActivityUnit> _store=new java.util.Vector<ActivityUnit>();
         private boolean _fault=false;
+        private java.util.concurrent.CountDownLatch _latch=null;
+        
+        public void block() {
+            _latch = new java.util.concurrent.CountDownLatch(1);
+        }
+        
+        public void release() {
+            if (_latch != null) {
+                _latch.countDown();
+            }
+        }
         
         public List<ActivityUnit> getActivityEvents() {
             return (_store);
@@ -381,7 +755,14 @@ public class JEEActivityServerTest {
             _fault = true;
         }
         
+        public void recover() {
+            _fault = false;
+        }
+        
         public void notify(List<ActivityUnit> activities) throws Exception {
+            if (_latch != null) {
+                _latch.await();
+            }
             if (_fault) {
                 throw new Exception("Fault in notifier");
             }
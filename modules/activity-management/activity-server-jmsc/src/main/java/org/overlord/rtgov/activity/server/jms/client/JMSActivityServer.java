@@ -16,6 +16,8 @@
 package org.overlord.rtgov.activity.server.jms.client;
 
 import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -23,8 +25,9 @@ import javax.annotation.PostConstruct;
 import javax.annotation.PreDestroy;
 import javax.jms.Connection;
 import javax.jms.ConnectionFactory;
+import javax.jms.Destination;
+import javax.jms.Message;
 import javax.jms.MessageProducer;
-import javax.jms.Queue;
 import javax.jms.Session;
 
 import org.hornetq.api.core.TransportConfiguration;
@@ -35,56 +38,443 @@ import org.overlord.rtgov.activity.model.ActivityType;
 import org.overlord.rtgov.activity.model.ActivityUnit;
 import org.overlord.rtgov.activity.model.Context;
 import org.overlord.rtgov.activity.server.ActivityServer;
+import org.overlord.rtgov.activity.server.ActivityTypeCursor;
 import org.overlord.rtgov.activity.server.QuerySpec;
+import org.overlord.rtgov.activity.util.ActivityUtil;
+import org.overlord.rtgov.common.util.RTGovProperties;
 
 /**
  * This class provides the JMS client implementation of the activity server.
+ * <p>
+ * Activity units passed to the store operation are accumulated into a batch,
+ * which is sent as a single message when it reaches the maximum batch size,
+ * or when the maximum batch interval has elapsed. Messages are sent using
+ * a pool of sessions and producers, as JMS sessions must not be used
+ * concurrently.
+ * <p>
+ * A full batch is sent by the store operation that filled it, so a failure
+ * is reported to that caller. If a batch cannot be sent, the activity units
+ * passed to previous store operations are retained and sent with the next
+ * batch. Batches that exceed the maximum batch size, as a result of retained
+ * activity units, are sent as multiple messages.
  *
  */
 public class JMSActivityServer implements ActivityServer {
 
-    private static final String ACTIVITY_MONITOR_SERVER = "ActivityMonitorServer";
+    /**
+     * The name of the queue used to send activity units to the activity server.
+     */
+    public static final String ACTIVITY_MONITOR_SERVER = "ActivityMonitorServer";
+
+    /**
+     * The message property containing the content type of the activity units
+     * held in a bytes message.
+     */
+    public static final String CONTENT_TYPE_PROPERTY = "contentType";
+
+    /**
+     * The content type used to indicate that the activity units should be
+     * sent as a Java serialized object message.
+     */
+    public static final String SERIALIZED_CONTENT_TYPE = "application/x-java-serialized-object";
 
     private static final Logger LOG=Logger.getLogger(JMSActivityServer.class.getName());
-    
+
+    private static final int DEFAULT_SESSION_POOL_SIZE=4;
+    private static final int DEFAULT_MAX_BATCH_SIZE=100;
+    private static final long DEFAULT_MAX_BATCH_INTERVAL=100;
+
+    private ConnectionFactory _connectionFactory;
+    private Destination _destination;
     private Connection _connection;
-    private Session _session;
-    private MessageProducer _producer;
-    
+    private BlockingQueue<Sender> _senders;
+    private String _contentType;
+
+    private int _sessionPoolSize=DEFAULT_SESSION_POOL_SIZE;
+    private int _maxBatchSize=DEFAULT_MAX_BATCH_SIZE;
+    private long _maxBatchInterval=DEFAULT_MAX_BATCH_INTERVAL;
+
+    private final Object _batchLock=new Object();
+    private java.util.List<ActivityUnit> _batch=new java.util.ArrayList<ActivityUnit>();
+    private long _batchStartTime=0;
+    private java.util.Timer _timer;
+
+    /**
+     * The default constructor.
+     */
+    public JMSActivityServer() {
+        _contentType = RTGovProperties.getProperty("JMSActivityServer.contentType",
+                                    ActivityUtil.BINARY_CONTENT_TYPE);
+        _sessionPoolSize = RTGovProperties.getPropertyAsInteger("JMSActivityServer.sessionPoolSize",
+                                    DEFAULT_SESSION_POOL_SIZE);
+        _maxBatchSize = RTGovProperties.getPropertyAsInteger("JMSActivityServer.maxBatchSize",
+                                    DEFAULT_MAX_BATCH_SIZE);
+        _maxBatchInterval = RTGovProperties.getPropertyAsLong("JMSActivityServer.maxBatchInterval",
+                                    DEFAULT_MAX_BATCH_INTERVAL);
+    }
+
+    /**
+     * This method sets the content type used to send activity units. The binary
+     * and JSON content types are sent as a bytes message, with the content type
+     * identified by the 'contentType' message property, and the serialized
+     * content type is sent as an object message.
+     *
+     * @param contentType The content type
+     */
+    public void setContentType(String contentType) {
+        _contentType = contentType;
+    }
+
+    /**
+     * This method gets the content type used to send activity units.
+     *
+     * @return The content type
+     */
+    public String getContentType() {
+        return (_contentType);
+    }
+
+    /**
+     * This method sets the number of sessions (and producers) that
+     * can concurrently send messages.
+     *
+     * @param size The session pool size
+     */
+    public void setSessionPoolSize(int size) {
+        _sessionPoolSize = size;
+    }
+
+    /**
+     * This method gets the number of sessions (and producers) that
+     * can concurrently send messages.
+     *
+     * @return The session pool size
+     */
+    public int getSessionPoolSize() {
+        return (_sessionPoolSize);
+    }
+
+    /**
+     * This method sets the maximum number of activity units that will
+     * be sent in a single message. A value of 1 or less means that each
+     * store operation will be sent immediately.
+     *
+     * @param size The maximum batch size
+     */
+    public void setMaxBatchSize(int size) {
+        _maxBatchSize = size;
+    }
+
+    /**
+     * This method gets the maximum number of activity units that will
+     * be sent in a single message.
+     *
+     * @return The maximum batch size
+     */
+    public int getMaxBatchSize() {
+        return (_maxBatchSize);
+    }
+
+    /**
+     * This method sets the maximum time (in milliseconds) that activity units
+     * will be held before being sent.
+     *
+     * @param interval The maximum batch interval
+     */
+    public void setMaxBatchInterval(long interval) {
+        _maxBatchInterval = interval;
+    }
+
+    /**
+     * This method gets the maximum time (in milliseconds) that activity units
+     * will be held before being sent.
+     *
+     * @return The maximum batch interval
+     */
+    public long getMaxBatchInterval() {
+        return (_maxBatchInterval);
+    }
+
+    /**
+     * This method sets the connection factory. If not set, a connection
+     * factory for the default HornetQ netty connector will be created.
+     *
+     * @param cf The connection factory
+     */
+    public void setConnectionFactory(ConnectionFactory cf) {
+        _connectionFactory = cf;
+    }
+
+    /**
+     * This method gets the connection factory.
+     *
+     * @return The connection factory
+     */
+    public ConnectionFactory getConnectionFactory() {
+        return (_connectionFactory);
+    }
+
+    /**
+     * This method sets the destination. If not set, the activity
+     * monitor server queue will be used.
+     *
+     * @param destination The destination
+     */
+    public void setDestination(Destination destination) {
+        _destination = destination;
+    }
+
+    /**
+     * This method gets the destination.
+     *
+     * @return The destination
+     */
+    public Destination getDestination() {
+        return (_destination);
+    }
+
     /**
      * This method initializes the JMS activity server client.
      */
     @PostConstruct
     public void init() {
-        
+
         try {
-            Queue queue = HornetQJMSClient.createQueue(ACTIVITY_MONITOR_SERVER);
+            if (_destination == null) {
+                _destination = HornetQJMSClient.createQueue(ACTIVITY_MONITOR_SERVER);
+            }
+
+            if (_connectionFactory == null) {
+                _connectionFactory = createConnectionFactory();
+            }
+
+            _connection = _connectionFactory.createConnection();
 
-            TransportConfiguration transportConfiguration = new TransportConfiguration(NettyConnectorFactory.class.getName());
+            int poolSize=Math.max(1, _sessionPoolSize);
 
-            ConnectionFactory cf = (ConnectionFactory) HornetQJMSClient.createConnectionFactoryWithoutHA(JMSFactoryType.CF, transportConfiguration);
+            _senders = new ArrayBlockingQueue<Sender>(poolSize);
 
-            _connection = cf.createConnection();
+            for (int i=0; i < poolSize; i++) {
+                Session session=_connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
 
-            _session = _connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
+                _senders.add(new Sender(session, session.createProducer(_destination)));
+            }
 
-            _producer = _session.createProducer(queue);
+            if (_maxBatchSize > 1 && _maxBatchInterval > 0) {
+                _timer = new java.util.Timer("JMSActivityServer", true);
+
+                _timer.scheduleAtFixedRate(new java.util.TimerTask() {
+                    public void run() {
+                        flushExpired();
+                    }
+                }, _maxBatchInterval, _maxBatchInterval);
+            }
         } catch (Exception e) {
             LOG.log(Level.SEVERE, java.util.PropertyResourceBundle.getBundle(
                     "activity-server-jmsc.Messages").getString("ACTIVITY-SERVER-JMSC-1"));
         }
     }
-    
+
+    /**
+     * This method creates a connection factory for the default HornetQ
+     * netty connector.
+     *
+     * @return The connection factory
+     */
+    public static ConnectionFactory createConnectionFactory() {
+        TransportConfiguration transportConfiguration = new TransportConfiguration(NettyConnectorFactory.class.getName());
+
+        return ((ConnectionFactory) HornetQJMSClient.createConnectionFactoryWithoutHA(JMSFactoryType.CF, transportConfiguration));
+    }
 
     /**
      * {@inheritDoc}
      */
     public void store(List<ActivityUnit> activities) throws Exception {
-        javax.jms.ObjectMessage mesg=_session.createObjectMessage();
-        
-        mesg.setObject((java.io.Serializable)activities);
-        
-        _producer.send(mesg);
+        if (_maxBatchSize <= 1) {
+            send(activities);
+            return;
+        }
+
+        java.util.List<ActivityUnit> full=null;
+
+        synchronized (_batchLock) {
+            if (_batch.size() == 0) {
+                _batchStartTime = System.currentTimeMillis();
+            }
+
+            _batch.addAll(activities);
+
+            if (_batch.size() >= _maxBatchSize) {
+                full = _batch;
+                _batch = new java.util.ArrayList<ActivityUnit>(_maxBatchSize);
+            }
+        }
+
+        if (full != null) {
+            // The caller is informed that its activity units were not sent,
+            // so only retain those accepted from previous store operations
+            sendBatch(full, full.size()-activities.size());
+        }
+    }
+
+    /**
+     * This method sends the supplied activity units as one or more messages,
+     * each containing no more than the maximum batch size. If a message cannot
+     * be sent, the unsent activity units, up to the supplied limit, are retained
+     * to be sent with the next batch.
+     *
+     * @param activities The activity units
+     * @param retainLimit The number of leading activity units that can be retained
+     * @throws Exception Failed to send the activity units
+     */
+    protected void sendBatch(List<ActivityUnit> activities, int retainLimit) throws Exception {
+        int sent=0;
+
+        try {
+            while (sent < activities.size()) {
+                int end=Math.min(activities.size(), sent+Math.max(1, _maxBatchSize));
+
+                if (sent == 0 && end == activities.size()) {
+                    send(activities);
+                } else {
+                    send(new java.util.ArrayList<ActivityUnit>(activities.subList(sent, end)));
+                }
+
+                sent = end;
+            }
+        } catch (Exception e) {
+            if (sent < retainLimit) {
+                retain(activities.subList(sent, retainLimit));
+            }
+
+            throw e;
+        }
+    }
+
+    /**
+     * This method returns activity units, that could not be sent, to the
+     * front of the current batch, so that they will be sent with it.
+     *
+     * @param activities The activity units
+     */
+    protected void retain(List<ActivityUnit> activities) {
+        if (activities.size() == 0) {
+            return;
+        }
+
+        synchronized (_batchLock) {
+            java.util.List<ActivityUnit> batch=new java.util.ArrayList<ActivityUnit>(
+                                Math.max(_maxBatchSize, activities.size()+_batch.size()));
+
+            batch.addAll(activities);
+            batch.addAll(_batch);
+
+            if (_batch.size() == 0) {
+                _batchStartTime = System.currentTimeMillis();
+            }
+
+            _batch = batch;
+        }
+    }
+
+    /**
+     * This method returns the number of activity units waiting to be sent.
+     *
+     * @return The number of pending activity units
+     */
+    public int getPendingActivityUnits() {
+        synchronized (_batchLock) {
+            return (_batch.size());
+        }
+    }
+
+    /**
+     * This method sends any pending activity units. If the send fails,
+     * the activity units are retained to be sent with the next batch.
+     *
+     * @throws Exception Failed to send the activity units
+     */
+    public void flush() throws Exception {
+        java.util.List<ActivityUnit> pending=null;
+
+        synchronized (_batchLock) {
+            if (_batch.size() > 0) {
+                pending = _batch;
+                _batch = new java.util.ArrayList<ActivityUnit>(_maxBatchSize);
+            }
+        }
+
+        if (pending != null) {
+            sendBatch(pending, pending.size());
+        }
+    }
+
+    /**
+     * This method sends the pending activity units if the maximum
+     * batch interval has elapsed. If the send fails, the activity
+     * units are retained to be sent with the next batch.
+     */
+    protected void flushExpired() {
+        java.util.List<ActivityUnit> pending=null;
+
+        synchronized (_batchLock) {
+            if (_batch.size() > 0 && System.currentTimeMillis()-_batchStartTime >= _maxBatchInterval) {
+                pending = _batch;
+                _batch = new java.util.ArrayList<ActivityUnit>(_maxBatchSize);
+            }
+        }
+
+        if (pending != null) {
+            try {
+                // Unsent activity units are retried with the next batch
+                sendBatch(pending, pending.size());
+            } catch (Exception e) {
+                LOG.log(Level.SEVERE, java.util.PropertyResourceBundle.getBundle(
+                        "activity-server-jmsc.Messages").getString("ACTIVITY-SERVER-JMSC-3"), e);
+            }
+        }
+    }
+
+    /**
+     * This method sends the supplied activity units as a single message,
+     * using a session obtained from the pool.
+     *
+     * @param activities The activity units
+     * @throws Exception Failed to send the activity units
+     */
+    protected void send(List<ActivityUnit> activities) throws Exception {
+        Sender sender=_senders.take();
+
+        try {
+            sender.getProducer().send(createMessage(sender.getSession(), activities));
+        } finally {
+            _senders.put(sender);
+        }
+    }
+
+    /**
+     * This method creates the message containing the supplied activity units.
+     *
+     * @param session The session
+     * @param activities The activity units
+     * @return The message
+     * @throws Exception Failed to create the message
+     */
+    protected Message createMessage(Session session, List<ActivityUnit> activities) throws Exception {
+        if (SERIALIZED_CONTENT_TYPE.equals(_contentType)) {
+            return (session.createObjectMessage((java.io.Serializable)activities));
+        }
+
+        String contentType=(ActivityUtil.isBinaryContentType(_contentType)
+                    ? ActivityUtil.BINARY_CONTENT_TYPE : ActivityUtil.JSON_CONTENT_TYPE);
+
+        javax.jms.BytesMessage ret=session.createBytesMessage();
+
+        ret.setStringProperty(CONTENT_TYPE_PROPERTY, contentType);
+        ret.writeBytes(ActivityUtil.serializeActivityUnitList(activities, contentType));
+
+        return (ret);
     }
 
     /**
@@ -100,7 +490,7 @@ public class JMSActivityServer implements ActivityServer {
     public List<ActivityType> getActivityTypes(Context context) throws Exception {
         throw new java.lang.UnsupportedOperationException();
     }
-    
+
     /**
      * {@inheritDoc}
      */
@@ -108,7 +498,15 @@ public class JMSActivityServer implements ActivityServer {
                             long from, long to) throws Exception {
         throw new java.lang.UnsupportedOperationException();
     }
-    
+
+    /**
+     * {@inheritDoc}
+     */
+    public ActivityTypeCursor getActivityTypeCursor(Context context, long from, long to,
+                            int fetchSize, int limit) throws Exception {
+        throw new java.lang.UnsupportedOperationException();
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -117,12 +515,29 @@ public class JMSActivityServer implements ActivityServer {
     }
 
     /**
-     * This method closes the JMS activity logger.
+     * This method closes the JMS activity logger, sending any
+     * pending activity units.
      */
     @PreDestroy
     public void close() {
+        if (_timer != null) {
+            _timer.cancel();
+            _timer = null;
+        }
+
+        try {
+            flush();
+        } catch (Exception e) {
+            LOG.log(Level.SEVERE, java.util.PropertyResourceBundle.getBundle(
+                    "activity-server-jmsc.Messages").getString("ACTIVITY-SERVER-JMSC-3"), e);
+        }
+
         try {
-            _session.close();
+            if (_senders != null) {
+                for (Sender sender : _senders) {
+                    sender.getSession().close();
+                }
+            }
             _connection.close();
         } catch (Exception e) {
             LOG.log(Level.SEVERE, java.util.PropertyResourceBundle.getBundle(
@@ -130,4 +545,42 @@ public class JMSActivityServer implements ActivityServer {
         }
     }
 
+    /**
+     * This class holds a session and the producer created from it.
+     *
+     */
+    protected static class Sender {
+
+        private Session _session;
+        private MessageProducer _producer;
+
+        /**
+         * This is the constructor.
+         *
+         * @param session The session
+         * @param producer The producer
+         */
+        public Sender(Session session, MessageProducer producer) {
+            _session = session;
+            _producer = producer;
+        }
+
+        /**
+         * This method returns the session.
+         *
+         * @return The session
+         */
+        public Session getSession() {
+            return (_session);
+        }
+
+        /**
+         * This method returns the producer.
+         *
+         * @return The producer
+         */
+        public MessageProducer getProducer() {
+            return (_producer);
+        }
+    }
 }
@@ -0,0 +1,362 @@
+/*
+ * 2012-3 Red Hat Inc. and/or its affiliates and other contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,  
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.overlord.rtgov.activity.server.jms.client;
+
+import static org.junit.Assert.*;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.List;
+
+import javax.jms.BytesMessage;
+import javax.jms.Connection;
+import javax.jms.ConnectionFactory;
+import javax.jms.Destination;
+import javax.jms.MessageProducer;
+import javax.jms.Session;
+
+import org.junit.Test;
+import org.overlord.rtgov.activity.model.ActivityUnit;
+import org.overlord.rtgov.activity.util.ActivityUtil;
+
+public class JMSActivityServerTest {
+
+    @Test
+    public void testBatchSentWhenFull() throws Exception {
+        TestJMSProvider provider=new TestJMSProvider();
+
+        JMSActivityServer server=createServer(provider, 3, 0);
+
+        try {
+            server.store(units("1"));
+            server.store(units("2"));
+
+            if (provider.getSent().size() != 0) {
+                fail("Should not have sent partial batch: "+provider.getSent().size());
+            }
+
+            server.store(units("3"));
+
+            if (provider.getSent().size() != 1) {
+                fail("Expecting 1 message: "+provider.getSent().size());
+            }
+
+            checkIds(provider.getSent().get(0), "1", "2", "3");
+
+            if (server.getPendingActivityUnits() != 0) {
+                fail("Should be no pending activity units: "+server.getPendingActivityUnits());
+            }
+        } finally {
+            server.close();
+        }
+    }
+
+    @Test
+    public void testBatchSentWhenExpired() throws Exception {
+        TestJMSProvider provider=new TestJMSProvider();
+
+        JMSActivityServer server=createServer(provider, 100, 20);
+
+        try {
+            server.store(units("1"));
+
+            for (int i=0; i < 100 && provider.getSent().size() == 0; i++) {
+                Thread.sleep(20);
+            }
+
+            if (provider.getSent().size() != 1) {
+                fail("Expecting 1 message after batch interval: "+provider.getSent().size());
+            }
+
+            checkIds(provider.getSent().get(0), "1");
+        } finally {
+            server.close();
+        }
+    }
+
+    @Test
+    public void testExpiredBatchRetainedOnFailure() throws Exception {
+        TestJMSProvider provider=new TestJMSProvider();
+
+        JMSActivityServer server=createServer(provider, 100, 0);
+
+        try {
+            server.store(units("1"));
+
+            provider.setFail(true);
+
+            server.flushExpired();
+
+            if (server.getPendingActivityUnits() != 1) {
+                fail("Failed activity units should be retained: "+server.getPendingActivityUnits());
+            }
+
+            server.store(units("2"));
+
+            provider.setFail(false);
+
+            server.flushExpired();
+
+            if (provider.getSent().size() != 1) {
+                fail("Expecting 1 message: "+provider.getSent().size());
+            }
+
+            checkIds(provider.getSent().get(0), "1", "2");
+        } finally {
+            server.close();
+        }
+    }
+
+    @Test
+    public void testFullBatchFailureReported() throws Exception {
+        TestJMSProvider provider=new TestJMSProvider();
+
+        JMSActivityServer server=createServer(provider, 2, 0);
+
+        try {
+            server.store(units("1"));
+
+            provider.setFail(true);
+
+            try {
+                server.store(units("2"));
+
+                fail("Send failure should be reported to caller");
+            } catch (javax.jms.JMSException e) {
+                // Expected
+            }
+
+            provider.setFail(false);
+
+            server.flush();
+
+            if (provider.getSent().size() != 1) {
+                fail("Expecting 1 message: "+provider.getSent().size());
+            }
+
+            // Only the units from the earlier store should have been retained,
+            // as the caller was informed that its units were not sent
+            checkIds(provider.getSent().get(0), "1");
+        } finally {
+            server.close();
+        }
+    }
+
+    @Test
+    public void testRetainedBatchSplit() throws Exception {
+        TestJMSProvider provider=new TestJMSProvider();
+
+        JMSActivityServer server=createServer(provider, 3, 0);
+
+        try {
+            server.store(units("1", "2"));
+
+            provider.setFail(true);
+
+            try {
+                server.flush();
+
+                fail("Send failure should be reported");
+            } catch (javax.jms.JMSException e) {
+                // Expected
+            }
+
+            provider.setFail(false);
+
+            server.store(units("3", "4"));
+
+            // The retained units should not cause a message to exceed the maximum batch size
+            if (provider.getSent().size() != 2) {
+                fail("Expecting 2 messages: "+provider.getSent().size());
+            }
+
+            checkIds(provider.getSent().get(0), "1", "2", "3");
+            checkIds(provider.getSent().get(1), "4");
+
+            if (server.getPendingActivityUnits() != 0) {
+                fail("Should be no pending activity units: "+server.getPendingActivityUnits());
+            }
+        } finally {
+            server.close();
+        }
+    }
+
+    protected JMSActivityServer createServer(TestJMSProvider provider, int maxBatchSize,
+                        long maxBatchInterval) {
+        JMSActivityServer server=new JMSActivityServer();
+
+        server.setConnectionFactory(provider.getConnectionFactory());
+        server.setDestination(provider.stub(Destination.class, null));
+        server.setMaxBatchSize(maxBatchSize);
+        server.setMaxBatchInterval(maxBatchInterval);
+        server.setSessionPoolSize(2);
+
+        server.init();
+
+        return (server);
+    }
+
+    protected List<ActivityUnit> units(String... ids) {
+        List<ActivityUnit> ret=new java.util.ArrayList<ActivityUnit>();
+
+        for (String id : ids) {
+            ActivityUnit au=new ActivityUnit();
+            au.setId(id);
+            ret.add(au);
+        }
+
+        return (ret);
+    }
+
+    protected void checkIds(TestMessage mesg, String... ids) throws Exception {
+        List<ActivityUnit> aus=ActivityUtil.deserializeActivityUnitList(mesg.getBody(),
+                            mesg.getContentType());
+
+        if (aus.size() != ids.length) {
+            fail("Expecting "+ids.length+" activity units: "+aus.size());
+        }
+
+        for (int i=0; i < ids.length; i++) {
+            if (!ids[i].equals(aus.get(i).getId())) {
+                fail("Activity unit "+i+" should be '"+ids[i]+"': "+aus.get(i).getId());
+            }
+        }
+    }
+
+    /**
+     * This class records the body and content type written to a bytes message.
+     *
+     */
+    public static class TestMessage {
+
+        private java.io.ByteArrayOutputStream _body=new java.io.ByteArrayOutputStream();
+        private String _contentType;
+
+        public byte[] getBody() {
+            return (_body.toByteArray());
+        }
+
+        public String getContentType() {
+            return (_contentType);
+        }
+    }
+
+    /**
+     * This class provides a minimal JMS provider, recording the messages
+     * sent by the producers, and optionally failing the sends.
+     *
+     */
+    public static class TestJMSProvider {
+
+        private List<TestMessage> _sent=java.util.Collections.synchronizedList(
+                            new java.util.ArrayList<TestMessage>());
+        private volatile boolean _fail=false;
+
+        public List<TestMessage> getSent() {
+            return (_sent);
+        }
+
+        public void setFail(boolean fail) {
+            _fail = fail;
+        }
+
+        public ConnectionFactory getConnectionFactory() {
+            return (stub(ConnectionFactory.class, new InvocationHandler() {
+                public Object invoke(Object proxy, Method method, Object[] args) {
+                    return (method.getName().equals("createConnection") ? createConnection() : null);
+                }
+            }));
+        }
+
+        protected Connection createConnection() {
+            return (stub(Connection.class, new InvocationHandler() {
+                public Object invoke(Object proxy, Method method, Object[] args) {
+                    return (method.getName().equals("createSession") ? createSession() : null);
+                }
+            }));
+        }
+
+        protected Session createSession() {
+            return (stub(Session.class, new InvocationHandler() {
+                public Object invoke(Object proxy, Method method, Object[] args) {
+                    if (method.getName().equals("createProducer")) {
+                        return (createProducer());
+                    } else if (method.getName().equals("createBytesMessage")) {
+                        return (createBytesMessage(new TestMessage()));
+                    }
+                    return (null);
+                }
+            }));
+        }
+
+        protected MessageProducer createProducer() {
+            return (stub(MessageProducer.class, new InvocationHandler() {
+                public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                    if (method.getName().equals("send")) {
+                        if (_fail) {
+                            throw new javax.jms.JMSException("Send failed");
+                        }
+                        _sent.add(((TestBytesMessage)Proxy.getInvocationHandler(args[0])).getMessage());
+                    }
+                    return (null);
+                }
+            }));
+        }
+
+        protected BytesMessage createBytesMessage(TestMessage mesg) {
+            return (stub(BytesMessage.class, new TestBytesMessage(mesg)));
+        }
+
+        @SuppressWarnings("unchecked")
+        protected <T> T stub(Class<T> cls, InvocationHandler handler) {
+            return ((T)Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { cls },
+                        handler != null ? handler : new InvocationHandler() {
+                public Object invoke(Object proxy, Method method, Object[] args) {
+                    return (null);
+                }
+            }));
+        }
+    }
+
+    /**
+     * This class handles the invocations on a bytes message.
+     *
+     */
+    public static class TestBytesMessage implements InvocationHandler {
+
+        private TestMessage _message;
+
+        public TestBytesMessage(TestMessage mesg) {
+            _message = mesg;
+        }
+
+        public TestMessage getMessage() {
+            return (_message);
+        }
+
+        public Object invoke(Object proxy, Method method, Object[] args) {
+            if (method.getName().equals("writeBytes")) {
+                byte[] b=(byte[])args[0];
+                _message._body.write(b, 0, b.length);
+            } else if (method.getName().equals("setStringProperty")
+                        && JMSActivityServer.CONTENT_TYPE_PROPERTY.equals(args[0])) {
+                _message._contentType = (String)args[1];
+            }
+            return (null);
+        }
+    }
+}
@@ -15,11 +15,18 @@
  */
 package org.overlord.rtgov.activity.server.rest.client;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.HttpURLConnection;
 import java.net.URL;
 import java.util.List;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
 
 import javax.inject.Singleton;
 
@@ -27,6 +34,7 @@ import org.overlord.rtgov.activity.model.ActivityType;
 import org.overlord.rtgov.activity.model.ActivityUnit;
 import org.overlord.rtgov.activity.model.Context;
 import org.overlord.rtgov.activity.server.ActivityServer;
+import org.overlord.rtgov.activity.server.ActivityTypeCursor;
 import org.overlord.rtgov.activity.server.QuerySpec;
 import org.overlord.rtgov.activity.util.ActivityUtil;
 
@@ -34,6 +42,13 @@ import org.overlord.rtgov.common.util.RTGovProperties;
 
 /**
  * This class provides the REST client implementation of the activity server.
+ * <p>
+ * Requests are streamed directly to the connection, and responses are
+ * deserialized as they are read, with both optionally gzip compressed.
+ * Response bodies are always fully consumed, so that the underlying
+ * connection can be returned to the JVM's keep-alive cache and reused
+ * by subsequent requests (see the 'http.keepAlive' and 'http.maxConnections'
+ * system properties).
  *
  */
 @Singleton
@@ -45,10 +60,19 @@ public class RESTActivityServer implements ActivityServer {
     private static final String UNIT="/overlord-rtgov/activity/unit";
     private static final String QUERY="/overlord-rtgov/activity/query";
     private static final String EVENTS="/overlord-rtgov/activity/events";
+    private static final String STREAM="/overlord-rtgov/activity/events/stream";
+    
+    private static final String GZIP="gzip";
+    private static final int GZIP_MAGIC=0x8b1f;
+    private static final int BUFFER_SIZE=8192;
     
     private String _serverURL;            
     private String _serverUsername;
     private String _serverPassword;
+    private volatile String _contentType;
+    private volatile boolean _compress;
+    private long _fallbackInterval;
+    private volatile long _fallbackUntil;
 
     /**
      * The default constructor.
@@ -60,6 +84,12 @@ public class RESTActivityServer implements ActivityServer {
                                     "");
         _serverPassword = RTGovProperties.getProperty("RESTActivityServer.serverPassword",
                                     "");
+        _contentType = RTGovProperties.getProperty("RESTActivityServer.contentType",
+                                    ActivityUtil.BINARY_CONTENT_TYPE);
+        _compress = RTGovProperties.getPropertyAsBoolean("RESTActivityServer.compress",
+                                    true);
+        _fallbackInterval = RTGovProperties.getPropertyAsLong("RESTActivityServer.fallbackInterval",
+                                    300000L);
     }
     
     /**
@@ -116,6 +146,79 @@ public class RESTActivityServer implements ActivityServer {
         return (_serverPassword);
     }
 
+    /**
+     * This method sets the content type used to send activity units to the
+     * Activity Server. If the server does not support the binary content type,
+     * the client will revert to using JSON.
+     * 
+     * @param contentType The content type
+     */
+    public void setContentType(String contentType) {
+        _contentType = contentType;
+    }
+
+    /**
+     * This method gets the content type used to send activity units to the
+     * Activity Server.
+     * 
+     * @return The content type
+     */
+    public String getContentType() {
+        return (_contentType);
+    }
+
+    /**
+     * This method sets whether request and response bodies should be
+     * gzip compressed.
+     * 
+     * @param compress Whether to compress
+     */
+    public void setCompress(boolean compress) {
+        _compress = compress;
+    }
+
+    /**
+     * This method determines whether request and response bodies should be
+     * gzip compressed.
+     * 
+     * @return Whether to compress
+     */
+    public boolean getCompress() {
+        return (_compress);
+    }
+
+    /**
+     * This method sets the interval (in milliseconds) for which uncompressed
+     * JSON is used, after the Activity Server has rejected the configured
+     * content type or compression, before they are tried again.
+     * 
+     * @param interval The fallback interval
+     */
+    public void setFallbackInterval(long interval) {
+        _fallbackInterval = interval;
+    }
+
+    /**
+     * This method gets the interval (in milliseconds) for which uncompressed
+     * JSON is used, after the Activity Server has rejected the configured
+     * content type or compression, before they are tried again.
+     * 
+     * @return The fallback interval
+     */
+    public long getFallbackInterval() {
+        return (_fallbackInterval);
+    }
+
+    /**
+     * This method determines whether requests are currently being sent as
+     * uncompressed JSON, following a rejection by the Activity Server.
+     * 
+     * @return Whether the fallback is active
+     */
+    protected boolean isFallback() {
+        return (System.currentTimeMillis() < _fallbackUntil);
+    }
+
     /**
      * This method initializes the authentication properties on the supplied
      * URL connection.
@@ -139,48 +242,220 @@ public class RESTActivityServer implements ActivityServer {
     }
     
     /**
-     * {@inheritDoc}
+     * This method opens a connection to the supplied URL.
+     * 
+     * @param url The URL
+     * @param method The request method
+     * @param contentType The content type of the request body, or null if no body
+     * @return The connection
+     * @throws IOException Failed to open the connection
      */
-    public void store(List<ActivityUnit> activities) throws Exception {
-        URL storeUrl = new URL(_serverURL+STORE);
-        
-        if (LOG.isLoggable(Level.FINER)) {
-            LOG.finer("RESTActivityServer["+storeUrl+"] store: "+activities);
-        }
-        
-        HttpURLConnection connection = (HttpURLConnection) storeUrl.openConnection();
+    protected HttpURLConnection openConnection(URL url, String method, String contentType)
+                            throws IOException {
+        return (openConnection(url, method, contentType, _compress && !isFallback()));
+    }
+    
+    /**
+     * This method opens a connection to the supplied URL.
+     * 
+     * @param url The URL
+     * @param method The request method
+     * @param contentType The content type of the request body, or null if no body
+     * @param compress Whether the request body should be compressed
+     * @return The connection
+     * @throws IOException Failed to open the connection
+     */
+    protected HttpURLConnection openConnection(URL url, String method, String contentType,
+                            boolean compress) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
 
         initAuth(connection);
 
-        connection.setRequestMethod("POST");
-        
-        connection.setDoOutput(true);
+        connection.setRequestMethod(method);
+
         connection.setDoInput(true);
         connection.setUseCaches(false);
         connection.setAllowUserInteraction(false);
-        connection.setRequestProperty("Content-Type",
-                    "application/json");
-
-        java.io.OutputStream os=connection.getOutputStream();
         
-        os.write(ActivityUtil.serializeActivityUnitList(activities));
+        if (_compress) {
+            connection.setRequestProperty("Accept-Encoding", GZIP);
+        }
         
-        os.flush();
-        os.close();
+        if (contentType != null) {
+            connection.setDoOutput(true);
+            connection.setChunkedStreamingMode(0);
+            connection.setRequestProperty("Content-Type",
+                        contentType);
+            
+            if (compress) {
+                connection.setRequestProperty("Content-Encoding", GZIP);
+            }
+        }
         
-        java.io.InputStream is=connection.getInputStream();
+        return (connection);
+    }
+    
+    /**
+     * This method returns the stream used to write the request body.
+     * 
+     * @param connection The connection
+     * @return The output stream
+     * @throws IOException Failed to get the output stream
+     */
+    protected OutputStream getOutputStream(HttpURLConnection connection) throws IOException {
+        OutputStream os=connection.getOutputStream();
         
-        byte[] b = new byte[is.available()];
+        if (GZIP.equals(connection.getRequestProperty("Content-Encoding"))) {
+            os = new GZIPOutputStream(os, BUFFER_SIZE);
+        }
         
-        is.read(b);
+        return (new BufferedOutputStream(os, BUFFER_SIZE));
+    }
+    
+    /**
+     * This method returns the stream used to read the response body. If the
+     * response indicates a failure, then the error response will be consumed
+     * and an exception thrown.
+     * 
+     * @param connection The connection
+     * @return The input stream
+     * @throws IOException Failed to get the input stream, or the request failed
+     */
+    protected InputStream getInputStream(HttpURLConnection connection) throws IOException {
+        int code=connection.getResponseCode();
+        
+        if (code >= HttpURLConnection.HTTP_BAD_REQUEST) {
+            String mesg=connection.getResponseMessage();
+            InputStream es=connection.getErrorStream();
+            
+            if (es != null) {
+                String text=readFully(decode(connection, es));
+                
+                if (text.length() > 0) {
+                    mesg = text;
+                }
+            }
+            
+            throw new IOException("Activity Server returned response code "+code+": "+mesg);
+        }
+        
+        return (decode(connection, connection.getInputStream()));
+    }
+    
+    /**
+     * This method decodes the supplied response stream. The body will be
+     * decompressed if it is identified as gzip encoded, either by
+     * the response header or from the content.
+     * 
+     * @param connection The connection
+     * @param is The response stream
+     * @return The decoded input stream
+     * @throws IOException Failed to decode the stream
+     */
+    protected static InputStream decode(HttpURLConnection connection, InputStream is) throws IOException {
+        InputStream ret=new BufferedInputStream(is, BUFFER_SIZE);
+        
+        ret.mark(2);
+        
+        int magic=ret.read() | (ret.read() << 8);
+        
+        ret.reset();
+        
+        if (GZIP.equalsIgnoreCase(connection.getContentEncoding()) || magic == GZIP_MAGIC) {
+            ret = new BufferedInputStream(new GZIPInputStream(ret, BUFFER_SIZE), BUFFER_SIZE);
+        }
+        
+        return (ret);
+    }
+    
+    /**
+     * This method consumes the remainder of the supplied stream, returning
+     * its content as a string, and closes the stream.
+     * 
+     * @param is The input stream
+     * @return The content
+     * @throws IOException Failed to read the stream
+     */
+    protected static String readFully(InputStream is) throws IOException {
+        java.io.ByteArrayOutputStream baos=new java.io.ByteArrayOutputStream();
+        
+        try {
+            byte[] b=new byte[BUFFER_SIZE];
+            int len=0;
+            
+            while ((len=is.read(b)) != -1) {
+                baos.write(b, 0, len);
+            }
+        } finally {
+            is.close();
+        }
         
-        is.close();
+        return (baos.toString("UTF-8"));
+    }
+    
+    /**
+     * {@inheritDoc}
+     */
+    public void store(List<ActivityUnit> activities) throws Exception {
+        URL storeUrl = new URL(_serverURL+STORE);
+        
+        if (LOG.isLoggable(Level.FINER)) {
+            LOG.finer("RESTActivityServer["+storeUrl+"] store: "+activities);
+        }
+        
+        boolean fallback=isFallback();
+        String contentType=(fallback ? ActivityUtil.JSON_CONTENT_TYPE : _contentType);
+        boolean compress=(_compress && !fallback);
 
+        HttpURLConnection connection = post(storeUrl, activities, contentType, compress);
+        
+        if (connection.getResponseCode() == HttpURLConnection.HTTP_UNSUPPORTED_TYPE
+                    && (compress || ActivityUtil.isBinaryContentType(contentType))) {
+            if (connection.getErrorStream() != null) {
+                readFully(connection.getErrorStream());
+            }
+            
+            LOG.info("Activity Server does not support content type '"+contentType
+                    +"' (compressed="+compress+"), reverting to uncompressed '"
+                    +ActivityUtil.JSON_CONTENT_TYPE+"' for "+_fallbackInterval+"ms");
+            
+            // Only revert for the fallback interval, so that the configured
+            // encoding is used again if the server is subsequently upgraded
+            _fallbackUntil = System.currentTimeMillis()+_fallbackInterval;
+            
+            connection = post(storeUrl, activities, ActivityUtil.JSON_CONTENT_TYPE, false);
+        }
+        
+        String result=readFully(getInputStream(connection));
+        
         if (LOG.isLoggable(Level.FINER)) {
-            LOG.finer("RESTActivityServer result: "+new String(b));
+            LOG.finer("RESTActivityServer result: "+result);
         }
     }
 
+    /**
+     * This method posts the activity units to the supplied URL.
+     * 
+     * @param url The URL
+     * @param activities The activity units
+     * @param contentType The content type
+     * @param compress Whether to compress the request body
+     * @return The connection
+     * @throws Exception Failed to post the activity units
+     */
+    protected HttpURLConnection post(URL url, List<ActivityUnit> activities, String contentType,
+                            boolean compress) throws Exception {
+        HttpURLConnection connection = openConnection(url, "POST", contentType, compress);
+
+        OutputStream os=getOutputStream(connection);
+        
+        ActivityUtil.serializeActivityUnitList(activities, contentType, os);
+        
+        os.close();
+        
+        return (connection);
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -193,28 +468,22 @@ public class RESTActivityServer implements ActivityServer {
             LOG.finer("RESTActivityServer["+queryUrl+"] getActivityUnit: "+id);
         }
         
-        HttpURLConnection connection = (HttpURLConnection) queryUrl.openConnection();
-        
-        initAuth(connection);
-
-        connection.setRequestMethod("GET");
-
-        connection.setDoOutput(true);
-        connection.setDoInput(true);
-        connection.setUseCaches(false);
-        connection.setAllowUserInteraction(false);
-        connection.setRequestProperty("Content-Type",
-                    "application/json");
-
-        java.io.InputStream is=connection.getInputStream();
+        HttpURLConnection connection = openConnection(queryUrl, "GET", null);
         
-        byte[] b=new byte[is.available()];
+        InputStream is=getInputStream(connection);
         
-        is.read(b);
-        
-        is.close();
-        
-        ret = ActivityUtil.deserializeActivityUnit(b);
+        try {
+            is.mark(1);
+            
+            // An empty response indicates the activity unit was not found
+            if (is.read() != -1) {
+                is.reset();
+                
+                ret = ActivityUtil.deserializeActivityUnit(is);
+            }
+        } finally {
+            readFully(is);
+        }
         
         if (LOG.isLoggable(Level.FINER)) {
             LOG.finer("RESTActivityServer getActivityUnit result: "+ret);
@@ -256,6 +525,46 @@ public class RESTActivityServer implements ActivityServer {
         return (getActivityTypes(queryUrl));
     }
     
+    /**
+     * {@inheritDoc}
+     */
+    public ActivityTypeCursor getActivityTypeCursor(Context context, long from, long to,
+                            int fetchSize, int limit) throws Exception {
+        StringBuilder url=new StringBuilder(_serverURL+STREAM);
+        
+        url.append("?from=").append(from)
+            .append("&to=").append(to)
+            .append("&fetchSize=").append(fetchSize)
+            .append("&limit=").append(limit);
+        
+        if (context != null) {
+            if (context.getType() != null) {
+                url.append("&type=").append(context.getType());
+            }
+            if (context.getValue() != null) {
+                url.append("&value=").append(java.net.URLEncoder.encode(context.getValue(), "UTF-8"));
+            }
+        }
+        
+        URL queryUrl = new URL(url.toString());
+
+        if (LOG.isLoggable(Level.FINER)) {
+            LOG.finer("RESTActivityServer["+queryUrl+"] getActivityTypeCursor: "+context
+                    +" from="+from+" to="+to+" fetchSize="+fetchSize+" limit="+limit);
+        }
+        
+        HttpURLConnection connection = openConnection(queryUrl, "GET", null);
+        
+        InputStream is=getInputStream(connection);
+        
+        try {
+            return (new StreamCursor(connection, is, ActivityUtil.deserializeActivityTypeLines(is)));
+        } catch (Exception e) {
+            connection.disconnect();
+            throw e;
+        }
+    }
+    
     /**
      * This method retrieves the activity types associated with the supplied
      * query URL.
@@ -267,27 +576,15 @@ public class RESTActivityServer implements ActivityServer {
     protected List<ActivityType> getActivityTypes(URL queryUrl) throws Exception {
         List<ActivityType> ret=null;
         
-        HttpURLConnection connection = (HttpURLConnection) queryUrl.openConnection();
+        HttpURLConnection connection = openConnection(queryUrl, "GET", null);
         
-        initAuth(connection);
-
-        connection.setRequestMethod("GET");
-
-        connection.setDoOutput(true);
-        connection.setDoInput(true);
-        connection.setUseCaches(false);
-        connection.setAllowUserInteraction(false);
-        connection.setRequestProperty("Content-Type",
-                    "application/json");
+        InputStream is=getInputStream(connection);
 
-        java.io.InputStream is=connection.getInputStream();
-
-        byte[] b = new byte[is.available()];
-        is.read(b);
-        
-        ret = ActivityUtil.deserializeActivityTypeList(b);
-        
-        is.close();
+        try {
+            ret = ActivityUtil.deserializeActivityTypeList(is);
+        } finally {
+            readFully(is);
+        }
         
         if (LOG.isLoggable(Level.FINER)) {
             LOG.finer("RESTActivityServer getActivityTypes result: "+ret);
@@ -308,35 +605,22 @@ public class RESTActivityServer implements ActivityServer {
             LOG.finer("RESTActivityServer["+queryUrl+"] query: "+query);
         }
         
-        HttpURLConnection connection = (HttpURLConnection) queryUrl.openConnection();
+        HttpURLConnection connection = openConnection(queryUrl, "POST",
+                                ActivityUtil.JSON_CONTENT_TYPE);
         
-        initAuth(connection);
-
-        connection.setRequestMethod("POST");
-
-        connection.setDoOutput(true);
-        connection.setDoInput(true);
-        connection.setUseCaches(false);
-        connection.setAllowUserInteraction(false);
-        connection.setRequestProperty("Content-Type",
-                    "application/json");
-
-        java.io.OutputStream os=connection.getOutputStream();
+        OutputStream os=getOutputStream(connection);
         
-        byte[] b=ActivityUtil.serializeQuerySpec(query);
-        os.write(b);
+        ActivityUtil.serializeQuerySpec(query, os);
         
-        os.flush();
         os.close();
         
-        java.io.InputStream is=connection.getInputStream();
+        InputStream is=getInputStream(connection);
 
-        b = new byte[is.available()];
-        is.read(b);
-        
-        ret = ActivityUtil.deserializeActivityTypeList(b);
-        
-        is.close();
+        try {
+            ret = ActivityUtil.deserializeActivityTypeList(is);
+        } finally {
+            readFully(is);
+        }
         
         if (LOG.isLoggable(Level.FINER)) {
             LOG.finer("RESTActivityServer result: "+ret);
@@ -345,4 +629,98 @@ public class RESTActivityServer implements ActivityServer {
         return (ret);
     }
 
+    /**
+     * This class provides a cursor over the activity types streamed from the
+     * Activity Server, deserializing each activity type as it is read. If
+     * the cursor is closed before the stream has been consumed, then the
+     * connection is disconnected rather than reading the remaining content.
+     *
+     */
+    protected static class StreamCursor implements ActivityTypeCursor {
+        
+        private HttpURLConnection _connection;
+        private InputStream _is;
+        private java.util.Iterator<ActivityType> _iterator;
+        private boolean _exhausted=false;
+        private boolean _closed=false;
+        
+        /**
+         * This constructor initializes the cursor.
+         * 
+         * @param connection The connection
+         * @param is The response stream
+         * @param iterator The iterator deserializing activity types from the stream
+         */
+        public StreamCursor(HttpURLConnection connection, InputStream is,
+                            java.util.Iterator<ActivityType> iterator) {
+            _connection = connection;
+            _is = is;
+            _iterator = iterator;
+        }
+        
+        /**
+         * {@inheritDoc}
+         */
+        public boolean hasNext() {
+            if (_closed) {
+                return (false);
+            }
+            
+            try {
+                if (_iterator.hasNext()) {
+                    return (true);
+                }
+                
+                _exhausted = true;
+            } catch (RuntimeException re) {
+                close();
+                throw re;
+            }
+            
+            close();
+            
+            return (false);
+        }
+        
+        /**
+         * {@inheritDoc}
+         */
+        public ActivityType next() {
+            if (!hasNext()) {
+                throw new java.util.NoSuchElementException();
+            }
+            return (_iterator.next());
+        }
+        
+        /**
+         * {@inheritDoc}
+         */
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+        
+        /**
+         * {@inheritDoc}
+         */
+        public void close() {
+            if (_closed) {
+                return;
+            }
+            
+            _closed = true;
+            
+            if (_exhausted) {
+                try {
+                    readFully(_is);
+                } catch (IOException ioe) {
+                    if (LOG.isLoggable(Level.FINE)) {
+                        LOG.log(Level.FINE, "Failed to close activity type stream", ioe);
+                    }
+                }
+            } else {
+                _connection.disconnect();
+            }
+        }
+    }
+
 }
@@ -15,8 +15,14 @@
  */
 package org.overlord.rtgov.activity.server.rest;
 
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
 
 import org.codehaus.enunciate.jaxrs.TypeHint;
 import org.overlord.commons.services.ServiceRegistryUtil;
@@ -24,6 +30,7 @@ import org.overlord.rtgov.activity.model.ActivityType;
 import org.overlord.rtgov.activity.model.ActivityUnit;
 import org.overlord.rtgov.activity.model.Context;
 import org.overlord.rtgov.activity.server.ActivityServer;
+import org.overlord.rtgov.activity.server.ActivityTypeCursor;
 import org.overlord.rtgov.activity.server.QuerySpec;
 import org.overlord.rtgov.activity.util.ActivityUtil;
 
@@ -32,15 +39,24 @@ import javax.enterprise.context.ApplicationScoped;
 import javax.ws.rs.Consumes;
 import javax.ws.rs.DefaultValue;
 import javax.ws.rs.GET;
+import javax.ws.rs.HeaderParam;
 import javax.ws.rs.POST;
 import javax.ws.rs.Path;
 import javax.ws.rs.Produces;
 import javax.ws.rs.QueryParam;
 import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
 import javax.ws.rs.core.Response.Status;
 
 /**
  * This class represents the RESTful interface to the activity server.
+ * <p>
+ * Request bodies may be gzip compressed, and results are streamed
+ * directly to the response, gzip compressed if the client accepts
+ * that encoding. Large results can be retrieved from the '/events/stream'
+ * resource, which writes one JSON activity event per line as they are
+ * retrieved from the activity store, rather than building the complete
+ * result in memory.
  *
  */
 @SuppressWarnings("deprecation")
@@ -50,6 +66,11 @@ public class RESTActivityServer {
 
     private static final Logger LOG=Logger.getLogger(RESTActivityServer.class.getName());
     
+    private static final String GZIP="gzip";
+    private static final int GZIP_MAGIC=0x8b1f;
+    private static final int BUFFER_SIZE=8192;
+    private static final int STREAM_FLUSH_SIZE=100;
+    
     //@javax.inject.Inject
     private ActivityServer _activityServer=null;
 
@@ -92,6 +113,7 @@ public class RESTActivityServer {
      * This method handles queries for activity events.
      * 
      * @param id The id
+     * @param acceptEncoding The encodings accepted by the client
      * @return The list of activity events
      * @throws Exception Failed to query activity events
      */
@@ -99,7 +121,8 @@ public class RESTActivityServer {
     @Path("/unit")
     @Produces("application/json")
     @TypeHint(ActivityUnit.class)
-    public Response getActivityUnit(@QueryParam("id") String id) throws Exception {
+    public Response getActivityUnit(@QueryParam("id") String id,
+            @HeaderParam("Accept-Encoding") String acceptEncoding) throws Exception {
         init();
         
         if (LOG.isLoggable(Level.FINEST)) {
@@ -110,21 +133,27 @@ public class RESTActivityServer {
             throw new Exception("Activity Server is not available");
         }
         
-        ActivityUnit au=_activityServer.getActivityUnit(id);
+        final ActivityUnit au=_activityServer.getActivityUnit(id);
                
-        String text=null;
-        
-        if (au != null) {
-            byte[] b=ActivityUtil.serializeActivityUnit(au);
-            
-            text = new String(b);
-        }
-        
         if (LOG.isLoggable(Level.FINEST)) {
-            LOG.finest("Activity Server: Activity Unit for id '"+id+"': "+text);        
+            LOG.finest("Activity Server: Activity Unit for id '"+id+"': "+au);        
         }
 
-        return (Response.ok(text).build());
+        if (au == null) {
+            return (Response.ok().build());
+        }
+        
+        return (buildResponse(new StreamingOutput() {
+            public void write(OutputStream os) throws IOException {
+                try {
+                    ActivityUtil.serializeActivityUnit(au, os);
+                } catch (IOException ioe) {
+                    throw ioe;
+                } catch (Exception e) {
+                    throw new IOException(e);
+                }
+            }
+        }, acceptEncoding));
     }
 
     /**
@@ -136,6 +165,7 @@ public class RESTActivityServer {
      * @param value The optional value
      * @param from The optional 'from' timestamp
      * @param to The optional 'to' timestamp
+     * @param acceptEncoding The encodings accepted by the client
      * @return The list of ActivityType event objects
      * @throws Exception Failed to obtain activity types
      */
@@ -146,20 +176,11 @@ public class RESTActivityServer {
     public Response getActivityTypes(@QueryParam("type") String type,
             @QueryParam("value") String value,
             @DefaultValue("0") @QueryParam("from") long from,
-            @DefaultValue("0") @QueryParam("to") long to) throws Exception {
+            @DefaultValue("0") @QueryParam("to") long to,
+            @HeaderParam("Accept-Encoding") String acceptEncoding) throws Exception {
         init();
         
-        Context context=null;
-        
-        if (type != null || value != null) {
-            context = new Context();
-            
-            if (type != null) {
-                context.setType(Context.Type.valueOf(type));
-            }
-            
-            context.setValue(value);
-        }
+        Context context=createContext(type, value);
         
         if (LOG.isLoggable(Level.FINEST)) {
             LOG.finest("Activity Server: Get Activity Types for Context="+context+" from="+from+" to="+to);        
@@ -181,26 +202,96 @@ public class RESTActivityServer {
             return (Response.serverError().entity(e.getMessage()).build());
         }
         
-        String text=null;
-        
-        if (list != null) {
-            byte[] b=ActivityUtil.serializeActivityTypeList(list);
-            
-            text = new String(b);
-        }
-
         if (LOG.isLoggable(Level.FINEST)) {            
             LOG.finest("Activity Server: Get ActivityTypes for type='"+type+"' value='"
-                            +value+"' from="+from+" to="+to+": "+text);        
+                            +value+"' from="+from+" to="+to+": "+list);        
         }
 
-        return (Response.ok(text).build());
+        if (list == null) {
+            return (Response.ok().build());
+        }
+        
+        return (buildResponse(getActivityTypeListOutput(list), acceptEncoding));
+    }
+    
+    /**
+     * This method streams the ActivityType (activity event) objects associated with
+     * the optional context type and value and optional time range, as one JSON object
+     * per line. The activity events are retrieved from the activity store a page at
+     * a time, as they are written, so that large results can be returned in bounded
+     * memory. If a context is not provided then a time range must be supplied,
+     * otherwise an error will be reported.
+     * 
+     * @param type The optional type
+     * @param value The optional value
+     * @param from The optional 'from' timestamp
+     * @param to The optional 'to' timestamp
+     * @param fetchSize The optional number of activity events retrieved at a time
+     * @param limit The optional maximum number of activity events returned
+     * @param acceptEncoding The encodings accepted by the client
+     * @return The stream of ActivityType event objects
+     * @throws Exception Failed to obtain activity types
+     */
+    @GET
+    @Path("/events/stream")
+    @Produces(ActivityUtil.JSON_LINES_CONTENT_TYPE)
+    @TypeHint(ActivityType.class)
+    public Response getActivityTypeStream(@QueryParam("type") String type,
+            @QueryParam("value") String value,
+            @DefaultValue("0") @QueryParam("from") long from,
+            @DefaultValue("0") @QueryParam("to") long to,
+            @DefaultValue("0") @QueryParam("fetchSize") int fetchSize,
+            @DefaultValue("0") @QueryParam("limit") int limit,
+            @HeaderParam("Accept-Encoding") String acceptEncoding) throws Exception {
+        init();
+        
+        Context context=createContext(type, value);
+        
+        if (LOG.isLoggable(Level.FINEST)) {
+            LOG.finest("Activity Server: Stream Activity Types for Context="+context+" from="+from+" to="+to
+                    +" fetchSize="+fetchSize+" limit="+limit);        
+        }
+        
+        if (_activityServer == null) {
+            throw new Exception("Activity Server is not available");
+        }
+        
+        final ActivityTypeCursor cursor;
+        
+        try {
+            cursor = _activityServer.getActivityTypeCursor(context, from, to, fetchSize, limit);
+        } catch (Exception e) {
+            return (Response.serverError().entity(e.getMessage()).build());
+        }
+        
+        return (buildResponse(new StreamingOutput() {
+            public void write(OutputStream os) throws IOException {
+                try {
+                    int count=0;
+                    
+                    while (cursor.hasNext()) {
+                        ActivityUtil.serializeActivityTypeLine(cursor.next(), os);
+                        
+                        if (++count % STREAM_FLUSH_SIZE == 0) {
+                            os.flush();
+                        }
+                    }
+                } catch (IOException ioe) {
+                    throw ioe;
+                } catch (Exception e) {
+                    throw new IOException(e);
+                } finally {
+                    cursor.close();
+                }
+            }
+        }, acceptEncoding));
     }
     
     /**
      * This method handles queries for activity events.
      * 
      * @param qspec The query spec
+     * @param acceptEncoding The encodings accepted by the client
      * @return The list of activity events
      * @throws Exception Failed to query activity events
      * @deprecated No longer supported as it introduces a dependency between clients and the ActivityStore implementation
@@ -208,13 +299,14 @@ public class RESTActivityServer {
     @POST
     @Path("/query")
     @Produces("application/json")
-    public Response query(String qspec) throws Exception {
-        String ret="";
-        
+    public Response query(InputStream qspec,
+            @HeaderParam("Accept-Encoding") String acceptEncoding) throws Exception {
         init();
         
+        java.util.List<ActivityType> list=null;
+        
         try {
-            QuerySpec qs=ActivityUtil.deserializeQuerySpec(qspec.getBytes());
+            QuerySpec qs=ActivityUtil.deserializeQuerySpec(decode(qspec));
             
             if (LOG.isLoggable(Level.FINEST)) {
                 LOG.finest("Activity Server Query Spec="+qs);        
@@ -224,22 +316,20 @@ public class RESTActivityServer {
                 throw new Exception("Activity Server is not available");
             }
             
-            java.util.List<ActivityType> list=_activityServer.query(qs);
-            
-            if (list != null) {
-                byte[] b=ActivityUtil.serializeActivityTypeList(list);
-                
-                ret = new String(b);
-            }
+            list = _activityServer.query(qs);
             
             if (LOG.isLoggable(Level.FINEST)) {
-                LOG.finest("Activity Server Query Result="+ret);        
+                LOG.finest("Activity Server Query Result="+list);        
             }
         } catch (Exception e) {
             return (Response.serverError().entity(e.getMessage()).build());
         }
 
-        return (Response.ok(ret).build());
+        if (list == null) {
+            return (Response.ok("").build());
+        }
+        
+        return (buildResponse(getActivityTypeListOutput(list), acceptEncoding));
     }
 
     /**
@@ -253,16 +343,51 @@ public class RESTActivityServer {
     @Path("/store")
     @Consumes("application/json")
     @Produces("text/plain")
-    public Response store(@TypeHint(ActivityUnit.class) String acts) throws Exception {
+    public Response store(@TypeHint(ActivityUnit.class) InputStream acts) throws Exception {
         init();
         
         java.util.List<ActivityUnit> activities=
-                ActivityUtil.deserializeActivityUnitList(acts.getBytes());
+                ActivityUtil.deserializeActivityUnitList(decode(acts), ActivityUtil.JSON_CONTENT_TYPE);
         
         if (LOG.isLoggable(Level.FINEST)) {
-            LOG.finest("Store "+activities.size()+" activities: "+acts);        
+            LOG.finest("Store "+activities.size()+" activities: "+activities);        
         }
         
+        return (store(activities));
+    }
+
+    /**
+     * This method stores the supplied list of ActivityUnit objects, provided
+     * in the compact binary representation.
+     * 
+     * @param acts The binary representation of the list of ActivityUnit objects
+     * @return A response indicating success or failure
+     * @throws Exception Failed to perform store operation
+     */
+    @POST
+    @Path("/store")
+    @Consumes(ActivityUtil.BINARY_CONTENT_TYPE)
+    @Produces("text/plain")
+    public Response storeBinary(InputStream acts) throws Exception {
+        init();
+        
+        java.util.List<ActivityUnit> activities=
+                ActivityUtil.deserializeActivityUnitList(decode(acts), ActivityUtil.BINARY_CONTENT_TYPE);
+        
+        if (LOG.isLoggable(Level.FINEST)) {
+            LOG.finest("Store "+activities.size()+" activities: "+activities);        
+        }
+        
+        return (store(activities));
+    }
+
+    /**
+     * This method stores the supplied list of activity units in the activity server.
+     * 
+     * @param activities The list of ActivityUnit objects
+     * @return A response indicating success or failure
+     */
+    protected Response store(java.util.List<ActivityUnit> activities) {
         if (_activityServer == null) {
             return Response.status(Status.SERVICE_UNAVAILABLE).entity("Activity Server is not available").build();
         }
@@ -278,4 +403,116 @@ public class RESTActivityServer {
             return Response.status(Status.INTERNAL_SERVER_ERROR).entity("Failed to store activities: "+e).build();
         }
     }
+
+    /**
+     * This method creates the context associated with the optional
+     * type and value.
+     * 
+     * @param type The optional type
+     * @param value The optional value
+     * @return The context, or null if neither type or value are defined
+     */
+    protected static Context createContext(String type, String value) {
+        Context ret=null;
+        
+        if (type != null || value != null) {
+            ret = new Context();
+            
+            if (type != null) {
+                ret.setType(Context.Type.valueOf(type));
+            }
+            
+            ret.setValue(value);
+        }
+        
+        return (ret);
+    }
+    
+    /**
+     * This method returns the streaming output used to write the supplied
+     * list of activity types.
+     * 
+     * @param list The list of activity types
+     * @return The streaming output
+     */
+    protected static StreamingOutput getActivityTypeListOutput(final java.util.List<ActivityType> list) {
+        return (new StreamingOutput() {
+            public void write(OutputStream os) throws IOException {
+                try {
+                    ActivityUtil.serializeActivityTypeList(list, os);
+                } catch (IOException ioe) {
+                    throw ioe;
+                } catch (Exception e) {
+                    throw new IOException(e);
+                }
+            }
+        });
+    }
+    
+    /**
+     * This method builds the response for the supplied streaming output,
+     * compressing the content if accepted by the client.
+     * 
+     * @param output The streaming output
+     * @param acceptEncoding The encodings accepted by the client
+     * @return The response
+     */
+    protected static Response buildResponse(final StreamingOutput output, String acceptEncoding) {
+        if (!isGzipAccepted(acceptEncoding)) {
+            return (Response.ok(output).build());
+        }
+        
+        return (Response.ok(new StreamingOutput() {
+            public void write(OutputStream os) throws IOException {
+                GZIPOutputStream gzos=new GZIPOutputStream(os, BUFFER_SIZE);
+                
+                output.write(gzos);
+                
+                gzos.finish();
+            }
+        }).header("Content-Encoding", GZIP).build());
+    }
+    
+    /**
+     * This method determines whether the supplied accepted encodings include gzip.
+     * 
+     * @param acceptEncoding The encodings accepted by the client
+     * @return Whether gzip is accepted
+     */
+    protected static boolean isGzipAccepted(String acceptEncoding) {
+        if (acceptEncoding != null) {
+            for (String encoding : acceptEncoding.split(",")) {
+                String[] parts=encoding.split(";");
+                
+                if (parts[0].trim().equalsIgnoreCase(GZIP)) {
+                    return (parts.length == 1 || !parts[1].trim().matches("q\\s*=\\s*0(\\.0*)?"));
+                }
+            }
+        }
+        return (false);
+    }
+    
+    /**
+     * This method decodes the supplied request body, decompressing it
+     * if gzip encoded.
+     * 
+     * @param is The request body
+     * @return The decoded request body
+     * @throws IOException Failed to decode the request body
+     */
+    protected static InputStream decode(InputStream is) throws IOException {
+        InputStream ret=new BufferedInputStream(is, BUFFER_SIZE);
+        
+        ret.mark(2);
+        
+        int magic=ret.read() | (ret.read() << 8);
+        
+        ret.reset();
+        
+        if (magic == GZIP_MAGIC) {
+            ret = new BufferedInputStream(new GZIPInputStream(ret, BUFFER_SIZE), BUFFER_SIZE);
+        }
+        
+        return (ret);
+    }
 }
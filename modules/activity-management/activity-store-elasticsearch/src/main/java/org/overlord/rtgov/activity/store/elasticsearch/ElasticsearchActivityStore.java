@@ -15,56 +15,130 @@
  */
 package org.overlord.rtgov.activity.store.elasticsearch;
 
-import org.elasticsearch.action.admin.indices.refresh.RefreshRequestBuilder;
+import org.elasticsearch.action.ActionRequest;
 import org.elasticsearch.action.bulk.BulkRequestBuilder;
 import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.action.delete.DeleteRequestBuilder;
+import org.elasticsearch.action.search.SearchRequestBuilder;
 import org.elasticsearch.action.search.SearchResponse;
 import org.elasticsearch.action.search.SearchType;
+import org.elasticsearch.action.support.IndicesOptions;
 import org.elasticsearch.common.unit.TimeValue;
 import org.elasticsearch.index.query.BoolQueryBuilder;
 import org.elasticsearch.index.query.QueryBuilder;
 import org.elasticsearch.index.query.QueryBuilders;
 import org.elasticsearch.search.SearchHit;
+import org.elasticsearch.search.aggregations.AggregationBuilders;
+import org.elasticsearch.search.aggregations.bucket.terms.Terms;
 import org.overlord.commons.services.ServiceClose;
 import org.overlord.commons.services.ServiceInit;
 import org.overlord.rtgov.activity.model.ActivityType;
 import org.overlord.rtgov.activity.model.ActivityUnit;
 import org.overlord.rtgov.activity.model.Context;
 import org.overlord.rtgov.activity.server.ActivityStore;
+import org.overlord.rtgov.activity.server.ActivityTypeCursor;
+import org.overlord.rtgov.activity.server.PurgeableActivityStore;
 import org.overlord.rtgov.activity.server.QuerySpec;
 import org.overlord.rtgov.activity.util.ActivityUtil;
+import org.overlord.rtgov.activity.util.StageMetrics;
+import org.overlord.rtgov.common.elasticsearch.ElasticsearchBulkProcessor;
 import org.overlord.rtgov.common.elasticsearch.ElasticsearchClient;
+import org.overlord.rtgov.common.elasticsearch.ElasticsearchCursor;
+import org.overlord.rtgov.common.elasticsearch.ElasticsearchIndexLifecycle;
 import org.overlord.rtgov.common.util.RTGovProperties;
 
+import java.lang.management.ManagementFactory;
 import java.text.MessageFormat;
-import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
 /**
  * This class provides the Elasticsearch implementation of the activityStore
  * CRUD operations are provided by  ElasticSearchKeyValueStore.
  * User: imk@redhat.com
  * Date: 20/04/14
  * Time: 23:32
+ * <p>
+ * By default, queries rely on the index refresh interval to make newly stored
+ * activity information visible (near real time), and are performed using the
+ * QUERY_THEN_FETCH search type. The 'ActivityStore.Elasticsearch.refreshPolicy'
+ * property can be used to refresh the index after each store ('write'), or before
+ * each query ('read'), where read-your-writes consistency is required.
+ * <p>
+ * Query results are retrieved using a scroll, a page at a time (the page size
+ * being defined by the 'ActivityStore.Elasticsearch.responseSize' property), so
+ * that results are not truncated, and can be processed incrementally using the
+ * cursor returned by {@link #getActivityTypeCursor(Context, long, long)}.
+ * <p>
+ * If the 'ActivityStore.Elasticsearch.rollover' property is set to 'daily' or
+ * 'hourly', the activity information is stored in a separate index per period,
+ * so that queries with a time range only search the relevant indices, and
+ * expired periods are purged by deleting their indices. Each activity unit is
+ * stored in the index for the period of its earliest activity, and the
+ * 'ActivityStore.Elasticsearch.rolloverSkew' property defines how long after
+ * that activity the other activities in the unit may occur (and therefore by
+ * how much time range queries are widened).
+ * <p>
+ * If the 'ActivityStore.Elasticsearch.bulkSize' property is greater than zero,
+ * activity information is queued to a bulk processor and stored asynchronously,
+ * unless a refresh is required after the store. In this mode, the store methods
+ * return once the activity information has been queued, so failures to store it
+ * are not reported to the caller. Instead they are logged, and counted by the
+ * 'BulkFailed' management attribute. Callers that need to know the outcome can
+ * use {@link #awaitStored(long)}.
  */
 @SuppressWarnings("deprecation")
-public class ElasticsearchActivityStore implements ActivityStore {
+public class ElasticsearchActivityStore implements ActivityStore, PurgeableActivityStore,
+                            ElasticsearchActivityStoreMBean {
     private static final Logger LOG = Logger.getLogger(ElasticsearchActivityStore.class.getName());
 
     private static String ACTIVITYSTORE_UNIT_INDEX = "ActivityStore.Elasticsearch.index";
     private static String ACTIVITYSTORE_UNIT_TYPE = "ActivityStore.Elasticsearch.type";
     private static String ACTIVITYSTORE_RESPONSE_SIZE = "ActivityStore.Elasticsearch.responseSize";
     private static String ACTIVITYSTORE_TIMEOUT = "ActivityStore.Elasticsearch.timeout";
+    private static String ACTIVITYSTORE_REFRESH_POLICY = "ActivityStore.Elasticsearch.refreshPolicy";
+    private static String ACTIVITYSTORE_SEARCH_TYPE = "ActivityStore.Elasticsearch.searchType";
+    private static String ACTIVITYSTORE_ROLLOVER = "ActivityStore.Elasticsearch.rollover";
+    private static String ACTIVITYSTORE_ROLLOVER_SKEW = "ActivityStore.Elasticsearch.rolloverSkew";
+    private static String ACTIVITYSTORE_BULK_SIZE = "ActivityStore.Elasticsearch.bulkSize";
     
-    private static int DEFAULT_RESPONSE_SIZE = 100000;
+    private static int DEFAULT_RESPONSE_SIZE = 1000;
     private static long DEFAULT_TIMEOUT = 10000L;
+    private static long DEFAULT_ROLLOVER_SKEW = 300000L;
     
+    private static final String OBJECT_NAME_STORE="overlord.rtgov.server:name=ElasticsearchActivityStore";
+
+    private static final ElasticsearchCursor.HitConverter<ActivityType> ACTIVITY_TYPE_CONVERTER=
+                        new ElasticsearchCursor.SourceConverter<ActivityType>(ActivityType.class);
+
+    /**
+     * Rely on the index refresh interval to make stored activity information visible.
+     */
+    public static final String REFRESH_POLICY_NONE = "none";
+
+    /**
+     * Refresh the index after activity information has been stored.
+     */
+    public static final String REFRESH_POLICY_WRITE = "write";
+
+    /**
+     * Refresh the index before activity information is queried.
+     */
+    public static final String REFRESH_POLICY_READ = "read";
+
     private int _responseSize;
     private long _timeout;
+    private String _refreshPolicy=REFRESH_POLICY_NONE;
+    private SearchType _searchType=SearchType.QUERY_THEN_FETCH;
+    
+    private StageMetrics _refreshMetrics=new StageMetrics();
+    private StageMetrics _searchMetrics=new StageMetrics();
     
     private ElasticsearchClient _client=new ElasticsearchClient();
 
@@ -81,9 +155,25 @@ public class ElasticsearchActivityStore implements ActivityStore {
     public void init() {
         _client.setIndex(RTGovProperties.getProperty(ACTIVITYSTORE_UNIT_INDEX, "rtgov"));
         _client.setType(RTGovProperties.getProperty(ACTIVITYSTORE_UNIT_TYPE, "activity"));
+        _client.setRollover(RTGovProperties.getProperty(ACTIVITYSTORE_ROLLOVER,
+                                ElasticsearchIndexLifecycle.ROLLOVER_NONE));
+        _client.setRolloverSkew(RTGovProperties.getPropertyAsLong(ACTIVITYSTORE_ROLLOVER_SKEW,
+                                DEFAULT_ROLLOVER_SKEW));
+        _client.setBulkSize(RTGovProperties.getPropertyAsInteger(ACTIVITYSTORE_BULK_SIZE, 0));
+        _client.setBulkFailureHandler(new ElasticsearchBulkProcessor.FailureHandler() {
+            @SuppressWarnings("rawtypes")
+            public void failed(ActionRequest request, String reason) {
+                LOG.severe(MessageFormat.format(java.util.PropertyResourceBundle.getBundle(
+                        "activity-store-elasticsearch.Messages").getString("ACTIVITY-STORE-ELASTICSEARCH-8"),
+                        request, reason));
+            }
+        });
         
         _responseSize = RTGovProperties.getPropertyAsInteger(ACTIVITYSTORE_RESPONSE_SIZE, DEFAULT_RESPONSE_SIZE);
         _timeout = RTGovProperties.getPropertyAsLong(ACTIVITYSTORE_TIMEOUT, DEFAULT_TIMEOUT);
+        _refreshPolicy = RTGovProperties.getProperty(ACTIVITYSTORE_REFRESH_POLICY, REFRESH_POLICY_NONE);
+        _searchType = SearchType.fromString(RTGovProperties.getProperty(ACTIVITYSTORE_SEARCH_TYPE,
+                                "query_then_fetch"));
         
         try {
             _client.init();
@@ -91,6 +181,166 @@ public class ElasticsearchActivityStore implements ActivityStore {
             // TODO Auto-generated catch block
             e.printStackTrace();
         }
+        
+        try {
+            MBeanServer mbs = ManagementFactory.getPlatformMBeanServer();
+            
+            if (LOG.isLoggable(Level.FINE)) {
+                LOG.fine("Register the ElasticsearchActivityStore MBean["
+                            +OBJECT_NAME_STORE+"]: "+this);
+            }
+            
+            mbs.registerMBean(this, new ObjectName(OBJECT_NAME_STORE));
+            
+        } catch (Exception e) {
+            LOG.log(Level.SEVERE, java.util.PropertyResourceBundle.getBundle(
+                    "activity-store-elasticsearch.Messages").getString("ACTIVITY-STORE-ELASTICSEARCH-6"), e);
+        }
+    }
+
+    /**
+     * This method returns the maximum number of hits retrieved
+     * in each page of results.
+     * 
+     * @return The response size
+     */
+    public int getResponseSize() {
+        return (_responseSize);
+    }
+
+    /**
+     * This method sets the maximum number of hits retrieved
+     * in each page of results.
+     * 
+     * @param size The response size
+     */
+    public void setResponseSize(int size) {
+        _responseSize = size;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public String getRefreshPolicy() {
+        return (_refreshPolicy);
+    }
+
+    /**
+     * This method sets the refresh policy, determining whether the index
+     * is refreshed after each store ('write'), before each query ('read'),
+     * or not at all ('none').
+     *
+     * @param policy The refresh policy
+     */
+    public void setRefreshPolicy(String policy) {
+        _refreshPolicy = policy;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public String getSearchType() {
+        return (_searchType.name());
+    }
+
+    /**
+     * This method sets the search type used when querying the activity types.
+     *
+     * @param searchType The search type
+     */
+    public void setSearchType(SearchType searchType) {
+        _searchType = searchType;
+    }
+
+    /**
+     * This method refreshes the index, so that all stored activity
+     * information is visible to subsequent queries.
+     */
+    public void refresh() {
+        long start=System.nanoTime();
+        
+        try {
+            _client.getElasticsearchClient().admin().indices().prepareRefresh(_client.getReadIndex())
+                        .execute().actionGet();
+            
+            _refreshMetrics.record(System.nanoTime()-start);
+            
+        } catch (RuntimeException re) {
+            _refreshMetrics.recordFailure();
+            throw re;
+        }
+    }
+
+    /**
+     * This method performs the supplied search, recording its latency,
+     * and refreshing the index beforehand if required by the refresh
+     * policy.
+     *
+     * @param search The search
+     * @return The response
+     */
+    protected SearchResponse search(SearchRequestBuilder search) {
+        if (REFRESH_POLICY_READ.equals(_refreshPolicy)) {
+            refresh();
+        }
+        
+        long start=System.nanoTime();
+        
+        try {
+            SearchResponse ret=search.execute().actionGet();
+            
+            _searchMetrics.record(System.nanoTime()-start);
+            
+            return (ret);
+        } catch (RuntimeException re) {
+            _searchMetrics.recordFailure();
+            throw re;
+        }
+    }
+
+    /**
+     * This method performs the supplied search, returning a cursor that retrieves
+     * the hits a page at a time, and refreshing the index beforehand if required
+     * by the refresh policy. The latency of retrieving the first page is recorded.
+     *
+     * @param search The search
+     * @param converter The converter from hit to result
+     * @param <T> The result type
+     * @return The cursor
+     */
+    protected <T> ElasticsearchCursor<T> scroll(SearchRequestBuilder search,
+                        ElasticsearchCursor.HitConverter<T> converter) {
+        return (scroll(search, _responseSize, converter));
+    }
+
+    /**
+     * This method performs the supplied search, returning a cursor that retrieves
+     * the hits a page of the supplied size at a time.
+     *
+     * @param search The search
+     * @param pageSize The maximum number of hits retrieved per page
+     * @param converter The converter from hit to result
+     * @param <T> The result type
+     * @return The cursor
+     */
+    protected <T> ElasticsearchCursor<T> scroll(SearchRequestBuilder search, int pageSize,
+                        ElasticsearchCursor.HitConverter<T> converter) {
+        if (REFRESH_POLICY_READ.equals(_refreshPolicy)) {
+            refresh();
+        }
+        
+        long start=System.nanoTime();
+        
+        try {
+            ElasticsearchCursor<T> ret=_client.scroll(search, pageSize, converter);
+            
+            _searchMetrics.record(System.nanoTime()-start);
+            
+            return (ret);
+        } catch (RuntimeException re) {
+            _searchMetrics.recordFailure();
+            throw re;
+        }
     }
 
     /**
@@ -103,26 +353,77 @@ public class ElasticsearchActivityStore implements ActivityStore {
     protected void persist(BulkRequestBuilder localBulkRequestBuilder, String id, ActivityUnit activityUnit) throws Exception {
         List<ActivityType> activityTypes = activityUnit.getActivityTypes();
         
+        // The activity unit and its activity types must be stored in the same index,
+        // being the index for the period of the earliest activity
+        String index = _client.getWriteIndex(getTimestamp(activityUnit));
+        
         // Temporarily clear the list of activities, while the activity unit part is stored
         activityUnit.setActivityTypes(Collections.<ActivityType>emptyList());            
-        localBulkRequestBuilder.add(_client.getElasticsearchClient().prepareIndex(_client.getIndex(), 
-                    _client.getType(), id).setSource(ElasticsearchClient.convertTypeToJson(activityUnit)));
+        localBulkRequestBuilder.add(_client.getElasticsearchClient().prepareIndex(index, 
+                    _client.getType(), id).setSource(ElasticsearchClient.convertTypeToBytes(activityUnit)));
         activityUnit.setActivityTypes(activityTypes);            
 
         // Persist activity types
         for (int i = 0; i < activityTypes.size(); i++) {
             ActivityType activityType = activityTypes.get(i);
-            localBulkRequestBuilder.add(_client.getElasticsearchClient().prepareIndex(_client.getIndex(), 
+            localBulkRequestBuilder.add(_client.getElasticsearchClient().prepareIndex(index, 
                     _client.getType() + "type", id + "-" + i).setParent(id).setSource(
-                            ElasticsearchClient.convertTypeToJson(activityType)));
+                            ElasticsearchClient.convertTypeToBytes(activityType)));
         }
     }
 
     /**
+     * This method returns the timestamp of the earliest activity within
+     * the supplied activity unit, or the current time if the activity
+     * unit does not contain any timestamped activities.
+     *
+     * @param activityUnit The activity unit
+     * @return The timestamp
+     */
+    protected static long getTimestamp(ActivityUnit activityUnit) {
+        long ret=0;
+
+        for (int i=0; i < activityUnit.getActivityTypes().size(); i++) {
+            long timestamp=activityUnit.getActivityTypes().get(i).getTimestamp();
+
+            if (timestamp > 0 && (ret == 0 || timestamp < ret)) {
+                ret = timestamp;
+            }
+        }
+
+        if (ret == 0) {
+            ret = System.currentTimeMillis();
+        }
+
+        return (ret);
+    }
+
+    /**
+     * If bulk storage is enabled, this method returns once the activity units
+     * have been queued, so will not report a failure to store them.
+     *
      * @param activities The list of activity events to store
      * @throws Exception if any activities cannot be stored
      */
     public void store(List<ActivityUnit> activities) throws Exception {
+        store(activities, REFRESH_POLICY_WRITE.equals(_refreshPolicy));
+    }
+
+    /**
+     * This method stores the supplied activity units, optionally refreshing the
+     * index so that they are immediately visible to queries. Refreshing should
+     * only be requested where read-your-writes consistency is required, as it
+     * reduces indexing throughput.
+     * <p>
+     * If bulk storage is enabled, and a refresh is not requested, this method
+     * returns once the activity units have been queued, so will not report a
+     * failure to store them.
+     * 
+     * @param activities The list of activity events to store
+     * @param refresh Whether the index should be refreshed once stored
+     * @throws Exception if any activities cannot be stored
+     */
+    public void store(List<ActivityUnit> activities, boolean refresh) throws Exception {
         if (LOG.isLoggable(Level.FINEST)) {
             LOG.finest("Store=" + new String(ActivityUtil.serializeActivityUnitList(activities)));
         }
@@ -134,6 +435,16 @@ public class ElasticsearchActivityStore implements ActivityStore {
             persist(localBulkRequestBuilder, activityUnit.getId(), activityUnit);
         }
 
+        // Queue the requests to be stored asynchronously, unless a refresh is required
+        if (!refresh && _client.getBulkProcessor() != null) {
+            for (int i=0; i < localBulkRequestBuilder.request().requests().size(); i++) {
+                _client.enqueue(localBulkRequestBuilder.request().requests().get(i));
+            }
+            return;
+        }
+
+        localBulkRequestBuilder.setRefresh(refresh);
+
         BulkResponse bulkItemResponses = localBulkRequestBuilder.execute().actionGet();
 
         if (bulkItemResponses.hasFailures()) {
@@ -150,6 +461,26 @@ public class ElasticsearchActivityStore implements ActivityStore {
         }
     }
 
+    /**
+     * This method sends any activity information queued for bulk storage, and
+     * waits until it has been stored, or reported as failed, or the timeout
+     * expires. The number of failures can be obtained from {@link #getBulkFailed()}.
+     *
+     * @param timeout The timeout (in milliseconds)
+     * @return Whether all queued activity information has been processed
+     */
+    public boolean awaitStored(long timeout) {
+        ElasticsearchBulkProcessor processor=(_client == null ? null : _client.getBulkProcessor());
+
+        if (processor == null) {
+            return (true);
+        }
+
+        processor.flush();
+
+        return (processor.awaitCompletion(timeout));
+    }
+
     /**
      * @param id The activity unit id
      * @return ActivityUnit as activity unit or null.
@@ -169,20 +500,12 @@ public class ElasticsearchActivityStore implements ActivityStore {
                 ActivityUnit ret=ElasticsearchClient.<ActivityUnit>convertJsonToType(jsonDoc, ActivityUnit.class);
                 
                 // Retrieve the activity types associated with the activity unit
-                SearchResponse response=_client.getElasticsearchClient().prepareSearch(_client.getIndex())
+                ret.getActivityTypes().addAll(scroll(_client.getElasticsearchClient().prepareSearch(_client.getReadIndex())
                         .setTypes(_client.getType()+"type")
-                        .setSearchType(SearchType.DFS_QUERY_THEN_FETCH)
+                        .setSearchType(_searchType)
+                        .setRouting(id)
                         .setTimeout(TimeValue.timeValueMillis(_timeout))
-                        .setSize(_responseSize)
-                        .setQuery(QueryBuilders.matchQuery("unitId", id))
-                        .execute().actionGet();
-        
-                // Using iterator instead of using index, as caused out of range exception,
-                // so not sure if results are unstable
-                for (SearchHit hit : response.getHits()) {
-                    ret.getActivityTypes().add(ElasticsearchClient.convertJsonToType(hit.getSourceAsString(),
-                                            ActivityType.class));
-                }
+                        .setQuery(QueryBuilders.matchQuery("unitId", id)), ACTIVITY_TYPE_CONVERTER).toList());
                 
                 if (ret.getActivityTypes().size() > 0) {
                     // Sort the entries
@@ -216,104 +539,147 @@ public class ElasticsearchActivityStore implements ActivityStore {
                             "activity-store-elasticsearch.Messages").getString("ACTIVITY-STORE-ELASTICSEARCH-4"));
         }
         
-        RefreshRequestBuilder refreshRequestBuilder = _client.getElasticsearchClient().admin().indices().prepareRefresh(_client.getIndex());
-        _client.getElasticsearchClient().admin().indices().refresh(refreshRequestBuilder.request()).actionGet();
+        List<ActivityType> list = getActivityTypes(context, 0, 0);
         
         if (LOG.isLoggable(Level.FINEST)) {
-            LOG.finest("getActivityTypes=" + context);
+            LOG.finest("Returning activity list for context '"+context+"': "
+                        +new String(ActivityUtil.serializeActivityTypeList(list)));
         }
+        
+        return list;
+    }
 
-        QueryBuilder b2 = QueryBuilders.nestedQuery("context",
-                QueryBuilders.boolQuery()
-                        .must(QueryBuilders.matchQuery("context.value",
-                                context.getValue())).must(QueryBuilders.matchQuery("context.type", context.getType()))
-        );
-
-        SearchResponse response = _client.getElasticsearchClient().prepareSearch(
-                _client.getIndex()).setTypes(_client.getType() + "type")
-                .setSearchType(SearchType.DFS_QUERY_THEN_FETCH)
-                .setTimeout(TimeValue.timeValueMillis(_timeout))
-                .setSize(_responseSize)
-                .setQuery(b2).execute().actionGet();
+    /**
+     * @param context The optional context value
+     * @param from    The 'from' timestamp
+     * @param to      The 'to' timestamp
+     * @return List of actvitiyTypes
+     * @throws Exception in the event of timeout.
+     */
+    public List<ActivityType> getActivityTypes(Context context, long from, long to) throws Exception {
+        ElasticsearchCursor<ActivityType> cursor = getActivityTypeCursor(context, from, to);
         
-        if (response.isTimedOut()) {
+        List<ActivityType> list = cursor.toList();
+        
+        if (cursor.isTimedOut()) {
             throw new Exception(MessageFormat.format(
                     java.util.PropertyResourceBundle.getBundle(
                             "activity-store-elasticsearch.Messages").getString("ACTIVITY-STORE-ELASTICSEARCH-3"),
-                    _client.getIndex(), _client.getType(), b2.toString()
-            ));
-        }
-        List<ActivityType> list = new ArrayList<ActivityType>();
-        for (SearchHit searchHitFields : response.getHits()) {
-            list.add(ElasticsearchClient.<ActivityType>convertJsonToType(searchHitFields.getSourceAsString(),
-                                            ActivityType.class));
-        }
-        
-        if (LOG.isLoggable(Level.FINEST)) {
-            LOG.finest("Returning activity list for context '"+context+"': "
-                        +new String(ActivityUtil.serializeActivityTypeList(list)));
+                    _client.getIndex(), _client.getType(), context));
         }
         
         return list;
     }
 
     /**
+     * This method returns a cursor over the activity types associated with the
+     * optional context and time range. The activity types are retrieved from
+     * Elasticsearch a page at a time (the page size being defined by the
+     * 'ActivityStore.Elasticsearch.responseSize' property), as the cursor is
+     * iterated. The cursor must be closed if not fully consumed.
+     * 
      * @param context The optional context value
      * @param from    The 'from' timestamp
      * @param to      The 'to' timestamp
-     * @return List of actvitiyTypes
-     * @throws Exception in the event of timeout.
+     * @return The cursor
+     * @throws Exception Failed to perform the query
      */
-    public List<ActivityType> getActivityTypes(Context context, long from, long to) throws Exception {
+    public ElasticsearchCursor<ActivityType> getActivityTypeCursor(Context context, long from, long to)
+                                throws Exception {
+        return (scrollActivityTypes(context, from, to, _responseSize));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public ActivityTypeCursor getActivityTypeCursor(Context context, long from, long to,
+                        int fetchSize, int limit) throws Exception {
+        int pageSize = (fetchSize > 0 ? fetchSize : _responseSize);
         
-        // If default time range, then use the alternate method based on querying just the context
-        if (from == 0 && to == 0) {
-            return getActivityTypes(context);
+        if (limit > 0) {
+            pageSize = Math.min(pageSize, limit);
         }
         
-        RefreshRequestBuilder refreshRequestBuilder = _client.getElasticsearchClient().admin().indices().prepareRefresh(_client.getIndex());
-        _client.getElasticsearchClient().admin().indices().refresh(refreshRequestBuilder.request()).actionGet();
+        return (new ScrollCursor(scrollActivityTypes(context, from, to, pageSize), limit));
+    }
+
+    /**
+     * This method returns a cursor over the activity types associated with the
+     * optional context and time range, retrieved a page of the supplied size
+     * at a time.
+     * 
+     * @param context The optional context value
+     * @param from    The 'from' timestamp
+     * @param to      The 'to' timestamp
+     * @param pageSize The maximum number of activity types retrieved per page
+     * @return The cursor
+     * @throws Exception Failed to perform the query
+     */
+    protected ElasticsearchCursor<ActivityType> scrollActivityTypes(Context context, long from, long to,
+                                int pageSize) throws Exception {
         
         if (LOG.isLoggable(Level.FINEST)) {
             LOG.finest("getActivityTypes=" + context);
         }
 
-        if (to == 0) {
-            to = System.currentTimeMillis();
-        }
-        
-        BoolQueryBuilder b2 = QueryBuilders.boolQuery()
-                .must(QueryBuilders.rangeQuery("timestamp").from(from).to(to));
+        QueryBuilder b2 = null;
+        String[] indices = null;
         
-        if (context != null) {
-                b2 = b2.must(
+        // If default time range, then just query the context
+        if (from == 0 && to == 0) {
+            if (context == null) {
+                throw new Exception(java.util.PropertyResourceBundle.getBundle(
+                        "activity-store-elasticsearch.Messages").getString("ACTIVITY-STORE-ELASTICSEARCH-4"));
+            }
+            
+            b2 = QueryBuilders.nestedQuery("context",
+                    QueryBuilders.boolQuery()
+                            .must(QueryBuilders.matchQuery("context.value",
+                                    context.getValue())).must(QueryBuilders.matchQuery("context.type", context.getType()))
+            );
+            
+            indices = new String[]{_client.getReadIndex()};
+        } else {
+            if (to == 0) {
+                to = System.currentTimeMillis();
+            }
+            
+            BoolQueryBuilder bool = QueryBuilders.boolQuery()
+                    .must(QueryBuilders.rangeQuery("timestamp").from(from).to(to));
+            
+            if (context != null) {
+                bool = bool.must(
                         QueryBuilders.nestedQuery("context",               // Path
                                 QueryBuilders.boolQuery()
                                         .must(QueryBuilders.matchQuery("context.value", context.getValue()))
                                         .must(QueryBuilders.matchQuery("context.type", context.getType()))
-                        )
-                );
+                        ));
+            }
+            
+            b2 = bool;
+            
+            // Only search the indices for the periods within the time range
+            indices = _client.getReadIndices(from, to);
         }
 
-        SearchResponse response = _client.getElasticsearchClient().prepareSearch(
-                _client.getIndex()).setTypes(_client.getType() + "type")
-                .setSearchType(SearchType.DFS_QUERY_THEN_FETCH)
+        ElasticsearchCursor<ActivityType> cursor = scroll(_client.getElasticsearchClient().prepareSearch(
+                indices).setTypes(_client.getType() + "type")
+                .setIndicesOptions(IndicesOptions.lenientExpandOpen())
+                .setSearchType(_searchType)
                 .setTimeout(TimeValue.timeValueMillis(_timeout))
-                .setSize(_responseSize)
-                .setQuery(b2).execute().actionGet();
-        if (response.isTimedOut()) {
+                .setQuery(b2), pageSize, ACTIVITY_TYPE_CONVERTER);
+        
+        if (cursor.isTimedOut()) {
+            cursor.close();
+            
             throw new Exception(MessageFormat.format(
                     java.util.PropertyResourceBundle.getBundle(
                             "activity-store-elasticsearch.Messages").getString("ACTIVITY-STORE-ELASTICSEARCH-3"),
                     _client.getIndex(), _client.getType(), b2.toString()
             ));
         }
-        List<ActivityType> list = new ArrayList<ActivityType>();
-        for (SearchHit searchHitFields : response.getHits()) {
-            list.add(ElasticsearchClient.<ActivityType>convertJsonToType(searchHitFields.getSourceAsString(),
-                                ActivityType.class));
-        }
-        return list;
+        
+        return (cursor);
     }
 
     /**
@@ -330,6 +696,154 @@ public class ElasticsearchActivityStore implements ActivityStore {
         throw new UnsupportedOperationException("Query method not support by Elasticsearch Actvitystore");
     }
     
+    /**
+     * {@inheritDoc}
+     * <p>
+     * If index rollover is enabled, the indices for periods that ended before
+     * the cutoff are deleted first, and the activity units they contained are
+     * included in the returned count (which may therefore exceed the maximum).
+     * <p>
+     * The ids of expired activity units are obtained using an aggregation over
+     * the activity types, and activity units without any activity types are
+     * found using a child query. The activity units and their activity types
+     * are then removed using a single bulk request.
+     */
+    public int purge(long before, int maxUnits) throws Exception {
+        String childType=_client.getType() + "type";
+
+        int ret=(int)Math.min(Integer.MAX_VALUE, _client.dropIndices(before));
+
+        // Find the activity units that have activities before the cutoff
+        SearchResponse response = search(_client.getElasticsearchClient().prepareSearch(
+                _client.getReadIndex()).setTypes(childType)
+                .setTimeout(TimeValue.timeValueMillis(_timeout))
+                .setSize(0)
+                .setQuery(QueryBuilders.rangeQuery("timestamp").lt(before))
+                .addAggregation(AggregationBuilders.terms("units").field("unitId").size(maxUnits)));
+
+        java.util.Set<String> unitIds=new java.util.HashSet<String>();
+
+        for (Terms.Bucket bucket : ((Terms)response.getAggregations().get("units")).getBuckets()) {
+            unitIds.add(bucket.getKey());
+        }
+
+        if (!unitIds.isEmpty()) {
+            // Exclude activity units that also have activities after the cutoff
+            response = search(_client.getElasticsearchClient().prepareSearch(
+                    _client.getReadIndex()).setTypes(childType)
+                    .setTimeout(TimeValue.timeValueMillis(_timeout))
+                    .setSize(0)
+                    .setQuery(QueryBuilders.boolQuery()
+                            .must(QueryBuilders.termsQuery("unitId", unitIds))
+                            .must(QueryBuilders.rangeQuery("timestamp").gte(before)))
+                    .addAggregation(AggregationBuilders.terms("units").field("unitId").size(unitIds.size())));
+
+            for (Terms.Bucket bucket : ((Terms)response.getAggregations().get("units")).getBuckets()) {
+                unitIds.remove(bucket.getKey());
+            }
+        }
+
+        final String index=_client.getReadIndex();
+        final BulkRequestBuilder localBulkRequestBuilder = _client.getElasticsearchClient().prepareBulk();
+
+        // Record the index containing each activity unit, as it may be one of several
+        final java.util.Map<String, String> unitIndices=new java.util.HashMap<String, String>();
+
+        if (!unitIds.isEmpty()) {
+            removeActivityTypes(localBulkRequestBuilder, unitIds, unitIndices);
+        }
+
+        for (String unitId : unitIds) {
+            if (unitIndices.containsKey(unitId)) {
+                localBulkRequestBuilder.add(_client.getElasticsearchClient().prepareDelete(
+                        unitIndices.get(unitId), _client.getType(), unitId));
+            }
+        }
+
+        // Find the activity units that do not have any activities
+        int empty=0;
+
+        if (unitIds.size() < maxUnits) {
+            response = search(_client.getElasticsearchClient().prepareSearch(index)
+                    .setTypes(_client.getType())
+                    .setTimeout(TimeValue.timeValueMillis(_timeout))
+                    .setSize(maxUnits - unitIds.size())
+                    .setFetchSource(false)
+                    .setQuery(QueryBuilders.boolQuery().mustNot(
+                            QueryBuilders.hasChildQuery(childType, QueryBuilders.matchAllQuery()))));
+
+            for (SearchHit hit : response.getHits().getHits()) {
+                localBulkRequestBuilder.add(_client.getElasticsearchClient().prepareDelete(
+                        hit.getIndex(), _client.getType(), hit.getId()));
+                empty++;
+            }
+        }
+
+        if (localBulkRequestBuilder.numberOfActions() == 0) {
+            return (ret);
+        }
+
+        BulkResponse bulkItemResponses = localBulkRequestBuilder.execute().actionGet();
+
+        if (bulkItemResponses.hasFailures()) {
+            throw new Exception(MessageFormat.format(
+                    java.util.PropertyResourceBundle.getBundle(
+                            "activity-store-elasticsearch.Messages").getString("ACTIVITY-STORE-ELASTICSEARCH-5"),
+                    before, bulkItemResponses.buildFailureMessage()));
+        }
+
+        if (LOG.isLoggable(Level.FINEST)) {
+            LOG.finest("Purged " + unitIds.size() + " activity units before " + before
+                        + ", and " + empty + " activity units without activities");
+        }
+
+        return (ret+unitIds.size()+empty);
+    }
+
+    /**
+     * This method adds requests to the supplied bulk request, to remove the
+     * activity types associated with the supplied activity units, and records
+     * the index containing each activity unit.
+     *
+     * @param localBulkRequestBuilder The bulk request
+     * @param unitIds The activity unit ids
+     * @param unitIndices The map of activity unit id to index
+     * @throws Exception Failed to find the activity types
+     */
+    protected void removeActivityTypes(BulkRequestBuilder localBulkRequestBuilder, java.util.Set<String> unitIds,
+                        final java.util.Map<String, String> unitIndices) throws Exception {
+        String index=_client.getReadIndex();
+        String childType=_client.getType() + "type";
+
+        ElasticsearchCursor<DeleteRequestBuilder> cursor = scroll(_client.getElasticsearchClient().prepareSearch(
+                index).setTypes(childType)
+                .setTimeout(TimeValue.timeValueMillis(_timeout))
+                .setQuery(QueryBuilders.termsQuery("unitId", unitIds))
+                .addField("unitId"), new ElasticsearchCursor.HitConverter<DeleteRequestBuilder>() {
+                    public DeleteRequestBuilder convert(SearchHit hit) {
+                        String unitId=(String)hit.field("unitId").getValue();
+                        unitIndices.put(unitId, hit.getIndex());
+                        return (_client.getElasticsearchClient().prepareDelete(hit.getIndex(),
+                                hit.getType(), hit.getId()).setParent(unitId));
+                    }
+                });
+
+        try {
+            while (cursor.hasNext()) {
+                localBulkRequestBuilder.add(cursor.next());
+            }
+        } finally {
+            cursor.close();
+        }
+
+        if (cursor.isTimedOut()) {
+            throw new Exception(MessageFormat.format(
+                    java.util.PropertyResourceBundle.getBundle(
+                            "activity-store-elasticsearch.Messages").getString("ACTIVITY-STORE-ELASTICSEARCH-3"),
+                    index, childType, unitIds));
+        }
+    }
+
     /**
      * This method returns the client.
      * 
@@ -338,6 +852,15 @@ public class ElasticsearchActivityStore implements ActivityStore {
     protected ElasticsearchClient getClient() {
         return (_client);
     }
+
+    /**
+     * This method sets the client.
+     * 
+     * @param client The client
+     */
+    protected void setClient(ElasticsearchClient client) {
+        _client = client;
+    }
     
     /**
      * Close the situation store.
@@ -348,5 +871,160 @@ public class ElasticsearchActivityStore implements ActivityStore {
             _client.close();
             _client = null;
         }
+        
+        try {
+            MBeanServer mbs = ManagementFactory.getPlatformMBeanServer();
+            
+            ObjectName objname=new ObjectName(OBJECT_NAME_STORE);
+            
+            if (mbs.isRegistered(objname)) {
+                mbs.unregisterMBean(objname);
+            }
+            
+        } catch (Throwable t) {
+            if (LOG.isLoggable(Level.FINER)) {
+                LOG.log(Level.FINER, java.util.PropertyResourceBundle.getBundle(
+                    "activity-store-elasticsearch.Messages").getString("ACTIVITY-STORE-ELASTICSEARCH-7"), t);
+            }
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getSearchCount() {
+        return (_searchMetrics.getCount());
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getSearchFailures() {
+        return (_searchMetrics.getFailures());
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public double getSearchAverageLatency() {
+        return (_searchMetrics.getAverageLatency());
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getSearchMaxLatency() {
+        return (_searchMetrics.getMaxLatency());
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getRefreshCount() {
+        return (_refreshMetrics.getCount());
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public double getRefreshAverageLatency() {
+        return (_refreshMetrics.getAverageLatency());
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getRefreshMaxLatency() {
+        return (_refreshMetrics.getMaxLatency());
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getBulkSubmitted() {
+        ElasticsearchBulkProcessor processor=(_client == null ? null : _client.getBulkProcessor());
+        return (processor == null ? 0 : processor.getSubmitted());
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getBulkRetried() {
+        ElasticsearchBulkProcessor processor=(_client == null ? null : _client.getBulkProcessor());
+        return (processor == null ? 0 : processor.getRetried());
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getBulkFailed() {
+        ElasticsearchBulkProcessor processor=(_client == null ? null : _client.getBulkProcessor());
+        return (processor == null ? 0 : processor.getFailed());
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public int getBulkInFlight() {
+        ElasticsearchBulkProcessor processor=(_client == null ? null : _client.getBulkProcessor());
+        return (processor == null ? 0 : processor.getInFlight());
+    }
+
+    /**
+     * This class adapts the scroll based cursor to the activity type cursor,
+     * limiting the number of activity types returned.
+     *
+     */
+    protected static class ScrollCursor implements ActivityTypeCursor {
+
+        private ElasticsearchCursor<ActivityType> _cursor;
+        private int _remaining;
+
+        /**
+         * This constructor initializes the cursor.
+         *
+         * @param cursor The scroll based cursor
+         * @param limit The maximum number of activity types returned, or 0 if unlimited
+         */
+        public ScrollCursor(ElasticsearchCursor<ActivityType> cursor, int limit) {
+            _cursor = cursor;
+            _remaining = (limit > 0 ? limit : Integer.MAX_VALUE);
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public boolean hasNext() {
+            if (_remaining <= 0) {
+                _cursor.close();
+                return (false);
+            }
+            return (_cursor.hasNext());
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public ActivityType next() {
+            if (!hasNext()) {
+                throw new java.util.NoSuchElementException();
+            }
+            _remaining--;
+            return (_cursor.next());
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public void close() {
+            _cursor.close();
+        }
     }
 }
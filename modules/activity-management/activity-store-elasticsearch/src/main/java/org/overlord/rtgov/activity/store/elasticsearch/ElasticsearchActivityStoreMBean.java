@@ -0,0 +1,126 @@
+/*
+ * 2014 Red Hat Inc. and/or its affiliates and other contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.overlord.rtgov.activity.store.elasticsearch;
+
+/**
+ * This interface defines the management attributes for the
+ * Elasticsearch activity store.
+ *
+ */
+public interface ElasticsearchActivityStoreMBean {
+
+    /**
+     * This method returns the refresh policy.
+     *
+     * @return The refresh policy
+     */
+    public String getRefreshPolicy();
+
+    /**
+     * This method returns the search type used to query
+     * the activity types.
+     *
+     * @return The search type
+     */
+    public String getSearchType();
+
+    /**
+     * This method returns the number of searches performed.
+     *
+     * @return The search count
+     */
+    public long getSearchCount();
+
+    /**
+     * This method returns the number of searches that failed.
+     *
+     * @return The search failures
+     */
+    public long getSearchFailures();
+
+    /**
+     * This method returns the average time, in milliseconds,
+     * taken to perform a search.
+     *
+     * @return The average search latency
+     */
+    public double getSearchAverageLatency();
+
+    /**
+     * This method returns the maximum time, in milliseconds,
+     * taken to perform a search.
+     *
+     * @return The maximum search latency
+     */
+    public long getSearchMaxLatency();
+
+    /**
+     * This method returns the number of explicit index refreshes
+     * performed.
+     *
+     * @return The refresh count
+     */
+    public long getRefreshCount();
+
+    /**
+     * This method returns the average time, in milliseconds,
+     * taken to refresh the index.
+     *
+     * @return The average refresh latency
+     */
+    public double getRefreshAverageLatency();
+
+    /**
+     * This method returns the maximum time, in milliseconds,
+     * taken to refresh the index.
+     *
+     * @return The maximum refresh latency
+     */
+    public long getRefreshMaxLatency();
+
+    /**
+     * This method returns the number of requests queued
+     * to the bulk processor.
+     *
+     * @return The number of bulk requests submitted
+     */
+    public long getBulkSubmitted();
+
+    /**
+     * This method returns the number of times queued requests have
+     * been retried, after being rejected by Elasticsearch.
+     *
+     * @return The number of bulk retries
+     */
+    public long getBulkRetried();
+
+    /**
+     * This method returns the number of queued requests that
+     * could not be stored.
+     *
+     * @return The number of failed bulk requests
+     */
+    public long getBulkFailed();
+
+    /**
+     * This method returns the number of bulk requests
+     * currently in flight.
+     *
+     * @return The number of bulk requests in flight
+     */
+    public int getBulkInFlight();
+
+}
@@ -0,0 +1,216 @@
+/*
+ * 2014 Red Hat Inc. and/or its affiliates and other contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.overlord.rtgov.activity.store.elasticsearch;
+
+import static org.junit.Assert.fail;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+
+import org.elasticsearch.action.bulk.BulkRequestBuilder;
+import org.elasticsearch.action.index.IndexRequestBuilder;
+import org.elasticsearch.client.Client;
+import org.junit.Test;
+import org.overlord.rtgov.activity.model.ActivityType;
+import org.overlord.rtgov.activity.model.ActivityUnit;
+import org.overlord.rtgov.activity.model.Context;
+import org.overlord.rtgov.activity.model.Origin;
+import org.overlord.rtgov.activity.model.soa.RequestReceived;
+import org.overlord.rtgov.activity.model.soa.ResponseSent;
+import org.overlord.rtgov.common.elasticsearch.ElasticsearchClient;
+
+/**
+ * This benchmark compares the number of bytes allocated, per indexed activity,
+ * when encoding activity units and their activity types as json Strings, with
+ * the activity store's encoding of them directly to bytes. The requests are
+ * built using a client that does not send them, so that only the encoding is
+ * measured.
+ *
+ */
+public class ActivityEncodingBenchmarkTest {
+
+    private static final int WARMUP=2000;
+    private static final int ITERATIONS=5000;
+    private static final int ACTIVITIES_PER_UNIT=10;
+
+    private static final String INDEX="rtgov";
+    private static final String TYPE="activity";
+
+    protected ActivityUnit createActivityUnit() {
+        ActivityUnit ret=new ActivityUnit();
+        ret.setId("au1");
+
+        Origin origin=new Origin();
+        origin.setHost("host1");
+        origin.setNode("node1");
+        origin.setThread("thread1");
+        ret.setOrigin(origin);
+
+        for (int i=0; i < ACTIVITIES_PER_UNIT; i++) {
+            RPCActivityFactory factory=(i % 2 == 0 ? RPCActivityFactory.REQUEST : RPCActivityFactory.RESPONSE);
+            ActivityType at=factory.create();
+            at.setTimestamp(System.currentTimeMillis());
+            at.setUnitId(ret.getId());
+            at.setUnitIndex(i);
+            at.getContext().add(new Context(Context.Type.Conversation, "order-"+i));
+            at.getProperties().put("customer", "Fred");
+            ret.getActivityTypes().add(at);
+        }
+
+        return (ret);
+    }
+
+    protected ElasticsearchActivityStore createStore() {
+        final Client client=(Client)Proxy.newProxyInstance(Client.class.getClassLoader(),
+                    new Class<?>[]{Client.class}, new InvocationHandler() {
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                if (method.getName().equals("threadPool")) {
+                    // Only used when a request is executed
+                    return (null);
+                } else if (method.getName().equals("prepareBulk")) {
+                    return (new BulkRequestBuilder((Client)proxy));
+                } else if (method.getName().equals("prepareIndex") && args != null && args.length == 3) {
+                    return (new IndexRequestBuilder((Client)proxy, (String)args[0])
+                                .setType((String)args[1]).setId((String)args[2]));
+                }
+                throw new UnsupportedOperationException(method.getName());
+            }
+        });
+
+        ElasticsearchClient esclient=new ElasticsearchClient() {
+            public Client getElasticsearchClient() {
+                return (client);
+            }
+        };
+        esclient.setIndex(INDEX);
+        esclient.setType(TYPE);
+
+        ElasticsearchActivityStore ret=new ElasticsearchActivityStore();
+        ret.setClient(esclient);
+
+        return (ret);
+    }
+
+    protected void encodeAsString(ElasticsearchActivityStore store, ActivityUnit unit) {
+        Client client=store.getClient().getElasticsearchClient();
+        BulkRequestBuilder bulk=client.prepareBulk();
+
+        java.util.List<ActivityType> activityTypes=unit.getActivityTypes();
+
+        unit.setActivityTypes(java.util.Collections.<ActivityType>emptyList());
+        bulk.add(client.prepareIndex(INDEX, TYPE, unit.getId()).setSource(ElasticsearchClient.convertTypeToJson(unit)));
+        unit.setActivityTypes(activityTypes);
+
+        for (int i=0; i < activityTypes.size(); i++) {
+            bulk.add(client.prepareIndex(INDEX, TYPE+"type", unit.getId()+"-"+i).setParent(unit.getId())
+                    .setSource(ElasticsearchClient.convertTypeToJson(activityTypes.get(i))));
+        }
+    }
+
+    protected void encodeAsBytes(ElasticsearchActivityStore store, ActivityUnit unit) throws Exception {
+        store.persist(store.getClient().getElasticsearchClient().prepareBulk(), unit.getId(), unit);
+    }
+
+    protected long getAllocatedBytes(Method method, ThreadMXBean mxbean) throws Exception {
+        return ((Long)method.invoke(mxbean, Thread.currentThread().getId()));
+    }
+
+    protected double measure(boolean bytes, ElasticsearchActivityStore store, ActivityUnit unit,
+                        Method method, ThreadMXBean mxbean) throws Exception {
+        for (int i=0; i < WARMUP; i++) {
+            if (bytes) {
+                encodeAsBytes(store, unit);
+            } else {
+                encodeAsString(store, unit);
+            }
+        }
+
+        long start=getAllocatedBytes(method, mxbean);
+
+        for (int i=0; i < ITERATIONS; i++) {
+            if (bytes) {
+                encodeAsBytes(store, unit);
+            } else {
+                encodeAsString(store, unit);
+            }
+        }
+
+        return ((double)(getAllocatedBytes(method, mxbean)-start)/(ITERATIONS*ACTIVITIES_PER_UNIT));
+    }
+
+    @Test
+    public void testAllocationPerActivity() throws Exception {
+        ThreadMXBean mxbean=ManagementFactory.getThreadMXBean();
+
+        Method method=null;
+
+        try {
+            method = Class.forName("com.sun.management.ThreadMXBean")
+                        .getMethod("getThreadAllocatedBytes", long.class);
+
+            if (getAllocatedBytes(method, mxbean) < 0) {
+                return;
+            }
+        } catch (Exception e) {
+            // Allocation measurement not supported by this JVM
+            return;
+        }
+
+        ElasticsearchActivityStore store=createStore();
+        ActivityUnit unit=createActivityUnit();
+
+        double asString=measure(false, store, unit, method, mxbean);
+        double asBytes=measure(true, store, unit, method, mxbean);
+
+        if (asBytes >= asString) {
+            fail("Direct byte encoding should allocate less than string encoding: "
+                        +asBytes+" >= "+asString);
+        }
+    }
+
+    /**
+     * This enum creates the alternating request and response activities.
+     *
+     */
+    protected enum RPCActivityFactory {
+        REQUEST {
+            ActivityType create() {
+                RequestReceived ret=new RequestReceived();
+                ret.setServiceType("{urn:test}OrderService");
+                ret.setOperation("submitOrder");
+                ret.setMessageId("req1");
+                ret.setContent("<submitOrder><item>BUTTER</item><quantity>10</quantity></submitOrder>");
+                return (ret);
+            }
+        },
+        RESPONSE {
+            ActivityType create() {
+                ResponseSent ret=new ResponseSent();
+                ret.setServiceType("{urn:test}OrderService");
+                ret.setOperation("submitOrder");
+                ret.setMessageId("resp1");
+                ret.setReplyToId("req1");
+                ret.setContent("<submitOrderResponse><total>125.00</total></submitOrderResponse>");
+                return (ret);
+            }
+        };
+
+        abstract ActivityType create();
+    }
+}
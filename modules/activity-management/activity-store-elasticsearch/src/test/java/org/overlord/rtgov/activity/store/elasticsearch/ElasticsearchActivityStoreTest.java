@@ -21,6 +21,7 @@ package org.overlord.rtgov.activity.store.elasticsearch;
  * Time: 22:10
  */
 
+import org.elasticsearch.action.ActionRequest;
 import org.elasticsearch.client.Client;
 import org.elasticsearch.client.transport.TransportClient;
 import org.elasticsearch.common.transport.InetSocketTransportAddress;
@@ -34,7 +35,11 @@ import org.overlord.rtgov.activity.model.Context;
 import org.overlord.rtgov.activity.model.Origin;
 import org.overlord.rtgov.activity.model.soa.RequestSent;
 import org.overlord.rtgov.activity.model.soa.ResponseReceived;
+import org.overlord.rtgov.activity.server.ActivityTypeCursor;
 import org.overlord.rtgov.activity.util.ActivityUtil;
+import org.overlord.rtgov.common.elasticsearch.ElasticsearchBulkProcessor;
+import org.overlord.rtgov.common.elasticsearch.ElasticsearchClient;
+import org.overlord.rtgov.common.elasticsearch.ElasticsearchIndexLifecycle;
 import org.overlord.rtgov.common.elasticsearch.ElasticsearchNode;
 import org.overlord.rtgov.common.util.RTGovProperties;
 import org.overlord.rtgov.common.util.RTGovPropertiesProvider;
@@ -75,6 +80,10 @@ public class ElasticsearchActivityStoreTest {
      */
     private final static String TYPE = "activity";
 
+    private final static long HOUR = 3600000L;
+
+    private final static long SKEW = 60000L;
+
     public static class TestPropertiesProvider implements RTGovPropertiesProvider {
 
         private java.util.Properties _properties = new java.util.Properties();
@@ -157,7 +166,7 @@ public class ElasticsearchActivityStoreTest {
         try {
             java.util.List<ActivityUnit> list=new java.util.ArrayList<ActivityUnit>();
             list.add(createTestActivityUnit(AU_ID_1, CONV_ID_1, ENDPOINT_ID_1, 0));
-            _elasticsearchActivityStore.store(list);
+            _elasticsearchActivityStore.store(list, true);
         } catch (Exception e) {
 
             fail("Could not store Add activity unit " + e);
@@ -229,7 +238,7 @@ public class ElasticsearchActivityStoreTest {
         activities.add(au2);
 
         try {
-            _elasticsearchActivityStore.store(activities);
+            _elasticsearchActivityStore.store(activities, true);
             
             // Delay to enable search index
             synchronized (this) {
@@ -299,7 +308,7 @@ public class ElasticsearchActivityStoreTest {
         activities.add(au3);
         try {
             //store both ATs
-            _elasticsearchActivityStore.store(activities);
+            _elasticsearchActivityStore.store(activities, true);
         } catch (Exception e) {
             e.printStackTrace();
             fail("Could not  store activity units " + e);
@@ -375,7 +384,7 @@ public class ElasticsearchActivityStoreTest {
         activities.add(au3);
         try {
             //store both ATs
-            _elasticsearchActivityStore.store(activities);
+            _elasticsearchActivityStore.store(activities, true);
         } catch (Exception e) {
             e.printStackTrace();
             fail("Could not  store activity units " + e);
@@ -416,6 +425,499 @@ public class ElasticsearchActivityStoreTest {
         }
     }
 
+    @Test
+    public void testGetActivityTypesPaged() {
+        java.util.List<ActivityUnit> activities = new java.util.ArrayList<ActivityUnit>();
+
+        for (int i = 0; i < 5; i++) {
+            activities.add(createTestActivityUnit("page" + i, "P1", "E1", 80000 + i));
+        }
+
+        int size = _elasticsearchActivityStore.getResponseSize();
+
+        _elasticsearchActivityStore.setResponseSize(2);
+
+        try {
+            _elasticsearchActivityStore.store(activities, true);
+
+            Context context = new Context();
+            context.setType(Context.Type.Conversation);
+            context.setValue("P1");
+
+            // Results should be retrieved a page at a time, without being truncated
+            java.util.List<ActivityType> results = _elasticsearchActivityStore.getActivityTypes(context);
+
+            if (results.size() != 5) {
+                fail("Expecting 5 results: " + results.size());
+            }
+
+            org.overlord.rtgov.common.elasticsearch.ElasticsearchCursor<ActivityType> cursor =
+                        _elasticsearchActivityStore.getActivityTypeCursor(context, 0, 0);
+
+            if (cursor.getTotalHits() != 5) {
+                fail("Expecting 5 total hits: " + cursor.getTotalHits());
+            }
+
+            if (!cursor.hasNext() || cursor.next() == null) {
+                fail("Expecting first result");
+            }
+
+            cursor.close();
+
+            int remaining = 0;
+
+            while (cursor.hasNext()) {
+                cursor.next();
+                remaining++;
+            }
+
+            // Only the remainder of the current page should be available
+            if (remaining != 1) {
+                fail("Closed cursor should not retrieve further pages: " + remaining);
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+            fail("Failed to query activity types " + e);
+        } finally {
+            _elasticsearchActivityStore.setResponseSize(size);
+        }
+
+        try {
+            for (int i = 0; i < 5; i++) {
+                _elasticsearchActivityStore.getClient().remove("page" + i);
+            }
+        } catch (Exception e) {
+            fail("Could not remove activity unit " + e);
+        }
+    }
+
+    @Test
+    public void testGetActivityTypeCursorWithLimit() {
+        java.util.List<ActivityUnit> activities = new java.util.ArrayList<ActivityUnit>();
+
+        for (int i = 0; i < 5; i++) {
+            activities.add(createTestActivityUnit("limit" + i, "L1", "E1", 90000 + i));
+        }
+
+        try {
+            _elasticsearchActivityStore.store(activities, true);
+
+            Context context = new Context();
+            context.setType(Context.Type.Conversation);
+            context.setValue("L1");
+
+            ActivityTypeCursor cursor = _elasticsearchActivityStore.getActivityTypeCursor(context, 0, 0, 2, 0);
+
+            int count = 0;
+
+            try {
+                while (cursor.hasNext()) {
+                    cursor.next();
+                    count++;
+                }
+            } finally {
+                cursor.close();
+            }
+
+            if (count != 5) {
+                fail("Expecting 5 results: " + count);
+            }
+
+            cursor = _elasticsearchActivityStore.getActivityTypeCursor(context, 0, 0, 2, 3);
+
+            count = 0;
+
+            try {
+                while (cursor.hasNext()) {
+                    cursor.next();
+                    count++;
+                }
+            } finally {
+                cursor.close();
+            }
+
+            if (count != 3) {
+                fail("Expecting 3 results: " + count);
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+            fail("Failed to query activity types " + e);
+        }
+
+        try {
+            for (int i = 0; i < 5; i++) {
+                _elasticsearchActivityStore.getClient().remove("limit" + i);
+            }
+        } catch (Exception e) {
+            fail("Could not remove activity unit " + e);
+        }
+    }
+
+    @Test
+    public void testRefreshPolicy() {
+        java.util.List<ActivityUnit> activities = new java.util.ArrayList<ActivityUnit>();
+        activities.add(createTestActivityUnit("r1", "R1", "E1", 70000));
+
+        long refreshes = _elasticsearchActivityStore.getRefreshCount();
+        long searches = _elasticsearchActivityStore.getSearchCount();
+
+        _elasticsearchActivityStore.setRefreshPolicy(ElasticsearchActivityStore.REFRESH_POLICY_READ);
+
+        try {
+            // Stored without refresh, so only visible due to refresh on read
+            _elasticsearchActivityStore.store(activities, false);
+
+            Context context = new Context();
+            context.setType(Context.Type.Conversation);
+            context.setValue("R1");
+
+            java.util.List<ActivityType> results = _elasticsearchActivityStore.getActivityTypes(context);
+
+            if (results.size() != 1) {
+                fail("Expecting 1 result: " + results.size());
+            }
+
+            if (_elasticsearchActivityStore.getRefreshCount() != refreshes + 1) {
+                fail("Expecting index to be refreshed before query");
+            }
+
+            if (_elasticsearchActivityStore.getSearchCount() != searches + 1) {
+                fail("Expecting search to be recorded");
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+            fail("Failed to query activity types " + e);
+        } finally {
+            _elasticsearchActivityStore.setRefreshPolicy(ElasticsearchActivityStore.REFRESH_POLICY_NONE);
+        }
+
+        try {
+            _elasticsearchActivityStore.getClient().remove("r1");
+        } catch (Exception e) {
+            fail("Could not remove activity unit " + e);
+        }
+    }
+
+    @Test
+    public void testPurge() {
+        java.util.List<ActivityUnit> activities = new java.util.ArrayList<ActivityUnit>();
+
+        activities.add(createTestActivityUnit("p1", "C1", "E1", 50000));
+        activities.add(createTestActivityUnit("p2", "C1", "E1", 60000));
+
+        try {
+            _elasticsearchActivityStore.store(activities, true);
+
+            // Unit p2 has one activity before, and one after, the cutoff
+            int count = _elasticsearchActivityStore.purge(61500, 100);
+
+            if (count < 1) {
+                fail("Expecting activity unit to be purged: " + count);
+            }
+
+            _elasticsearchActivityStore.refresh();
+
+            if (_elasticsearchActivityStore.getActivityUnit("p1") != null) {
+                fail("Activity unit p1 should have been purged");
+            }
+
+            ActivityUnit au = _elasticsearchActivityStore.getActivityUnit("p2");
+
+            if (au == null) {
+                fail("Activity unit p2 should not have been purged");
+            }
+
+            if (au.getActivityTypes().size() != 2) {
+                fail("Expecting 2 activity types for p2: " + au.getActivityTypes().size());
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+            fail("Failed to purge activity units " + e);
+        }
+
+        try {
+            _elasticsearchActivityStore.getClient().remove("p2");
+        } catch (Exception e) {
+            fail("Could not remove activity unit " + e);
+        }
+    }
+
+    @Test
+    public void testPurgeEmptyActivityUnit() {
+        java.util.List<ActivityUnit> activities = new java.util.ArrayList<ActivityUnit>();
+
+        ActivityUnit empty = new ActivityUnit();
+        empty.setId("pe1");
+        activities.add(empty);
+
+        try {
+            _elasticsearchActivityStore.store(activities, true);
+
+            int count = _elasticsearchActivityStore.purge(0, 100);
+
+            if (count < 1) {
+                fail("Expecting empty activity unit to be purged: " + count);
+            }
+
+            _elasticsearchActivityStore.refresh();
+
+            if (_elasticsearchActivityStore.getActivityUnit("pe1") != null) {
+                fail("Activity unit pe1 should have been purged");
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+            fail("Failed to purge empty activity unit " + e);
+        }
+    }
+
+    @Test
+    public void testBulkProcessor() {
+        final java.util.List<String> failures = java.util.Collections.synchronizedList(new java.util.ArrayList<String>());
+
+        ElasticsearchClient client = new ElasticsearchClient();
+        client.setIndex(INDEX);
+        client.setType(TYPE);
+        client.setBulkSize(2);
+        client.setSchedule(100);
+        client.setConcurrentRequests(2);
+        client.setBulkFailureHandler(new ElasticsearchBulkProcessor.FailureHandler() {
+            @SuppressWarnings("rawtypes")
+            public void failed(ActionRequest request, String reason) {
+                failures.add(reason);
+            }
+        });
+
+        try {
+            client.init();
+
+            for (int i = 0; i < 5; i++) {
+                ActivityUnit au = new ActivityUnit();
+                au.setId("b" + i);
+                client.add(au.getId(), ElasticsearchClient.convertTypeToBytes(au));
+            }
+
+            // Activity type without parent should be reported as failed
+            client.enqueue(client.getElasticsearchClient().prepareIndex(INDEX, TYPE + "type", "b-orphan")
+                        .setSource("{}").request());
+
+            client.getBulkProcessor().flush();
+
+            if (!client.getBulkProcessor().awaitCompletion(10000)) {
+                fail("Bulk requests did not complete");
+            }
+
+            if (client.getBulkProcessor().getSubmitted() != 6) {
+                fail("Expecting 6 submitted: " + client.getBulkProcessor().getSubmitted());
+            }
+
+            if (failures.size() != 1) {
+                fail("Expecting 1 failure: " + failures);
+            }
+
+            for (int i = 0; i < 5; i++) {
+                if (client.get("b" + i) == null) {
+                    fail("Activity unit b" + i + " should have been stored");
+                }
+                client.remove("b" + i);
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+            fail("Failed to use bulk processor " + e);
+        } finally {
+            // Only close the bulk processor, as the client is shared with the embedded node
+            if (client.getBulkProcessor() != null) {
+                client.getBulkProcessor().close();
+            }
+        }
+    }
+
+    @Test
+    public void testRolloverRouting() {
+        ElasticsearchActivityStore store = createRolloverStore();
+
+        try {
+            // Activity unit received late, three periods after its activities occurred
+            long baseTime = (System.currentTimeMillis() / HOUR - 3) * HOUR + 2 * SKEW;
+
+            java.util.List<ActivityUnit> activities = new java.util.ArrayList<ActivityUnit>();
+            activities.add(createTestActivityUnit("ro1", "C1", "E1", baseTime));
+
+            store.store(activities, true);
+
+            String index = new ElasticsearchIndexLifecycle(store.getClient().getElasticsearchClient(),
+                        INDEX, TYPE, ElasticsearchIndexLifecycle.ROLLOVER_HOURLY).getIndex(baseTime);
+
+            if (!store.getClient().getElasticsearchClient().prepareGet(index, TYPE, "ro1")
+                        .setRouting("ro1").execute().actionGet().isExists()) {
+                fail("Activity unit should be stored in the index for its period: " + index);
+            }
+
+            java.util.List<ActivityType> types = store.getActivityTypes(null, baseTime + 500, baseTime + 1500);
+
+            if (types.size() != 1) {
+                fail("Expecting 1 activity type in time window: " + types.size());
+            }
+
+            ActivityUnit au = store.getActivityUnit("ro1");
+
+            if (au == null || au.getActivityTypes().size() != 2) {
+                fail("Expecting activity unit with 2 activity types: " + au);
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+            fail("Failed to route activity unit " + e);
+        } finally {
+            removeRolloverIndices(store);
+        }
+    }
+
+    @Test
+    public void testRolloverLocateWithoutRefresh() {
+        ElasticsearchActivityStore store = createRolloverStore();
+
+        try {
+            // Activity unit received late, stored in a past period's index without a refresh
+            long baseTime = (System.currentTimeMillis() / HOUR - 3) * HOUR + 2 * SKEW;
+
+            java.util.List<ActivityUnit> activities = new java.util.ArrayList<ActivityUnit>();
+            activities.add(createTestActivityUnit("ro2", "C1", "E1", baseTime));
+
+            store.store(activities, false);
+
+            if (store.getClient().get("ro2") == null) {
+                fail("Activity unit should be found in a past period without a refresh");
+            }
+
+            store.getClient().remove("ro2");
+
+            if (store.getClient().get("ro2") != null) {
+                fail("Activity unit should have been removed without a refresh");
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+            fail("Failed to locate activity unit " + e);
+        } finally {
+            removeRolloverIndices(store);
+        }
+    }
+
+    @Test
+    public void testRolloverReadIndices() {
+        ElasticsearchIndexLifecycle lifecycle = new ElasticsearchIndexLifecycle(_node.getClient(),
+                        INDEX, TYPE, ElasticsearchIndexLifecycle.ROLLOVER_HOURLY);
+        lifecycle.setSkew(SKEW);
+
+        long periodStart = (System.currentTimeMillis() / HOUR - 10) * HOUR;
+
+        // Start of range within the skew of the previous period
+        String[] indices = lifecycle.getReadIndices(periodStart + SKEW / 2, periodStart + SKEW);
+
+        if (indices.length != 2 || !indices[0].equals(lifecycle.getIndex(periodStart - HOUR))
+                    || !indices[1].equals(lifecycle.getIndex(periodStart))) {
+            fail("Expecting previous and current period indices: " + java.util.Arrays.asList(indices));
+        }
+
+        indices = lifecycle.getReadIndices(periodStart + 2 * SKEW, periodStart + 3 * SKEW);
+
+        if (indices.length != 1 || !indices[0].equals(lifecycle.getIndex(periodStart))) {
+            fail("Expecting current period index: " + java.util.Arrays.asList(indices));
+        }
+
+        indices = lifecycle.getReadIndices(periodStart + 2 * SKEW, periodStart + 2 * HOUR + 2 * SKEW);
+
+        if (indices.length != 3) {
+            fail("Expecting 3 period indices: " + java.util.Arrays.asList(indices));
+        }
+
+        indices = lifecycle.getReadIndices(0, periodStart);
+
+        if (indices.length != 1 || !indices[0].equals(lifecycle.getReadAlias())) {
+            fail("Expecting read alias for unbounded range: " + java.util.Arrays.asList(indices));
+        }
+
+        indices = lifecycle.getReadIndices(periodStart - 200 * HOUR, periodStart);
+
+        if (indices.length != 1 || !indices[0].equals(lifecycle.getReadAlias())) {
+            fail("Expecting read alias for large range: " + java.util.Arrays.asList(indices));
+        }
+    }
+
+    @Test
+    public void testRolloverDrop() {
+        ElasticsearchActivityStore store = createRolloverStore();
+        Client c = store.getClient().getElasticsearchClient();
+
+        try {
+            long period = System.currentTimeMillis() / HOUR;
+
+            java.util.List<ActivityUnit> activities = new java.util.ArrayList<ActivityUnit>();
+            activities.add(createTestActivityUnit("rd1", "C1", "E1", (period - 5) * HOUR + 2 * SKEW));
+            activities.add(createTestActivityUnit("rd2", "C1", "E1", (period - 2) * HOUR + 2 * SKEW));
+            activities.add(createTestActivityUnit("rd3", "C1", "E1", System.currentTimeMillis()));
+
+            store.store(activities, true);
+
+            ElasticsearchIndexLifecycle lifecycle = new ElasticsearchIndexLifecycle(c,
+                        INDEX, TYPE, ElasticsearchIndexLifecycle.ROLLOVER_HOURLY);
+
+            // The period two hours ago ended before the cutoff, but within the skew
+            int count = store.purge((period - 1) * HOUR + SKEW / 2, 100);
+
+            if (count < 1) {
+                fail("Expecting activity unit to be purged: " + count);
+            }
+
+            if (c.admin().indices().prepareExists(lifecycle.getIndex((period - 5) * HOUR))
+                        .execute().actionGet().isExists()) {
+                fail("Expired index should have been dropped");
+            }
+
+            if (!c.admin().indices().prepareExists(lifecycle.getIndex((period - 2) * HOUR))
+                        .execute().actionGet().isExists()) {
+                fail("Index within the skew should not have been dropped");
+            }
+
+            store.refresh();
+
+            if (store.getActivityUnit("rd1") != null) {
+                fail("Activity unit rd1 should have been purged");
+            }
+
+            if (store.getActivityUnit("rd3") == null) {
+                fail("Activity unit rd3 should not have been purged");
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+            fail("Failed to drop expired indices " + e);
+        } finally {
+            removeRolloverIndices(store);
+        }
+    }
+
+    protected ElasticsearchActivityStore createRolloverStore() {
+        Properties props = RTGovProperties.getProperties();
+
+        props.setProperty("ActivityStore.Elasticsearch.rollover", ElasticsearchIndexLifecycle.ROLLOVER_HOURLY);
+        props.setProperty("ActivityStore.Elasticsearch.rolloverSkew", Long.toString(SKEW));
+
+        try {
+            ElasticsearchActivityStore ret = new ElasticsearchActivityStore();
+            ret.init();
+            return (ret);
+        } finally {
+            props.remove("ActivityStore.Elasticsearch.rollover");
+            props.remove("ActivityStore.Elasticsearch.rolloverSkew");
+        }
+    }
+
+    protected void removeRolloverIndices(ElasticsearchActivityStore store) {
+        // The client is shared with the embedded node, so the store is not closed
+        Client c = store.getClient().getElasticsearchClient();
+
+        c.admin().indices().prepareDelete(INDEX + "-" + TYPE + "-*").execute().actionGet();
+        c.admin().indices().prepareDeleteTemplate(INDEX + "-" + TYPE).execute().actionGet();
+    }
+
     protected ActivityUnit createTestActivityUnit(String id, String convId, String endpointId, long baseTime) {
         ActivityUnit act = new ActivityUnit();
 
@@ -17,42 +17,85 @@ package org.overlord.rtgov.activity.store.jpa;
 
 import java.net.URL;
 import java.text.MessageFormat;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import javax.inject.Singleton;
 
+import org.hibernate.Query;
+import org.hibernate.ScrollMode;
+import org.hibernate.ScrollableResults;
 import org.hibernate.Session;
 import org.overlord.rtgov.activity.model.ActivityType;
 import org.overlord.rtgov.activity.model.ActivityUnit;
 import org.overlord.rtgov.activity.model.Context;
 import org.overlord.rtgov.activity.server.ActivityStore;
+import org.overlord.rtgov.activity.server.ActivityTypeCursor;
+import org.overlord.rtgov.activity.server.PurgeableActivityStore;
 import org.overlord.rtgov.activity.server.QuerySpec;
 import org.overlord.rtgov.activity.util.ActivityUtil;
 import org.overlord.rtgov.common.jpa.JpaStore;
 import org.overlord.rtgov.common.jpa.JpaStore.JpaWork;
+import org.overlord.rtgov.common.util.RTGovProperties;
 
 /**
  * This class provides the JPA implementation of the Activity Store.
+ * <p>
+ * Activity units are stored in batches (defined by the 'JPAActivityStore.batchSize'
+ * property), with the session being flushed and cleared after each batch. The
+ * session factory is configured (unless otherwise specified) to use JDBC batching
+ * of the same size, with inserts ordered by entity type, so that the rows for a
+ * batch of activity units, activity types, contexts and properties are written
+ * using a small number of JDBC batches rather than a round trip per row.
+ * <p>
+ * The queries used to retrieve activity units and activity types are defined as
+ * parameterized named queries on the entities, so the parsed queries and database
+ * statements can be reused. Queries expressed using a {@link QuerySpec} are limited
+ * to a maximum number of results (defined by the 'JPAActivityStore.maxResults'
+ * property), unless the spec defines its own limit.
+ * <p>
+ * Expired activity units are purged in chunks, each chunk being removed in its
+ * own transaction using set based deletes against the activity unit ids, rather
+ * than loading and removing the entities individually.
  * 
  */
 @SuppressWarnings("deprecation")
 @Singleton
-public class JPAActivityStore implements ActivityStore {
+public class JPAActivityStore implements ActivityStore, PurgeableActivityStore {
 
     private static final Logger LOG = Logger.getLogger(JPAActivityStore.class.getName());
 
     private static final String JNDI_PROPERTY = "JPAActivityStore.jndi.datasource";
 
+    private static final int BATCH_SIZE = 50;
+
+    private static final int MAX_RESULTS = 0;
+
+    private static final java.util.regex.Pattern SELECT_ALIAS =
+            java.util.regex.Pattern.compile("^\\s*select\\s+(?:distinct\\s+)?(\\w+)\\s+from\\s",
+                    java.util.regex.Pattern.CASE_INSENSITIVE);
+
+    private static final java.util.regex.Pattern ORDER_BY =
+            java.util.regex.Pattern.compile("\\sorder\\s+by\\s", java.util.regex.Pattern.CASE_INSENSITIVE);
+
     private final JpaStore _jpaStore;
 
+    private int _batchSize = BATCH_SIZE;
+
+    private int _maxResults = MAX_RESULTS;
+
     /**
      * Constructor.
      */
     public JPAActivityStore() {
         final URL configXml = this.getClass().getClassLoader().getResource("activitystore.hibernate.cfg.xml");
-        _jpaStore = new JpaStore(configXml, JNDI_PROPERTY);
+
+        _batchSize = RTGovProperties.getPropertyAsInteger("JPAActivityStore.batchSize", BATCH_SIZE);
+        _maxResults = RTGovProperties.getPropertyAsInteger("JPAActivityStore.maxResults", MAX_RESULTS);
+
+        _jpaStore = new JpaStore(configXml, JNDI_PROPERTY, getBatchProperties(_batchSize));
     }
 
     /**
@@ -64,6 +107,67 @@ public class JPAActivityStore implements ActivityStore {
         _jpaStore = jpaStore;
     }
 
+    /**
+     * This method returns the hibernate properties required to enable
+     * JDBC batching of the supplied size.
+     * 
+     * @param batchSize The batch size
+     * @return The hibernate properties
+     */
+    public static java.util.Properties getBatchProperties(int batchSize) {
+        java.util.Properties ret = new java.util.Properties();
+
+        if (batchSize > 1) {
+            ret.setProperty("hibernate.jdbc.batch_size", Integer.toString(batchSize));
+            ret.setProperty("hibernate.order_inserts", "true");
+            ret.setProperty("hibernate.order_updates", "true");
+        }
+
+        return (ret);
+    }
+
+    /**
+     * This method sets the number of activity units to be stored
+     * before the session is flushed and cleared. If 0, then all of
+     * the activity units being stored are flushed together.
+     * 
+     * @param batchSize The batch size
+     */
+    public void setBatchSize(int batchSize) {
+        _batchSize = batchSize;
+    }
+
+    /**
+     * This method returns the number of activity units to be stored
+     * before the session is flushed and cleared.
+     * 
+     * @return The batch size
+     */
+    public int getBatchSize() {
+        return (_batchSize);
+    }
+
+    /**
+     * This method sets the maximum number of results returned by a
+     * query, if not defined by the query spec. If 0, then the number
+     * of results is not limited.
+     * 
+     * @param maxResults The maximum number of results
+     */
+    public void setMaxResults(int maxResults) {
+        _maxResults = maxResults;
+    }
+
+    /**
+     * This method returns the maximum number of results returned by a
+     * query, if not defined by the query spec.
+     * 
+     * @return The maximum number of results
+     */
+    public int getMaxResults() {
+        return (_maxResults);
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -76,6 +180,12 @@ public class JPAActivityStore implements ActivityStore {
             public Void perform(Session s) {
                 for (int i = 0; i < activities.size(); i++) {
                     s.persist(activities.get(i));
+
+                    // Write each batch, and release the persisted units from the session
+                    if (_batchSize > 0 && (i + 1) % _batchSize == 0 && (i + 1) < activities.size()) {
+                        s.flush();
+                        s.clear();
+                    }
                 }
                 return null;
             }
@@ -92,8 +202,8 @@ public class JPAActivityStore implements ActivityStore {
 
         ActivityUnit ret = _jpaStore.withJpa(new JpaWork<ActivityUnit>() {
             public ActivityUnit perform(Session s) {
-                return (ActivityUnit) s.createQuery(
-                        "SELECT au FROM ActivityUnit au WHERE au.id = '" + id + "'").uniqueResult();
+                return (ActivityUnit) s.getNamedQuery("ActivityUnit.getById")
+                        .setString("id", id).uniqueResult();
             }
         });
 
@@ -111,48 +221,13 @@ public class JPAActivityStore implements ActivityStore {
     @SuppressWarnings("unchecked")
     public java.util.List<ActivityType> getActivityTypes(final Context context, final long from, final long to)
             throws Exception {
-        List<ActivityType> ret = null;
+        checkActivityTypesQuery(context, from, to);
 
-        if (from == 0 && to == 0) {
-            
-            if (context == null) {
-                throw new Exception(java.util.PropertyResourceBundle.getBundle(
-                        "activity-store-jpa.Messages").getString("ACTIVITY-STORE-JPA-3"));
-            }
-            
-            ret = _jpaStore.withJpa(new JpaWork<List<ActivityType>>() {
-                public List<ActivityType> perform(Session s) {
-                    return (List<ActivityType>) s.createQuery(
-                            "SELECT at from ActivityType at " + "JOIN at.context ctx "
-                                    + "WHERE ctx.value = '" + context.getValue() + "' " + "AND ctx.type = '"
-                                    + context.getType().name() + "'").list();
-                }
-            });
-
-        } else {
-            final long actualTo = (to == 0 ? System.currentTimeMillis() : to);
-            
-            if (context == null) {
-                ret = _jpaStore.withJpa(new JpaWork<List<ActivityType>>() {
-                    public List<ActivityType> perform(Session s) {
-                        return (List<ActivityType>) s.createQuery(
-                                "SELECT at from ActivityType at "
-                                        + "WHERE at.timestamp >= " + from + " "
-                                        + "AND at.timestamp <= " + actualTo).list();
-                    }
-                });
-            } else {
-                ret = _jpaStore.withJpa(new JpaWork<List<ActivityType>>() {
-                    public List<ActivityType> perform(Session s) {
-                        return (List<ActivityType>) s.createQuery(
-                                "SELECT at from ActivityType at " + "JOIN at.context ctx "
-                                        + "WHERE ctx.value = '" + context.getValue() + "' " + "AND ctx.type = '"
-                                        + context.getType().name() + "' " + "AND at.timestamp >= " + from + " "
-                                        + "AND at.timestamp <= " + actualTo).list();
-                    }
-                });
+        List<ActivityType> ret = _jpaStore.withJpa(new JpaWork<List<ActivityType>>() {
+            public List<ActivityType> perform(Session s) {
+                return (List<ActivityType>) getActivityTypesQuery(s, context, from, to).list();
             }
-        }
+        });
 
         if (LOG.isLoggable(Level.FINEST)) {
             LOG.finest("ActivityTypes context '" + context + "' from=" + from + " to=" + to + " Result="
@@ -162,6 +237,79 @@ public class JPAActivityStore implements ActivityStore {
         return (ret);
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    public ActivityTypeCursor getActivityTypeCursor(Context context, long from, long to,
+                        int fetchSize, int limit) throws Exception {
+        checkActivityTypesQuery(context, from, to);
+
+        Session s = _jpaStore.openSession();
+
+        try {
+            Query q = getActivityTypesQuery(s, context, from, to)
+                    .setReadOnly(true)
+                    .setFetchSize(fetchSize > 0 ? fetchSize : _batchSize);
+
+            if (limit > 0) {
+                q.setMaxResults(limit);
+            }
+
+            return (new ScrollCursor(_jpaStore, s, q.scroll(ScrollMode.FORWARD_ONLY)));
+        } catch (RuntimeException e) {
+            _jpaStore.closeSession(s);
+            throw e;
+        }
+    }
+
+    /**
+     * This method checks that the parameters for an activity types
+     * query are valid.
+     * 
+     * @param context The optional context
+     * @param from The 'from' timestamp
+     * @param to The 'to' timestamp
+     * @throws Exception The context is required as a time range has not been provided
+     */
+    protected static void checkActivityTypesQuery(Context context, long from, long to) throws Exception {
+        if (from == 0 && to == 0 && context == null) {
+            throw new Exception(java.util.PropertyResourceBundle.getBundle(
+                    "activity-store-jpa.Messages").getString("ACTIVITY-STORE-JPA-3"));
+        }
+    }
+
+    /**
+     * This method creates the query for the activity types associated with
+     * the optional context and time range.
+     * 
+     * @param s The session
+     * @param context The optional context
+     * @param from The 'from' timestamp
+     * @param to The 'to' timestamp, where 0 represents current time
+     * @return The query
+     */
+    protected static Query getActivityTypesQuery(Session s, Context context, long from, long to) {
+        if (from == 0 && to == 0) {
+            return (s.getNamedQuery("ActivityType.getByContext")
+                    .setString("value", context.getValue())
+                    .setParameter("type", context.getType()));
+        }
+
+        long actualTo = (to == 0 ? System.currentTimeMillis() : to);
+
+        if (context == null) {
+            return (s.getNamedQuery("ActivityType.getByTimeframe")
+                    .setLong("from", from)
+                    .setLong("to", actualTo));
+        }
+
+        return (s.getNamedQuery("ActivityType.getByContextAndTimeframe")
+                .setString("value", context.getValue())
+                .setParameter("type", context.getType())
+                .setLong("from", from)
+                .setLong("to", actualTo));
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -189,7 +337,26 @@ public class JPAActivityStore implements ActivityStore {
                     "activity-store-jpa.Messages").getString("ACTIVITY-STORE-JPA-2"));
         }
 
-        return (query(query.getExpression()));
+        String expression = query.getExpression();
+
+        if (query.getSortOrder() != QuerySpec.SortOrder.None
+                && !ORDER_BY.matcher(expression).find()) {
+            java.util.regex.Matcher matcher = SELECT_ALIAS.matcher(expression);
+
+            if (!matcher.find()) {
+                throw new IllegalArgumentException(java.util.PropertyResourceBundle.getBundle(
+                        "activity-store-jpa.Messages").getString("ACTIVITY-STORE-JPA-4"));
+            }
+
+            expression += " ORDER BY " + matcher.group(1) + ".timestamp"
+                    + (query.getSortOrder() == QuerySpec.SortOrder.Descending ? " DESC" : " ASC");
+        }
+
+        if (query.getMaxResults() > 0) {
+            return (query(expression, query.getOffset(), query.getMaxResults()));
+        }
+
+        return (checkTruncated(expression, query(expression, query.getOffset(), _maxResults)));
     }
 
     /**
@@ -202,12 +369,61 @@ public class JPAActivityStore implements ActivityStore {
      * @throws Exception
      *             Failed to perform query
      */
-    @SuppressWarnings("unchecked")
     public List<ActivityType> query(final String query) throws Exception {
+        return (checkTruncated(query, query(query, 0, _maxResults)));
+    }
+
+    /**
+     * This method logs a warning if the supplied results, for a query that
+     * did not define its own limit, may have been truncated by the configured
+     * maximum number of results.
+     * 
+     * @param query The query expression
+     * @param results The results
+     * @return The results
+     */
+    protected List<ActivityType> checkTruncated(String query, List<ActivityType> results) {
+        if (_maxResults > 0 && results != null && results.size() >= _maxResults) {
+            LOG.warning(MessageFormat.format(java.util.PropertyResourceBundle.getBundle(
+                    "activity-store-jpa.Messages").getString("ACTIVITY-STORE-JPA-6"),
+                    _maxResults, query));
+        }
+
+        return (results);
+    }
+
+    /**
+     * This method performs the query associated with the supplied query
+     * expression, returning the requested page of results as a list of
+     * activity types.
+     * 
+     * @param query
+     *            The query expression
+     * @param offset
+     *            The number of results to skip
+     * @param maxResults
+     *            The maximum number of results, or 0 if not limited
+     * @return The list of activity types
+     * @throws Exception
+     *             Failed to perform query
+     */
+    @SuppressWarnings("unchecked")
+    public List<ActivityType> query(final String query, final int offset, final int maxResults)
+                        throws Exception {
 
         List<ActivityType> ret = _jpaStore.withJpa(new JpaWork<List<ActivityType>>() {
             public List<ActivityType> perform(Session s) {
-                return (List<ActivityType>) s.createQuery(query).list();
+                Query q = s.createQuery(query);
+
+                if (offset > 0) {
+                    q.setFirstResult(offset);
+                }
+
+                if (maxResults > 0) {
+                    q.setMaxResults(maxResults);
+                }
+
+                return (List<ActivityType>) q.list();
             }
         });
 
@@ -235,19 +451,147 @@ public class JPAActivityStore implements ActivityStore {
                 // so resorting to native SQL for now to delete an activity unit
                 // and its
                 // associated components
-                s.createSQLQuery("DELETE FROM RTGOV_ACTIVITY_CONTEXT WHERE unitId = '" + au.getId() + "'")
-                        .executeUpdate();
+                s.getNamedQuery("ActivityUnit.removeContexts")
+                        .setString("unitId", au.getId()).executeUpdate();
 
-                s.createSQLQuery("DELETE FROM RTGOV_ACTIVITY_PROPERTIES WHERE unitId = '" + au.getId() + "'")
-                        .executeUpdate();
+                s.getNamedQuery("ActivityUnit.removeProperties")
+                        .setString("unitId", au.getId()).executeUpdate();
 
-                s.createSQLQuery("DELETE FROM RTGOV_ACTIVITIES WHERE unitId = '" + au.getId() + "'")
-                        .executeUpdate();
+                s.getNamedQuery("ActivityUnit.removeActivityTypes")
+                        .setString("unitId", au.getId()).executeUpdate();
 
-                s.createSQLQuery("DELETE FROM RTGOV_ACTIVITY_UNITS WHERE id = '" + au.getId() + "'")
-                        .executeUpdate();
+                s.getNamedQuery("ActivityUnit.remove")
+                        .setString("unitId", au.getId()).executeUpdate();
                 return null;
             }
         });
     }
+
+    /**
+     * {@inheritDoc}
+     */
+    public int purge(final long before, final int maxUnits) throws Exception {
+        Integer ret = _jpaStore.withJpa(new JpaWork<Integer>() {
+            @SuppressWarnings("unchecked")
+            public Integer perform(Session s) {
+                List<String> unitIds = new ArrayList<String>((List<String>) s.getNamedQuery(
+                        "ActivityType.getExpiredUnitIds").setLong("before", before)
+                        .setMaxResults(maxUnits).list());
+
+                // Activity units without any activity types have no timestamp
+                // to be expired against, so are removed as part of the purge
+                if (unitIds.size() < maxUnits) {
+                    unitIds.addAll((List<String>) s.getNamedQuery("ActivityUnit.getEmptyUnitIds")
+                            .setMaxResults(maxUnits - unitIds.size()).list());
+                }
+
+                if (!unitIds.isEmpty()) {
+                    s.getNamedQuery("ActivityUnit.purgeContexts")
+                            .setParameterList("unitIds", unitIds).executeUpdate();
+
+                    s.getNamedQuery("ActivityUnit.purgeProperties")
+                            .setParameterList("unitIds", unitIds).executeUpdate();
+
+                    s.getNamedQuery("ActivityUnit.purgeActivityTypes")
+                            .setParameterList("unitIds", unitIds).executeUpdate();
+
+                    s.getNamedQuery("ActivityUnit.purge")
+                            .setParameterList("unitIds", unitIds).executeUpdate();
+                }
+
+                return (unitIds.size());
+            }
+        });
+
+        if (ret == null) {
+            throw new Exception(MessageFormat.format(java.util.PropertyResourceBundle.getBundle(
+                    "activity-store-jpa.Messages").getString("ACTIVITY-STORE-JPA-5"), before));
+        }
+
+        if (LOG.isLoggable(Level.FINEST)) {
+            LOG.finest("Purged " + ret + " activity units before " + before);
+        }
+
+        return (ret);
+    }
+
+    /**
+     * This class provides a cursor over a scrollable result. Each activity
+     * type is evicted from the session once returned, so that the session
+     * does not retain the activity types that have already been consumed.
+     *
+     */
+    protected static class ScrollCursor implements ActivityTypeCursor {
+
+        private JpaStore _store;
+        private Session _session;
+        private ScrollableResults _results;
+        private ActivityType _next;
+        private boolean _closed = false;
+
+        /**
+         * This constructor initializes the cursor.
+         * 
+         * @param store The JPA store
+         * @param session The session, closed with the cursor
+         * @param results The scrollable results
+         */
+        public ScrollCursor(JpaStore store, Session session, ScrollableResults results) {
+            _store = store;
+            _session = session;
+            _results = results;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public boolean hasNext() {
+            if (_next == null && !_closed) {
+                if (_results.next()) {
+                    _next = (ActivityType) _results.get(0);
+                } else {
+                    close();
+                }
+            }
+            return (_next != null);
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public ActivityType next() {
+            if (!hasNext()) {
+                throw new java.util.NoSuchElementException();
+            }
+
+            ActivityType ret = _next;
+            _next = null;
+
+            _session.evict(ret);
+
+            return (ret);
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public void close() {
+            if (!_closed) {
+                _closed = true;
+
+                try {
+                    _results.close();
+                } finally {
+                    _store.closeSession(_session);
+                }
+            }
+        }
+    }
 }
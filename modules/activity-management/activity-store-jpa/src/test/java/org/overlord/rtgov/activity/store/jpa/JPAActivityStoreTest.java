@@ -20,6 +20,7 @@ import static org.junit.Assert.fail;
 import java.net.URL;
 
 import org.hibernate.Session;
+import org.hibernate.stat.Statistics;
 import org.junit.BeforeClass;
 import org.junit.Ignore;
 import org.junit.Test;
@@ -30,6 +31,7 @@ import org.overlord.rtgov.activity.model.Context.Type;
 import org.overlord.rtgov.activity.model.Origin;
 import org.overlord.rtgov.activity.model.soa.RequestSent;
 import org.overlord.rtgov.activity.model.soa.ResponseReceived;
+import org.overlord.rtgov.activity.server.ActivityTypeCursor;
 import org.overlord.rtgov.activity.server.QuerySpec;
 import org.overlord.rtgov.common.jpa.JpaStore;
 import org.overlord.rtgov.common.jpa.JpaStore.JpaWork;
@@ -439,6 +441,81 @@ public class JPAActivityStoreTest {
         checkAllTablesEmpty();
     }
     
+    @Test
+    public void testGetActivityTypeCursor() {
+        java.util.List<ActivityType> results=null;
+        java.util.List<ActivityType> cursorResults=new java.util.ArrayList<ActivityType>();
+        int limited=0;
+        
+        java.util.List<ActivityUnit> activities=new java.util.ArrayList<ActivityUnit>();
+        
+        checkAllTablesEmpty();
+
+        ActivityUnit au1=createTestActivityUnit("7", "C1", "E1", 0);
+        ActivityUnit au2=createTestActivityUnit("8", "C1", "E1", 5000);
+        
+        activities.add(au1);
+        activities.add(au2);
+        
+        try {
+            activityStore.store(activities);
+        } catch(Exception e) {
+            fail("Failed to store activities: "+e);
+        }
+        
+        try {
+            Context context=new Context();
+            context.setType(Type.Conversation);
+            context.setValue("C1");
+
+            results = activityStore.getActivityTypes(context);
+            
+            ActivityTypeCursor cursor=activityStore.getActivityTypeCursor(context, 0, 0, 1, 0);
+            
+            try {
+                while (cursor.hasNext()) {
+                    cursorResults.add(cursor.next());
+                }
+            } finally {
+                cursor.close();
+            }
+            
+            cursor = activityStore.getActivityTypeCursor(context, 0, 0, 0, 1);
+            
+            try {
+                while (cursor.hasNext()) {
+                    cursor.next();
+                    limited++;
+                }
+            } finally {
+                cursor.close();
+            }
+        } catch(Exception e) {
+            fail("Failed to query activities: "+e);
+        } finally {
+            try {
+                activityStore.remove(au1);
+                activityStore.remove(au2);
+            } catch (Exception e) {
+                fail("Failed to remove activity units: "+e);
+            }
+        }
+        
+        if (results == null || results.size() == 0) {
+            fail("Expecting results");
+        }
+        
+        if (cursorResults.size() != results.size()) {
+            fail("Expecting "+results.size()+" results from cursor: "+cursorResults.size());
+        }
+        
+        if (limited != 1) {
+            fail("Expecting 1 result from limited cursor: "+limited);
+        }
+
+        checkAllTablesEmpty();
+    }
+    
     @Test
     public void testGetActivityTypesNoContextTimeframe() {
         java.util.List<ActivityType> results1=null;
@@ -551,4 +628,244 @@ public class JPAActivityStoreTest {
         
         return (results);
     }
+    
+    protected int countRows(final String table) {
+        return (jpaStore.withJpa(new JpaWork<Integer>() {
+            public Integer perform(Session s) {
+                return s.createSQLQuery("SELECT * FROM "+table).list().size();
+            }
+        }));
+    }
+    
+    protected java.util.List<ActivityUnit> createTestActivityUnits(String prefix, int count) {
+        java.util.List<ActivityUnit> ret=new java.util.ArrayList<ActivityUnit>();
+        
+        for (int i=0; i < count; i++) {
+            ret.add(createTestActivityUnit(prefix+i, CONV_ID_1, ENDPOINT_ID_1, i));
+        }
+        
+        return (ret);
+    }
+    
+    @Test
+    public void testQueryPagedAndSorted() {
+        
+        checkAllTablesEmpty();
+        
+        java.util.List<ActivityUnit> activities=createTestActivityUnits("paged", 5);
+        
+        try {
+            activityStore.store(activities);
+            
+            QuerySpec qs=new QuerySpec()
+                    .setFormat(JPQL_FORMAT)
+                    .setExpression("SELECT at FROM ActivityType at WHERE at.operation = 'myOp'")
+                    .setSortOrder(QuerySpec.SortOrder.Descending)
+                    .setOffset(2)
+                    .setMaxResults(3);
+            
+            java.util.List<ActivityType> results=activityStore.query(qs);
+            
+            if (results.size() != 3) {
+                fail("Expecting 3 results: "+results.size());
+            }
+            
+            // Timestamps are 1000 and 2000 after each unit's base time (0-4)
+            if (results.get(0).getTimestamp() != 1003 || results.get(2).getTimestamp() != 1002) {
+                fail("Unexpected page: "+results);
+            }
+            
+            Context context=new Context();
+            context.setType(Type.Conversation);
+            context.setValue("' OR '1'='1");
+            
+            if (activityStore.getActivityTypes(context).size() != 0) {
+                fail("Context value should be treated as a parameter");
+            }
+            
+            if (activityStore.getActivityUnit("' OR '1'='1") != null) {
+                fail("Unit id should be treated as a parameter");
+            }
+        } catch(Exception e) {
+            fail("Failed to query activities: "+e);
+        } finally {
+            try {
+                for (ActivityUnit au : activities) {
+                    activityStore.remove(au);
+                }
+            } catch (Exception e) {
+                fail("Failed to remove activity units: "+e);
+            }
+        }
+        
+        checkAllTablesEmpty();
+    }
+    
+    @Test
+    public void testStoreBatched() {
+        
+        checkAllTablesEmpty();
+        
+        java.util.List<ActivityUnit> activities=createTestActivityUnits("batched", 25);
+        
+        int batchSize=activityStore.getBatchSize();
+        activityStore.setBatchSize(10);
+        
+        try {
+            activityStore.store(activities);
+            
+            if (countRows("RTGOV_ACTIVITY_UNITS") != 25) {
+                fail("Expected 25 activity units: "+countRows("RTGOV_ACTIVITY_UNITS"));
+            }
+            
+            if (countRows("RTGOV_ACTIVITIES") != 50) {
+                fail("Expected 50 activity types: "+countRows("RTGOV_ACTIVITIES"));
+            }
+            
+            if (countRows("RTGOV_ACTIVITY_CONTEXT") != 50) {
+                fail("Expected 50 contexts: "+countRows("RTGOV_ACTIVITY_CONTEXT"));
+            }
+            
+            if (countRows("RTGOV_ACTIVITY_PROPERTIES") != 100) {
+                fail("Expected 100 properties: "+countRows("RTGOV_ACTIVITY_PROPERTIES"));
+            }
+            
+            if (activityStore.getActivityUnit("batched24") == null) {
+                fail("Last activity unit not found");
+            }
+        } catch(Exception e) {
+            fail("Failed to store activities: "+e);
+        } finally {
+            activityStore.setBatchSize(batchSize);
+            
+            try {
+                for (ActivityUnit au : activities) {
+                    activityStore.remove(au);
+                }
+            } catch (Exception e) {
+                fail("Failed to remove activity units: "+e);
+            }
+        }
+        
+        checkAllTablesEmpty();
+    }
+    
+    @Test
+    public void testStoreBatchedBenchmark() {
+        int testSize=500;
+        int batchSize=50;
+        
+        // Uses a separate database, as the schema is dropped when each store is closed
+        final URL configXml = JPAActivityStoreTest.class.getClassLoader().getResource("hibernate-benchmark.cfg.xml");
+        
+        Statistics unbatched=storeWithStatistics(configXml, 0, createTestActivityUnits("unbatched", testSize));
+        Statistics batched=storeWithStatistics(configXml, batchSize, createTestActivityUnits("batched", testSize));
+        
+        if (batched.getEntityInsertCount() != unbatched.getEntityInsertCount()
+                    || batched.getEntityInsertCount() != testSize*3) {
+            fail("Expecting "+(testSize*3)+" entities inserted: unbatched="+unbatched.getEntityInsertCount()
+                    +" batched="+batched.getEntityInsertCount());
+        }
+        
+        // The session is flushed and cleared after each batch of activity units
+        if (batched.getFlushCount() < testSize/batchSize || unbatched.getFlushCount() >= testSize/batchSize) {
+            fail("Unexpected flush counts: unbatched="+unbatched.getFlushCount()
+                    +" batched="+batched.getFlushCount());
+        }
+        
+        // JDBC batching reuses a prepared statement for each batch of rows,
+        // rather than preparing a statement per row
+        if (batched.getPrepareStatementCount()*3 >= unbatched.getPrepareStatementCount()*2) {
+            fail("JDBC batching should reduce the statements prepared: unbatched="
+                    +unbatched.getPrepareStatementCount()+" batched="+batched.getPrepareStatementCount());
+        }
+    }
+    
+    protected Statistics storeWithStatistics(URL configXml, int batchSize, java.util.List<ActivityUnit> activities) {
+        java.util.Properties props=JPAActivityStore.getBatchProperties(batchSize);
+        props.setProperty("hibernate.generate_statistics", "true");
+        
+        JpaStore store=new JpaStore(configXml, null, props);
+        
+        try {
+            JPAActivityStore actStore=new JPAActivityStore(store);
+            actStore.setBatchSize(batchSize);
+            
+            Statistics stats=store.withJpa(new JpaWork<Statistics>() {
+                public Statistics perform(Session s) {
+                    return (s.getSessionFactory().getStatistics());
+                }
+            });
+            
+            stats.clear();
+            
+            actStore.store(activities);
+            
+            return (stats);
+            
+        } catch (Exception e) {
+            fail("Failed to store activities: "+e);
+            return (null);
+        } finally {
+            store.close();
+        }
+    }
+    
+    @Test
+    public void testPurge() {
+        
+        checkAllTablesEmpty();
+        
+        java.util.List<ActivityUnit> activities=createTestActivityUnits("purge", 5);
+        
+        try {
+            activityStore.store(activities);
+            
+            // Unit activities occur at 1000 and 2000 after each unit's base time (0-4)
+            int count=activityStore.purge(2003, 2);
+            
+            if (count != 2) {
+                fail("Expected 2 activity units purged in first chunk: "+count);
+            }
+            
+            count = activityStore.purge(2003, 2);
+            
+            if (count != 1) {
+                fail("Expected 1 activity unit purged in second chunk: "+count);
+            }
+            
+            if (activityStore.purge(2003, 2) != 0) {
+                fail("Expected no further activity units to be purged");
+            }
+            
+            if (countRows("RTGOV_ACTIVITY_UNITS") != 2) {
+                fail("Expected 2 activity units: "+countRows("RTGOV_ACTIVITY_UNITS"));
+            }
+            
+            if (countRows("RTGOV_ACTIVITIES") != 4) {
+                fail("Expected 4 activity types: "+countRows("RTGOV_ACTIVITIES"));
+            }
+            
+            if (countRows("RTGOV_ACTIVITY_CONTEXT") != 4) {
+                fail("Expected 4 contexts: "+countRows("RTGOV_ACTIVITY_CONTEXT"));
+            }
+            
+            if (activityStore.getActivityUnit("purge2") != null
+                    || activityStore.getActivityUnit("purge3") == null) {
+                fail("Incorrect activity units purged");
+            }
+        } catch(Exception e) {
+            fail("Failed to purge activities: "+e);
+        } finally {
+            try {
+                for (int i=3; i < activities.size(); i++) {
+                    activityStore.remove(activities.get(i));
+                }
+            } catch (Exception e) {
+                fail("Failed to remove activity units: "+e);
+            }
+        }
+        
+        checkAllTablesEmpty();
+    }
 }
@@ -0,0 +1,298 @@
+/*
+ * 2014 Red Hat Inc. and/or its affiliates and other contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.overlord.rtgov.activity.store.mem;
+
+import java.io.Serializable;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.mvel2.MVEL;
+import org.overlord.rtgov.activity.model.ActivityType;
+import org.overlord.rtgov.activity.model.ActivityUnit;
+import org.overlord.rtgov.activity.server.QuerySpec;
+
+/**
+ * This class evaluates MVEL queries against a snapshot of activity units.
+ * Each distinct expression is compiled once and retained in a least recently
+ * used cache. Large snapshots are partitioned and scanned in parallel, with
+ * the results being returned in the order of the snapshot, unless a sort
+ * order is defined by the query.
+ *
+ */
+public class MVELQueryEngine {
+
+    private static final Logger LOG=Logger.getLogger(MVELQueryEngine.class.getName());
+
+    private int _planCacheSize;
+    private int _threads;
+    private int _parallelThreshold;
+
+    private java.util.Map<String, Serializable> _plans;
+
+    private ExecutorService _executor=null;
+
+    /**
+     * This constructor initializes the query engine.
+     *
+     * @param planCacheSize The maximum number of compiled expressions to cache
+     * @param threads The number of threads used to scan partitions in parallel
+     * @param parallelThreshold The minimum number of activity units for a parallel scan
+     */
+    public MVELQueryEngine(int planCacheSize, int threads, int parallelThreshold) {
+        _planCacheSize = Math.max(1, planCacheSize);
+        _threads = Math.max(1, threads);
+        _parallelThreshold = parallelThreshold;
+
+        _plans = new java.util.LinkedHashMap<String, Serializable>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            protected boolean removeEldestEntry(java.util.Map.Entry<String, Serializable> eldest) {
+                return (size() > _planCacheSize);
+            }
+        };
+    }
+
+    /**
+     * This method returns the compiled form of the supplied expression,
+     * compiling and caching it if not already available.
+     *
+     * @param expression The expression
+     * @return The compiled expression
+     */
+    protected Serializable getPlan(String expression) {
+        Serializable ret=null;
+
+        synchronized (_plans) {
+            ret = _plans.get(expression);
+        }
+
+        if (ret == null) {
+            if (LOG.isLoggable(Level.FINEST)) {
+                LOG.finest("Compile query expression: "+expression);
+            }
+
+            ret = MVEL.compileExpression(expression);
+
+            synchronized (_plans) {
+                _plans.put(expression, ret);
+            }
+        }
+
+        return (ret);
+    }
+
+    /**
+     * This method returns the number of compiled expressions
+     * currently cached.
+     *
+     * @return The number of cached expressions
+     */
+    public int getPlanCount() {
+        synchronized (_plans) {
+            return (_plans.size());
+        }
+    }
+
+    /**
+     * This method returns the executor used to scan partitions in parallel.
+     *
+     * @return The executor
+     */
+    protected synchronized ExecutorService getExecutor() {
+        if (_executor == null) {
+            _executor = Executors.newFixedThreadPool(_threads, new ThreadFactory() {
+                private int _count=0;
+
+                public synchronized Thread newThread(Runnable r) {
+                    Thread thread=new Thread(r, "MVELQueryEngine-"+(++_count));
+                    thread.setDaemon(true);
+                    return (thread);
+                }
+            });
+        }
+        return (_executor);
+    }
+
+    /**
+     * This method evaluates the supplied query against the snapshot of
+     * activity units, returning the matching activity types.
+     *
+     * @param units The activity units, in the order results should be returned
+     * @param query The query
+     * @return The matching activity types
+     * @throws Exception Failed to evaluate the query
+     */
+    public List<ActivityType> query(final ActivityUnit[] units, final QuerySpec query) throws Exception {
+        final Serializable plan=getPlan(query.getExpression());
+
+        int offset=Math.max(0, query.getOffset());
+        boolean sorted=(query.getSortOrder() != null && query.getSortOrder() != QuerySpec.SortOrder.None);
+
+        // If sorting, all matching results are required before the page can be selected
+        int limit=(sorted || query.getMaxResults() <= 0 ? 0 : offset+query.getMaxResults());
+
+        List<ActivityType> ret=scan(units, plan, query, limit);
+
+        if (sorted) {
+            final boolean ascending=(query.getSortOrder() == QuerySpec.SortOrder.Ascending);
+
+            java.util.Collections.sort(ret, new java.util.Comparator<ActivityType>() {
+                public int compare(ActivityType at1, ActivityType at2) {
+                    int diff=(at1.getTimestamp() < at2.getTimestamp() ? -1
+                            : (at1.getTimestamp() == at2.getTimestamp() ? 0 : 1));
+                    return (ascending ? diff : -diff);
+                }
+            });
+        }
+
+        if (offset > 0 || (query.getMaxResults() > 0 && ret.size() > query.getMaxResults())) {
+            int end=(query.getMaxResults() > 0 ? Math.min(ret.size(), offset+query.getMaxResults()) : ret.size());
+
+            ret = (offset >= end ? new java.util.ArrayList<ActivityType>()
+                        : new java.util.ArrayList<ActivityType>(ret.subList(offset, end)));
+        }
+
+        return (ret);
+    }
+
+    /**
+     * This method scans the snapshot of activity units, partitioning the
+     * snapshot if large enough to be scanned in parallel.
+     *
+     * @param units The activity units
+     * @param plan The compiled expression
+     * @param query The query
+     * @param limit The maximum number of results required, or 0 if all
+     * @return The matching activity types, in snapshot order
+     * @throws Exception Failed to evaluate the query
+     */
+    protected List<ActivityType> scan(final ActivityUnit[] units, final Serializable plan,
+                            final QuerySpec query, final int limit) throws Exception {
+        int partitions=(units.length < _parallelThreshold ? 1
+                        : Math.min(_threads, units.length / Math.max(1, _parallelThreshold) + 1));
+
+        if (partitions <= 1) {
+            return (scan(units, 0, units.length, plan, query, limit));
+        }
+
+        List<Future<List<ActivityType>>> futures=new java.util.ArrayList<Future<List<ActivityType>>>(partitions);
+
+        int chunk=(units.length + partitions - 1) / partitions;
+
+        for (int i=0; i < partitions; i++) {
+            final int start=i * chunk;
+            final int end=Math.min(units.length, start + chunk);
+
+            futures.add(getExecutor().submit(new Callable<List<ActivityType>>() {
+                public List<ActivityType> call() throws Exception {
+                    return (scan(units, start, end, plan, query, limit));
+                }
+            }));
+        }
+
+        List<ActivityType> ret=new java.util.ArrayList<ActivityType>();
+
+        try {
+            for (int i=0; i < futures.size(); i++) {
+                ret.addAll(futures.get(i).get());
+
+                if (limit > 0 && ret.size() >= limit) {
+                    ret = new java.util.ArrayList<ActivityType>(ret.subList(0, limit));
+                    break;
+                }
+            }
+        } catch (ExecutionException ee) {
+            if (ee.getCause() instanceof Exception) {
+                throw (Exception)ee.getCause();
+            }
+            throw ee;
+        } finally {
+            for (int i=0; i < futures.size(); i++) {
+                futures.get(i).cancel(true);
+            }
+        }
+
+        return (ret);
+    }
+
+    /**
+     * This method scans a range of the activity units, returning the
+     * activity types that are within the time bounds of the query and
+     * satisfy the expression. The scan stops once the maximum number
+     * of results has been found.
+     *
+     * @param units The activity units
+     * @param start The start index (inclusive)
+     * @param end The end index (exclusive)
+     * @param plan The compiled expression
+     * @param query The query
+     * @param limit The maximum number of results required, or 0 if all
+     * @return The matching activity types
+     */
+    protected static List<ActivityType> scan(ActivityUnit[] units, int start, int end,
+                            Serializable plan, QuerySpec query, int limit) {
+        List<ActivityType> ret=new java.util.ArrayList<ActivityType>();
+
+        long from=query.getFromTimestamp();
+        long to=query.getToTimestamp();
+
+        for (int i=start; i < end; i++) {
+            List<ActivityType> activities=units[i].getActivityTypes();
+
+            for (int j=0; j < activities.size(); j++) {
+                ActivityType activity=activities.get(j);
+
+                if ((from != 0 && activity.getTimestamp() < from)
+                        || (to != 0 && activity.getTimestamp() > to)) {
+                    continue;
+                }
+
+                Object result=MVEL.executeExpression(plan, activity);
+
+                if (result instanceof Boolean && ((Boolean)result).booleanValue()) {
+                    ret.add(activity);
+
+                    if (limit > 0 && ret.size() >= limit) {
+                        return (ret);
+                    }
+                }
+            }
+
+            if (Thread.currentThread().isInterrupted()) {
+                break;
+            }
+        }
+
+        return (ret);
+    }
+
+    /**
+     * This method closes the query engine.
+     */
+    public synchronized void close() {
+        if (_executor != null) {
+            _executor.shutdownNow();
+            _executor = null;
+        }
+    }
+}
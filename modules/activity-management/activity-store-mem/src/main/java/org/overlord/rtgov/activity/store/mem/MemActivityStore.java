@@ -16,37 +16,179 @@
 package org.overlord.rtgov.activity.store.mem;
 
 import java.util.List;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import javax.inject.Singleton;
 
 import org.mvel2.MVEL;
+import org.overlord.commons.services.ServiceClose;
 import org.overlord.rtgov.activity.model.ActivityType;
 import org.overlord.rtgov.activity.model.ActivityUnit;
 import org.overlord.rtgov.activity.model.Context;
 import org.overlord.rtgov.activity.server.ActivityStore;
+import org.overlord.rtgov.activity.server.ActivityTypeCursor;
+import org.overlord.rtgov.activity.server.PurgeableActivityStore;
 import org.overlord.rtgov.activity.server.QuerySpec;
 import org.overlord.rtgov.activity.util.ActivityUtil;
+import org.overlord.rtgov.common.util.RTGovProperties;
 
 /**
  * This class provides the in-memory implementation of the Activity Store.
+ * <p>
+ * The activity units are held in a fixed capacity ring buffer, with the
+ * oldest unit being evicted when the capacity is exceeded. The units are
+ * indexed by id, and their activity types by context, ordered by timestamp,
+ * to avoid scanning the buffer when retrieving a unit or the activity types
+ * associated with a context. The indexes are maintained as units are stored
+ * and evicted, under a read/write lock, so the store can be used concurrently.
+ * <p>
+ * MVEL queries are evaluated by a {@link MVELQueryEngine}, against a snapshot
+ * of the activity units, so that storing threads are not blocked while the
+ * query is performed.
  *
  */
 @Singleton
-public class MemActivityStore implements ActivityStore {
+public class MemActivityStore implements ActivityStore, PurgeableActivityStore {
     
     private static final Logger LOG=Logger.getLogger(MemActivityStore.class.getName());
 
-    private List<ActivityUnit> _activities=new java.util.ArrayList<ActivityUnit>();
-    
     private static final int MAX_ITEMS=1000;
+    private static final int QUERY_PLAN_CACHE_SIZE=100;
+    private static final int PARALLEL_QUERY_THRESHOLD=10000;
+    private static final int CURSOR_FETCH_SIZE=100;
+    
+    private int _maxItems=MAX_ITEMS;
+    
+    private ActivityUnit[] _activities;
+    private int _next=0;
+    private int _size=0;
+    private long _retainedFrom=0;
+    
+    private java.util.Map<String, ActivityUnit> _unitIndex=new java.util.HashMap<String, ActivityUnit>();
+    private java.util.Map<Context, java.util.NavigableMap<Long, List<ActivityType>>> _contextIndex=
+                    new java.util.HashMap<Context, java.util.NavigableMap<Long, List<ActivityType>>>();
+    
+    private final ReadWriteLock _lock=new ReentrantReadWriteLock();
+    
+    private MVELQueryEngine _queryEngine;
+    
+    /**
+     * The default constructor.
+     */
+    public MemActivityStore() {
+        this(RTGovProperties.getPropertyAsInteger("MemActivityStore.maxItems", MAX_ITEMS));
+    }
+    
+    /**
+     * This constructor initializes the maximum number of activity units
+     * that will be retained by the store.
+     * 
+     * @param maxItems The maximum number of activity units
+     */
+    public MemActivityStore(int maxItems) {
+        _maxItems = Math.max(1, maxItems);
+        _activities = new ActivityUnit[_maxItems];
+        
+        _queryEngine = new MVELQueryEngine(
+                RTGovProperties.getPropertyAsInteger("MemActivityStore.queryPlanCacheSize",
+                                QUERY_PLAN_CACHE_SIZE),
+                RTGovProperties.getPropertyAsInteger("MemActivityStore.queryThreads",
+                                Runtime.getRuntime().availableProcessors()),
+                RTGovProperties.getPropertyAsInteger("MemActivityStore.parallelQueryThreshold",
+                                PARALLEL_QUERY_THRESHOLD));
+    }
+    
+    /**
+     * This method sets the query engine.
+     * 
+     * @param engine The query engine
+     */
+    public void setQueryEngine(MVELQueryEngine engine) {
+        if (_queryEngine != null) {
+            _queryEngine.close();
+        }
+        _queryEngine = engine;
+    }
+    
+    /**
+     * This method returns the query engine.
+     * 
+     * @return The query engine
+     */
+    public MVELQueryEngine getQueryEngine() {
+        return (_queryEngine);
+    }
+    
+    /**
+     * This method closes the activity store.
+     */
+    @ServiceClose
+    public void close() {
+        _queryEngine.close();
+    }
+    
+    /**
+     * This method returns the maximum number of activity units
+     * that will be retained by the store.
+     * 
+     * @return The maximum number of activity units
+     */
+    public int getMaxItems() {
+        return (_maxItems);
+    }
+    
+    /**
+     * This method returns the number of activity units currently
+     * held by the store.
+     * 
+     * @return The number of activity units
+     */
+    public int size() {
+        _lock.readLock().lock();
+        
+        try {
+            return (_size);
+        } finally {
+            _lock.readLock().unlock();
+        }
+    }
+    
+    /**
+     * This method returns the timestamp from which all stored activities
+     * are retained. Activities with an earlier timestamp may have been
+     * evicted to make room for more recent activity units.
+     * 
+     * @return The timestamp from which all stored activities are retained
+     */
+    public long getRetainedFrom() {
+        _lock.readLock().lock();
+        
+        try {
+            return (_retainedFrom);
+        } finally {
+            _lock.readLock().unlock();
+        }
+    }
     
     /**
      * This method clears the activity store.
      */
     public void clear() {
-        _activities.clear();
+        _lock.writeLock().lock();
+        
+        try {
+            java.util.Arrays.fill(_activities, null);
+            _next = 0;
+            _size = 0;
+            _unitIndex.clear();
+            _contextIndex.clear();
+            _retainedFrom = 0;
+        } finally {
+            _lock.writeLock().unlock();
+        }
     }
     
     /**
@@ -58,12 +200,197 @@ public class MemActivityStore implements ActivityStore {
                     +new String(ActivityUtil.serializeActivityUnitList(activities)));
         }
         
-        _activities.addAll(activities);
+        _lock.writeLock().lock();
         
-        while (_activities.size() > MAX_ITEMS) {
-            _activities.remove(0);
+        try {
+            for (int i=0; i < activities.size(); i++) {
+                ActivityUnit unit=activities.get(i);
+                
+                if (_size == _maxItems) {
+                    evict(_activities[_next]);
+                    
+                    _retainedFrom = Math.max(_retainedFrom, getLatestTimestamp(_activities[_next])+1);
+                } else {
+                    _size++;
+                }
+                
+                _activities[_next] = unit;
+                _next = (_next+1) % _maxItems;
+                
+                index(unit);
+            }
+        } finally {
+            _lock.writeLock().unlock();
         }
     }
+    
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The activity units are removed from the oldest end of the buffer,
+     * stopping at the first unit that contains an activity occurring at
+     * or after the supplied timestamp.
+     */
+    public int purge(long before, int maxUnits) throws Exception {
+        int ret=0;
+        
+        _lock.writeLock().lock();
+        
+        try {
+            while (_size > 0 && ret < maxUnits) {
+                int oldest=(_next-_size+_maxItems) % _maxItems;
+                ActivityUnit unit=_activities[oldest];
+                
+                if (getLatestTimestamp(unit) >= before) {
+                    break;
+                }
+                
+                evict(unit);
+                
+                _activities[oldest] = null;
+                _size--;
+                ret++;
+            }
+        } finally {
+            _lock.writeLock().unlock();
+        }
+        
+        if (LOG.isLoggable(Level.FINEST)) {
+            LOG.finest("Purged "+ret+" activity units before "+before);
+        }
+        
+        return (ret);
+    }
+    
+    /**
+     * This method returns the timestamp of the latest activity
+     * within the supplied activity unit.
+     * 
+     * @param unit The activity unit
+     * @return The latest timestamp, or 0 if no activities
+     */
+    protected static long getLatestTimestamp(ActivityUnit unit) {
+        long ret=0;
+        
+        for (int i=0; i < unit.getActivityTypes().size(); i++) {
+            ret = Math.max(ret, unit.getActivityTypes().get(i).getTimestamp());
+        }
+        
+        return (ret);
+    }
+    
+    /**
+     * This method returns a snapshot of the activity units currently
+     * held by the store, from oldest to newest.
+     * 
+     * @return The activity units
+     */
+    protected ActivityUnit[] snapshot() {
+        _lock.readLock().lock();
+        
+        try {
+            ActivityUnit[] ret=new ActivityUnit[_size];
+            
+            int start=(_next-_size+_maxItems) % _maxItems;
+            int first=Math.min(_size, _maxItems-start);
+            
+            System.arraycopy(_activities, start, ret, 0, first);
+            System.arraycopy(_activities, 0, ret, first, _size-first);
+            
+            return (ret);
+        } finally {
+            _lock.readLock().unlock();
+        }
+    }
+    
+    /**
+     * This method adds the supplied activity unit to the indexes.
+     * 
+     * @param unit The activity unit
+     */
+    protected void index(ActivityUnit unit) {
+        if (unit.getId() != null) {
+            _unitIndex.put(unit.getId(), unit);
+        }
+        
+        for (int i=0; i < unit.getActivityTypes().size(); i++) {
+            ActivityType activity=unit.getActivityTypes().get(i);
+            
+            for (Context context : contexts(activity)) {
+                java.util.NavigableMap<Long, List<ActivityType>> byTime=_contextIndex.get(context);
+                
+                if (byTime == null) {
+                    byTime = new java.util.TreeMap<Long, List<ActivityType>>();
+                    _contextIndex.put(context, byTime);
+                }
+                
+                List<ActivityType> list=byTime.get(activity.getTimestamp());
+                
+                if (list == null) {
+                    list = new java.util.ArrayList<ActivityType>(1);
+                    byTime.put(activity.getTimestamp(), list);
+                }
+                
+                list.add(activity);
+            }
+        }
+    }
+    
+    /**
+     * This method removes the supplied activity unit from the indexes.
+     * 
+     * @param unit The activity unit
+     */
+    protected void evict(ActivityUnit unit) {
+        if (unit.getId() != null && _unitIndex.get(unit.getId()) == unit) {
+            _unitIndex.remove(unit.getId());
+        }
+        
+        for (int i=0; i < unit.getActivityTypes().size(); i++) {
+            ActivityType activity=unit.getActivityTypes().get(i);
+            
+            for (Context context : contexts(activity)) {
+                java.util.NavigableMap<Long, List<ActivityType>> byTime=_contextIndex.get(context);
+                
+                if (byTime == null) {
+                    continue;
+                }
+                
+                List<ActivityType> list=byTime.get(activity.getTimestamp());
+                
+                if (list != null) {
+                    for (int j=0; j < list.size(); j++) {
+                        if (list.get(j) == activity) {
+                            list.remove(j);
+                            break;
+                        }
+                    }
+                    
+                    if (list.isEmpty()) {
+                        byTime.remove(activity.getTimestamp());
+                    }
+                }
+                
+                if (byTime.isEmpty()) {
+                    _contextIndex.remove(context);
+                }
+            }
+        }
+    }
+    
+    /**
+     * This method returns the distinct contexts associated with
+     * the supplied activity type.
+     * 
+     * @param activity The activity type
+     * @return The distinct contexts
+     */
+    protected static java.util.Collection<Context> contexts(ActivityType activity) {
+        if (activity.getContext().size() <= 1) {
+            return (activity.getContext());
+        }
+        return (new java.util.LinkedHashSet<Context>(activity.getContext()));
+    }
 
     /**
      * {@inheritDoc}
@@ -73,13 +400,21 @@ public class MemActivityStore implements ActivityStore {
             LOG.finest("getActivityUnit[id="+id+"] ("+this+")");
         }
 
-        for (ActivityUnit au : _activities) {
-            if (au.getId().equals(id)) {
-                if (LOG.isLoggable(Level.FINEST)) {
-                    LOG.finest("getActivityUnit[id="+id+"] ("+this+") ret="+au);
-                }
-                return (au);
+        ActivityUnit au=null;
+        
+        _lock.readLock().lock();
+        
+        try {
+            au = _unitIndex.get(id);
+        } finally {
+            _lock.readLock().unlock();
+        }
+        
+        if (au != null) {
+            if (LOG.isLoggable(Level.FINEST)) {
+                LOG.finest("getActivityUnit[id="+id+"] ("+this+") ret="+au);
             }
+            return (au);
         }
         
         if (LOG.isLoggable(Level.FINEST)) {
@@ -108,16 +443,22 @@ public class MemActivityStore implements ActivityStore {
 
         List<ActivityType> ret=new java.util.ArrayList<ActivityType>();
         
-        for (ActivityUnit unit : _activities) {
-            for (ActivityType activity : unit.getActivityTypes()) {
-                for (Context c : activity.getContext()) {
-                    if (c.equals(context) && (from == 0
-                            || activity.getTimestamp() >= from)
-                            && (to == 0 || activity.getTimestamp() <= to)) {
-                        ret.add(activity);
-                    }
+        _lock.readLock().lock();
+        
+        try {
+            java.util.NavigableMap<Long, List<ActivityType>> byTime=_contextIndex.get(context);
+            
+            if (byTime != null && (to == 0 || from <= to)) {
+                if (from != 0 || to != 0) {
+                    byTime = byTime.subMap(from, true, (to == 0 ? Long.MAX_VALUE : to), true);
+                }
+                
+                for (List<ActivityType> list : byTime.values()) {
+                    ret.addAll(list);
                 }
             }
+        } finally {
+            _lock.readLock().unlock();
         }
         
         if (LOG.isLoggable(Level.FINEST)) {
@@ -128,6 +469,20 @@ public class MemActivityStore implements ActivityStore {
         return (ret);
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    public ActivityTypeCursor getActivityTypeCursor(Context context, long from, long to,
+                        int fetchSize, int limit) throws Exception {
+        if (LOG.isLoggable(Level.FINEST)) {
+            LOG.finest("getActivityTypeCursor[context="+context+"] ("+this+",from="+from+",to="+to
+                        +",fetchSize="+fetchSize+",limit="+limit+")");
+        }
+
+        return (new ContextCursor(context, from, (to == 0 ? Long.MAX_VALUE : to),
+                        (fetchSize > 0 ? fetchSize : CURSOR_FETCH_SIZE), limit));
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -136,20 +491,12 @@ public class MemActivityStore implements ActivityStore {
             LOG.finest("query[spec="+query+"] ("+this+")");
         }
 
-        List<ActivityType> ret=new java.util.ArrayList<ActivityType>();
-        
         // Check if query format is supported
         if (!isFormatSupported(query)) {
             throw new java.lang.IllegalArgumentException("Unknown query format");
         }
         
-        for (ActivityUnit unit : _activities) {
-            for (ActivityType activity : unit.getActivityTypes()) {
-                if (evaluate(activity, query)) {
-                    ret.add(activity);
-                }
-            }
-        }
+        List<ActivityType> ret=_queryEngine.query(snapshot(), query);
         
         if (LOG.isLoggable(Level.FINEST)) {
             LOG.finest("query[spec="+query+"] ("+this+") ret="
@@ -194,4 +541,117 @@ public class MemActivityStore implements ActivityStore {
         
         return (ret);
     }
+
+    /**
+     * This class provides a cursor over the activity types associated with
+     * a context. The context index is traversed in timestamp order, a page
+     * at a time, with the read lock only being held while each page is
+     * copied, so that storing threads are not blocked while the cursor is
+     * being consumed.
+     *
+     */
+    protected class ContextCursor implements ActivityTypeCursor {
+
+        private Context _context;
+        private long _from;
+        private long _to;
+        private int _fetchSize;
+        private int _remaining;
+        private java.util.LinkedList<ActivityType> _page=new java.util.LinkedList<ActivityType>();
+        private boolean _exhausted=false;
+
+        /**
+         * This constructor initializes the cursor.
+         *
+         * @param context The context
+         * @param from The 'from' timestamp (inclusive)
+         * @param to The 'to' timestamp (inclusive)
+         * @param fetchSize The number of activity types copied per page
+         * @param limit The maximum number of activity types returned, or 0 if unlimited
+         */
+        public ContextCursor(Context context, long from, long to, int fetchSize, int limit) {
+            _context = context;
+            _from = from;
+            _to = to;
+            _fetchSize = fetchSize;
+            _remaining = (limit > 0 ? limit : Integer.MAX_VALUE);
+            _exhausted = (from > to);
+        }
+
+        /**
+         * This method copies the next page of activity types from the
+         * context index, resuming after the timestamp of the previous page.
+         */
+        protected void fetch() {
+            _lock.readLock().lock();
+
+            try {
+                java.util.NavigableMap<Long, List<ActivityType>> byTime=_contextIndex.get(_context);
+
+                if (byTime != null) {
+                    java.util.Iterator<java.util.Map.Entry<Long, List<ActivityType>>> iter=
+                            byTime.subMap(_from, true, _to, true).entrySet().iterator();
+
+                    while (_page.size() < _fetchSize && iter.hasNext()) {
+                        java.util.Map.Entry<Long, List<ActivityType>> entry=iter.next();
+
+                        _page.addAll(entry.getValue());
+
+                        if (entry.getKey() == Long.MAX_VALUE) {
+                            _exhausted = true;
+                        } else {
+                            _from = entry.getKey()+1;
+                        }
+                    }
+
+                    if (!iter.hasNext()) {
+                        _exhausted = true;
+                    }
+                } else {
+                    _exhausted = true;
+                }
+            } finally {
+                _lock.readLock().unlock();
+            }
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public boolean hasNext() {
+            if (_remaining <= 0) {
+                return (false);
+            }
+            if (_page.isEmpty() && !_exhausted) {
+                fetch();
+            }
+            return (!_page.isEmpty());
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public ActivityType next() {
+            if (!hasNext()) {
+                throw new java.util.NoSuchElementException();
+            }
+            _remaining--;
+            return (_page.removeFirst());
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public void close() {
+            _page.clear();
+            _exhausted = true;
+        }
+    }
 }
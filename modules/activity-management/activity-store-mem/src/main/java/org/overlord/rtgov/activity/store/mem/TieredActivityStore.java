@@ -0,0 +1,392 @@
+/*
+ * 2014 Red Hat Inc. and/or its affiliates and other contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.overlord.rtgov.activity.store.mem;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.inject.Singleton;
+
+import org.overlord.commons.services.ServiceClose;
+import org.overlord.commons.services.ServiceRegistryUtil;
+import org.overlord.rtgov.activity.model.ActivityType;
+import org.overlord.rtgov.activity.model.ActivityUnit;
+import org.overlord.rtgov.activity.model.Context;
+import org.overlord.rtgov.activity.server.ActivityStore;
+import org.overlord.rtgov.activity.server.ActivityTypeCursor;
+import org.overlord.rtgov.activity.server.PurgeableActivityStore;
+import org.overlord.rtgov.activity.server.QuerySpec;
+import org.overlord.rtgov.common.util.RTGovProperties;
+
+/**
+ * This class provides a tiered implementation of the Activity Store, composing
+ * a bounded in-memory hot tier, holding the most recent activity units, with a
+ * persistent cold tier (e.g. the JPA or Elasticsearch Activity Store), identified
+ * by the 'TieredActivityStore.coldStore' property.
+ * <p>
+ * Activity units are written through to the cold tier, and then to the hot tier,
+ * so durability is provided by the cold tier. If the cold tier stores activity
+ * units asynchronously (e.g. the Elasticsearch Activity Store, when configured
+ * with a bulk size), the units will be visible in the hot tier once they have
+ * been submitted to the cold tier, which may be before they have been durably
+ * stored (or even if the cold tier subsequently fails to store them).
+ * <p>
+ * The hot tier holds all activities stored since the store was created, with a
+ * timestamp after any that have been evicted. Queries for activities associated
+ * with a context, within a time range covered by the hot tier, are answered
+ * without accessing the cold tier. Otherwise the cold tier provides the
+ * activities before the start of the hot tier's time range, merged with the
+ * remainder from the hot tier.
+ * <p>
+ * As the hot tier only reflects the activity units stored through this instance,
+ * the tiered store should only be used where a single activity server writes
+ * to the cold tier.
+ *
+ */
+@Singleton
+public class TieredActivityStore implements ActivityStore, PurgeableActivityStore {
+
+    private static final Logger LOG=Logger.getLogger(TieredActivityStore.class.getName());
+
+    private static final int HOT_MAX_ITEMS=10000;
+
+    private MemActivityStore _hotStore;
+    private ActivityStore _coldStore;
+    private String _coldStoreClass;
+    private long _started=System.currentTimeMillis();
+
+    private AtomicLong _hotReads=new AtomicLong();
+    private AtomicLong _coldReads=new AtomicLong();
+
+    /**
+     * The default constructor.
+     */
+    public TieredActivityStore() {
+        this(RTGovProperties.getPropertyAsInteger("TieredActivityStore.hotMaxItems", HOT_MAX_ITEMS));
+        
+        _coldStoreClass = RTGovProperties.getProperty("TieredActivityStore.coldStore");
+    }
+
+    /**
+     * This constructor initializes the maximum number of activity units
+     * retained by the hot tier.
+     * 
+     * @param hotMaxItems The maximum number of activity units in the hot tier
+     */
+    public TieredActivityStore(int hotMaxItems) {
+        _hotStore = new MemActivityStore(hotMaxItems);
+    }
+
+    /**
+     * This method returns the hot tier.
+     * 
+     * @return The hot tier
+     */
+    public MemActivityStore getHotStore() {
+        return (_hotStore);
+    }
+
+    /**
+     * This method sets the cold tier.
+     * 
+     * @param store The cold tier
+     */
+    public void setColdStore(ActivityStore store) {
+        _coldStore = store;
+    }
+
+    /**
+     * This method returns the cold tier, locating the activity store
+     * implementation identified by the 'TieredActivityStore.coldStore'
+     * property if not explicitly set.
+     * 
+     * @return The cold tier
+     * @throws Exception The cold tier is not available
+     */
+    public synchronized ActivityStore getColdStore() throws Exception {
+        if (_coldStore == null && _coldStoreClass != null) {
+            for (ActivityStore as : ServiceRegistryUtil.getServices(ActivityStore.class)) {
+                if (as != this && as.getClass().getName().equals(_coldStoreClass)) {
+                    _coldStore = as;
+                    break;
+                }
+            }
+            
+            if (LOG.isLoggable(Level.FINER)) {
+                LOG.finer("Tiered activity store cold tier '"+_coldStoreClass+"'="+_coldStore);
+            }
+        }
+        
+        if (_coldStore == null) {
+            throw new Exception("Tiered activity store cold tier '"+_coldStoreClass+"' is not available");
+        }
+        
+        return (_coldStore);
+    }
+
+    /**
+     * This method returns the timestamp from which the hot tier holds all
+     * activities stored through this activity store.
+     * 
+     * @return The start of the hot tier's time range
+     */
+    public long getHotFrom() {
+        return (Math.max(_started, _hotStore.getRetainedFrom()));
+    }
+
+    /**
+     * This method returns the number of reads answered by the hot tier alone.
+     * 
+     * @return The number of hot tier reads
+     */
+    public long getHotReads() {
+        return (_hotReads.get());
+    }
+
+    /**
+     * This method returns the number of reads that required the cold tier.
+     * 
+     * @return The number of cold tier reads
+     */
+    public long getColdReads() {
+        return (_coldReads.get());
+    }
+
+    /**
+     * This method closes the hot tier.
+     */
+    @ServiceClose
+    public void close() {
+        _hotStore.close();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void store(List<ActivityUnit> activities) throws Exception {
+        getColdStore().store(activities);
+
+        // Only made visible in the hot tier once accepted by the cold tier, which
+        // may not yet have durably stored them if it stores asynchronously
+        _hotStore.store(activities);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public ActivityUnit getActivityUnit(String id) throws Exception {
+        ActivityUnit ret=_hotStore.getActivityUnit(id);
+        
+        if (ret != null) {
+            _hotReads.incrementAndGet();
+        } else {
+            _coldReads.incrementAndGet();
+            ret = getColdStore().getActivityUnit(id);
+        }
+        
+        return (ret);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public List<ActivityType> getActivityTypes(Context context) throws Exception {
+        return (getActivityTypes(context, 0, 0));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public List<ActivityType> getActivityTypes(Context context, long from, long to) throws Exception {
+        long hotFrom=getHotFrom();
+        
+        if (isHot(context, from, hotFrom)) {
+            _hotReads.incrementAndGet();
+            return (_hotStore.getActivityTypes(context, from, to));
+        }
+        
+        _coldReads.incrementAndGet();
+        
+        if (!isMerged(context, to, hotFrom)) {
+            return (getColdStore().getActivityTypes(context, from, to));
+        }
+        
+        List<ActivityType> ret=getColdStore().getActivityTypes(context, from, hotFrom-1);
+        
+        if (ret == null) {
+            ret = new java.util.ArrayList<ActivityType>();
+        } else {
+            ret = new java.util.ArrayList<ActivityType>(ret);
+        }
+        
+        ret.addAll(_hotStore.getActivityTypes(context, hotFrom, to));
+        
+        if (LOG.isLoggable(Level.FINEST)) {
+            LOG.finest("getActivityTypes context["+context+"] from="+from+" to="+to
+                    +" merged at "+hotFrom+": "+ret.size()+" activities");
+        }
+        
+        return (ret);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public ActivityTypeCursor getActivityTypeCursor(Context context, long from, long to,
+                        int fetchSize, int limit) throws Exception {
+        long hotFrom=getHotFrom();
+        
+        if (isHot(context, from, hotFrom)) {
+            _hotReads.incrementAndGet();
+            return (_hotStore.getActivityTypeCursor(context, from, to, fetchSize, limit));
+        }
+        
+        _coldReads.incrementAndGet();
+        
+        if (!isMerged(context, to, hotFrom)) {
+            return (getColdStore().getActivityTypeCursor(context, from, to, fetchSize, limit));
+        }
+        
+        ActivityTypeCursor cold=getColdStore().getActivityTypeCursor(context, from, hotFrom-1,
+                                fetchSize, limit);
+        
+        return (new MergedCursor(cold, _hotStore.getActivityTypeCursor(context, hotFrom, to,
+                                fetchSize, limit), limit));
+    }
+
+    /**
+     * This method determines whether a query can be answered by the hot tier
+     * alone, which requires a context and a time range starting within the
+     * hot tier's time range.
+     * 
+     * @param context The optional context
+     * @param from The 'from' timestamp
+     * @param hotFrom The start of the hot tier's time range
+     * @return Whether the hot tier covers the query
+     */
+    protected static boolean isHot(Context context, long from, long hotFrom) {
+        return (context != null && from >= hotFrom);
+    }
+
+    /**
+     * This method determines whether a query not covered by the hot tier
+     * should merge the activities from both tiers, which requires a context
+     * and a time range extending into the hot tier's time range.
+     * 
+     * @param context The optional context
+     * @param to The 'to' timestamp, where 0 represents current time
+     * @param hotFrom The start of the hot tier's time range
+     * @return Whether the results from both tiers should be merged
+     */
+    protected static boolean isMerged(Context context, long to, long hotFrom) {
+        return (context != null && (to == 0 || to >= hotFrom));
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Queries are evaluated by the cold tier, as the query format is
+     * specific to the activity store implementation.
+     */
+    @SuppressWarnings("deprecation")
+    public List<ActivityType> query(QuerySpec query) throws Exception {
+        _coldReads.incrementAndGet();
+        return (getColdStore().query(query));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public int purge(long before, int maxUnits) throws Exception {
+        int ret=0;
+        
+        ActivityStore cold=getColdStore();
+        
+        if (cold instanceof PurgeableActivityStore) {
+            ret = ((PurgeableActivityStore)cold).purge(before, maxUnits);
+        }
+        
+        _hotStore.purge(before, Integer.MAX_VALUE);
+        
+        return (ret);
+    }
+
+    /**
+     * This class provides a cursor over the activity types retrieved from
+     * the cold tier, followed by those from the hot tier.
+     *
+     */
+    protected static class MergedCursor implements ActivityTypeCursor {
+
+        private ActivityTypeCursor _cold;
+        private ActivityTypeCursor _hot;
+        private int _remaining;
+
+        /**
+         * This constructor initializes the cursor.
+         * 
+         * @param cold The cold tier cursor
+         * @param hot The hot tier cursor
+         * @param limit The maximum number of activity types returned, or 0 if unlimited
+         */
+        public MergedCursor(ActivityTypeCursor cold, ActivityTypeCursor hot, int limit) {
+            _cold = cold;
+            _hot = hot;
+            _remaining = (limit > 0 ? limit : Integer.MAX_VALUE);
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public boolean hasNext() {
+            if (_remaining <= 0) {
+                return (false);
+            }
+            return (_cold.hasNext() || _hot.hasNext());
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public ActivityType next() {
+            if (!hasNext()) {
+                throw new java.util.NoSuchElementException();
+            }
+            _remaining--;
+            return (_cold.hasNext() ? _cold.next() : _hot.next());
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public void close() {
+            try {
+                _cold.close();
+            } finally {
+                _hot.close();
+            }
+        }
+    }
+}
@@ -18,7 +18,11 @@ package org.overlord.rtgov.activity.store.mem;
 import static org.junit.Assert.*;
 
 import org.junit.Test;
+import org.overlord.rtgov.activity.model.ActivityType;
+import org.overlord.rtgov.activity.model.ActivityUnit;
+import org.overlord.rtgov.activity.model.Context;
 import org.overlord.rtgov.activity.model.soa.RequestSent;
+import org.overlord.rtgov.activity.server.ActivityTypeCursor;
 import org.overlord.rtgov.activity.server.QuerySpec;
 import org.overlord.rtgov.activity.store.mem.MemActivityStore;
 
@@ -51,4 +55,329 @@ public class MemActivityStoreTest {
         }
     }
 
+    protected ActivityUnit createUnit(String id, String context, long timestamp) {
+        ActivityUnit ret=new ActivityUnit();
+        ret.setId(id);
+        
+        RequestSent activity=new RequestSent();
+        activity.setTimestamp(timestamp);
+        activity.getProperties().put("context", context);
+        activity.getContext().add(new Context(Context.Type.Conversation, context));
+        activity.getContext().add(new Context(Context.Type.Conversation, context));
+        ret.getActivityTypes().add(activity);
+        
+        return (ret);
+    }
+    
+    @Test
+    public void testPurge() throws Exception {
+        MemActivityStore store=new MemActivityStore(4);
+        
+        java.util.List<ActivityUnit> units=new java.util.ArrayList<ActivityUnit>();
+        
+        for (int i=0; i < 6; i++) {
+            units.add(createUnit("au"+i, "ctx"+(i % 2), 100+i));
+        }
+        
+        store.store(units);
+        
+        int count=store.purge(104, 1);
+        
+        if (count != 1) {
+            fail("Expecting 1 unit purged in first chunk: "+count);
+        }
+        
+        count = store.purge(104, 10);
+        
+        if (count != 1) {
+            fail("Expecting 1 unit purged in second chunk: "+count);
+        }
+        
+        if (store.size() != 2) {
+            fail("Store should have 2 units: "+store.size());
+        }
+        
+        if (store.getActivityUnit("au3") != null) {
+            fail("Unit au3 should have been purged");
+        }
+        
+        if (store.getActivityTypes(new Context(Context.Type.Conversation, "ctx0")).size() != 1) {
+            fail("Expecting 1 activity for ctx0");
+        }
+        
+        store.store(java.util.Collections.singletonList(createUnit("au6", "ctx0", 106)));
+        
+        if (store.size() != 3 || store.getActivityUnit("au4") != units.get(4)) {
+            fail("Store should accept units after purge: "+store.size());
+        }
+        
+        if (store.purge(104, 10) != 0) {
+            fail("No further units should be purged");
+        }
+    }
+    
+    @Test
+    public void testGetActivityUnitAndEvict() throws Exception {
+        MemActivityStore store=new MemActivityStore(3);
+        
+        java.util.List<ActivityUnit> units=new java.util.ArrayList<ActivityUnit>();
+        
+        for (int i=0; i < 5; i++) {
+            units.add(createUnit("au"+i, "ctx"+(i % 2), 100+i));
+        }
+        
+        store.store(units);
+        
+        if (store.size() != 3) {
+            fail("Store should have 3 units: "+store.size());
+        }
+        
+        if (store.getActivityUnit("au0") != null || store.getActivityUnit("au1") != null) {
+            fail("Oldest units should have been evicted");
+        }
+        
+        if (store.getActivityUnit("au4") != units.get(4)) {
+            fail("Unit au4 not found");
+        }
+        
+        java.util.List<ActivityType> ctx0=store.getActivityTypes(new Context(Context.Type.Conversation, "ctx0"));
+        
+        if (ctx0.size() != 2) {
+            fail("Expecting 2 activities for ctx0: "+ctx0.size());
+        }
+        
+        if (ctx0.get(0) != units.get(2).getActivityTypes().get(0)
+                || ctx0.get(1) != units.get(4).getActivityTypes().get(0)) {
+            fail("Activities for ctx0 not in timestamp order");
+        }
+        
+        java.util.List<ActivityType> ctx1=store.getActivityTypes(new Context(Context.Type.Conversation, "ctx1"));
+        
+        if (ctx1.size() != 1) {
+            fail("Expecting 1 activity for ctx1: "+ctx1.size());
+        }
+        
+        java.util.List<ActivityType> query=store.query(new QuerySpec().setFormat("mvel").
+                            setExpression("timestamp >= 103"));
+        
+        if (query.size() != 2) {
+            fail("Expecting 2 activities from query: "+query.size());
+        }
+        
+        store.clear();
+        
+        if (store.getActivityUnit("au4") != null
+                || store.getActivityTypes(new Context(Context.Type.Conversation, "ctx0")).size() != 0) {
+            fail("Store should be empty");
+        }
+    }
+    
+    @Test
+    public void testGetActivityTypesRange() throws Exception {
+        MemActivityStore store=new MemActivityStore(10);
+        
+        java.util.List<ActivityUnit> units=new java.util.ArrayList<ActivityUnit>();
+        
+        units.add(createUnit("au1", "ctx", 300));
+        units.add(createUnit("au2", "ctx", 100));
+        units.add(createUnit("au3", "ctx", 200));
+        units.add(createUnit("au4", "other", 200));
+        
+        store.store(units);
+        
+        Context context=new Context(Context.Type.Conversation, "ctx");
+        
+        if (store.getActivityTypes(context, 150, 0).size() != 2) {
+            fail("Expecting 2 activities from 150");
+        }
+        
+        if (store.getActivityTypes(context, 0, 200).size() != 2) {
+            fail("Expecting 2 activities up to 200");
+        }
+        
+        java.util.List<ActivityType> range=store.getActivityTypes(context, 150, 250);
+        
+        if (range.size() != 1 || range.get(0).getTimestamp() != 200) {
+            fail("Expecting 1 activity between 150 and 250");
+        }
+        
+        if (store.getActivityTypes(context, 250, 150).size() != 0) {
+            fail("Expecting no activities for an empty range");
+        }
+    }
+
+    @Test
+    public void testGetActivityTypeCursor() throws Exception {
+        MemActivityStore store=new MemActivityStore(20);
+        
+        java.util.List<ActivityUnit> units=new java.util.ArrayList<ActivityUnit>();
+        
+        for (int i=0; i < 10; i++) {
+            units.add(createUnit("au"+i, "ctx", (10-i)*100));
+        }
+        units.add(createUnit("other", "other", 500));
+        
+        store.store(units);
+        
+        Context context=new Context(Context.Type.Conversation, "ctx");
+        
+        ActivityTypeCursor cursor=store.getActivityTypeCursor(context, 0, 0, 3, 0);
+        
+        long last=0;
+        int count=0;
+        
+        try {
+            while (cursor.hasNext()) {
+                ActivityType at=cursor.next();
+                
+                if (at.getTimestamp() <= last) {
+                    fail("Activities should be in timestamp order: "+at.getTimestamp());
+                }
+                last = at.getTimestamp();
+                count++;
+            }
+        } finally {
+            cursor.close();
+        }
+        
+        if (count != 10) {
+            fail("Expecting 10 activities: "+count);
+        }
+        
+        cursor = store.getActivityTypeCursor(context, 250, 750, 2, 3);
+        
+        java.util.List<Long> timestamps=new java.util.ArrayList<Long>();
+        
+        while (cursor.hasNext()) {
+            timestamps.add(cursor.next().getTimestamp());
+        }
+        
+        cursor.close();
+        
+        if (!timestamps.equals(java.util.Arrays.asList(300L, 400L, 500L))) {
+            fail("Expecting first 3 activities between 250 and 750: "+timestamps);
+        }
+        
+        cursor = store.getActivityTypeCursor(new Context(Context.Type.Conversation, "none"), 0, 0, 0, 0);
+        
+        if (cursor.hasNext()) {
+            fail("Expecting no activities for unknown context");
+        }
+    }
+
+    @Test
+    public void testQueryParallelWithBoundsAndLimit() throws Exception {
+        MemActivityStore store=new MemActivityStore(40);
+        store.setQueryEngine(new MVELQueryEngine(10, 4, 8));
+        
+        java.util.List<ActivityUnit> units=new java.util.ArrayList<ActivityUnit>();
+        
+        for (int i=0; i < 40; i++) {
+            units.add(createUnit("au"+i, "ctx"+(i % 2), i));
+        }
+        
+        store.store(units);
+        
+        try {
+            QuerySpec spec=new QuerySpec().setFormat("mvel").
+                    setExpression("properties.get('context') == 'ctx1'");
+            
+            java.util.List<ActivityType> results=store.query(spec);
+            
+            if (results.size() != 20) {
+                fail("Expecting 20 results: "+results.size());
+            }
+            
+            for (int i=0; i < results.size(); i++) {
+                if (results.get(i) != units.get(i*2+1).getActivityTypes().get(0)) {
+                    fail("Results not in store order at "+i);
+                }
+            }
+            
+            results = store.query(spec.setFromTimestamp(10).setToTimestamp(19));
+            
+            if (results.size() != 5) {
+                fail("Expecting 5 results within bounds: "+results.size());
+            }
+            
+            results = store.query(spec.setFromTimestamp(0).setToTimestamp(0).setMaxResults(3));
+            
+            if (results.size() != 3) {
+                fail("Expecting 3 results with limit: "+results.size());
+            }
+            
+            if (results.get(2) != units.get(5).getActivityTypes().get(0)) {
+                fail("Limited results should be the first matches");
+            }
+            
+            if (store.getQueryEngine().getPlanCount() != 1) {
+                fail("Expression should only have been compiled once: "
+                            +store.getQueryEngine().getPlanCount());
+            }
+        } finally {
+            store.close();
+        }
+    }
+
+    @Test
+    public void testQueryPlanCacheEviction() throws Exception {
+        MemActivityStore store=new MemActivityStore(10);
+        store.setQueryEngine(new MVELQueryEngine(2, 1, 100));
+        
+        java.util.List<ActivityUnit> units=new java.util.ArrayList<ActivityUnit>();
+        units.add(createUnit("au1", "ctx", 100));
+        store.store(units);
+        
+        for (int i=0; i < 5; i++) {
+            store.query(new QuerySpec().setFormat("mvel").setExpression("timestamp > "+i));
+        }
+        
+        if (store.getQueryEngine().getPlanCount() != 2) {
+            fail("Plan cache should be bounded: "+store.getQueryEngine().getPlanCount());
+        }
+    }
+
+    @Test
+    public void testQueryPagedAndSorted() throws Exception {
+        MemActivityStore store=new MemActivityStore(10);
+        
+        java.util.List<ActivityUnit> units=new java.util.ArrayList<ActivityUnit>();
+        
+        for (int i=0; i < 6; i++) {
+            // Store in reverse timestamp order
+            units.add(createUnit("au"+i, "ctx", 100-i));
+        }
+        
+        store.store(units);
+        
+        QuerySpec spec=new QuerySpec().setFormat("mvel").setExpression("true")
+                    .setOffset(1).setMaxResults(2);
+        
+        java.util.List<ActivityType> results=store.query(spec);
+        
+        if (results.size() != 2 || results.get(0).getTimestamp() != 99
+                    || results.get(1).getTimestamp() != 98) {
+            fail("Unexpected unsorted page: "+results);
+        }
+        
+        results = store.query(spec.setSortOrder(QuerySpec.SortOrder.Ascending));
+        
+        if (results.size() != 2 || results.get(0).getTimestamp() != 96
+                    || results.get(1).getTimestamp() != 97) {
+            fail("Unexpected ascending page: "+results);
+        }
+        
+        results = store.query(spec.setOffset(5).setMaxResults(0).setSortOrder(QuerySpec.SortOrder.Descending));
+        
+        if (results.size() != 1 || results.get(0).getTimestamp() != 95) {
+            fail("Unexpected descending page: "+results);
+        }
+        
+        results = store.query(spec.setOffset(10));
+        
+        if (results.size() != 0) {
+            fail("Expecting no results beyond the end: "+results.size());
+        }
+    }
+
 }
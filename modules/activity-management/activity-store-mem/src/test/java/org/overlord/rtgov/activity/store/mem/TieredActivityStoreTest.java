@@ -0,0 +1,205 @@
+/*
+ * 2014 Red Hat Inc. and/or its affiliates and other contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.overlord.rtgov.activity.store.mem;
+
+import static org.junit.Assert.*;
+
+import java.util.List;
+
+import org.junit.Test;
+import org.overlord.rtgov.activity.model.ActivityType;
+import org.overlord.rtgov.activity.model.ActivityUnit;
+import org.overlord.rtgov.activity.model.Context;
+import org.overlord.rtgov.activity.model.soa.RequestSent;
+import org.overlord.rtgov.activity.server.ActivityTypeCursor;
+
+public class TieredActivityStoreTest {
+
+    protected ActivityUnit createUnit(String id, String context, long timestamp) {
+        ActivityUnit ret=new ActivityUnit();
+        ret.setId(id);
+        
+        RequestSent activity=new RequestSent();
+        activity.setTimestamp(timestamp);
+        activity.getContext().add(new Context(Context.Type.Conversation, context));
+        ret.getActivityTypes().add(activity);
+        
+        return (ret);
+    }
+    
+    protected void store(TieredActivityStore store, ActivityUnit unit) throws Exception {
+        List<ActivityUnit> units=new java.util.ArrayList<ActivityUnit>();
+        units.add(unit);
+        store.store(units);
+    }
+    
+    @Test
+    public void testRecentReadsServedByHotTier() throws Exception {
+        TieredActivityStore store=new TieredActivityStore(10);
+        ColdStore cold=new ColdStore();
+        store.setColdStore(cold);
+        
+        long now=store.getHotFrom();
+        
+        store(store, createUnit("au1", "ctx", now+100));
+        store(store, createUnit("au2", "ctx", now+200));
+        
+        if (cold.size() != 2) {
+            fail("Activity units should be written through to cold tier: "+cold.size());
+        }
+        
+        Context context=new Context(Context.Type.Conversation, "ctx");
+        
+        if (store.getActivityTypes(context, now, 0).size() != 2) {
+            fail("Expecting 2 recent activities");
+        }
+        
+        if (store.getActivityUnit("au1") == null) {
+            fail("Expecting activity unit au1");
+        }
+        
+        if (cold.getReads() != 0) {
+            fail("Cold tier should not have been read: "+cold.getReads());
+        }
+        
+        if (store.getHotReads() != 2 || store.getColdReads() != 0) {
+            fail("Unexpected read counts: hot="+store.getHotReads()+" cold="+store.getColdReads());
+        }
+    }
+
+    @Test
+    public void testMergeAfterEviction() throws Exception {
+        TieredActivityStore store=new TieredActivityStore(2);
+        ColdStore cold=new ColdStore();
+        store.setColdStore(cold);
+        
+        long now=store.getHotFrom();
+        
+        // Activity stored in cold tier before the tiered store was created
+        List<ActivityUnit> old=new java.util.ArrayList<ActivityUnit>();
+        old.add(createUnit("old", "ctx", now-1000));
+        cold.store(old);
+        
+        for (int i=1; i <= 4; i++) {
+            store(store, createUnit("au"+i, "ctx", now+i*100));
+        }
+        
+        if (store.getHotFrom() != now+201) {
+            fail("Hot tier should start after the latest evicted activity: "+(store.getHotFrom()-now));
+        }
+        
+        Context context=new Context(Context.Type.Conversation, "ctx");
+        
+        List<ActivityType> results=store.getActivityTypes(context);
+        
+        if (results.size() != 5) {
+            fail("Expecting 5 activities from both tiers: "+results.size());
+        }
+        
+        java.util.Set<Long> timestamps=new java.util.HashSet<Long>();
+        
+        for (ActivityType at : results) {
+            if (!timestamps.add(at.getTimestamp())) {
+                fail("Duplicate activity: "+at.getTimestamp());
+            }
+        }
+        
+        if (store.getActivityTypes(context, now+300, 0).size() != 2 || cold.getReads() != 1) {
+            fail("Range covered by hot tier should not read cold tier: "+cold.getReads());
+        }
+        
+        if (store.getActivityTypes(context, now+100, now+150).size() != 1 || cold.getReads() != 2) {
+            fail("Range before hot tier should read cold tier: "+cold.getReads());
+        }
+        
+        if (store.getActivityUnit("au1") == null) {
+            fail("Evicted activity unit should be retrieved from cold tier");
+        }
+        
+        ActivityTypeCursor cursor=store.getActivityTypeCursor(context, 0, 0, 1, 4);
+        
+        int count=0;
+        
+        try {
+            while (cursor.hasNext()) {
+                cursor.next();
+                count++;
+            }
+        } finally {
+            cursor.close();
+        }
+        
+        if (count != 4) {
+            fail("Expecting merged cursor to be limited to 4 activities: "+count);
+        }
+    }
+
+    @Test
+    public void testColdStoreFailure() throws Exception {
+        TieredActivityStore store=new TieredActivityStore(10);
+        
+        ColdStore cold=new ColdStore();
+        cold.setFail(true);
+        store.setColdStore(cold);
+        
+        try {
+            store(store, createUnit("au1", "ctx", store.getHotFrom()+100));
+            fail("Store should fail if cold tier fails");
+        } catch (Exception e) {
+            // Expected
+        }
+        
+        if (store.getHotStore().size() != 0) {
+            fail("Activity unit should not be held by hot tier if not durably stored");
+        }
+    }
+
+    public static class ColdStore extends MemActivityStore {
+        
+        private int _reads=0;
+        private boolean _fail=false;
+        
+        public ColdStore() {
+            super(100);
+        }
+        
+        public void setFail(boolean fail) {
+            _fail = fail;
+        }
+        
+        public int getReads() {
+            return (_reads);
+        }
+        
+        public void store(List<ActivityUnit> activities) throws Exception {
+            if (_fail) {
+                throw new Exception("Failed to store");
+            }
+            super.store(activities);
+        }
+        
+        public List<ActivityType> getActivityTypes(Context context, long from, long to) throws Exception {
+            _reads++;
+            return (super.getActivityTypes(context, from, to));
+        }
+        
+        public ActivityTypeCursor getActivityTypeCursor(Context context, long from, long to,
+                            int fetchSize, int limit) throws Exception {
+            _reads++;
+            return (super.getActivityTypeCursor(context, from, to, fetchSize, limit));
+        }
+    }
+}
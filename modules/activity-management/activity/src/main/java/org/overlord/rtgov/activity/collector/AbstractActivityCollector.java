@@ -15,7 +15,6 @@
  */
 package org.overlord.rtgov.activity.collector;
 
-import java.util.UUID;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -32,6 +31,7 @@ import org.overlord.rtgov.activity.model.ActivityUnit;
 import org.overlord.rtgov.activity.model.Origin;
 import org.overlord.rtgov.activity.processor.InformationProcessorManager;
 import org.overlord.rtgov.activity.validator.ActivityValidatorManager;
+import org.overlord.rtgov.common.util.IdGeneratorUtil;
 import org.overlord.rtgov.common.util.RTGovProperties;
 
 /**
@@ -45,6 +45,8 @@ public abstract class AbstractActivityCollector implements ActivityCollector, Ab
     
     private static final boolean DEFAULT_COLLECTION_ENABLED=true;
     
+    private static final boolean DEFAULT_SAMPLING_ENABLED=false;
+    
     private Boolean _enabled;
     
     private CollectorContext _collectorContext=null;
@@ -55,6 +57,8 @@ public abstract class AbstractActivityCollector implements ActivityCollector, Ab
     
     private ActivityValidatorManager _activityValidatorManager=null;
     
+    private ActivityUnitSampler _activityUnitSampler=null;
+    
     private java.lang.ThreadLocal<ActivityUnit> _activityUnit=new java.lang.ThreadLocal<ActivityUnit>();
     
     /**
@@ -62,6 +66,10 @@ public abstract class AbstractActivityCollector implements ActivityCollector, Ab
      */
     public AbstractActivityCollector() {
         _enabled = RTGovProperties.getPropertyAsBoolean("ActivityCollector.enabled", DEFAULT_COLLECTION_ENABLED);
+        
+        if (RTGovProperties.getPropertyAsBoolean("ActivityCollector.sampling", DEFAULT_SAMPLING_ENABLED)) {
+            _activityUnitSampler = new RuleBasedActivityUnitSampler();
+        }
     }
     
     /**
@@ -117,6 +125,22 @@ public abstract class AbstractActivityCollector implements ActivityCollector, Ab
             });
         }
 
+        if (_activityUnitSampler == null) {
+            ServiceRegistryUtil.addServiceListener(ActivityUnitSampler.class, new ServiceListener<ActivityUnitSampler>() {
+    
+                @Override
+                public void registered(ActivityUnitSampler service) {
+                    setActivityUnitSampler(service);
+                }
+    
+                @Override
+                public void unregistered(ActivityUnitSampler service) {
+                    setActivityUnitSampler(null);
+                }
+                
+            });
+        }
+
         if (_activityLogger == null) {
             ServiceRegistryUtil.addServiceListener(ActivityUnitLogger.class, new ServiceListener<ActivityUnitLogger>() {
     
@@ -236,13 +260,31 @@ public abstract class AbstractActivityCollector implements ActivityCollector, Ab
         _activityValidatorManager = aim;
     }
     
+    /**
+     * This method gets the activity unit sampler.
+     * 
+     * @return The activity unit sampler, or null if all activity units are retained
+     */
+    public ActivityUnitSampler getActivityUnitSampler() {
+        return (_activityUnitSampler);
+    }
+    
+    /**
+     * This method sets the activity unit sampler.
+     * 
+     * @param sampler The activity unit sampler
+     */
+    public void setActivityUnitSampler(ActivityUnitSampler sampler) {
+        _activityUnitSampler = sampler;
+    }
+    
     /**
      * This method generates a unique transaction id.
      * 
      * @return The transaction id
      */
     protected String createTransactionId() {
-        return (UUID.randomUUID().toString());
+        return (IdGeneratorUtil.createId());
     }
     
     /**
@@ -327,7 +369,7 @@ public abstract class AbstractActivityCollector implements ActivityCollector, Ab
         }
         
         if (au != null) {
-            _activityLogger.log(au);
+            logActivityUnit(au);
 
             _activityUnit.remove();
         } else {
@@ -424,8 +466,32 @@ public abstract class AbstractActivityCollector implements ActivityCollector, Ab
         au.getActivityTypes().add(actType);
         
         if (!transactional) {
-            _activityLogger.log(au);
+            logActivityUnit(au);
+        }
+    }
+    
+    /**
+     * This method passes the completed activity unit to the logger,
+     * if retained by the sampler.
+     * 
+     * @param au The activity unit
+     */
+    protected void logActivityUnit(ActivityUnit au) {
+        ActivityUnitSampler sampler=_activityUnitSampler;
+        
+        if (sampler != null) {
+            double load=0.0;
+            
+            if (_activityLogger instanceof BatchedActivityUnitLogger) {
+                load = ((BatchedActivityUnitLogger)_activityLogger).getLoadFactor();
+            }
+            
+            if (!sampler.isRetained(au, load)) {
+                return;
+            }
         }
+        
+        _activityLogger.log(au);
     }
 
     /**
@@ -0,0 +1,39 @@
+/*
+ * 2014 Red Hat Inc. and/or its affiliates and other contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.overlord.rtgov.activity.collector;
+
+import org.overlord.rtgov.activity.model.ActivityUnit;
+
+/**
+ * This interface represents a sampling policy, used by the activity
+ * collector to determine whether a completed activity unit should be
+ * passed to the activity unit logger.
+ *
+ */
+public interface ActivityUnitSampler {
+
+    /**
+     * This method determines whether the supplied activity unit
+     * should be retained.
+     *
+     * @param au The activity unit
+     * @param load The current load on the activity unit logger, from
+     *              0.0 (idle) to 1.0 (saturated)
+     * @return Whether the activity unit should be retained
+     */
+    public boolean isRetained(ActivityUnit au, double load);
+
+}
@@ -16,7 +16,11 @@
 package org.overlord.rtgov.activity.collector;
 
 import java.lang.management.ManagementFactory;
-import java.util.TimerTask;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -29,6 +33,15 @@ import org.overlord.rtgov.common.util.RTGovProperties;
 /**
  * This class provides the abstract activity unit logger implementation that
  * batches activity units based on time slots and size.
+ * <p>
+ * Application threads append activity units to one of a set of striped,
+ * lock-free buffers, and return immediately. A single drainer thread
+ * moves the buffered units into the current batch, and sends the batch
+ * when either the maximum unit count is exceeded or the maximum time
+ * interval has elapsed since the first unit in the batch was received.
+ * As the {@link #appendActivity(ActivityUnit)} and {@link #sendMessage()}
+ * methods are only ever invoked on the drainer thread, derived
+ * implementations do not need to synchronize access to their batch state.
  *
  */
 public abstract class BatchedActivityUnitLogger implements ActivityUnitLogger,
@@ -38,29 +51,69 @@ public abstract class BatchedActivityUnitLogger implements ActivityUnitLogger,
 
     private static final int MAX_UNIT_COUNT = 1000;
     private static final long MAX_TIME_INTERVAL = 500;
+    private static final int BUFFER_STRIPES = Runtime.getRuntime().availableProcessors();
+    private static final int BUFFERED_BATCHES_AT_SATURATION = 10;
     
     private static final String OBJECT_NAME_DOMAIN = "overlord.rtgov.collector";    
     private static final String OBJECT_NAME_LOGGER = OBJECT_NAME_DOMAIN+":name=ActivityLogger";
     
     private int _messageCounter=0;
-    private java.util.Timer _timer;
-    private java.util.TimerTask _timerTask;
+    private long _batchStartTime=0;
+
+    private ConcurrentLinkedQueue<ActivityUnit>[] _buffers=createBuffers(BUFFER_STRIPES);
+    private AtomicInteger _pendingUnits=new AtomicInteger();
+    private AtomicLong _firstQueuedTime=new AtomicLong();
+
+    private Thread _drainer;
+    private volatile boolean _running=false;
     
     private Long _maxTimeInterval;
     private Integer _maxUnitCount;
     
     private boolean _initialized=false;
     
+    /**
+     * This method creates the striped buffers.
+     *
+     * @param stripes The number of stripes
+     * @return The buffers
+     */
+    @SuppressWarnings("unchecked")
+    private static ConcurrentLinkedQueue<ActivityUnit>[] createBuffers(int stripes) {
+        ConcurrentLinkedQueue<ActivityUnit>[] ret=new ConcurrentLinkedQueue[stripes < 1 ? 1 : stripes];
+
+        for (int i=0; i < ret.length; i++) {
+            ret[i] = new ConcurrentLinkedQueue<ActivityUnit>();
+        }
+
+        return (ret);
+    }
+
     /**
      * This method initializes the activity logger.
      */
     public synchronized void init() {
         
         if (!_initialized) {
-            _timer = new java.util.Timer();
-            
             _maxTimeInterval = RTGovProperties.getPropertyAsLong("BatchedActivityUnitLogger.maxTimeInterval", MAX_TIME_INTERVAL);
             _maxUnitCount = RTGovProperties.getPropertyAsInteger("BatchedActivityUnitLogger.maxUnitCount", MAX_UNIT_COUNT);
+
+            int stripes=RTGovProperties.getPropertyAsInteger("BatchedActivityUnitLogger.bufferStripes", BUFFER_STRIPES);
+
+            if (stripes != _buffers.length) {
+                _buffers = createBuffers(stripes);
+            }
+
+            _running = true;
+
+            _drainer = new Thread(new Runnable() {
+                public void run() {
+                    drain();
+                }
+            }, "BatchedActivityUnitLogger-drainer");
+
+            _drainer.setDaemon(true);
+            _drainer.start();
     
             try {
                 MBeanServer mbs = ManagementFactory.getPlatformMBeanServer(); 
@@ -128,49 +181,139 @@ public abstract class BatchedActivityUnitLogger implements ActivityUnitLogger,
         return (_maxUnitCount);
     }
     
+    /**
+     * {@inheritDoc}
+     */
+    public int getBufferedActivityUnits() {
+        return (_pendingUnits.get());
+    }
+
+    /**
+     * This method returns the current load on the logger, from 0.0 (idle)
+     * to 1.0 (saturated). The default implementation is based on the number
+     * of buffered activity units awaiting transfer into a batch, relative
+     * to the maximum unit count. Derived loggers that queue batches for
+     * transmission should override this method to reflect their queue depth.
+     *
+     * @return The load factor
+     */
+    public double getLoadFactor() {
+        int max=getMaxUnitCount();
+
+        if (max <= 0) {
+            return (0.0);
+        }
+
+        return (Math.min(1.0, (double)_pendingUnits.get() / (max * BUFFERED_BATCHES_AT_SATURATION)));
+    }
+
     /**
      * {@inheritDoc}
      */
     public void log(ActivityUnit act) {
         
+        // Select the stripe based on the calling thread, so that units
+        // logged by the same thread retain their order
+        int stripe=(int)(Thread.currentThread().getId() % _buffers.length);
+
+        // Record when the oldest unit awaiting transfer was queued, so that
+        // the time interval is measured from when the unit was logged
+        if (_firstQueuedTime.get() == 0) {
+            _firstQueuedTime.compareAndSet(0, System.currentTimeMillis());
+        }
+
+        _buffers[stripe].offer(act);
+
+        // Wake the drainer early if a full batch is waiting
+        if (_pendingUnits.incrementAndGet() > getMaxUnitCount()) {
+            Thread drainer=_drainer;
+
+            if (drainer != null) {
+                LockSupport.unpark(drainer);
+            }
+        }
+    }
+
+    /**
+     * This method is run by the drainer thread to transfer buffered
+     * activity units into batches, and send each batch when its
+     * count or time limit has been reached. When the logger is closed,
+     * the drainer sends any remaining activity units before exiting.
+     */
+    protected void drain() {
+        while (_running) {
+            try {
+                transfer();
+
+                long waitTime=getMaxTimeInterval();
+
+                if (_messageCounter > 0) {
+                    long elapsed=System.currentTimeMillis() - _batchStartTime;
+
+                    if (elapsed >= waitTime) {
+                        sendMessage();
+
+                        reset();
+                    } else {
+                        waitTime -= elapsed;
+                    }
+                }
+
+                if (_pendingUnits.get() <= getMaxUnitCount()) {
+                    LockSupport.parkNanos(this, TimeUnit.MILLISECONDS.toNanos(waitTime));
+                }
+            } catch (Throwable t) {
+                LOG.log(Level.SEVERE, java.util.PropertyResourceBundle.getBundle(
+                        "activity.Messages").getString("ACTIVITY-3"), t);
+
+                reset();
+            }
+        }
+
         try {
-             synchronized (_timer) {
-                 
-                 // Cancel any current scheduled task
-                 if (_timerTask == null) {
-                     _timerTask = new TimerTask() {
-                            public void run() {
-                                try {
-                                    synchronized (_timer) {
-                                        sendMessage();
-                                    
-                                        reset();
-                                    }
-                                } catch (Exception e) {
-                                    LOG.log(Level.SEVERE, java.util.PropertyResourceBundle.getBundle(
-                                            "activity.Messages").getString("ACTIVITY-3"), e);
-                                }
-                            }                         
-                         };
-                         
-                     // Schedule send
-                     _timer.schedule(_timerTask, getMaxTimeInterval());
-                 }
-
-                 appendActivity(act);
-                 
-                 _messageCounter++;
-
-                 if (_messageCounter > getMaxUnitCount()) {
-                     sendMessage();
-                     
-                     reset();
-                 }
-             }
-             
-        } catch (Exception e) {
+            transfer();
+
+            if (_messageCounter > 0) {
+                sendMessage();
+            }
+        } catch (Throwable t) {
             LOG.log(Level.SEVERE, java.util.PropertyResourceBundle.getBundle(
-                    "activity.Messages").getString("ACTIVITY-3"), e);
+                    "activity.Messages").getString("ACTIVITY-3"), t);
+        }
+
+        reset();
+    }
+
+    /**
+     * This method transfers the currently buffered activity units into
+     * the batch, sending the batch each time the maximum unit count
+     * is exceeded.
+     *
+     * @throws Exception Failed to append or send the activity units
+     */
+    protected void transfer() throws Exception {
+        long queued=_firstQueuedTime.getAndSet(0);
+
+        for (int i=0; i < _buffers.length; i++) {
+            ActivityUnit act=null;
+
+            while ((act = _buffers[i].poll()) != null) {
+                _pendingUnits.decrementAndGet();
+
+                if (_messageCounter == 0) {
+                    _batchStartTime = (queued > 0 ? queued : System.currentTimeMillis());
+                }
+
+                appendActivity(act);
+
+                _messageCounter++;
+
+                if (_messageCounter > getMaxUnitCount()) {
+                    sendMessage();
+
+                    reset();
+                }
+            }
         }
     }
 
@@ -185,31 +328,46 @@ public abstract class BatchedActivityUnitLogger implements ActivityUnitLogger,
     /**
      * This method sends the message. This method should be overridden
      * by the specific logger implementation to send the message using
-     * the appropriate transport mechanism. However the overridden method
-     * should also invoke this method to manage the message count and
-     * timer.
+     * the appropriate transport mechanism.
      * 
      * @throws Exception Failed to send the message
      */
     protected abstract void sendMessage() throws Exception;
     
     /**
-     * This method resets the counters and timers.
+     * This method resets the batch counter and start time.
      */
     protected void reset() {
         _messageCounter = 0;
-         
-        if (_timerTask != null) {
-            _timerTask.cancel();
-            _timerTask = null;
-        }
+        _batchStartTime = 0;
     }
 
     /**
-     * This method closes the activity logger.
+     * This method closes the activity logger, sending any
+     * activity units that are still buffered.
      */
     public void close() {
-        _timer.cancel();
+        Thread drainer=null;
+
+        synchronized (this) {
+            drainer = _drainer;
+
+            _running = false;
+            _drainer = null;
+            _initialized = false;
+        }
+
+        if (drainer != null) {
+            LockSupport.unpark(drainer);
+
+            // The drainer sends the remaining activity units before exiting,
+            // so wait until it has done so, rather than draining concurrently
+            try {
+                drainer.join();
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+            }
+        }
         
         try {
             MBeanServer mbs = ManagementFactory.getPlatformMBeanServer(); 
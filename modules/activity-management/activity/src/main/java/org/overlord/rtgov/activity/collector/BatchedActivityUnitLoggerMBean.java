@@ -54,4 +54,12 @@ public interface BatchedActivityUnitLoggerMBean {
      */
     public int getMaxUnitCount();
     
+    /**
+     * This method returns the number of activity units that have
+     * been logged, but not yet transferred into a batch.
+     *
+     * @return The number of buffered activity units
+     */
+    public int getBufferedActivityUnits();
+
 }
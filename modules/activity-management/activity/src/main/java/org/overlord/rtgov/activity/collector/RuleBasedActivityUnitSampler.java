@@ -0,0 +1,380 @@
+/*
+ * 2014 Red Hat Inc. and/or its affiliates and other contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.overlord.rtgov.activity.collector;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.overlord.rtgov.activity.model.ActivityType;
+import org.overlord.rtgov.activity.model.ActivityUnit;
+import org.overlord.rtgov.activity.model.soa.RPCActivityType;
+import org.overlord.rtgov.activity.model.soa.ResponseReceived;
+import org.overlord.rtgov.activity.model.soa.ResponseSent;
+import org.overlord.rtgov.common.util.RTGovProperties;
+
+/**
+ * This class provides a rule based sampling policy. Activity units are
+ * retained at a rate of 1-in-N, where N can be defined per service type,
+ * or service type and operation, with a default applying to all other
+ * activity units. Activity units that contain a fault, or whose latency
+ * exceeds a threshold, are always retained.
+ * <p>
+ * When the load on the activity unit logger crosses one of the configured
+ * thresholds, the sampling rates are multiplied by the factor associated
+ * with that threshold, to reduce the volume of activity units being
+ * reported until the logger has caught up.
+ *
+ */
+public class RuleBasedActivityUnitSampler implements ActivityUnitSampler {
+
+    private static final Logger LOG=Logger.getLogger(RuleBasedActivityUnitSampler.class.getName());
+
+    private static final int DEFAULT_RATE=1;
+    private static final boolean DEFAULT_RETAIN_FAULTS=true;
+    private static final long DEFAULT_LATENCY_THRESHOLD=0;
+    private static final String DEFAULT_LOAD_THRESHOLDS="0.5=2;0.75=4;0.9=8";
+
+    private static final String OPERATION_SEPARATOR="#";
+
+    private int _defaultRate=DEFAULT_RATE;
+    private boolean _retainFaults=DEFAULT_RETAIN_FAULTS;
+    private long _latencyThreshold=DEFAULT_LATENCY_THRESHOLD;
+
+    private java.util.Map<String,Integer> _rates=new ConcurrentHashMap<String,Integer>();
+    private ConcurrentHashMap<String,AtomicLong> _counters=new ConcurrentHashMap<String,AtomicLong>();
+
+    private double[] _loadThresholds=new double[0];
+    private int[] _loadFactors=new int[0];
+
+    /**
+     * The default constructor, initializing the sampling rules from
+     * the RTGov properties.
+     */
+    public RuleBasedActivityUnitSampler() {
+        _defaultRate = RTGovProperties.getPropertyAsInteger("ActivityUnitSampler.defaultRate", DEFAULT_RATE);
+        _retainFaults = RTGovProperties.getPropertyAsBoolean("ActivityUnitSampler.retainFaults", DEFAULT_RETAIN_FAULTS);
+        _latencyThreshold = RTGovProperties.getPropertyAsLong("ActivityUnitSampler.latencyThreshold",
+                                DEFAULT_LATENCY_THRESHOLD);
+
+        setRates(RTGovProperties.getProperty("ActivityUnitSampler.rates"));
+        setLoadThresholds(RTGovProperties.getProperty("ActivityUnitSampler.loadThresholds",
+                                DEFAULT_LOAD_THRESHOLDS));
+    }
+
+    /**
+     * This method sets the default sampling rate, i.e. 1-in-N
+     * activity units will be retained.
+     *
+     * @param rate The default rate
+     */
+    public void setDefaultRate(int rate) {
+        _defaultRate = rate;
+    }
+
+    /**
+     * This method returns the default sampling rate.
+     *
+     * @return The default rate
+     */
+    public int getDefaultRate() {
+        return (_defaultRate);
+    }
+
+    /**
+     * This method sets whether activity units containing a fault
+     * should always be retained.
+     *
+     * @param b Whether faults should be retained
+     */
+    public void setRetainFaults(boolean b) {
+        _retainFaults = b;
+    }
+
+    /**
+     * This method returns whether activity units containing a fault
+     * should always be retained.
+     *
+     * @return Whether faults should be retained
+     */
+    public boolean getRetainFaults() {
+        return (_retainFaults);
+    }
+
+    /**
+     * This method sets the latency threshold (in milliseconds) above
+     * which activity units will always be retained. A value of 0
+     * disables latency based retention.
+     *
+     * @param threshold The latency threshold
+     */
+    public void setLatencyThreshold(long threshold) {
+        _latencyThreshold = threshold;
+    }
+
+    /**
+     * This method returns the latency threshold (in milliseconds).
+     *
+     * @return The latency threshold
+     */
+    public long getLatencyThreshold() {
+        return (_latencyThreshold);
+    }
+
+    /**
+     * This method sets the sampling rate for a service type, and optionally
+     * operation.
+     *
+     * @param serviceType The service type
+     * @param operation The optional operation
+     * @param rate The rate
+     */
+    public void setRate(String serviceType, String operation, int rate) {
+        _rates.put(getKey(serviceType, operation), rate);
+    }
+
+    /**
+     * This method sets the sampling rates from a specification of the form
+     * 'serviceType[#operation]=rate', with multiple rates separated by ';'.
+     *
+     * @param spec The rates specification
+     */
+    public void setRates(String spec) {
+        _rates.clear();
+
+        if (spec == null) {
+            return;
+        }
+
+        for (String rule : spec.split(";")) {
+            int index=rule.lastIndexOf('=');
+
+            if (index == -1) {
+                continue;
+            }
+
+            try {
+                _rates.put(rule.substring(0, index).trim(),
+                        Integer.parseInt(rule.substring(index+1).trim()));
+            } catch (NumberFormatException nfe) {
+                LOG.warning("Invalid sampling rate '"+rule+"'");
+            }
+        }
+    }
+
+    /**
+     * This method sets the load thresholds from a specification of the form
+     * 'load=factor', with multiple thresholds separated by ';'. When the
+     * load on the logger reaches a threshold, the sampling rates are
+     * multiplied by the associated factor.
+     *
+     * @param spec The load thresholds specification
+     */
+    public void setLoadThresholds(String spec) {
+        java.util.TreeMap<Double,Integer> thresholds=new java.util.TreeMap<Double,Integer>();
+
+        if (spec != null) {
+            for (String rule : spec.split(";")) {
+                int index=rule.indexOf('=');
+
+                if (index == -1) {
+                    continue;
+                }
+
+                try {
+                    thresholds.put(Double.parseDouble(rule.substring(0, index).trim()),
+                            Integer.parseInt(rule.substring(index+1).trim()));
+                } catch (NumberFormatException nfe) {
+                    LOG.warning("Invalid sampling load threshold '"+rule+"'");
+                }
+            }
+        }
+
+        double[] loads=new double[thresholds.size()];
+        int[] factors=new int[thresholds.size()];
+        int i=0;
+
+        for (java.util.Map.Entry<Double,Integer> entry : thresholds.entrySet()) {
+            loads[i] = entry.getKey();
+            factors[i++] = entry.getValue();
+        }
+
+        _loadFactors = factors;
+        _loadThresholds = loads;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean isRetained(ActivityUnit au, double load) {
+        RPCActivityType rpc=null;
+
+        for (int i=0; i < au.getActivityTypes().size(); i++) {
+            ActivityType at=au.getActivityTypes().get(i);
+
+            if (at instanceof RPCActivityType) {
+                if (_retainFaults && ((RPCActivityType)at).getFault() != null) {
+                    return (true);
+                }
+
+                if (rpc == null && ((RPCActivityType)at).getServiceType() != null) {
+                    rpc = (RPCActivityType)at;
+                }
+            }
+        }
+
+        if (_latencyThreshold > 0 && getLatency(au) > _latencyThreshold) {
+            return (true);
+        }
+
+        String key=(rpc == null ? "" : getKey(rpc.getServiceType(), rpc.getOperation()));
+
+        long rate=getRate(rpc, key)*getLoadFactor(load);
+
+        if (rate <= 1) {
+            return (true);
+        }
+
+        AtomicLong counter=_counters.get(key);
+
+        if (counter == null) {
+            counter = new AtomicLong();
+
+            AtomicLong existing=_counters.putIfAbsent(key, counter);
+
+            if (existing != null) {
+                counter = existing;
+            }
+        }
+
+        boolean ret=(counter.getAndIncrement() % rate == 0);
+
+        if (!ret && LOG.isLoggable(Level.FINEST)) {
+            LOG.finest("Activity unit '"+au.getId()+"' not retained by sampler (rate "+rate+")");
+        }
+
+        return (ret);
+    }
+
+    /**
+     * This method returns the sampling rate associated with the
+     * supplied RPC activity.
+     *
+     * @param rpc The RPC activity, or null
+     * @param key The service type and operation key
+     * @return The rate
+     */
+    protected int getRate(RPCActivityType rpc, String key) {
+        if (rpc != null && _rates.size() > 0) {
+            Integer rate=_rates.get(key);
+
+            if (rate == null) {
+                rate = _rates.get(rpc.getServiceType());
+            }
+
+            if (rate != null) {
+                return (rate);
+            }
+        }
+
+        return (_defaultRate);
+    }
+
+    /**
+     * This method returns the factor to apply to the sampling rates
+     * for the supplied load.
+     *
+     * @param load The load
+     * @return The factor
+     */
+    protected int getLoadFactor(double load) {
+        double[] loads=_loadThresholds;
+        int[] factors=_loadFactors;
+        int ret=1;
+
+        for (int i=0; i < loads.length && i < factors.length; i++) {
+            if (load >= loads[i]) {
+                ret = factors[i];
+            }
+        }
+
+        return (ret);
+    }
+
+    /**
+     * This method returns the latency associated with the activity unit.
+     * This is the longest interval between a request and its response
+     * within the unit, or if no request/response pairs are found, the
+     * interval between the first and last activities.
+     *
+     * @param au The activity unit
+     * @return The latency
+     */
+    protected static long getLatency(ActivityUnit au) {
+        java.util.List<ActivityType> acts=au.getActivityTypes();
+
+        if (acts.size() < 2) {
+            return (0);
+        }
+
+        long ret=-1;
+
+        for (int i=0; i < acts.size(); i++) {
+            String replyToId=null;
+
+            if (acts.get(i) instanceof ResponseSent) {
+                replyToId = ((ResponseSent)acts.get(i)).getReplyToId();
+            } else if (acts.get(i) instanceof ResponseReceived) {
+                replyToId = ((ResponseReceived)acts.get(i)).getReplyToId();
+            }
+
+            if (replyToId != null) {
+                for (int j=0; j < i; j++) {
+                    if (acts.get(j) instanceof RPCActivityType
+                            && replyToId.equals(((RPCActivityType)acts.get(j)).getMessageId())) {
+                        long latency=acts.get(i).getTimestamp()-acts.get(j).getTimestamp();
+
+                        if (latency > ret) {
+                            ret = latency;
+                        }
+                        break;
+                    }
+                }
+            }
+        }
+
+        if (ret == -1) {
+            ret = acts.get(acts.size()-1).getTimestamp()-acts.get(0).getTimestamp();
+        }
+
+        return (ret);
+    }
+
+    /**
+     * This method returns the key for the supplied service type and operation.
+     *
+     * @param serviceType The service type
+     * @param operation The optional operation
+     * @return The key
+     */
+    protected static String getKey(String serviceType, String operation) {
+        if (operation == null) {
+            return (serviceType);
+        }
+        return (serviceType+OPERATION_SEPARATOR+operation);
+    }
+}
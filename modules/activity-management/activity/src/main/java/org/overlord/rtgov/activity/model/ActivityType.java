@@ -30,6 +30,8 @@ import javax.persistence.IdClass;
 import javax.persistence.Inheritance;
 import javax.persistence.JoinColumn;
 import javax.persistence.MapKeyColumn;
+import javax.persistence.NamedQueries;
+import javax.persistence.NamedQuery;
 import javax.persistence.InheritanceType;
 import javax.persistence.DiscriminatorType;
 import javax.persistence.Table;
@@ -73,6 +75,23 @@ import org.overlord.rtgov.activity.model.soa.ResponseSent;
     discriminatorType=DiscriminatorType.STRING
 )
 @Table(name="RTGOV_ACTIVITIES")
+@NamedQueries({
+    @NamedQuery(name="ActivityType.getByContext",
+            query="SELECT at FROM ActivityType at JOIN at.context ctx "
+                    +"WHERE ctx.value = :value AND ctx.type = :type"),
+    @NamedQuery(name="ActivityType.getByContextAndTimeframe",
+            query="SELECT at FROM ActivityType at JOIN at.context ctx "
+                    +"WHERE ctx.value = :value AND ctx.type = :type "
+                    +"AND at.timestamp >= :from AND at.timestamp <= :to"),
+    @NamedQuery(name="ActivityType.getByTimeframe",
+            query="SELECT at FROM ActivityType at "
+                    +"WHERE at.timestamp >= :from AND at.timestamp <= :to"),
+    @NamedQuery(name="ActivityType.getExpiredUnitIds",
+            query="SELECT DISTINCT at.unitId FROM ActivityType at "
+                    +"WHERE at.timestamp < :before AND NOT EXISTS ("
+                    +"SELECT at2.unitId FROM ActivityType at2 "
+                    +"WHERE at2.unitId = at.unitId AND at2.timestamp >= :before)")
+})
 @org.codehaus.enunciate.json.JsonRootType
 public abstract class ActivityType implements java.io.Externalizable {
 
@@ -28,6 +28,10 @@ import javax.persistence.Embedded;
 import javax.persistence.FetchType;
 import javax.persistence.Id;
 import javax.persistence.JoinColumn;
+import javax.persistence.NamedNativeQueries;
+import javax.persistence.NamedNativeQuery;
+import javax.persistence.NamedQueries;
+import javax.persistence.NamedQuery;
 import javax.persistence.OneToMany;
 import javax.persistence.CascadeType;
 import javax.persistence.Table;
@@ -39,6 +43,31 @@ import javax.persistence.Table;
  */
 @Entity
 @Table(name="RTGOV_ACTIVITY_UNITS")
+@NamedQueries({
+    @NamedQuery(name="ActivityUnit.getById",
+            query="SELECT au FROM ActivityUnit au WHERE au.id = :id"),
+    @NamedQuery(name="ActivityUnit.getEmptyUnitIds",
+            query="SELECT au.id FROM ActivityUnit au WHERE NOT EXISTS ("
+                    +"SELECT at.unitId FROM ActivityType at WHERE at.unitId = au.id)")
+})
+@NamedNativeQueries({
+    @NamedNativeQuery(name="ActivityUnit.removeContexts",
+            query="DELETE FROM RTGOV_ACTIVITY_CONTEXT WHERE unitId = :unitId"),
+    @NamedNativeQuery(name="ActivityUnit.removeProperties",
+            query="DELETE FROM RTGOV_ACTIVITY_PROPERTIES WHERE unitId = :unitId"),
+    @NamedNativeQuery(name="ActivityUnit.removeActivityTypes",
+            query="DELETE FROM RTGOV_ACTIVITIES WHERE unitId = :unitId"),
+    @NamedNativeQuery(name="ActivityUnit.remove",
+            query="DELETE FROM RTGOV_ACTIVITY_UNITS WHERE id = :unitId"),
+    @NamedNativeQuery(name="ActivityUnit.purgeContexts",
+            query="DELETE FROM RTGOV_ACTIVITY_CONTEXT WHERE unitId IN (:unitIds)"),
+    @NamedNativeQuery(name="ActivityUnit.purgeProperties",
+            query="DELETE FROM RTGOV_ACTIVITY_PROPERTIES WHERE unitId IN (:unitIds)"),
+    @NamedNativeQuery(name="ActivityUnit.purgeActivityTypes",
+            query="DELETE FROM RTGOV_ACTIVITIES WHERE unitId IN (:unitIds)"),
+    @NamedNativeQuery(name="ActivityUnit.purge",
+            query="DELETE FROM RTGOV_ACTIVITY_UNITS WHERE id IN (:unitIds)")
+})
 @org.codehaus.enunciate.json.JsonRootType
 public class ActivityUnit implements java.io.Externalizable {
 
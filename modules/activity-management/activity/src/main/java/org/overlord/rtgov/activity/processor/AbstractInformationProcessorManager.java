@@ -26,16 +26,20 @@ import org.overlord.rtgov.common.util.VersionUtil;
 /**
  * This class manages a set of InformationProcessor
  * implementations.
+ * <p>
+ * The registered information processors are held in an immutable registry,
+ * indexed by name and by supported type, which is replaced (copy-on-write) when
+ * information processors are registered or unregistered. This means that the
+ * processing of information, performed on application threads, does not need
+ * to acquire a lock.
  *
  */
 public abstract class AbstractInformationProcessorManager implements InformationProcessorManager {
     
     private static final Logger LOG=Logger.getLogger(AbstractInformationProcessorManager.class.getName());
 
-    private java.util.Map<String,InformationProcessor> _informationProcessorIndex=
-            new java.util.HashMap<String,InformationProcessor>();
-    private java.util.List<InformationProcessor> _informationProcessors=
-                new java.util.ArrayList<InformationProcessor>();
+    private final Object _lock=new Object();
+    private volatile Registry _registry=new Registry();
     
     /**
      * The default constructor.
@@ -64,11 +68,11 @@ public abstract class AbstractInformationProcessorManager implements Information
         // Initialize the information processor
         ip.init();
         
-        synchronized (_informationProcessorIndex) {
+        synchronized (_lock) {
             boolean f_add=false;
             
             // Check if information processor for same name already exists
-            InformationProcessor existing=_informationProcessorIndex.get(ip.getName());
+            InformationProcessor existing=_registry.getInformationProcessor(ip.getName());
             
             if (existing != null) {
                 
@@ -98,8 +102,11 @@ public abstract class AbstractInformationProcessorManager implements Information
             }
             
             if (f_add) {
-                _informationProcessorIndex.put(ip.getName(), ip);
-                _informationProcessors.add(ip);
+                java.util.List<InformationProcessor> ips=
+                        new java.util.ArrayList<InformationProcessor>(_registry.getInformationProcessors());
+                ips.add(ip);
+                
+                _registry = new Registry(ips);
             }
         }
     }
@@ -108,9 +115,7 @@ public abstract class AbstractInformationProcessorManager implements Information
      * {@inheritDoc}
      */
     public InformationProcessor getInformationProcessor(String name) {
-        synchronized (_informationProcessorIndex) {
-            return (_informationProcessorIndex.get(name));
-        }
+        return (_registry.getInformationProcessor(name));
     }
     
     /**
@@ -126,22 +131,21 @@ public abstract class AbstractInformationProcessorManager implements Information
                         +" headers="+headers);
         }
 
-        synchronized (_informationProcessorIndex) {
+        InformationProcessor ip=null;
+        
+        if (processor != null) {
+            ip = _registry.getInformationProcessor(processor);
             
-            if (processor != null) {
-                InformationProcessor ip=_informationProcessorIndex.get(processor);
-                
-                if (ip.isSupported(type)) {
-                    return (ip.process(type, info, headers, actType));
-                }
-            } else {
-                for (int i=0; i < _informationProcessors.size(); i++) {
-                    if (_informationProcessors.get(i).isSupported(type)) {
-                        return (_informationProcessors.get(i).process(type, info, headers, actType));
-                    }
-                }
+            if (ip != null && !ip.isSupported(type)) {
+                ip = null;
             }
-        }        
+        } else {
+            ip = _registry.getInformationProcessorForType(type);
+        }
+        
+        if (ip != null) {
+            return (ip.process(type, info, headers, actType));
+        }
         
         if (LOG.isLoggable(Level.FINEST)) {
             LOG.finest("Process: processor="+processor+" type="+type+" not supported");
@@ -160,21 +164,24 @@ public abstract class AbstractInformationProcessorManager implements Information
                         +ip.getVersion()+" ip="+ip);
         }
         
-        synchronized (_informationProcessorIndex) {
+        synchronized (_lock) {
+            InformationProcessor existing=_registry.getInformationProcessor(ip.getName());
             
-            if (_informationProcessors.contains(ip)) {
-                InformationProcessor removed=
-                            _informationProcessorIndex.remove(ip.getName());
-                _informationProcessors.remove(removed);
+            if (existing == ip) {
+                java.util.List<InformationProcessor> ips=
+                        new java.util.ArrayList<InformationProcessor>(_registry.getInformationProcessors());
+                ips.remove(ip);
+                
+                _registry = new Registry(ips);
                 
-                removed.close();
+                ip.close();
                 
-            } else if (_informationProcessorIndex.containsKey(ip.getName())) {
+            } else if (existing != null) {
                 
                 if (LOG.isLoggable(Level.FINE)) {
                     LOG.fine("Another version of information processor name="
                             +ip.getName()+" is currently registered: existing version ="
-                            +_informationProcessorIndex.get(ip.getName()).getVersion());
+                            +existing.getVersion());
                 }
             }
         }
@@ -187,10 +194,95 @@ public abstract class AbstractInformationProcessorManager implements Information
      */
     @ServiceClose
     public void close() throws Exception {
-        synchronized (_informationProcessorIndex) {
-            for (int i=_informationProcessors.size()-1; i >= 0; i--) {
-                unregister(_informationProcessors.get(i));
+        synchronized (_lock) {
+            java.util.List<InformationProcessor> ips=_registry.getInformationProcessors();
+            
+            for (int i=ips.size()-1; i >= 0; i--) {
+                unregister(ips.get(i));
             }
         }
     }
+    
+    /**
+     * This class represents an immutable snapshot of the registered
+     * information processors, indexed by name and supported type.
+     *
+     */
+    private static final class Registry {
+        
+        private final java.util.List<InformationProcessor> _informationProcessors;
+        private final java.util.Map<String,InformationProcessor> _nameIndex;
+        private final java.util.Map<String,InformationProcessor> _typeIndex;
+        
+        /**
+         * This constructor initializes an empty registry.
+         */
+        Registry() {
+            this(java.util.Collections.<InformationProcessor>emptyList());
+        }
+        
+        /**
+         * This constructor initializes the registry with the supplied
+         * information processors, in registration order. Where multiple
+         * information processors support the same type, the first
+         * registered will be used.
+         * 
+         * @param ips The information processors
+         */
+        Registry(java.util.List<InformationProcessor> ips) {
+            java.util.Map<String,InformationProcessor> nameIndex=
+                    new java.util.HashMap<String,InformationProcessor>();
+            java.util.Map<String,InformationProcessor> typeIndex=
+                    new java.util.HashMap<String,InformationProcessor>();
+            
+            for (int i=0; i < ips.size(); i++) {
+                InformationProcessor ip=ips.get(i);
+                
+                nameIndex.put(ip.getName(), ip);
+                
+                for (String type : ip.getTypeProcessors().keySet()) {
+                    if (!typeIndex.containsKey(type)) {
+                        typeIndex.put(type, ip);
+                    }
+                }
+            }
+            
+            _informationProcessors = java.util.Collections.unmodifiableList(
+                        new java.util.ArrayList<InformationProcessor>(ips));
+            _nameIndex = nameIndex;
+            _typeIndex = typeIndex;
+        }
+        
+        /**
+         * This method returns the information processors, in
+         * registration order.
+         * 
+         * @return The information processors
+         */
+        java.util.List<InformationProcessor> getInformationProcessors() {
+            return (_informationProcessors);
+        }
+        
+        /**
+         * This method returns the information processor with
+         * the supplied name.
+         * 
+         * @param name The name
+         * @return The information processor, or null if not found
+         */
+        InformationProcessor getInformationProcessor(String name) {
+            return (_nameIndex.get(name));
+        }
+        
+        /**
+         * This method returns the information processor that
+         * supports the supplied type.
+         * 
+         * @param type The type
+         * @return The information processor, or null if not found
+         */
+        InformationProcessor getInformationProcessorForType(String type) {
+            return (_typeIndex.get(type));
+        }
+    }
 }
@@ -0,0 +1,371 @@
+/*
+ * 2014 Red Hat Inc. and/or its affiliates and other contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.overlord.rtgov.activity.processor;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * This class represents the information being processed for a single
+ * activity, shared by the evaluators and transformer associated with
+ * a type processor. Where the information is XML, it is parsed lazily,
+ * on first request, into a namespace aware DOM which is then reused by
+ * all subsequent evaluations.
+ *
+ */
+public class EvaluationContext {
+
+    private static final Logger LOG=Logger.getLogger(EvaluationContext.class.getName());
+
+    private static final javax.xml.parsers.DocumentBuilderFactory DOCUMENT_BUILDER_FACTORY;
+    private static final javax.xml.transform.TransformerFactory TRANSFORMER_FACTORY=
+                    javax.xml.transform.TransformerFactory.newInstance();
+
+    private static final ThreadLocal<javax.xml.parsers.DocumentBuilder> DOCUMENT_BUILDER=
+                    new ThreadLocal<javax.xml.parsers.DocumentBuilder>();
+    private static final ThreadLocal<javax.xml.transform.Transformer> TRANSFORMER=
+                    new ThreadLocal<javax.xml.transform.Transformer>();
+
+    private Object _information;
+    private java.util.Map<String, Object> _headers;
+
+    private boolean _parsed=false;
+    private org.w3c.dom.Node _node;
+    private org.w3c.dom.Node _rootedNode;
+
+    private java.util.Map<String, EvaluationContext> _headerContexts;
+
+    private java.util.List<ExpressionEvaluator> _evaluators;
+    private java.util.Map<Object, Object> _attributes;
+
+    static {
+        DOCUMENT_BUILDER_FACTORY = javax.xml.parsers.DocumentBuilderFactory.newInstance();
+        DOCUMENT_BUILDER_FACTORY.setNamespaceAware(true);
+    }
+
+    /**
+     * This constructor initializes the information.
+     *
+     * @param information The information
+     */
+    public EvaluationContext(Object information) {
+        this(information, null);
+    }
+
+    /**
+     * This constructor initializes the information and headers.
+     *
+     * @param information The information
+     * @param headers The optional header information
+     */
+    public EvaluationContext(Object information, java.util.Map<String, Object> headers) {
+        _information = information;
+        _headers = headers;
+    }
+
+    /**
+     * This method returns the information, in its original form.
+     *
+     * @return The information
+     */
+    public Object getInformation() {
+        return (_information);
+    }
+
+    /**
+     * This method returns the optional header information.
+     *
+     * @return The headers, or null if not defined
+     */
+    public java.util.Map<String, Object> getHeaders() {
+        return (_headers);
+    }
+
+    /**
+     * This method returns the expression evaluators that will be applied
+     * to the information. Evaluators can use this to derive the values
+     * for a group of related evaluators in a single pass.
+     *
+     * @return The evaluators, or null if not known
+     */
+    public java.util.List<ExpressionEvaluator> getEvaluators() {
+        return (_evaluators);
+    }
+
+    /**
+     * This method sets the expression evaluators that will be applied
+     * to the information.
+     *
+     * @param evaluators The evaluators
+     */
+    public void setEvaluators(java.util.List<ExpressionEvaluator> evaluators) {
+        _evaluators = evaluators;
+    }
+
+    /**
+     * This method determines whether an attribute has been
+     * associated with the supplied key.
+     *
+     * @param key The key
+     * @return Whether the attribute exists
+     */
+    public boolean hasAttribute(Object key) {
+        return (_attributes != null && _attributes.containsKey(key));
+    }
+
+    /**
+     * This method returns the attribute associated with the
+     * supplied key.
+     *
+     * @param key The key
+     * @return The attribute, or null if not found
+     */
+    public Object getAttribute(Object key) {
+        return (_attributes == null ? null : _attributes.get(key));
+    }
+
+    /**
+     * This method associates an attribute with the supplied key,
+     * enabling evaluators to share results derived from the
+     * information.
+     *
+     * @param key The key
+     * @param value The value
+     */
+    public void setAttribute(Object key, Object value) {
+        if (_attributes == null) {
+            _attributes = new java.util.HashMap<Object, Object>();
+        }
+        _attributes.put(key, value);
+    }
+
+    /**
+     * This method returns the context associated with the named header
+     * value, which will be shared by all evaluators that operate on
+     * that header.
+     *
+     * @param name The header name
+     * @return The context, or null if the header is not available
+     */
+    public EvaluationContext getHeaderContext(String name) {
+        if (_headers == null || !_headers.containsKey(name)) {
+            return (null);
+        }
+
+        if (_headerContexts == null) {
+            _headerContexts = new java.util.HashMap<String, EvaluationContext>();
+        }
+
+        EvaluationContext ret=_headerContexts.get(name);
+
+        if (ret == null) {
+            ret = new EvaluationContext(_headers.get(name));
+            _headerContexts.put(name, ret);
+        }
+
+        return (ret);
+    }
+
+    /**
+     * This method determines whether the information is XML, either
+     * textual or as a DOM node or source.
+     *
+     * @return Whether the information is XML
+     */
+    public boolean isXML() {
+        return (_information instanceof String
+                || _information instanceof org.w3c.dom.Node
+                || _information instanceof javax.xml.transform.dom.DOMSource);
+    }
+
+    /**
+     * This method determines whether the information has already been
+     * parsed into a DOM.
+     *
+     * @return Whether the DOM is available
+     */
+    public boolean isParsed() {
+        return (_parsed);
+    }
+
+    /**
+     * This method returns the namespace aware DOM node representing
+     * the information. Textual information is parsed on the first
+     * call, and DOM nodes that are not namespace aware are converted
+     * on the first call.
+     *
+     * @return The node, or null if the information is not XML
+     * @throws Exception Failed to obtain the node
+     */
+    public org.w3c.dom.Node getNode() throws Exception {
+        if (!_parsed) {
+            _parsed = true;
+
+            Object information=_information;
+
+            if (information instanceof javax.xml.transform.dom.DOMSource) {
+                information = ((javax.xml.transform.dom.DOMSource)information).getNode();
+
+                if (LOG.isLoggable(Level.FINEST)) {
+                    LOG.finest("Extracted node from DOMSource: "+information);
+                }
+            }
+
+            if (information instanceof String) {
+                _node = parse(new org.xml.sax.InputSource(new java.io.StringReader((String)information)));
+
+            } else if (information instanceof org.w3c.dom.Node) {
+                _node = (org.w3c.dom.Node)information;
+
+                if (!isNamespaceAware(_node)) {
+
+                    if (LOG.isLoggable(Level.FINEST)) {
+                        LOG.finest("Converting non-namespace-aware node: "+_node);
+                    }
+
+                    _node = parse(new org.xml.sax.InputSource(new java.io.StringReader(serialize(_node))));
+
+                    if (LOG.isLoggable(Level.FINEST)) {
+                        LOG.finest("Converted node: "+_node);
+                    }
+                }
+            }
+        }
+
+        return (_node);
+    }
+
+    /**
+     * This method returns the namespace aware DOM node representing the
+     * information, where that node is the top level element of its
+     * document. If the node is a lower level child element (e.g. the body of
+     * a SOAP message), then it will be imported into a new document, so that
+     * absolute paths are evaluated relative to the node.
+     *
+     * @return The node, or null if the information is not XML
+     * @throws Exception Failed to obtain the node
+     */
+    public org.w3c.dom.Node getRootedNode() throws Exception {
+        if (_rootedNode == null) {
+            org.w3c.dom.Node node=getNode();
+
+            // RTGOV-141 - workaround to overcome xpath evaluation issue
+            // Issue is caused when xpath expression defined from root (i.e. starts
+            // with /), but the context (info) is a lower level child node,
+            // as in the case of a SOAP body. The evaluation of the expression
+            // attempts to start at the top level document.
+            if (node != null && node.getOwnerDocument() != null
+                        && node.getParentNode() != node.getOwnerDocument()) {
+
+                if (LOG.isLoggable(Level.FINEST)) {
+                    LOG.finest("Need to import supplied DOM node '"+node
+                            +"' into new document, as not the top level element");
+                }
+
+                org.w3c.dom.Document doc=getDocumentBuilder().newDocument();
+
+                node = doc.importNode(node, true);
+
+                doc.appendChild(node);
+            }
+
+            _rootedNode = node;
+        }
+
+        return (_rootedNode);
+    }
+
+    /**
+     * This method parses the supplied input into a namespace aware
+     * DOM, returning the document element.
+     *
+     * @param is The input source
+     * @return The document element
+     * @throws Exception Failed to parse the input
+     */
+    protected static org.w3c.dom.Node parse(org.xml.sax.InputSource is) throws Exception {
+        return (getDocumentBuilder().parse(is).getDocumentElement());
+    }
+
+    /**
+     * This method returns the document builder associated with the
+     * current thread.
+     *
+     * @return The document builder
+     * @throws Exception Failed to create the document builder
+     */
+    protected static javax.xml.parsers.DocumentBuilder getDocumentBuilder() throws Exception {
+        javax.xml.parsers.DocumentBuilder ret=DOCUMENT_BUILDER.get();
+
+        if (ret == null) {
+            synchronized (DOCUMENT_BUILDER_FACTORY) {
+                ret = DOCUMENT_BUILDER_FACTORY.newDocumentBuilder();
+            }
+            DOCUMENT_BUILDER.set(ret);
+        } else {
+            ret.reset();
+        }
+
+        return (ret);
+    }
+
+    /**
+     * This method serializes the supplied DOM node into its
+     * textual representation.
+     *
+     * @param node The node
+     * @return The textual representation
+     * @throws Exception Failed to serialize the node
+     */
+    public static String serialize(org.w3c.dom.Node node) throws Exception {
+        javax.xml.transform.Transformer transformer=TRANSFORMER.get();
+
+        if (transformer == null) {
+            synchronized (TRANSFORMER_FACTORY) {
+                transformer = TRANSFORMER_FACTORY.newTransformer();
+            }
+            TRANSFORMER.set(transformer);
+        } else {
+            transformer.reset();
+        }
+
+        java.io.StringWriter writer=new java.io.StringWriter();
+
+        transformer.transform(new javax.xml.transform.dom.DOMSource(node),
+                        new javax.xml.transform.stream.StreamResult(writer));
+
+        return (writer.toString());
+    }
+
+    /**
+     * This method determines whether the node is namespace aware.
+     *
+     * @param node The node
+     * @return Whether the node is namespace aware
+     */
+    protected static boolean isNamespaceAware(org.w3c.dom.Node node) {
+        boolean ret=(node.getLocalName() != null);
+
+        if (LOG.isLoggable(Level.FINEST)) {
+            LOG.finest("Is node "+node+" namespace aware? "+ret);
+            LOG.finest("nodeName="+node.getNodeName());
+            LOG.finest("localName="+node.getLocalName());
+            LOG.finest("namespace="+node.getNamespaceURI());
+        }
+
+        return (ret);
+    }
+}
@@ -89,6 +89,20 @@ public abstract class ExpressionEvaluator {
      */
     public abstract String evaluate(Object information);
     
+    /**
+     * This method evaluates the information represented by
+     * the supplied context to derive and return a result.
+     * Evaluators that operate on a parsed representation of the
+     * information should override this method, to share the
+     * representation held by the context.
+     * 
+     * @param context The evaluation context
+     * @return The result, or null if unable to evaluate
+     */
+    public String evaluate(EvaluationContext context) {
+        return (evaluate(context.getInformation()));
+    }
+    
     /**
      * This method closes the expression evaluator.
      * 
@@ -65,6 +65,19 @@ public abstract class InformationTransformer {
         return (null);
     }
     
+    /**
+     * This method transforms the information represented by the
+     * supplied context and returns the textual representation of
+     * the result.
+     * 
+     * @param context The evaluation context
+     * @param activityType The optional activity type
+     * @return The result, or null if unable to transform
+     */
+    public String transform(EvaluationContext context, ActivityType activityType) {
+        return (transform(context.getInformation(), context.getHeaders(), activityType));
+    }
+    
     /**
      * This method closes the information transformer.
      * 
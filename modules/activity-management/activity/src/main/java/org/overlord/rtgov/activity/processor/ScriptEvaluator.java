@@ -66,6 +66,17 @@ public abstract class ScriptEvaluator {
      */
     public abstract void evaluate(Object information, ActivityType activityType);
     
+    /**
+     * This method evaluates the information represented by the
+     * supplied context to initialize the supplied activity type.
+     * 
+     * @param context The evaluation context
+     * @param activityType The activity type
+     */
+    public void evaluate(EvaluationContext context, ActivityType activityType) {
+        evaluate(context.getInformation(), activityType);
+    }
+    
     /**
      * This method closes the expression evaluator.
      * 
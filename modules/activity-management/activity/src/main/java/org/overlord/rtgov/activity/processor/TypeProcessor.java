@@ -40,6 +40,9 @@ public class TypeProcessor {
     
     private ScriptEvaluator _scriptEvaluator=null;
     
+    private java.util.List<ExpressionEvaluator> _informationEvaluators=
+            new java.util.ArrayList<ExpressionEvaluator>();
+    
     /**
      * Initialize the type processor.
      * 
@@ -50,14 +53,27 @@ public class TypeProcessor {
             _transformer.init();
         }
         
+        java.util.List<ExpressionEvaluator> informationEvaluators=
+                new java.util.ArrayList<ExpressionEvaluator>();
+        
         for (ContextEvaluator ce : _contextEvaluators) {
             ce.getEvaluator().init();
+            
+            if (ce.getHeader() == null) {
+                informationEvaluators.add(ce.getEvaluator());
+            }
         }
         
         for (PropertyEvaluator pe : _propertyEvaluators) {
             pe.getEvaluator().init();
+            
+            if (pe.getHeader() == null) {
+                informationEvaluators.add(pe.getEvaluator());
+            }
         }
         
+        _informationEvaluators = informationEvaluators;
+        
         if (_scriptEvaluator != null) {
             _scriptEvaluator.init();
         }
@@ -154,24 +170,28 @@ public class TypeProcessor {
             LOG.finest("Process information: "+information);
         }
         
+        // Shared by all evaluators, so that the information is only parsed once
+        EvaluationContext context=new EvaluationContext(information, headers);
+        context.setEvaluators(_informationEvaluators);
+        
         for (int i=0; i < _contextEvaluators.size(); i++) {
             ContextEvaluator ce=_contextEvaluators.get(i);
 
-            ce.process(information, headers, actType);
+            ce.process(context, actType);
         }
         
         for (int i=0; i < _propertyEvaluators.size(); i++) {
             PropertyEvaluator pe=_propertyEvaluators.get(i);
             
-            pe.process(information, headers, actType);
+            pe.process(context, actType);
         }
         
         if (getScript() != null) {
-            getScript().evaluate(information, actType);
+            getScript().evaluate(context, actType);
         }
         
         if (getTransformer() != null) {
-            ret = getTransformer().transform(information, headers, actType);
+            ret = getTransformer().transform(context, actType);
         }
         
         return (ret);
@@ -287,26 +307,37 @@ public class TypeProcessor {
          * @param actType The activity type
          */
         public void process(Object information, java.util.Map<String, Object> headers, ActivityType actType) {
-            Object source=null;
+            process(new EvaluationContext(information, headers), actType);
+        }
+        
+        /**
+         * This method processes the information represented by the
+         * supplied context to extract the property details for association
+         * with the supplied activity type.
+         * 
+         * @param context The evaluation context
+         * @param actType The activity type
+         */
+        public void process(EvaluationContext context, ActivityType actType) {
+            EvaluationContext source=null;
             
             // Check if property evaluation relates to a header
             if (getHeader() != null) {
+                source = context.getHeaderContext(getHeader());
                 
-                if (headers != null && headers.containsKey(getHeader())) {
-                    source = headers.get(getHeader());
-                } else {
+                if (source == null) {
                     LOG.warning(MessageFormat.format(
                         java.util.PropertyResourceBundle.getBundle(
                         "activity.Messages").getString("ACTIVITY-10"),
                         getName(), getHeader()));
                 }
             } else {
-                source = information;
+                source = context;
             }
             
             String val=null;
 
-            if (source != null) {
+            if (source != null && source.getInformation() != null) {
                 val = getEvaluator().evaluate(source);
             }
             
@@ -324,7 +355,7 @@ public class TypeProcessor {
                             java.util.PropertyResourceBundle.getBundle(
                             "activity.Messages").getString("ACTIVITY-8"),
                             getEvaluator().getExpression(),
-                            information));
+                            context.getInformation()));
                 } else {
                     LOG.severe(MessageFormat.format(
                             java.util.PropertyResourceBundle.getBundle(
@@ -451,26 +482,37 @@ public class TypeProcessor {
          * @param actType The activity type
          */
         public void process(Object information, java.util.Map<String, Object> headers, ActivityType actType) {
-            Object source=null;
+            process(new EvaluationContext(information, headers), actType);
+        }
+        
+        /**
+         * This method processes the information represented by the
+         * supplied context to extract the context details for association
+         * with the supplied activity type.
+         * 
+         * @param context The evaluation context
+         * @param actType The activity type
+         */
+        public void process(EvaluationContext context, ActivityType actType) {
+            EvaluationContext source=null;
             
             // Check if property evaluation relates to a header
             if (getHeader() != null) {
+                source = context.getHeaderContext(getHeader());
                 
-                if (headers != null && headers.containsKey(getHeader())) {
-                    source = headers.get(getHeader());
-                } else {
+                if (source == null) {
                     LOG.warning(MessageFormat.format(
                         java.util.PropertyResourceBundle.getBundle(
                         "activity.Messages").getString("ACTIVITY-12"),
                         getType(), getHeader()));
                 }
             } else {
-                source = information;
+                source = context;
             }
 
             String val=null;
             
-            if (source != null) {
+            if (source != null && source.getInformation() != null) {
                 val = getEvaluator().evaluate(source);
             }
             
@@ -479,10 +521,10 @@ public class TypeProcessor {
             }
             
             if (val != null) {
-                Context context=new Context(getType(), val);
-                context.setTimeframe(_timeframe);
+                Context ctx=new Context(getType(), val);
+                ctx.setTimeframe(_timeframe);
                 
-                actType.getContext().add(context);
+                actType.getContext().add(ctx);
                 
             } else if (!getEvaluator().getOptional()) {
                 
@@ -491,7 +533,7 @@ public class TypeProcessor {
                         java.util.PropertyResourceBundle.getBundle(
                         "activity.Messages").getString("ACTIVITY-7"),
                         getEvaluator().getExpression(),
-                        information));
+                        context.getInformation()));
                 } else {
                     LOG.severe(MessageFormat.format(
                             java.util.PropertyResourceBundle.getBundle(
@@ -0,0 +1,399 @@
+/*
+ * 2014 Red Hat Inc. and/or its affiliates and other contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.overlord.rtgov.activity.processor.xpath;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamReader;
+
+/**
+ * This class provides a single pass StAX based matcher for a simple
+ * subset of XPath, used to extract values from textual XML without
+ * building a DOM. The supported subset is a location path made up of
+ * child steps, each being a (optionally prefixed) element name or '*',
+ * where the final step may also be an attribute (e.g. '@id') or 'text()'.
+ * Paths may be absolute, or relative to the document element.
+ * <p>
+ * The value returned for each path is the string value of the first
+ * matching node in document order, consistent with the XPath string()
+ * function.
+ *
+ */
+final class StreamingXPathMatcher {
+
+    private static final XMLInputFactory INPUT_FACTORY;
+
+    private static final java.util.regex.Pattern NAME=
+                java.util.regex.Pattern.compile("[\\p{L}_][\\p{L}\\p{N}_.\\-]*");
+
+    static {
+        INPUT_FACTORY = XMLInputFactory.newInstance();
+        INPUT_FACTORY.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, Boolean.TRUE);
+        INPUT_FACTORY.setProperty(XMLInputFactory.IS_COALESCING, Boolean.FALSE);
+    }
+
+    /**
+     * Private constructor.
+     */
+    private StreamingXPathMatcher() {
+    }
+
+    /**
+     * This method compiles the supplied expression into a path that can
+     * be evaluated in a streaming manner.
+     *
+     * @param expression The XPath expression
+     * @param namespaces The optional map of prefixes to namespaces
+     * @return The path, or null if the expression is not supported
+     */
+    static Path compile(String expression, java.util.Map<String, String> namespaces) {
+        if (expression == null) {
+            return (null);
+        }
+
+        String expr=expression.trim();
+
+        if (expr.length() == 0 || expr.equals("/") || expr.startsWith("//")) {
+            return (null);
+        }
+
+        java.util.List<Step> steps=new java.util.ArrayList<Step>();
+
+        if (expr.charAt(0) == '/') {
+            expr = expr.substring(1);
+        } else {
+            // Relative paths are evaluated against the document element
+            steps.add(new Step(null, null));
+        }
+
+        String[] tokens=expr.split("/", -1);
+        Step attribute=null;
+        boolean text=false;
+
+        for (int i=0; i < tokens.length; i++) {
+            String token=tokens[i].trim();
+            boolean last=(i == tokens.length-1);
+
+            if (last && token.equals("text()")) {
+                text = true;
+
+            } else if (last && token.length() > 1 && token.charAt(0) == '@') {
+                attribute = createStep(token.substring(1), namespaces, false);
+
+                if (attribute == null) {
+                    return (null);
+                }
+            } else {
+                Step step=createStep(token, namespaces, true);
+
+                if (step == null) {
+                    return (null);
+                }
+
+                steps.add(step);
+            }
+        }
+
+        if (steps.size() == 0) {
+            return (null);
+        }
+
+        return (new Path(steps.toArray(new Step[steps.size()]), attribute, text));
+    }
+
+    /**
+     * This method creates the step for the supplied name test.
+     *
+     * @param token The name test
+     * @param namespaces The optional map of prefixes to namespaces
+     * @param wildcard Whether a wildcard is permitted
+     * @return The step, or null if not supported
+     */
+    private static Step createStep(String token, java.util.Map<String, String> namespaces,
+                                boolean wildcard) {
+        String namespace=null;
+        String localName=token;
+
+        int index=token.indexOf(':');
+
+        if (index != -1) {
+            String prefix=token.substring(0, index);
+
+            localName = token.substring(index+1);
+
+            if (namespaces == null || !namespaces.containsKey(prefix)
+                        || !NAME.matcher(prefix).matches()) {
+                return (null);
+            }
+
+            namespace = namespaces.get(prefix);
+        }
+
+        if (localName.equals("*")) {
+            if (!wildcard || namespace != null) {
+                return (null);
+            }
+            return (new Step(null, null));
+        }
+
+        if (!NAME.matcher(localName).matches()) {
+            return (null);
+        }
+
+        return (new Step(namespace == null ? "" : namespace, localName));
+    }
+
+    /**
+     * This method evaluates the supplied paths against the textual
+     * XML in a single pass, stopping as soon as all of the paths have
+     * been resolved.
+     *
+     * @param xml The XML
+     * @param paths The paths
+     * @return The values, with a null entry for each path that did not match
+     * @throws Exception Failed to evaluate the paths
+     */
+    static String[] evaluate(String xml, Path[] paths) throws Exception {
+        String[] ret=new String[paths.length];
+        int[] matched=new int[paths.length];
+        StringBuilder[] buffers=new StringBuilder[paths.length];
+        boolean[] done=new boolean[paths.length];
+        int remaining=paths.length;
+        int depth=0;
+
+        XMLStreamReader reader=INPUT_FACTORY.createXMLStreamReader(new java.io.StringReader(xml));
+
+        try {
+            while (remaining > 0 && reader.hasNext()) {
+                int event=reader.next();
+
+                if (event == XMLStreamConstants.START_ELEMENT) {
+                    depth++;
+
+                    for (int i=0; i < paths.length; i++) {
+                        if (done[i]) {
+                            continue;
+                        }
+
+                        Path path=paths[i];
+
+                        if (buffers[i] != null) {
+                            if (path.isText() && buffers[i].length() > 0) {
+                                ret[i] = buffers[i].toString();
+                                done[i] = true;
+                                remaining--;
+                            }
+                            continue;
+                        }
+
+                        if (matched[i] == depth-1 && depth <= path.getSteps().length
+                                    && path.getSteps()[depth-1].matches(reader.getNamespaceURI(),
+                                                reader.getLocalName())) {
+                            matched[i] = depth;
+
+                            if (depth == path.getSteps().length) {
+                                Step attribute=path.getAttribute();
+
+                                if (attribute != null) {
+                                    ret[i] = reader.getAttributeValue(attribute.getNamespace(),
+                                                    attribute.getLocalName());
+
+                                    if (ret[i] != null) {
+                                        done[i] = true;
+                                        remaining--;
+                                    }
+                                } else {
+                                    buffers[i] = new StringBuilder();
+                                }
+                            }
+                        }
+                    }
+
+                } else if (event == XMLStreamConstants.END_ELEMENT) {
+
+                    for (int i=0; i < paths.length; i++) {
+                        if (done[i]) {
+                            continue;
+                        }
+
+                        if (buffers[i] != null && matched[i] == depth) {
+                            if (!paths[i].isText() || buffers[i].length() > 0) {
+                                ret[i] = buffers[i].toString();
+                                done[i] = true;
+                                remaining--;
+                                continue;
+                            }
+
+                            // No direct text in this element, so keep looking
+                            buffers[i] = null;
+
+                        } else if (buffers[i] != null && paths[i].isText()
+                                        && buffers[i].length() > 0) {
+                            ret[i] = buffers[i].toString();
+                            done[i] = true;
+                            remaining--;
+                            continue;
+                        }
+
+                        if (matched[i] == depth) {
+                            matched[i] = depth-1;
+                        }
+                    }
+
+                    depth--;
+
+                } else if (event == XMLStreamConstants.CHARACTERS
+                            || event == XMLStreamConstants.CDATA
+                            || event == XMLStreamConstants.SPACE) {
+
+                    for (int i=0; i < paths.length; i++) {
+                        if (!done[i] && buffers[i] != null
+                                    && (!paths[i].isText() || matched[i] == depth)) {
+                            buffers[i].append(reader.getTextCharacters(), reader.getTextStart(),
+                                            reader.getTextLength());
+                        }
+                    }
+
+                } else if (event == XMLStreamConstants.COMMENT
+                            || event == XMLStreamConstants.PROCESSING_INSTRUCTION) {
+
+                    // Terminates a text node
+                    for (int i=0; i < paths.length; i++) {
+                        if (!done[i] && buffers[i] != null && paths[i].isText()
+                                    && buffers[i].length() > 0) {
+                            ret[i] = buffers[i].toString();
+                            done[i] = true;
+                            remaining--;
+                        }
+                    }
+                }
+            }
+        } finally {
+            reader.close();
+        }
+
+        return (ret);
+    }
+
+    /**
+     * This class represents a compiled path.
+     *
+     */
+    static final class Path {
+
+        private Step[] _steps;
+        private Step _attribute;
+        private boolean _text;
+
+        /**
+         * This constructor initializes the path.
+         *
+         * @param steps The element steps
+         * @param attribute The optional attribute
+         * @param text Whether the path selects the text child
+         */
+        Path(Step[] steps, Step attribute, boolean text) {
+            _steps = steps;
+            _attribute = attribute;
+            _text = text;
+        }
+
+        /**
+         * This method returns the element steps.
+         *
+         * @return The steps
+         */
+        Step[] getSteps() {
+            return (_steps);
+        }
+
+        /**
+         * This method returns the optional attribute.
+         *
+         * @return The attribute, or null if not relevant
+         */
+        Step getAttribute() {
+            return (_attribute);
+        }
+
+        /**
+         * This method determines whether the path selects the
+         * text child of the element.
+         *
+         * @return Whether the path selects the text
+         */
+        boolean isText() {
+            return (_text);
+        }
+    }
+
+    /**
+     * This class represents a name test within a path.
+     *
+     */
+    static final class Step {
+
+        private String _namespace;
+        private String _localName;
+
+        /**
+         * This constructor initializes the step. If the local
+         * name is null, then the step will match any element.
+         *
+         * @param namespace The namespace, or empty string if none
+         * @param localName The local name
+         */
+        Step(String namespace, String localName) {
+            _namespace = namespace;
+            _localName = localName;
+        }
+
+        /**
+         * This method returns the namespace.
+         *
+         * @return The namespace
+         */
+        String getNamespace() {
+            return (_namespace);
+        }
+
+        /**
+         * This method returns the local name.
+         *
+         * @return The local name
+         */
+        String getLocalName() {
+            return (_localName);
+        }
+
+        /**
+         * This method determines whether the step matches
+         * the supplied name.
+         *
+         * @param namespace The namespace
+         * @param localName The local name
+         * @return Whether the step matches
+         */
+        boolean matches(String namespace, String localName) {
+            if (_localName == null) {
+                return (true);
+            }
+
+            return (_localName.equals(localName)
+                    && _namespace.equals(namespace == null ? "" : namespace));
+        }
+    }
+}
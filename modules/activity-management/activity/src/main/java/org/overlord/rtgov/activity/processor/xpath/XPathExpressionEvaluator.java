@@ -20,6 +20,7 @@ import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import org.jaxen.SimpleNamespaceContext;
+import org.overlord.rtgov.activity.processor.EvaluationContext;
 import org.overlord.rtgov.activity.processor.ExpressionEvaluator;
 
 /**
@@ -34,6 +35,9 @@ public class XPathExpressionEvaluator extends ExpressionEvaluator {
     private org.jaxen.javabean.JavaBeanXPath _beanXPath=null;
     
     private java.util.Map<String,String> _namespaces=new java.util.HashMap<String,String>();
+    
+    private boolean _streaming=false;
+    private StreamingXPathMatcher.Path _streamingPath=null;
 
     /**
      * This method sets the map of prefixes to namespaces.
@@ -53,6 +57,29 @@ public class XPathExpressionEvaluator extends ExpressionEvaluator {
         return (_namespaces);
     }
     
+    /**
+     * This method sets whether textual information should be evaluated
+     * in a streaming manner, without building a DOM, where the expression
+     * is a simple location path (child element steps, optionally ending
+     * in an attribute or text()). Other expressions are evaluated using
+     * the full XPath implementation.
+     * 
+     * @param streaming Whether streaming evaluation should be used
+     */
+    public void setStreaming(boolean streaming) {
+        _streaming = streaming;
+    }
+    
+    /**
+     * This method gets whether textual information should be evaluated
+     * in a streaming manner.
+     * 
+     * @return Whether streaming evaluation should be used
+     */
+    public boolean getStreaming() {
+        return (_streaming);
+    }
+    
     /**
      * {@inheritDoc}
      */
@@ -67,133 +94,62 @@ public class XPathExpressionEvaluator extends ExpressionEvaluator {
         if (_namespaces != null) {
             _domXPath.setNamespaceContext(new SimpleNamespaceContext(_namespaces));
         }
+        
+        _streamingPath = null;
+        
+        if (_streaming) {
+            _streamingPath = StreamingXPathMatcher.compile(getExpression(), _namespaces);
+            
+            if (_streamingPath == null && LOG.isLoggable(Level.FINE)) {
+                LOG.fine("Expression '"+getExpression()+"' cannot be streamed, so will use full XPath");
+            }
+        }
     }
     
     /**
      * {@inheritDoc}
      */
     public String evaluate(Object information) {
+        return (evaluate(new EvaluationContext(information)));
+    }
+    
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String evaluate(EvaluationContext context) {
         String ret=null;
         
         try {
-            boolean reparse=false;
+            Object information=context.getInformation();
             
-            if (information instanceof javax.xml.transform.dom.DOMSource) {
-                information = ((javax.xml.transform.dom.DOMSource)information).getNode();
-                
-                if (LOG.isLoggable(Level.FINEST)) {
-                    LOG.finest("Extracted node from DOMSource: "+information);
-                }
-                
-                // RTGOV-141 - workaround to overcome xpath evaluation issue
-                // Issue is caused when xpath expression defined from root (i.e. starts
-                // with /), but the context (info) is a lower level child node,
-                // as in the case of a SOAP body. The evaluation of the expression
-                // attempts to start at the top level document.
-                if (getExpression().charAt(0) == '/'
-                            && ((org.w3c.dom.Node)information).getParentNode()
-                                != ((org.w3c.dom.Node)information).getOwnerDocument()) {
-                    
-                    if (LOG.isLoggable(Level.FINEST)) {
-                        LOG.finest("Need to import supplied DOM node '"+information
-                                +"' into new document, as not the top level element "
-                                +"and the xpath expression starts with '/': "
-                                +getExpression());
-                    }                   
-
-                    org.w3c.dom.Document doc=
-                            javax.xml.parsers.DocumentBuilderFactory.newInstance()
-                                    .newDocumentBuilder().newDocument();
-                    
-                    information = doc.importNode((org.w3c.dom.Node)information, true);
-                    
-                    doc.appendChild((org.w3c.dom.Node)information);
-                }
-            }
-
-            if (information instanceof String) {
-                // Convert to DOM
-                javax.xml.parsers.DocumentBuilderFactory factory=
-                        javax.xml.parsers.DocumentBuilderFactory.newInstance();
-                
-                factory.setNamespaceAware(true);
-                
-                javax.xml.parsers.DocumentBuilder builder=
-                        factory.newDocumentBuilder();
+            if (information instanceof String && _streamingPath != null
+                            && !context.isParsed()) {
+                ret = evaluateStreaming(context);
                 
-                java.io.InputStream is=
-                        new java.io.ByteArrayInputStream(((String)information).getBytes());
+            } else if (information instanceof String) {
+                org.w3c.dom.Node node=context.getNode();
                 
-                org.w3c.dom.Document doc=builder.parse(is);
+                ret = _domXPath.stringValueOf(node);
                 
-                is.close();
+            } else if (context.isXML()) {
+                org.w3c.dom.Node node=null;
                 
-                ret = _domXPath.stringValueOf(doc.getDocumentElement());
-                
-            } else if (information instanceof org.w3c.dom.Node) {
-                org.w3c.dom.Node node=(org.w3c.dom.Node)information;
-                
-                // Check if namespace aware
-                if (reparse || !isNamespaceAware(node)) {
-                    
-                    if (LOG.isLoggable(Level.FINEST)) {
-                        LOG.finest("Converting non-namespace-aware node: "+node);
-                    }
-                    
-                    java.io.ByteArrayOutputStream baos=new java.io.ByteArrayOutputStream();
-                    
-                    javax.xml.transform.dom.DOMSource source=
-                            new javax.xml.transform.dom.DOMSource(node);
-                    javax.xml.transform.stream.StreamResult result=
-                            new javax.xml.transform.stream.StreamResult(baos);
-                    
-                    javax.xml.transform.Transformer transformer=
-                            javax.xml.transform.TransformerFactory.newInstance().newTransformer();
-                        
-                    transformer.transform(source, result);
-                    
-                    javax.xml.parsers.DocumentBuilderFactory factory=
-                            javax.xml.parsers.DocumentBuilderFactory.newInstance();
-                    
-                    factory.setNamespaceAware(true);
-                    
-                    javax.xml.parsers.DocumentBuilder builder=
-                            factory.newDocumentBuilder();
-                    
-                    java.io.InputStream is=
-                            new java.io.ByteArrayInputStream(baos.toByteArray());
-                    
-                    org.w3c.dom.Document doc=builder.parse(is);
-                    
-                    is.close();
-                    
-                    information = doc.getDocumentElement();
-
-                    if (LOG.isLoggable(Level.FINEST)) {
-                        LOG.finest("Converted node: "+information);
-                    }                   
+                if (information instanceof javax.xml.transform.dom.DOMSource
+                            && getExpression().charAt(0) == '/') {
+                    node = context.getRootedNode();
+                } else {
+                    node = context.getNode();
                 }
                 
-                Object resultNode = _domXPath.selectSingleNode(information);
+                Object resultNode = _domXPath.selectSingleNode(node);
                 
                 if (resultNode instanceof org.w3c.dom.Node) {
                     
                     if (resultNode instanceof org.w3c.dom.Text) {
                         ret = ((org.w3c.dom.Text)resultNode).getNodeValue();
                     } else {
-                        java.io.ByteArrayOutputStream baos=new java.io.ByteArrayOutputStream();
-                        
-                        javax.xml.transform.dom.DOMSource source=
-                                new javax.xml.transform.dom.DOMSource((org.w3c.dom.Node)resultNode);
-                        javax.xml.transform.stream.StreamResult result=
-                                new javax.xml.transform.stream.StreamResult(baos);
-                        
-                        javax.xml.transform.Transformer transformer=
-                                javax.xml.transform.TransformerFactory.newInstance().newTransformer();
-                            
-                        transformer.transform(source, result);
-
-                        ret = new String(baos.toByteArray());
+                        ret = EvaluationContext.serialize((org.w3c.dom.Node)resultNode);
                     }
                 }
                 
@@ -215,23 +171,50 @@ public class XPathExpressionEvaluator extends ExpressionEvaluator {
         
         return (ret);
     }
-    
+
     /**
-     * This method determines whether the node is namespace aware.
+     * This method evaluates the expression against the textual information
+     * in a single streaming pass. The pass also resolves the values for
+     * any other streaming evaluators that will be applied to the same
+     * information, with the results being cached in the context.
      * 
-     * @param node The node
-     * @return Whether the node is namespace aware
+     * @param context The evaluation context
+     * @return The result
+     * @throws Exception Failed to evaluate the expression
      */
-    protected static boolean isNamespaceAware(org.w3c.dom.Node node) {
-        boolean ret=(node.getLocalName() != null);
-        
-        if (LOG.isLoggable(Level.FINEST)) {
-            LOG.finest("Is node "+node+" namespace aware? "+ret);
-            LOG.finest("nodeName="+node.getNodeName());
-            LOG.finest("localName="+node.getLocalName());
-            LOG.finest("namespace="+node.getNamespaceURI());
-        }  
+    protected String evaluateStreaming(EvaluationContext context) throws Exception {
+        if (!context.hasAttribute(this)) {
+            java.util.List<XPathExpressionEvaluator> evaluators=
+                        new java.util.ArrayList<XPathExpressionEvaluator>();
+            evaluators.add(this);
+            
+            if (context.getEvaluators() != null) {
+                for (ExpressionEvaluator evaluator : context.getEvaluators()) {
+                    if (evaluator != this && evaluator instanceof XPathExpressionEvaluator
+                            && ((XPathExpressionEvaluator)evaluator)._streamingPath != null
+                            && !context.hasAttribute(evaluator)) {
+                        evaluators.add((XPathExpressionEvaluator)evaluator);
+                    }
+                }
+            }
+            
+            StreamingXPathMatcher.Path[] paths=new StreamingXPathMatcher.Path[evaluators.size()];
+            
+            for (int i=0; i < paths.length; i++) {
+                paths[i] = evaluators.get(i)._streamingPath;
+            }
+            
+            String[] values=StreamingXPathMatcher.evaluate((String)context.getInformation(), paths);
+            
+            for (int i=0; i < values.length; i++) {
+                context.setAttribute(evaluators.get(i), values[i]);
+            }
+            
+            if (LOG.isLoggable(Level.FINEST)) {
+                LOG.finest("Streamed "+paths.length+" expression(s): "+java.util.Arrays.asList(values));
+            }
+        }
         
-        return (ret);
+        return ((String)context.getAttribute(this));
     }
 }
@@ -0,0 +1,432 @@
+/*
+ * 2014 Red Hat Inc. and/or its affiliates and other contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.overlord.rtgov.activity.server;
+
+import java.lang.management.ManagementFactory;
+import java.text.MessageFormat;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.transaction.Status;
+import javax.transaction.UserTransaction;
+
+import org.overlord.rtgov.common.util.RTGovProperties;
+
+/**
+ * This class periodically removes activity information that is older than
+ * a configured retention period from a purgeable activity store. Each run
+ * removes the expired activity units in bounded chunks, pausing between
+ * chunks, so that the purge does not compete with the ingestion of new
+ * activity information for long periods. When a user transaction is
+ * supplied, each chunk is removed within its own transaction.
+ *
+ */
+public class ActivityRetentionService implements ActivityRetentionServiceMBean {
+
+    private static final Logger LOG=Logger.getLogger(ActivityRetentionService.class.getName());
+
+    private static final String OBJECT_NAME_RETENTION="overlord.rtgov.server:name=ActivityRetention";
+
+    private static final long PERIOD=0;
+    private static final long INTERVAL=3600000;
+    private static final int CHUNK_SIZE=1000;
+    private static final long CHUNK_PAUSE=100;
+
+    private ActivityStore _store;
+    private UserTransaction _tx;
+
+    private long _period;
+    private long _interval;
+    private int _chunkSize;
+    private long _chunkPause;
+
+    private ScheduledExecutorService _scheduler=null;
+
+    private AtomicLong _unitsPurged=new AtomicLong();
+    private AtomicLong _runs=new AtomicLong();
+    private AtomicLong _failures=new AtomicLong();
+    private volatile long _lastRunStart=0;
+    private volatile long _lastRunDuration=0;
+    private volatile long _lastRunPurged=0;
+    private volatile long _lastCutoff=0;
+
+    /**
+     * The default constructor.
+     */
+    public ActivityRetentionService() {
+        _period = RTGovProperties.getPropertyAsLong("ActivityRetention.period", PERIOD);
+        _interval = RTGovProperties.getPropertyAsLong("ActivityRetention.interval", INTERVAL);
+        _chunkSize = RTGovProperties.getPropertyAsInteger("ActivityRetention.chunkSize", CHUNK_SIZE);
+        _chunkPause = RTGovProperties.getPropertyAsLong("ActivityRetention.chunkPause", CHUNK_PAUSE);
+    }
+
+    /**
+     * This constructor initializes the activity store.
+     *
+     * @param store The activity store
+     */
+    public ActivityRetentionService(ActivityStore store) {
+        this();
+        _store = store;
+    }
+
+    /**
+     * This method returns the activity store.
+     *
+     * @return The activity store
+     */
+    public ActivityStore getActivityStore() {
+        return (_store);
+    }
+
+    /**
+     * This method sets the activity store.
+     *
+     * @param store The activity store
+     */
+    public void setActivityStore(ActivityStore store) {
+        _store = store;
+    }
+
+    /**
+     * This method returns the user transaction.
+     *
+     * @return The user transaction, or null if not defined
+     */
+    public UserTransaction getUserTransaction() {
+        return (_tx);
+    }
+
+    /**
+     * This method sets the user transaction used to remove each
+     * chunk of expired activity units.
+     *
+     * @param tx The user transaction
+     */
+    public void setUserTransaction(UserTransaction tx) {
+        _tx = tx;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getPeriod() {
+        return (_period);
+    }
+
+    /**
+     * This method sets the retention period, in milliseconds. A
+     * period of zero indicates that activity information is retained
+     * indefinitely.
+     *
+     * @param period The retention period
+     */
+    public void setPeriod(long period) {
+        _period = period;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getInterval() {
+        return (_interval);
+    }
+
+    /**
+     * This method sets the interval, in milliseconds, between
+     * purge runs.
+     *
+     * @param interval The interval
+     */
+    public void setInterval(long interval) {
+        _interval = interval;
+    }
+
+    /**
+     * This method returns the maximum number of activity units
+     * removed in a single chunk.
+     *
+     * @return The chunk size
+     */
+    public int getChunkSize() {
+        return (_chunkSize);
+    }
+
+    /**
+     * This method sets the maximum number of activity units
+     * removed in a single chunk.
+     *
+     * @param chunkSize The chunk size
+     */
+    public void setChunkSize(int chunkSize) {
+        _chunkSize = chunkSize;
+    }
+
+    /**
+     * This method returns the pause, in milliseconds, between
+     * chunks.
+     *
+     * @return The chunk pause
+     */
+    public long getChunkPause() {
+        return (_chunkPause);
+    }
+
+    /**
+     * This method sets the pause, in milliseconds, between
+     * chunks.
+     *
+     * @param chunkPause The chunk pause
+     */
+    public void setChunkPause(long chunkPause) {
+        _chunkPause = chunkPause;
+    }
+
+    /**
+     * This method initializes the retention service, scheduling the purge
+     * runs if a retention period has been defined and the activity store
+     * supports purging.
+     */
+    public void init() {
+        if (_period <= 0) {
+            return;
+        }
+
+        if (!(_store instanceof PurgeableActivityStore)) {
+            LOG.warning(MessageFormat.format(
+                    java.util.PropertyResourceBundle.getBundle(
+                    "activity.Messages").getString("ACTIVITY-23"), _store));
+            return;
+        }
+
+        synchronized (this) {
+            if (_scheduler == null) {
+                _scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                    public Thread newThread(Runnable r) {
+                        Thread thread=new Thread(r, "ActivityRetentionService");
+                        thread.setDaemon(true);
+                        thread.setPriority(Thread.MIN_PRIORITY);
+                        return (thread);
+                    }
+                });
+
+                _scheduler.scheduleWithFixedDelay(new Runnable() {
+                    public void run() {
+                        try {
+                            purge();
+                        } catch (Exception e) {
+                            // Failures are logged by purge
+                        }
+                    }
+                }, _interval, _interval, TimeUnit.MILLISECONDS);
+            }
+        }
+
+        try {
+            MBeanServer mbs = ManagementFactory.getPlatformMBeanServer();
+
+            if (LOG.isLoggable(Level.FINE)) {
+                LOG.fine("Register the ActivityRetention MBean["
+                            +OBJECT_NAME_RETENTION+"]: "+this);
+            }
+
+            mbs.registerMBean(this, new ObjectName(OBJECT_NAME_RETENTION));
+
+        } catch (Exception e) {
+            LOG.log(Level.SEVERE, java.util.PropertyResourceBundle.getBundle(
+                    "activity.Messages").getString("ACTIVITY-24"), e);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public int purge() throws Exception {
+        if (!(_store instanceof PurgeableActivityStore) || _period <= 0) {
+            return (0);
+        }
+
+        PurgeableActivityStore store=(PurgeableActivityStore)_store;
+
+        long start=System.currentTimeMillis();
+        long cutoff=start-_period;
+        int chunkSize=Math.max(1, _chunkSize);
+        int ret=0;
+
+        _lastRunStart = start;
+        _lastCutoff = cutoff;
+
+        if (LOG.isLoggable(Level.FINE)) {
+            LOG.fine("Purge activity units before "+cutoff);
+        }
+
+        try {
+            int count=0;
+
+            do {
+                count = purge(store, cutoff, chunkSize);
+                ret += count;
+
+                _unitsPurged.addAndGet(count);
+
+                if (count >= chunkSize && _chunkPause > 0) {
+                    Thread.sleep(_chunkPause);
+                }
+            } while (count >= chunkSize);
+
+            _runs.incrementAndGet();
+
+        } catch (Exception e) {
+            _failures.incrementAndGet();
+
+            LOG.log(Level.SEVERE, MessageFormat.format(
+                    java.util.PropertyResourceBundle.getBundle(
+                    "activity.Messages").getString("ACTIVITY-22"), cutoff), e);
+
+            throw e;
+
+        } finally {
+            _lastRunPurged = ret;
+            _lastRunDuration = System.currentTimeMillis()-start;
+        }
+
+        if (LOG.isLoggable(Level.FINE)) {
+            LOG.fine("Purged "+ret+" activity units before "+cutoff);
+        }
+
+        return (ret);
+    }
+
+    /**
+     * This method removes a single chunk of expired activity units,
+     * within a user transaction if one has been supplied and is
+     * not already active.
+     *
+     * @param store The activity store
+     * @param cutoff The time before which activity units are removed
+     * @param chunkSize The maximum number of activity units to remove
+     * @return The number of activity units removed
+     * @throws Exception Failed to remove the activity units
+     */
+    protected int purge(PurgeableActivityStore store, long cutoff, int chunkSize) throws Exception {
+        boolean txn=(_tx != null && _tx.getStatus() == Status.STATUS_NO_TRANSACTION);
+
+        if (txn) {
+            _tx.begin();
+        }
+
+        try {
+            int ret=store.purge(cutoff, chunkSize);
+
+            if (txn) {
+                _tx.commit();
+            }
+
+            return (ret);
+
+        } catch (Exception e) {
+            if (txn && _tx.getStatus() != Status.STATUS_NO_TRANSACTION) {
+                _tx.rollback();
+            }
+
+            throw e;
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getUnitsPurged() {
+        return (_unitsPurged.get());
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getRuns() {
+        return (_runs.get());
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getFailures() {
+        return (_failures.get());
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getLastRunStart() {
+        return (_lastRunStart);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getLastRunDuration() {
+        return (_lastRunDuration);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getLastRunPurged() {
+        return (_lastRunPurged);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getLastCutoff() {
+        return (_lastCutoff);
+    }
+
+    /**
+     * This method closes the retention service.
+     */
+    public void close() {
+        synchronized (this) {
+            if (_scheduler != null) {
+                _scheduler.shutdownNow();
+                _scheduler = null;
+            }
+        }
+
+        try {
+            MBeanServer mbs = ManagementFactory.getPlatformMBeanServer();
+
+            ObjectName objname=new ObjectName(OBJECT_NAME_RETENTION);
+
+            if (mbs.isRegistered(objname)) {
+                mbs.unregisterMBean(objname);
+            }
+
+        } catch (Throwable t) {
+            if (LOG.isLoggable(Level.FINER)) {
+                LOG.log(Level.FINER, java.util.PropertyResourceBundle.getBundle(
+                    "activity.Messages").getString("ACTIVITY-25"), t);
+            }
+        }
+    }
+}
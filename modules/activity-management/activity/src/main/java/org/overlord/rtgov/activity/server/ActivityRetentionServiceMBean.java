@@ -0,0 +1,102 @@
+/*
+ * 2014 Red Hat Inc. and/or its affiliates and other contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.overlord.rtgov.activity.server;
+
+/**
+ * This interface defines the management attributes and operations for the
+ * activity retention service.
+ *
+ */
+public interface ActivityRetentionServiceMBean {
+
+    /**
+     * This method returns the retention period, in milliseconds. A
+     * period of zero indicates that activity information is retained
+     * indefinitely.
+     *
+     * @return The retention period
+     */
+    public long getPeriod();
+
+    /**
+     * This method returns the interval, in milliseconds, between
+     * purge runs.
+     *
+     * @return The interval
+     */
+    public long getInterval();
+
+    /**
+     * This method returns the total number of activity units purged.
+     *
+     * @return The number of activity units purged
+     */
+    public long getUnitsPurged();
+
+    /**
+     * This method returns the number of purge runs performed.
+     *
+     * @return The number of runs
+     */
+    public long getRuns();
+
+    /**
+     * This method returns the number of purge runs that failed.
+     *
+     * @return The number of failures
+     */
+    public long getFailures();
+
+    /**
+     * This method returns the time at which the last purge run started.
+     *
+     * @return The start time of the last run, or 0 if not run
+     */
+    public long getLastRunStart();
+
+    /**
+     * This method returns the duration, in milliseconds, of the
+     * last purge run.
+     *
+     * @return The duration of the last run
+     */
+    public long getLastRunDuration();
+
+    /**
+     * This method returns the number of activity units purged by the
+     * last purge run.
+     *
+     * @return The number of activity units purged by the last run
+     */
+    public long getLastRunPurged();
+
+    /**
+     * This method returns the cutoff timestamp used by the last
+     * purge run.
+     *
+     * @return The last cutoff
+     */
+    public long getLastCutoff();
+
+    /**
+     * This method performs a purge run immediately.
+     *
+     * @return The number of activity units purged
+     * @throws Exception Failed to purge
+     */
+    public int purge() throws Exception;
+
+}
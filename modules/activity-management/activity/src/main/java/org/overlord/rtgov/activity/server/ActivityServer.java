@@ -66,6 +66,24 @@ public interface ActivityServer {
     public java.util.List<ActivityType> getActivityTypes(Context context,
                         long from, long to) throws Exception;
     
+    /**
+     * This method returns a cursor over the activity events associated
+     * with the optional context value and date/time range. The activity
+     * events are retrieved incrementally, as the cursor is iterated, so
+     * that large results can be processed in bounded memory. The cursor
+     * must be closed when no longer required.
+     * 
+     * @param context The optional context value
+     * @param from The 'from' timestamp
+     * @param to The 'to' timestamp, where 0 represents current time
+     * @param fetchSize The number of activities retrieved at a time, or 0 for the default
+     * @param limit The maximum number of activities returned, or 0 if unlimited
+     * @return The cursor
+     * @throws Exception Failed to retrieve the activities
+     */
+    public ActivityTypeCursor getActivityTypeCursor(Context context, long from, long to,
+                        int fetchSize, int limit) throws Exception;
+    
     /**
      * This method retrieves a set of activity events associated
      * with the supplied query.
@@ -0,0 +1,34 @@
+/*
+ * 2014 Red Hat Inc. and/or its affiliates and other contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.overlord.rtgov.activity.server;
+
+import org.overlord.rtgov.activity.model.ActivityType;
+
+/**
+ * This interface represents a cursor over the activity events returned
+ * by a query. The activity events are retrieved incrementally, as the
+ * cursor is iterated, so the cursor must be closed when no longer required
+ * to release any resources it holds (e.g. database session or scroll).
+ *
+ */
+public interface ActivityTypeCursor extends java.util.Iterator<ActivityType>, java.io.Closeable {
+
+    /**
+     * This method closes the cursor.
+     */
+    public void close();
+
+}
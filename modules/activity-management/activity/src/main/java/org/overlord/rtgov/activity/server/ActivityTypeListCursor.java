@@ -0,0 +1,73 @@
+/*
+ * 2014 Red Hat Inc. and/or its affiliates and other contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.overlord.rtgov.activity.server;
+
+import org.overlord.rtgov.activity.model.ActivityType;
+
+/**
+ * This class provides a cursor over an already retrieved list of
+ * activity events, for use by implementations that are unable to
+ * retrieve the activity events incrementally.
+ *
+ */
+public class ActivityTypeListCursor implements ActivityTypeCursor {
+
+    private java.util.List<ActivityType> _list;
+    private int _limit;
+    private int _index=0;
+
+    /**
+     * This constructor initializes the list of activity events.
+     *
+     * @param list The list of activity events, or null if none
+     * @param limit The maximum number of activity events returned, or 0 if unlimited
+     */
+    public ActivityTypeListCursor(java.util.List<ActivityType> list, int limit) {
+        _list = (list == null ? java.util.Collections.<ActivityType>emptyList() : list);
+        _limit = (limit > 0 ? Math.min(limit, _list.size()) : _list.size());
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean hasNext() {
+        return (_index < _limit);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public ActivityType next() {
+        if (!hasNext()) {
+            throw new java.util.NoSuchElementException();
+        }
+        return (_list.get(_index++));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void remove() {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void close() {
+        _index = _limit;
+    }
+}
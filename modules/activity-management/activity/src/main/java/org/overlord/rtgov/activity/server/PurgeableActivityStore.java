@@ -0,0 +1,39 @@
+/*
+ * 2014 Red Hat Inc. and/or its affiliates and other contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.overlord.rtgov.activity.server;
+
+/**
+ * This interface is implemented by activity stores that support the
+ * removal of activity information that is older than a retention period.
+ *
+ */
+public interface PurgeableActivityStore {
+
+    /**
+     * This method removes up to the specified number of activity units,
+     * whose activities all occurred before the supplied timestamp, or
+     * which contain no activities. The activity units should be removed
+     * using set based operations, so that each invocation is a bounded
+     * unit of work.
+     * 
+     * @param before The timestamp before which activity units should be removed
+     * @param maxUnits The maximum number of activity units to remove
+     * @return The number of activity units removed
+     * @throws Exception Failed to purge the activity units
+     */
+    public int purge(long before, int maxUnits) throws Exception;
+
+}
@@ -26,12 +26,15 @@ import java.io.ObjectOutput;
  */
 public class QuerySpec implements java.io.Externalizable {
 
-    private static final int VERSION = 1;
+    private static final int VERSION = 3;
     
     private long _fromTimestamp=0;
     private long _toTimestamp=0;
     private String _expression=null;
     private String _format=null;
+    private int _maxResults=0;
+    private int _offset=0;
+    private SortOrder _sortOrder=SortOrder.None;
     
     /**
      * This is the default constructor.
@@ -127,12 +130,84 @@ public class QuerySpec implements java.io.Externalizable {
         return (_format);
     }
     
+    /**
+     * This method sets the maximum number of results
+     * that should be returned. If set to 0, then all
+     * matching results will be returned.
+     * 
+     * @param max The maximum number of results
+     * @return The query spec
+     */
+    public QuerySpec setMaxResults(int max) {
+        _maxResults = max;
+        return (this);
+    }
+    
+    /**
+     * This method returns the maximum number of results
+     * that should be returned. If value is 0, then all
+     * matching results will be returned.
+     * 
+     * @return The maximum number of results
+     */
+    public int getMaxResults() {
+        return (_maxResults);
+    }
+    
+    /**
+     * This method sets the number of matching results
+     * that should be skipped, to enable the results to
+     * be retrieved a page at a time.
+     * 
+     * @param offset The offset
+     * @return The query spec
+     */
+    public QuerySpec setOffset(int offset) {
+        _offset = offset;
+        return (this);
+    }
+    
+    /**
+     * This method returns the number of matching results
+     * that should be skipped.
+     * 
+     * @return The offset
+     */
+    public int getOffset() {
+        return (_offset);
+    }
+    
+    /**
+     * This method sets the order, based on timestamp, in
+     * which the results should be returned. If the order is
+     * 'None', then the results will be returned in the order
+     * determined by the activity store (or the expression).
+     * 
+     * @param order The sort order
+     * @return The query spec
+     */
+    public QuerySpec setSortOrder(SortOrder order) {
+        _sortOrder = (order == null ? SortOrder.None : order);
+        return (this);
+    }
+    
+    /**
+     * This method returns the order, based on timestamp, in
+     * which the results should be returned.
+     * 
+     * @return The sort order
+     */
+    public SortOrder getSortOrder() {
+        return (_sortOrder);
+    }
+    
     /**
      * {@inheritDoc}
      */
     public String toString() {
         return ("QuerySpec[from="+_fromTimestamp+" to="+_toTimestamp
-                +" expression="+_expression+"]");
+                +" expression="+_expression+" maxResults="+_maxResults
+                +" offset="+_offset+" sortOrder="+_sortOrder+"]");
     }
     
     /**
@@ -144,6 +219,9 @@ public class QuerySpec implements java.io.Externalizable {
         out.writeLong(_fromTimestamp);
         out.writeLong(_toTimestamp);
         out.writeObject(_expression);
+        out.writeInt(_maxResults);
+        out.writeInt(_offset);
+        out.writeObject(_sortOrder.name());
     }
 
     /**
@@ -151,11 +229,43 @@ public class QuerySpec implements java.io.Externalizable {
      */
     public void readExternal(ObjectInput in) throws IOException,
             ClassNotFoundException {
-        in.readInt(); // Consume version number - not required at the moment
+        int version=in.readInt();
         
         _fromTimestamp = in.readLong();
         _toTimestamp = in.readLong();
         _expression = (String)in.readObject();
+        
+        if (version >= 2) {
+            _maxResults = in.readInt();
+        }
+        
+        if (version >= 3) {
+            _offset = in.readInt();
+            _sortOrder = SortOrder.valueOf((String)in.readObject());
+        }
     }
     
+    /**
+     * This enumerated type represents the order, based on timestamp,
+     * in which the results should be returned.
+     *
+     */
+    public enum SortOrder {
+        
+        /**
+         * The order is determined by the activity store.
+         */
+        None,
+        
+        /**
+         * The oldest activity events are returned first.
+         */
+        Ascending,
+        
+        /**
+         * The newest activity events are returned first.
+         */
+        Descending
+        
+    }
 }
@@ -0,0 +1,444 @@
+/*
+ * 2014 Red Hat Inc. and/or its affiliates and other contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.overlord.rtgov.activity.util;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.overlord.rtgov.activity.model.ActivityUnit;
+
+/**
+ * This class provides an append-only, segment rotated, disk journal
+ * used to hold lists of activity units pending further processing, for
+ * example activity units that could not be placed on an in-memory queue,
+ * or that are awaiting notification. Each record holds the time it was written,
+ * followed by the length prefixed serialized activity unit list.
+ * <p>
+ * Each record is forced to the storage device before the append returns.
+ * Segments are replayed oldest first, and deleted once all of their
+ * records have been successfully handed to the replay handler. If the
+ * process terminates part way through a segment, that segment will be
+ * replayed from the start, so delivery is at-least-once.
+ *
+ */
+public class ActivityUnitJournal {
+
+    private static final Logger LOG=Logger.getLogger(ActivityUnitJournal.class.getName());
+
+    private static final String SEGMENT_PREFIX="journal-";
+    private static final String SEGMENT_SUFFIX=".log";
+
+    /** The maximum length, in bytes, of a serialized activity unit list. */
+    protected static final int MAX_RECORD_LENGTH=64*1024*1024;
+
+    private static final int RECORD_HEADER_LENGTH=12;
+
+    private File _directory;
+    private long _maxSegmentSize;
+
+    private long _nextSegmentId=0;
+    private File _currentSegment;
+    private FileOutputStream _file;
+    private DataOutputStream _output;
+    private long _currentSegmentSize=0;
+
+    private File _replaySegment;
+    private long _replayRecords=0;
+
+    private AtomicLong _depth=new AtomicLong();
+    private AtomicLong _size=new AtomicLong();
+    private volatile long _oldestTimestamp=0;
+
+    /**
+     * This is the constructor.
+     *
+     * @param directory The directory containing the journal segments
+     * @param maxSegmentSize The size (in bytes) at which the current segment is rolled
+     */
+    public ActivityUnitJournal(File directory, long maxSegmentSize) {
+        _directory = directory;
+        _maxSegmentSize = maxSegmentSize;
+    }
+
+    /**
+     * This method returns the journal directory.
+     *
+     * @return The directory
+     */
+    public File getDirectory() {
+        return (_directory);
+    }
+
+    /**
+     * This method opens the journal, recovering the depth of any segments
+     * left by a previous run.
+     *
+     * @throws IOException Failed to open the journal
+     */
+    public synchronized void open() throws IOException {
+        if (!_directory.exists() && !_directory.mkdirs()) {
+            throw new IOException("Unable to create journal directory: "+_directory);
+        }
+
+        for (File segment : getSegments()) {
+            long id=getSegmentId(segment);
+
+            if (id >= _nextSegmentId) {
+                _nextSegmentId = id+1;
+            }
+
+            DataInputStream dis=new DataInputStream(new BufferedInputStream(new FileInputStream(segment)));
+            long position=0;
+
+            try {
+                while (true) {
+                    long timestamp=dis.readLong();
+                    int len=dis.readInt();
+
+                    if (!isValidLength(len, segment.length()-position-RECORD_HEADER_LENGTH)
+                            || dis.skipBytes(len) != len) {
+                        break;
+                    }
+
+                    position += RECORD_HEADER_LENGTH+len;
+
+                    if (_oldestTimestamp == 0) {
+                        _oldestTimestamp = timestamp;
+                    }
+
+                    _depth.incrementAndGet();
+                }
+            } catch (EOFException eof) {
+                // End of segment reached
+            } finally {
+                dis.close();
+            }
+
+            _size.addAndGet(segment.length());
+        }
+
+        if (LOG.isLoggable(Level.FINE)) {
+            LOG.fine("Opened activity unit journal '"+_directory+"' with depth "+_depth.get());
+        }
+    }
+
+    /**
+     * This method appends the supplied list of activity units to the
+     * journal, forcing the record to the storage device before returning.
+     *
+     * @param units The activity units
+     * @throws Exception Failed to append the activity units
+     */
+    public synchronized void append(java.util.List<ActivityUnit> units) throws Exception {
+        byte[] b=ActivityUtil.serializeActivityUnitList(units);
+
+        if (_output == null) {
+            _currentSegment = new File(_directory, getSegmentName(_nextSegmentId++));
+            _file = new FileOutputStream(_currentSegment, true);
+            _output = new DataOutputStream(new BufferedOutputStream(_file));
+            _currentSegmentSize = 0;
+        }
+
+        long timestamp=System.currentTimeMillis();
+
+        _output.writeLong(timestamp);
+        _output.writeInt(b.length);
+        _output.write(b);
+        _output.flush();
+
+        _file.getFD().sync();
+
+        _currentSegmentSize += RECORD_HEADER_LENGTH+b.length;
+        _size.addAndGet(RECORD_HEADER_LENGTH+b.length);
+
+        if (_depth.getAndIncrement() == 0) {
+            _oldestTimestamp = timestamp;
+        }
+
+        if (_currentSegmentSize >= _maxSegmentSize) {
+            roll();
+        }
+    }
+
+    /**
+     * This method closes the current segment, so that the next append
+     * will start a new segment.
+     *
+     * @throws IOException Failed to close the segment
+     */
+    protected synchronized void roll() throws IOException {
+        if (_output != null) {
+            _output.close();
+            _output = null;
+            _file = null;
+            _currentSegment = null;
+        }
+    }
+
+    /**
+     * This method identifies the oldest segment available for replay. If the
+     * only segment containing records is the one currently being written,
+     * then it will be rolled.
+     *
+     * @return The segment, or null if none available
+     * @throws IOException Failed to roll the current segment
+     */
+    protected synchronized File getNextReplaySegment() throws IOException {
+        java.util.List<File> segments=getSegments();
+
+        if (segments.size() == 0) {
+            return (null);
+        }
+
+        File ret=segments.get(0);
+
+        if (ret.equals(_currentSegment)) {
+            if (_currentSegmentSize == 0) {
+                return (null);
+            }
+            roll();
+        }
+
+        return (ret);
+    }
+
+    /**
+     * This method replays the oldest available segment, passing each
+     * record to the supplied handler. If the handler fails, the position
+     * within the segment is retained so that the next call continues
+     * from the failed record.
+     *
+     * @param handler The replay handler
+     * @return The number of activity unit lists replayed
+     * @throws Exception Failed to replay the segment
+     */
+    public int replay(ReplayHandler handler) throws Exception {
+        File segment=getNextReplaySegment();
+
+        if (segment == null) {
+            return (0);
+        }
+
+        if (!segment.equals(_replaySegment)) {
+            _replaySegment = segment;
+            _replayRecords = 0;
+        }
+
+        int ret=0;
+        long position=0;
+
+        DataInputStream dis=new DataInputStream(new BufferedInputStream(new FileInputStream(segment)));
+
+        try {
+            long index=0;
+
+            while (true) {
+                long timestamp=dis.readLong();
+                int len=dis.readInt();
+
+                // Check the length before allocating, as the record may be corrupt
+                if (!isValidLength(len, segment.length()-position-RECORD_HEADER_LENGTH)) {
+                    break;
+                }
+
+                byte[] b=new byte[len];
+
+                dis.readFully(b);
+
+                position += RECORD_HEADER_LENGTH+len;
+
+                if (index++ < _replayRecords) {
+                    continue;
+                }
+
+                _oldestTimestamp = timestamp;
+
+                handler.replay(ActivityUtil.deserializeActivityUnitList(b));
+
+                _replayRecords++;
+                ret++;
+
+                _depth.decrementAndGet();
+            }
+        } catch (EOFException eof) {
+            // End of segment reached
+        } finally {
+            dis.close();
+        }
+
+        _size.addAndGet(-segment.length());
+
+        if (position != segment.length()) {
+            LOG.warning("Discarding incomplete or corrupt record in journal segment: "+segment);
+        }
+
+        if (!segment.delete()) {
+            LOG.warning("Failed to delete replayed journal segment: "+segment);
+        }
+
+        _replaySegment = null;
+        _replayRecords = 0;
+
+        if (_depth.get() <= 0) {
+            _oldestTimestamp = 0;
+        }
+
+        return (ret);
+    }
+
+    /**
+     * This method determines whether the supplied record length is valid,
+     * given the number of bytes remaining in the segment.
+     *
+     * @param len The record length
+     * @param remaining The number of bytes remaining after the record header
+     * @return Whether the length is valid
+     */
+    protected static boolean isValidLength(int len, long remaining) {
+        return (len >= 0 && len <= MAX_RECORD_LENGTH && len <= remaining);
+    }
+
+    /**
+     * This method returns the number of activity unit lists held in the
+     * journal awaiting replay.
+     *
+     * @return The journal depth
+     */
+    public long getDepth() {
+        return (_depth.get());
+    }
+
+    /**
+     * This method returns the size, in bytes, of the journal segments
+     * awaiting replay.
+     *
+     * @return The journal size
+     */
+    public long getSize() {
+        return (_size.get());
+    }
+
+    /**
+     * This method returns the age, in milliseconds, of the oldest
+     * activity unit list awaiting replay.
+     *
+     * @return The replay lag
+     */
+    public long getReplayLag() {
+        long timestamp=_oldestTimestamp;
+
+        if (timestamp == 0 || _depth.get() <= 0) {
+            return (0);
+        }
+
+        return (System.currentTimeMillis()-timestamp);
+    }
+
+    /**
+     * This method closes the journal. Any segments not yet replayed
+     * will be retained, to be replayed when the journal is next opened.
+     */
+    public synchronized void close() {
+        try {
+            roll();
+        } catch (IOException e) {
+            LOG.log(Level.WARNING, "Failed to close journal segment", e);
+        }
+    }
+
+    /**
+     * This method returns the journal segments, ordered oldest first.
+     *
+     * @return The segments
+     */
+    protected java.util.List<File> getSegments() {
+        java.util.List<File> ret=new java.util.ArrayList<File>();
+
+        File[] files=_directory.listFiles();
+
+        if (files != null) {
+            for (File f : files) {
+                if (f.getName().startsWith(SEGMENT_PREFIX) && f.getName().endsWith(SEGMENT_SUFFIX)) {
+                    ret.add(f);
+                }
+            }
+        }
+
+        java.util.Collections.sort(ret, new java.util.Comparator<File>() {
+            public int compare(File f1, File f2) {
+                long id1=getSegmentId(f1);
+                long id2=getSegmentId(f2);
+                return (id1 < id2 ? -1 : (id1 == id2 ? 0 : 1));
+            }
+        });
+
+        return (ret);
+    }
+
+    /**
+     * This method returns the segment name for the supplied id.
+     *
+     * @param id The segment id
+     * @return The segment name
+     */
+    protected static String getSegmentName(long id) {
+        return (SEGMENT_PREFIX+String.format("%019d", id)+SEGMENT_SUFFIX);
+    }
+
+    /**
+     * This method returns the id associated with the supplied segment.
+     *
+     * @param segment The segment
+     * @return The id
+     */
+    protected static long getSegmentId(File segment) {
+        String name=segment.getName();
+
+        try {
+            return (Long.parseLong(name.substring(SEGMENT_PREFIX.length(),
+                        name.length()-SEGMENT_SUFFIX.length())));
+        } catch (NumberFormatException nfe) {
+            return (-1);
+        }
+    }
+
+    /**
+     * This interface is implemented by the component that receives
+     * activity unit lists replayed from the journal.
+     *
+     */
+    public interface ReplayHandler {
+
+        /**
+         * This method handles a replayed list of activity units.
+         *
+         * @param units The activity units
+         * @throws Exception Failed to handle the activity units
+         */
+        public void replay(java.util.List<ActivityUnit> units) throws Exception;
+
+    }
+}
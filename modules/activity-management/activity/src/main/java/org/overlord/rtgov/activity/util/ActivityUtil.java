@@ -18,6 +18,8 @@ package org.overlord.rtgov.activity.util;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.ObjectWriter;
 import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
 import com.fasterxml.jackson.core.type.TypeReference;
 import org.overlord.rtgov.activity.model.ActivityType;
 import org.overlord.rtgov.activity.model.ActivityUnit;
@@ -30,6 +32,22 @@ import org.overlord.rtgov.activity.server.QuerySpec;
  */
 public final class ActivityUtil {
     
+    /**
+     * The content type for the JSON representation of the activity model.
+     */
+    public static final String JSON_CONTENT_TYPE="application/json";
+
+    /**
+     * The content type for the compact binary representation of an activity unit list.
+     */
+    public static final String BINARY_CONTENT_TYPE="application/vnd.rtgov.activity-units";
+
+    /**
+     * The content type for a stream of activity events, represented as one
+     * JSON object per line.
+     */
+    public static final String JSON_LINES_CONTENT_TYPE="application/x-ndjson";
+
     protected static final ObjectMapper MAPPER=new ObjectMapper();
 
     private static final TypeReference<java.util.List<ActivityUnit>> ACTIVITY_UNIT_LIST=
@@ -43,6 +61,11 @@ public final class ActivityUtil {
         MAPPER.setSerializationInclusion(JsonInclude.Include.NON_NULL);
         MAPPER.setSerializationInclusion(JsonInclude.Include.NON_DEFAULT);
         
+        // Streams supplied by the caller remain open, so that they
+        // can be used to send or receive further content
+        MAPPER.configure(JsonGenerator.Feature.AUTO_CLOSE_TARGET, false);
+        MAPPER.configure(JsonParser.Feature.AUTO_CLOSE_SOURCE, false);
+        
         ATLIST_WRITER = MAPPER.writerWithType(ACTIVITY_TYPE_LIST);
     }
     
@@ -73,6 +96,18 @@ public final class ActivityUtil {
         return (ret);
     }
 
+    /**
+     * This method serializes an Activity event into a JSON representation,
+     * written to the supplied output stream.
+     * 
+     * @param act The activity
+     * @param os The output stream
+     * @throws Exception Failed to serialize
+     */
+    public static void serializeActivityUnit(ActivityUnit act, java.io.OutputStream os) throws Exception {
+        MAPPER.writeValue(os, act);
+    }
+
     /**
      * This method serializes a Query Spec into a JSON representation.
      * 
@@ -94,6 +129,18 @@ public final class ActivityUtil {
         return (ret);
     }
 
+    /**
+     * This method serializes a Query Spec into a JSON representation,
+     * written to the supplied output stream.
+     * 
+     * @param qs The query spec
+     * @param os The output stream
+     * @throws Exception Failed to serialize
+     */
+    public static void serializeQuerySpec(QuerySpec qs, java.io.OutputStream os) throws Exception {
+        MAPPER.writeValue(os, qs);
+    }
+
     /**
      * This method serializes an object into a JSON string representation.
      * 
@@ -136,6 +183,55 @@ public final class ActivityUtil {
         return (ret);
     }
 
+    /**
+     * This method serializes an ActivityUnit list into the representation
+     * associated with the supplied content type. If the content type is
+     * not the binary content type, then the JSON representation will be used.
+     * 
+     * @param activities The activity unit list
+     * @param contentType The content type
+     * @return The serialized representation
+     * @throws Exception Failed to serialize
+     */
+    public static byte[] serializeActivityUnitList(java.util.List<ActivityUnit> activities,
+                                String contentType) throws Exception {
+        if (!isBinaryContentType(contentType)) {
+            return (serializeActivityUnitList(activities));
+        }
+        
+        byte[] ret=null;
+        
+        java.io.ByteArrayOutputStream baos=new java.io.ByteArrayOutputStream();
+        
+        BinaryActivityCodec.encode(activities, baos);
+        
+        ret = baos.toByteArray();
+        
+        baos.close();
+        
+        return (ret);
+    }
+
+    /**
+     * This method serializes an ActivityUnit list into the representation
+     * associated with the supplied content type, written to the supplied
+     * output stream. If the content type is not the binary content type,
+     * then the JSON representation will be used.
+     * 
+     * @param activities The activity unit list
+     * @param contentType The content type
+     * @param os The output stream
+     * @throws Exception Failed to serialize
+     */
+    public static void serializeActivityUnitList(java.util.List<ActivityUnit> activities,
+                                String contentType, java.io.OutputStream os) throws Exception {
+        if (isBinaryContentType(contentType)) {
+            BinaryActivityCodec.encode(activities, os);
+        } else {
+            MAPPER.writeValue(os, activities);
+        }
+    }
+
     /**
      * This method serializes an ActivityType event list into a JSON representation.
      * 
@@ -157,6 +253,33 @@ public final class ActivityUtil {
         return (ret);
     }
 
+    /**
+     * This method serializes an ActivityType event list into a JSON representation,
+     * written to the supplied output stream.
+     * 
+     * @param activities The activity type list
+     * @param os The output stream
+     * @throws Exception Failed to serialize
+     */
+    public static void serializeActivityTypeList(java.util.List<ActivityType> activities,
+                                java.io.OutputStream os) throws Exception {
+        ATLIST_WRITER.writeValue(os, activities);
+    }
+
+    /**
+     * This method serializes an ActivityType event into a single line JSON
+     * representation, written to the supplied output stream.
+     * 
+     * @param activity The activity type
+     * @param os The output stream
+     * @throws Exception Failed to serialize
+     */
+    public static void serializeActivityTypeLine(ActivityType activity,
+                                java.io.OutputStream os) throws Exception {
+        MAPPER.writeValue(os, activity);
+        os.write('\n');
+    }
+
     /**
      * This method deserializes an Activity event from a JSON representation.
      * 
@@ -176,6 +299,18 @@ public final class ActivityUtil {
         return (ret);
     }
 
+    /**
+     * This method deserializes an Activity event from a JSON representation,
+     * read from the supplied input stream.
+     * 
+     * @param is The input stream
+     * @return The Activity event
+     * @throws Exception Failed to deserialize
+     */
+    public static ActivityUnit deserializeActivityUnit(java.io.InputStream is) throws Exception {
+        return (MAPPER.readValue(is, ActivityUnit.class));
+    }
+
     /**
      * This method deserializes a Query Spec from a JSON representation.
      * 
@@ -195,6 +330,18 @@ public final class ActivityUtil {
         return (ret);
     }
 
+    /**
+     * This method deserializes a Query Spec from a JSON representation,
+     * read from the supplied input stream.
+     * 
+     * @param is The input stream
+     * @return The query spec
+     * @throws Exception Failed to deserialize
+     */
+    public static QuerySpec deserializeQuerySpec(java.io.InputStream is) throws Exception {
+        return (MAPPER.readValue(is, QuerySpec.class));
+    }
+
     /**
      * This method deserializes an Activity Unit list from a JSON representation.
      * 
@@ -214,6 +361,88 @@ public final class ActivityUtil {
         return (ret);
     }
 
+    /**
+     * This method deserializes an Activity Unit list from either the binary
+     * or JSON representation. The content type is used to select the
+     * representation, and if not supplied, the representation will be
+     * determined from the supplied bytes.
+     * 
+     * @param act The representation of the activity unit list
+     * @param contentType The optional content type
+     * @return The ActivityUnit event list
+     * @throws Exception Failed to deserialize
+     */
+    public static java.util.List<ActivityUnit> deserializeActivityUnitList(byte[] act,
+                                String contentType) throws Exception {
+        if (contentType == null ? !BinaryActivityCodec.isEncoded(act)
+                        : !isBinaryContentType(contentType)) {
+            return (deserializeActivityUnitList(act));
+        }
+        
+        java.util.List<ActivityUnit> ret=null;
+        
+        java.io.ByteArrayInputStream bais=new java.io.ByteArrayInputStream(act);
+        
+        ret = BinaryActivityCodec.decode(bais);
+        
+        bais.close();
+        
+        return (ret);
+    }
+
+    /**
+     * This method deserializes an Activity Unit list from either the binary
+     * or JSON representation, read from the supplied input stream. The
+     * content type is used to select the representation, and if not supplied,
+     * the representation will be determined from the start of the stream.
+     * 
+     * @param is The input stream
+     * @param contentType The optional content type
+     * @return The ActivityUnit event list
+     * @throws Exception Failed to deserialize
+     */
+    public static java.util.List<ActivityUnit> deserializeActivityUnitList(java.io.InputStream is,
+                                String contentType) throws Exception {
+        boolean binary=false;
+        
+        if (contentType == null) {
+            if (!is.markSupported()) {
+                is = new java.io.BufferedInputStream(is);
+            }
+            binary = BinaryActivityCodec.isEncoded(is);
+        } else {
+            binary = isBinaryContentType(contentType);
+        }
+        
+        if (binary) {
+            return (BinaryActivityCodec.decode(is));
+        }
+        
+        return (MAPPER.<java.util.List<ActivityUnit>>readValue(is, ACTIVITY_UNIT_LIST));
+    }
+
+    /**
+     * This method determines whether the supplied content type represents
+     * the compact binary representation of an activity unit list. Any
+     * media type parameters are ignored.
+     * 
+     * @param contentType The content type
+     * @return Whether the content type is the binary content type
+     */
+    public static boolean isBinaryContentType(String contentType) {
+        if (contentType == null) {
+            return (false);
+        }
+        
+        int index=contentType.indexOf(';');
+        
+        if (index != -1) {
+            contentType = contentType.substring(0, index);
+        }
+        
+        return (contentType.trim().equalsIgnoreCase(BINARY_CONTENT_TYPE));
+    }
+
     /**
      * This method deserializes an ActivityType event list from a JSON representation.
      * 
@@ -232,4 +461,31 @@ public final class ActivityUtil {
         
         return (ret);
     }
+
+    /**
+     * This method deserializes an ActivityType event list from a JSON representation,
+     * read from the supplied input stream.
+     * 
+     * @param is The input stream
+     * @return The ActivityType event list
+     * @throws Exception Failed to deserialize
+     */
+    public static java.util.List<ActivityType> deserializeActivityTypeList(java.io.InputStream is)
+                                throws Exception {
+        return (MAPPER.<java.util.List<ActivityType>>readValue(is, ACTIVITY_TYPE_LIST));
+    }
+
+    /**
+     * This method returns an iterator that deserializes ActivityType events,
+     * represented as a sequence of JSON objects, as they are read from the
+     * supplied input stream.
+     * 
+     * @param is The input stream
+     * @return The ActivityType event iterator
+     * @throws Exception Failed to deserialize
+     */
+    public static java.util.Iterator<ActivityType> deserializeActivityTypeLines(java.io.InputStream is)
+                                throws Exception {
+        return (MAPPER.reader(ActivityType.class).<ActivityType>readValues(is));
+    }
 }
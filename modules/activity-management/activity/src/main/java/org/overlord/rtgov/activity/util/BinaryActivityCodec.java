@@ -0,0 +1,768 @@
+/*
+ * 2014 Red Hat Inc. and/or its affiliates and other contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.overlord.rtgov.activity.util;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.Externalizable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.NotSerializableException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+import java.io.OutputStream;
+import java.io.StreamCorruptedException;
+import java.text.MessageFormat;
+
+import org.overlord.rtgov.activity.model.ActivityTypeId;
+import org.overlord.rtgov.activity.model.ActivityUnit;
+import org.overlord.rtgov.activity.model.Context;
+import org.overlord.rtgov.activity.model.Origin;
+import org.overlord.rtgov.activity.model.app.CustomActivity;
+import org.overlord.rtgov.activity.model.app.LogMessage;
+import org.overlord.rtgov.activity.model.bpm.ProcessCompleted;
+import org.overlord.rtgov.activity.model.bpm.ProcessStarted;
+import org.overlord.rtgov.activity.model.bpm.ProcessVariableSet;
+import org.overlord.rtgov.activity.model.mom.MessageReceived;
+import org.overlord.rtgov.activity.model.mom.MessageSent;
+import org.overlord.rtgov.activity.model.soa.RequestReceived;
+import org.overlord.rtgov.activity.model.soa.RequestSent;
+import org.overlord.rtgov.activity.model.soa.ResponseReceived;
+import org.overlord.rtgov.activity.model.soa.ResponseSent;
+
+/**
+ * This class provides a compact binary encoding for lists of activity units.
+ * The schema of each model object is defined by its externalizable
+ * implementation, with the codec supplying variable length integers and
+ * a string table, so that repeated values (such as the service type,
+ * interface, operation, host and node names, as well as class names) are
+ * only transmitted once per list.
+ * <p>
+ * The encoding starts with a magic byte, which can never be the first byte
+ * of a JSON document, followed by the format version.
+ * <p>
+ * As the encoding may be received from remote clients, only the activity
+ * model classes are instantiated when decoding, and the lengths read from
+ * the stream are bounded before any storage is allocated.
+ *
+ */
+final class BinaryActivityCodec {
+
+    protected static final int MAGIC=0xAC;
+    protected static final int FORMAT_VERSION=1;
+
+    /** Strings longer than this are written inline, rather than added to the string table. */
+    protected static final int MAX_POOLED_STRING_LENGTH=256;
+
+    private static final int TAG_NULL=0;
+    private static final int TAG_STRING=1;
+    private static final int TAG_STRING_REF=2;
+    private static final int TAG_STRING_INLINE=3;
+    private static final int TAG_EXTERNALIZABLE=4;
+    private static final int TAG_ENUM=5;
+    private static final int TAG_MAP=6;
+
+    /** The maximum length, in bytes, of a string read from the stream. */
+    protected static final int MAX_STRING_LENGTH=16*1024*1024;
+
+    /** The maximum number of entries preallocated for a list read from the stream. */
+    protected static final int MAX_INITIAL_CAPACITY=1024;
+
+    private static final String UTF8="UTF-8";
+
+    /** The only classes that can be instantiated when decoding. */
+    private static final java.util.Map<String,Class<?>> CLASSES=new java.util.HashMap<String,Class<?>>();
+
+    static {
+        Class<?>[] classes=new Class<?>[] {
+            ActivityUnit.class, Origin.class, Context.class, Context.Type.class,
+            ActivityTypeId.class, CustomActivity.class, LogMessage.class,
+            LogMessage.Level.class, ProcessStarted.class, ProcessCompleted.class,
+            ProcessCompleted.Status.class, ProcessVariableSet.class,
+            MessageSent.class, MessageReceived.class, RequestSent.class,
+            RequestReceived.class, ResponseSent.class, ResponseReceived.class
+        };
+
+        for (Class<?> cls : classes) {
+            CLASSES.put(cls.getName(), cls);
+        }
+    }
+
+    /**
+     * Private constructor.
+     */
+    private BinaryActivityCodec() {
+    }
+
+    /**
+     * This method determines whether the supplied bytes start with
+     * the binary encoding header.
+     *
+     * @param b The bytes
+     * @return Whether the bytes represent the binary encoding
+     */
+    protected static boolean isEncoded(byte[] b) {
+        return (b != null && b.length > 0 && (b[0] & 0xFF) == MAGIC);
+    }
+
+    /**
+     * This method determines whether the supplied stream starts with
+     * the binary encoding header. The stream must support mark/reset.
+     *
+     * @param is The input stream
+     * @return Whether the stream contains the binary encoding
+     * @throws IOException Failed to read the stream
+     */
+    protected static boolean isEncoded(InputStream is) throws IOException {
+        is.mark(1);
+
+        int b=is.read();
+
+        is.reset();
+
+        return (b == MAGIC);
+    }
+
+    /**
+     * This method encodes the list of activity units to the supplied
+     * output stream.
+     *
+     * @param activities The activity units
+     * @param os The output stream
+     * @throws IOException Failed to encode the activity units
+     */
+    protected static void encode(java.util.List<ActivityUnit> activities, OutputStream os) throws IOException {
+        Output out=new Output(os);
+
+        out.write(MAGIC);
+        out.write(FORMAT_VERSION);
+
+        out.writeInt(activities.size());
+
+        for (int i=0; i < activities.size(); i++) {
+            out.writeObject(activities.get(i));
+        }
+
+        out.flush();
+    }
+
+    /**
+     * This method decodes a list of activity units from the supplied
+     * input stream.
+     *
+     * @param is The input stream
+     * @return The activity units
+     * @throws IOException Failed to decode the activity units
+     */
+    protected static java.util.List<ActivityUnit> decode(InputStream is) throws IOException {
+        Input in=new Input(is);
+
+        int magic=in.read();
+        int version=in.read();
+
+        if (magic != MAGIC || version != FORMAT_VERSION) {
+            throw new StreamCorruptedException(MessageFormat.format(
+                    java.util.PropertyResourceBundle.getBundle(
+                    "activity.Messages").getString("ACTIVITY-20"), magic, version));
+        }
+
+        int len=in.readInt();
+
+        if (len < 0) {
+            throw new StreamCorruptedException("Invalid list size: "+len);
+        }
+
+        java.util.List<ActivityUnit> ret=new java.util.ArrayList<ActivityUnit>(
+                            Math.min(len, MAX_INITIAL_CAPACITY));
+
+        try {
+            for (int i=0; i < len; i++) {
+                ret.add((ActivityUnit)in.readObject());
+            }
+        } catch (ClassNotFoundException cnfe) {
+            throw new IOException(cnfe);
+        } catch (ClassCastException cce) {
+            throw new IOException(cce);
+        }
+
+        return (ret);
+    }
+
+    /**
+     * This method returns the activity model class associated with the
+     * supplied name. Any other class is rejected.
+     *
+     * @param name The class name
+     * @return The class
+     * @throws java.io.InvalidClassException The class is not an activity model class
+     */
+    protected static Class<?> getClass(String name) throws java.io.InvalidClassException {
+        Class<?> ret=CLASSES.get(name);
+
+        if (ret == null) {
+            throw new java.io.InvalidClassException(name, "Not an activity model class");
+        }
+
+        return (ret);
+    }
+
+    /**
+     * This class provides the object output used to write the model objects.
+     *
+     */
+    protected static class Output implements ObjectOutput {
+
+        private DataOutputStream _out;
+        private java.util.Map<String,Integer> _strings=new java.util.HashMap<String,Integer>();
+
+        /**
+         * This is the constructor.
+         *
+         * @param os The output stream
+         */
+        public Output(OutputStream os) {
+            _out = new DataOutputStream(os instanceof java.io.ByteArrayOutputStream
+                            || os instanceof java.io.BufferedOutputStream
+                            ? os : new java.io.BufferedOutputStream(os));
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public void write(int b) throws IOException {
+            _out.write(b);
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public void write(byte[] b) throws IOException {
+            _out.write(b);
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public void write(byte[] b, int off, int len) throws IOException {
+            _out.write(b, off, len);
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public void writeBoolean(boolean v) throws IOException {
+            _out.writeBoolean(v);
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public void writeByte(int v) throws IOException {
+            _out.writeByte(v);
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public void writeShort(int v) throws IOException {
+            _out.writeShort(v);
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public void writeChar(int v) throws IOException {
+            _out.writeChar(v);
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public void writeFloat(float v) throws IOException {
+            _out.writeFloat(v);
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public void writeDouble(double v) throws IOException {
+            _out.writeDouble(v);
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public void writeBytes(String s) throws IOException {
+            _out.writeBytes(s);
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public void writeChars(String s) throws IOException {
+            _out.writeChars(s);
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public void writeUTF(String s) throws IOException {
+            writeString(s);
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public void flush() throws IOException {
+            _out.flush();
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public void close() throws IOException {
+            _out.close();
+        }
+
+        /**
+         * This method writes an unsigned variable length integer.
+         *
+         * @param value The value
+         * @throws IOException Failed to write the value
+         */
+        protected void writeVarLong(long value) throws IOException {
+            while ((value & ~0x7FL) != 0) {
+                write((int)((value & 0x7F) | 0x80));
+                value >>>= 7;
+            }
+            write((int)value);
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public void writeInt(int value) throws IOException {
+            writeVarLong(((value << 1) ^ (value >> 31)) & 0xFFFFFFFFL);
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public void writeLong(long value) throws IOException {
+            writeVarLong((value << 1) ^ (value >> 63));
+        }
+
+        /**
+         * This method writes a string, using the string table where
+         * the string has previously been written.
+         *
+         * @param str The string
+         * @throws IOException Failed to write the string
+         */
+        protected void writeString(String str) throws IOException {
+            if (str == null) {
+                write(TAG_NULL);
+                return;
+            }
+
+            Integer index=_strings.get(str);
+
+            if (index != null) {
+                write(TAG_STRING_REF);
+                writeVarLong(index);
+                return;
+            }
+
+            if (str.length() <= MAX_POOLED_STRING_LENGTH) {
+                _strings.put(str, _strings.size());
+                write(TAG_STRING);
+            } else {
+                write(TAG_STRING_INLINE);
+            }
+
+            byte[] b=str.getBytes(UTF8);
+
+            writeVarLong(b.length);
+            write(b);
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public void writeObject(Object obj) throws IOException {
+            if (obj == null) {
+                write(TAG_NULL);
+
+            } else if (obj instanceof String) {
+                writeString((String)obj);
+
+            } else if (obj instanceof Externalizable) {
+                write(TAG_EXTERNALIZABLE);
+                writeString(obj.getClass().getName());
+                ((Externalizable)obj).writeExternal(this);
+
+            } else if (obj instanceof Enum<?>) {
+                write(TAG_ENUM);
+                writeString(((Enum<?>)obj).getDeclaringClass().getName());
+                writeString(((Enum<?>)obj).name());
+
+            } else if (obj instanceof java.util.Map<?,?>) {
+                java.util.Map<?,?> map=(java.util.Map<?,?>)obj;
+
+                write(TAG_MAP);
+                writeVarLong(map.size());
+
+                for (java.util.Map.Entry<?,?> entry : map.entrySet()) {
+                    writeObject(entry.getKey());
+                    writeObject(entry.getValue());
+                }
+
+            } else {
+                throw new NotSerializableException(obj.getClass().getName());
+            }
+        }
+    }
+
+    /**
+     * This class provides the object input used to read the model objects.
+     *
+     */
+    protected static class Input implements ObjectInput {
+
+        private DataInputStream _in;
+        private java.util.List<String> _strings=new java.util.ArrayList<String>();
+
+        /**
+         * This is the constructor.
+         *
+         * @param is The input stream
+         */
+        public Input(InputStream is) {
+            _in = new DataInputStream(is instanceof java.io.ByteArrayInputStream
+                            || is instanceof java.io.BufferedInputStream
+                            ? is : new java.io.BufferedInputStream(is));
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public int read() throws IOException {
+            return (_in.read());
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public int read(byte[] b) throws IOException {
+            return (_in.read(b));
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public int read(byte[] b, int off, int len) throws IOException {
+            return (_in.read(b, off, len));
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public long skip(long n) throws IOException {
+            return (_in.skip(n));
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public int available() throws IOException {
+            return (_in.available());
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public void readFully(byte[] b) throws IOException {
+            _in.readFully(b);
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public void readFully(byte[] b, int off, int len) throws IOException {
+            _in.readFully(b, off, len);
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public int skipBytes(int n) throws IOException {
+            return (_in.skipBytes(n));
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public boolean readBoolean() throws IOException {
+            return (_in.readBoolean());
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public byte readByte() throws IOException {
+            return (_in.readByte());
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public int readUnsignedByte() throws IOException {
+            return (_in.readUnsignedByte());
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public short readShort() throws IOException {
+            return (_in.readShort());
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public int readUnsignedShort() throws IOException {
+            return (_in.readUnsignedShort());
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public char readChar() throws IOException {
+            return (_in.readChar());
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public float readFloat() throws IOException {
+            return (_in.readFloat());
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public double readDouble() throws IOException {
+            return (_in.readDouble());
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @SuppressWarnings("deprecation")
+        public String readLine() throws IOException {
+            return (_in.readLine());
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public String readUTF() throws IOException {
+            return (readString(readTag()));
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public void close() throws IOException {
+            _in.close();
+        }
+
+        /**
+         * This method reads a single byte, failing if the end of
+         * stream has been reached.
+         *
+         * @return The byte
+         * @throws IOException Failed to read the byte
+         */
+        protected int readTag() throws IOException {
+            int ret=read();
+
+            if (ret == -1) {
+                throw new java.io.EOFException();
+            }
+
+            return (ret);
+        }
+
+        /**
+         * This method reads an unsigned variable length integer.
+         *
+         * @return The value
+         * @throws IOException Failed to read the value
+         */
+        protected long readVarLong() throws IOException {
+            long ret=0;
+
+            for (int shift=0; shift < 64; shift += 7) {
+                int b=readTag();
+
+                ret |= (long)(b & 0x7F) << shift;
+
+                if ((b & 0x80) == 0) {
+                    return (ret);
+                }
+            }
+
+            throw new StreamCorruptedException("Invalid variable length integer");
+        }
+
+        /**
+         * This method reads an unsigned variable length integer representing
+         * a length, failing if it exceeds the supplied maximum.
+         *
+         * @param max The maximum length
+         * @return The length
+         * @throws IOException Failed to read the length, or it was too large
+         */
+        protected int readLength(int max) throws IOException {
+            long ret=readVarLong();
+
+            if (ret < 0 || ret > max) {
+                throw new StreamCorruptedException("Invalid length: "+ret);
+            }
+
+            return ((int)ret);
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public int readInt() throws IOException {
+            int value=(int)readVarLong();
+
+            return ((value >>> 1) ^ -(value & 1));
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public long readLong() throws IOException {
+            long value=readVarLong();
+
+            return ((value >>> 1) ^ -(value & 1));
+        }
+
+        /**
+         * This method reads a string, following the supplied tag.
+         *
+         * @param tag The tag
+         * @return The string
+         * @throws IOException Failed to read the string
+         */
+        protected String readString(int tag) throws IOException {
+            if (tag == TAG_NULL) {
+                return (null);
+            }
+
+            if (tag == TAG_STRING_REF) {
+                long index=readVarLong();
+
+                if (index >= _strings.size()) {
+                    throw new StreamCorruptedException("Invalid string reference: "+index);
+                }
+
+                return (_strings.get((int)index));
+            }
+
+            if (tag != TAG_STRING && tag != TAG_STRING_INLINE) {
+                throw new StreamCorruptedException("Expecting string, but got tag: "+tag);
+            }
+
+            byte[] b=new byte[readLength(MAX_STRING_LENGTH)];
+
+            readFully(b);
+
+            String ret=new String(b, UTF8);
+
+            if (tag == TAG_STRING) {
+                _strings.add(ret);
+            }
+
+            return (ret);
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @SuppressWarnings({ "unchecked", "rawtypes" })
+        public Object readObject() throws ClassNotFoundException, IOException {
+            int tag=readTag();
+
+            switch (tag) {
+            case TAG_NULL:
+                return (null);
+
+            case TAG_STRING:
+            case TAG_STRING_REF:
+            case TAG_STRING_INLINE:
+                return (readString(tag));
+
+            case TAG_EXTERNALIZABLE:
+                Class<?> cls=BinaryActivityCodec.getClass(readString(readTag()));
+
+                if (!Externalizable.class.isAssignableFrom(cls)) {
+                    throw new java.io.InvalidClassException(cls.getName(), "Not externalizable");
+                }
+
+                Externalizable ext=null;
+
+                try {
+                    ext = (Externalizable)cls.newInstance();
+                } catch (Exception e) {
+                    throw new java.io.InvalidClassException(cls.getName(), e.toString());
+                }
+
+                ext.readExternal(this);
+
+                return (ext);
+
+            case TAG_ENUM:
+                Class<?> enumCls=BinaryActivityCodec.getClass(readString(readTag()));
+
+                if (!enumCls.isEnum()) {
+                    throw new java.io.InvalidClassException(enumCls.getName(), "Not an enum");
+                }
+
+                return (Enum.valueOf((Class<? extends Enum>)enumCls, readString(readTag())));
+
+            case TAG_MAP:
+                int size=readLength(Integer.MAX_VALUE);
+
+                java.util.Map<Object,Object> map=new java.util.HashMap<Object,Object>();
+
+                for (int i=0; i < size; i++) {
+                    Object key=readObject();
+                    map.put(key, readObject());
+                }
+
+                return (map);
+
+            default:
+                throw new StreamCorruptedException("Unknown tag: "+tag);
+            }
+        }
+    }
+}
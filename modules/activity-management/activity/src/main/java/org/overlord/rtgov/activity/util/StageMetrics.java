@@ -0,0 +1,99 @@
+/*
+ * 2014 Red Hat Inc. and/or its affiliates and other contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.overlord.rtgov.activity.util;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This class records the number of invocations, failures and the
+ * latency associated with a stage of activity processing.
+ *
+ */
+public class StageMetrics {
+
+    private AtomicLong _count=new AtomicLong();
+    private AtomicLong _failures=new AtomicLong();
+    private AtomicLong _totalTime=new AtomicLong();
+    private AtomicLong _maxTime=new AtomicLong();
+
+    /**
+     * This method records a successful invocation of the stage.
+     *
+     * @param nanos The duration, in nanoseconds
+     */
+    public void record(long nanos) {
+        _count.incrementAndGet();
+        _totalTime.addAndGet(nanos);
+
+        long max=_maxTime.get();
+
+        while (nanos > max && !_maxTime.compareAndSet(max, nanos)) {
+            max = _maxTime.get();
+        }
+    }
+
+    /**
+     * This method records a failed invocation of the stage.
+     */
+    public void recordFailure() {
+        _failures.incrementAndGet();
+    }
+
+    /**
+     * This method returns the number of successful invocations.
+     *
+     * @return The count
+     */
+    public long getCount() {
+        return (_count.get());
+    }
+
+    /**
+     * This method returns the number of failed invocations.
+     *
+     * @return The number of failures
+     */
+    public long getFailures() {
+        return (_failures.get());
+    }
+
+    /**
+     * This method returns the average latency of the successful
+     * invocations, in milliseconds.
+     *
+     * @return The average latency
+     */
+    public double getAverageLatency() {
+        long count=_count.get();
+
+        if (count == 0) {
+            return (0);
+        }
+
+        return ((double)_totalTime.get()/count/TimeUnit.MILLISECONDS.toNanos(1));
+    }
+
+    /**
+     * This method returns the maximum latency of the successful
+     * invocations, in milliseconds.
+     *
+     * @return The maximum latency
+     */
+    public long getMaxLatency() {
+        return (TimeUnit.NANOSECONDS.toMillis(_maxTime.get()));
+    }
+}
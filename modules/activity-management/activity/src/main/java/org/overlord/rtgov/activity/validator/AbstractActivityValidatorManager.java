@@ -15,32 +15,62 @@
  */
 package org.overlord.rtgov.activity.validator;
 
+import java.text.MessageFormat;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import org.overlord.commons.services.ServiceClose;
 import org.overlord.commons.services.ServiceInit;
 import org.overlord.rtgov.activity.model.ActivityType;
+import org.overlord.rtgov.activity.model.soa.RPCActivityType;
+import org.overlord.rtgov.common.util.RTGovProperties;
 import org.overlord.rtgov.common.util.VersionUtil;
 
 /**
  * This class manages a set of ActivityValidator
  * implementations.
+ * <p>
+ * The registered activity validators are held in an immutable registry, which
+ * is replaced (copy-on-write) when validators are registered or unregistered,
+ * so validation does not need to acquire a lock. The registry caches the
+ * validators applicable to each combination of activity type class, service
+ * type and operation, so that validators (and their predicates) that cannot
+ * apply to an activity are not evaluated.
+ * <p>
+ * Where multiple validators apply to an activity, they can optionally be
+ * evaluated in parallel, subject to an overall latency budget.
  *
  */
 public abstract class AbstractActivityValidatorManager implements ActivityValidatorManager {
     
     private static final Logger LOG=Logger.getLogger(AbstractActivityValidatorManager.class.getName());
 
-    private java.util.Map<String,ActivityValidator> _activityValidatorIndex=
-            new java.util.HashMap<String,ActivityValidator>();
-    private java.util.List<ActivityValidator> _activityValidators=
-                new java.util.ArrayList<ActivityValidator>();
+    private static final boolean DEFAULT_PARALLEL=false;
+    private static final long DEFAULT_LATENCY_BUDGET=0;
+    private static final int MAX_CACHED_ENTRIES=10000;
+    
+    private final Object _lock=new Object();
+    private volatile Registry _registry=new Registry();
+    
+    private boolean _parallel=DEFAULT_PARALLEL;
+    private long _latencyBudget=DEFAULT_LATENCY_BUDGET;
+    private int _threads=Runtime.getRuntime().availableProcessors();
+    private volatile ExecutorService _executor=null;
     
     /**
      * The default constructor.
      */
     public AbstractActivityValidatorManager() {
+        _parallel = RTGovProperties.getPropertyAsBoolean("ActivityValidatorManager.parallel", DEFAULT_PARALLEL);
+        _latencyBudget = RTGovProperties.getPropertyAsLong("ActivityValidatorManager.latencyBudget",
+                                DEFAULT_LATENCY_BUDGET);
+        _threads = RTGovProperties.getPropertyAsInteger("ActivityValidatorManager.threads", _threads);
     }
     
     /**
@@ -50,6 +80,68 @@ public abstract class AbstractActivityValidatorManager implements ActivityValida
     public void init() {
     }
     
+    /**
+     * This method sets whether the activity validators applicable to
+     * an activity should be evaluated in parallel.
+     * 
+     * @param parallel Whether validators should be evaluated in parallel
+     */
+    public void setParallel(boolean parallel) {
+        _parallel = parallel;
+    }
+    
+    /**
+     * This method gets whether the activity validators applicable to
+     * an activity should be evaluated in parallel.
+     * 
+     * @return Whether validators should be evaluated in parallel
+     */
+    public boolean getParallel() {
+        return (_parallel);
+    }
+    
+    /**
+     * This method sets the latency budget (in milliseconds) for validating
+     * an activity, when validators are evaluated in parallel. If the
+     * validators have not completed within the budget, the validation will
+     * fail. A value of 0 means no budget.
+     * 
+     * @param budget The latency budget
+     */
+    public void setLatencyBudget(long budget) {
+        _latencyBudget = budget;
+    }
+    
+    /**
+     * This method gets the latency budget (in milliseconds) for validating
+     * an activity, when validators are evaluated in parallel.
+     * 
+     * @return The latency budget, or 0 if no budget
+     */
+    public long getLatencyBudget() {
+        return (_latencyBudget);
+    }
+    
+    /**
+     * This method sets the number of threads used to evaluate
+     * validators in parallel.
+     * 
+     * @param threads The number of threads
+     */
+    public void setThreads(int threads) {
+        _threads = threads;
+    }
+    
+    /**
+     * This method gets the number of threads used to evaluate
+     * validators in parallel.
+     * 
+     * @return The number of threads
+     */
+    public int getThreads() {
+        return (_threads);
+    }
+    
     /**
      * {@inheritDoc}
      */
@@ -64,11 +156,11 @@ public abstract class AbstractActivityValidatorManager implements ActivityValida
         // Initialize the activity validator
         ai.init();
         
-        synchronized (_activityValidatorIndex) {
+        synchronized (_lock) {
             boolean f_add=false;
             
             // Check if activity validator for same name already exists
-            ActivityValidator existing=_activityValidatorIndex.get(ai.getName());
+            ActivityValidator existing=_registry.getActivityValidator(ai.getName());
             
             if (existing != null) {
                 
@@ -98,8 +190,11 @@ public abstract class AbstractActivityValidatorManager implements ActivityValida
             }
             
             if (f_add) {
-                _activityValidatorIndex.put(ai.getName(), ai);
-                _activityValidators.add(ai);
+                java.util.List<ActivityValidator> avs=
+                        new java.util.ArrayList<ActivityValidator>(_registry.getActivityValidators());
+                avs.add(ai);
+                
+                _registry = new Registry(avs);
             }
         }
     }
@@ -108,20 +203,143 @@ public abstract class AbstractActivityValidatorManager implements ActivityValida
      * {@inheritDoc}
      */
     public ActivityValidator getActivityValidator(String name) {
-        synchronized (_activityValidatorIndex) {
-            return (_activityValidatorIndex.get(name));
-        }
+        return (_registry.getActivityValidator(name));
     }
     
     /**
      * {@inheritDoc}
      */
     public void validate(ActivityType actType) throws Exception {        
-        synchronized (_activityValidatorIndex) {            
-            for (int i=0; i < _activityValidators.size(); i++) {
-                _activityValidators.get(i).validate(actType);
+        ActivityValidator[] validators=_registry.getApplicableValidators(actType);
+        
+        if (validators.length == 0) {
+            return;
+        }
+        
+        if (_parallel && validators.length > 1) {
+            validateParallel(validators, actType);
+        } else {
+            for (int i=0; i < validators.length; i++) {
+                validators[i].validate(actType);
             }
-        }        
+        }
+    }
+    
+    /**
+     * This method evaluates the supplied validators in parallel. If any
+     * validator fails, then the exception associated with the first
+     * failing validator (in registration order) will be thrown.
+     * 
+     * @param validators The validators
+     * @param actType The activity type
+     * @throws Exception Failed to validate the activity
+     */
+    protected void validateParallel(ActivityValidator[] validators, final ActivityType actType)
+                                    throws Exception {
+        ExecutorService executor=getExecutor();
+        final ClassLoader classLoader=Thread.currentThread().getContextClassLoader();
+        
+        java.util.List<Future<Void>> futures=new java.util.ArrayList<Future<Void>>(validators.length);
+        
+        for (int i=0; i < validators.length; i++) {
+            final ActivityValidator validator=validators[i];
+            
+            futures.add(executor.submit(new java.util.concurrent.Callable<Void>() {
+                public Void call() throws Exception {
+                    Thread thread=Thread.currentThread();
+                    ClassLoader existing=thread.getContextClassLoader();
+                    
+                    thread.setContextClassLoader(classLoader);
+                    
+                    try {
+                        validator.validate(actType);
+                    } finally {
+                        thread.setContextClassLoader(existing);
+                    }
+                    
+                    return (null);
+                }
+            }));
+        }
+        
+        long deadline=(_latencyBudget > 0 ? System.nanoTime()
+                        + TimeUnit.MILLISECONDS.toNanos(_latencyBudget) : 0);
+        
+        try {
+            for (int i=0; i < futures.size(); i++) {
+                if (deadline == 0) {
+                    futures.get(i).get();
+                } else {
+                    futures.get(i).get(Math.max(0, deadline-System.nanoTime()), TimeUnit.NANOSECONDS);
+                }
+            }
+        } catch (ExecutionException ee) {
+            cancel(futures);
+            
+            if (ee.getCause() instanceof Exception) {
+                throw (Exception)ee.getCause();
+            }
+            throw ee;
+            
+        } catch (TimeoutException te) {
+            cancel(futures);
+            
+            throw new Exception(MessageFormat.format(
+                    java.util.PropertyResourceBundle.getBundle(
+                    "activity.Messages").getString("ACTIVITY-21"),
+                    _latencyBudget, actType));
+            
+        } catch (InterruptedException ie) {
+            cancel(futures);
+            
+            Thread.currentThread().interrupt();
+            
+            throw ie;
+        }
+    }
+    
+    /**
+     * This method cancels the supplied futures.
+     * 
+     * @param futures The futures
+     */
+    private static void cancel(java.util.List<Future<Void>> futures) {
+        for (int i=0; i < futures.size(); i++) {
+            futures.get(i).cancel(true);
+        }
+    }
+    
+    /**
+     * This method returns the executor used to evaluate validators
+     * in parallel, creating it if necessary.
+     * 
+     * @return The executor
+     */
+    protected ExecutorService getExecutor() {
+        ExecutorService ret=_executor;
+        
+        if (ret == null) {
+            synchronized (_lock) {
+                ret = _executor;
+                
+                if (ret == null) {
+                    ret = java.util.concurrent.Executors.newFixedThreadPool(Math.max(1, _threads),
+                            new java.util.concurrent.ThreadFactory() {
+                        private final java.util.concurrent.atomic.AtomicInteger _count=
+                                        new java.util.concurrent.atomic.AtomicInteger();
+                        
+                        public Thread newThread(Runnable r) {
+                            Thread thread=new Thread(r, "ActivityValidator-"+_count.incrementAndGet());
+                            thread.setDaemon(true);
+                            return (thread);
+                        }
+                    });
+                    _executor = ret;
+                }
+            }
+        }
+        
+        return (ret);
     }
     
     /**
@@ -134,19 +352,22 @@ public abstract class AbstractActivityValidatorManager implements ActivityValida
                         +ai.getVersion()+" ai="+ai);
         }
         
-        synchronized (_activityValidatorIndex) {
+        synchronized (_lock) {
+            ActivityValidator existing=_registry.getActivityValidator(ai.getName());
             
-            if (_activityValidators.contains(ai)) {
-                ActivityValidator removed=
-                        _activityValidatorIndex.remove(ai.getName());
-                _activityValidators.remove(removed);
+            if (existing == ai) {
+                java.util.List<ActivityValidator> avs=
+                        new java.util.ArrayList<ActivityValidator>(_registry.getActivityValidators());
+                avs.remove(ai);
+                
+                _registry = new Registry(avs);
                 
-            } else if (_activityValidatorIndex.containsKey(ai.getName())) {
+            } else if (existing != null) {
                 
                 if (LOG.isLoggable(Level.FINE)) {
                     LOG.fine("Another version of activity validator name="
                             +ai.getName()+" is currently registered: existing version ="
-                            +_activityValidatorIndex.get(ai.getName()).getVersion());
+                            +existing.getVersion());
                 }
             }
         }
@@ -159,10 +380,147 @@ public abstract class AbstractActivityValidatorManager implements ActivityValida
      */
     @ServiceClose
     public void close() throws Exception {
-        synchronized (_activityValidatorIndex) {
-            for (int i=_activityValidators.size()-1; i >= 0; i--) {
-                unregister(_activityValidators.get(i));
+        synchronized (_lock) {
+            java.util.List<ActivityValidator> avs=_registry.getActivityValidators();
+            
+            for (int i=avs.size()-1; i >= 0; i--) {
+                unregister(avs.get(i));
+            }
+            
+            if (_executor != null) {
+                _executor.shutdownNow();
+                _executor = null;
+            }
+        }
+    }
+    
+    /**
+     * This class represents an immutable snapshot of the registered
+     * activity validators, with a cache of the validators applicable
+     * to each activity type class, service type and operation.
+     *
+     */
+    private static final class Registry {
+        
+        private static final ActivityValidator[] NONE=new ActivityValidator[0];
+        
+        private final java.util.List<ActivityValidator> _activityValidators;
+        private final java.util.Map<String,ActivityValidator> _nameIndex;
+        private final ConcurrentHashMap<Class<?>,ConcurrentHashMap<String,ConcurrentHashMap<String,
+                                ActivityValidator[]>>> _applicable=new ConcurrentHashMap<Class<?>,
+                                ConcurrentHashMap<String,ConcurrentHashMap<String,ActivityValidator[]>>>();
+        private final java.util.concurrent.atomic.AtomicInteger _cached=
+                                new java.util.concurrent.atomic.AtomicInteger();
+        
+        /**
+         * This constructor initializes an empty registry.
+         */
+        Registry() {
+            this(java.util.Collections.<ActivityValidator>emptyList());
+        }
+        
+        /**
+         * This constructor initializes the registry with the supplied
+         * activity validators, in registration order.
+         * 
+         * @param avs The activity validators
+         */
+        Registry(java.util.List<ActivityValidator> avs) {
+            java.util.Map<String,ActivityValidator> nameIndex=
+                    new java.util.HashMap<String,ActivityValidator>();
+            
+            for (int i=0; i < avs.size(); i++) {
+                nameIndex.put(avs.get(i).getName(), avs.get(i));
+            }
+            
+            _activityValidators = java.util.Collections.unmodifiableList(
+                        new java.util.ArrayList<ActivityValidator>(avs));
+            _nameIndex = nameIndex;
+        }
+        
+        /**
+         * This method returns the activity validators, in
+         * registration order.
+         * 
+         * @return The activity validators
+         */
+        java.util.List<ActivityValidator> getActivityValidators() {
+            return (_activityValidators);
+        }
+        
+        /**
+         * This method returns the activity validator with
+         * the supplied name.
+         * 
+         * @param name The name
+         * @return The activity validator, or null if not found
+         */
+        ActivityValidator getActivityValidator(String name) {
+            return (_nameIndex.get(name));
+        }
+        
+        /**
+         * This method returns the activity validators applicable to
+         * the supplied activity type, in registration order.
+         * 
+         * @param actType The activity type
+         * @return The applicable activity validators
+         */
+        ActivityValidator[] getApplicableValidators(ActivityType actType) {
+            if (_activityValidators.size() == 0) {
+                return (NONE);
             }
+            
+            String serviceType=null;
+            String operation=null;
+            
+            if (actType instanceof RPCActivityType) {
+                serviceType = ((RPCActivityType)actType).getServiceType();
+                operation = ((RPCActivityType)actType).getOperation();
+            }
+            
+            Class<?> cls=actType.getClass();
+            String serviceKey=(serviceType == null ? "" : serviceType);
+            String operationKey=(operation == null ? "" : operation);
+            
+            ConcurrentHashMap<String,ConcurrentHashMap<String,ActivityValidator[]>> serviceIndex=
+                                    _applicable.get(cls);
+            ConcurrentHashMap<String,ActivityValidator[]> operationIndex=
+                                    (serviceIndex == null ? null : serviceIndex.get(serviceKey));
+            ActivityValidator[] ret=(operationIndex == null ? null : operationIndex.get(operationKey));
+            
+            if (ret == null) {
+                java.util.List<ActivityValidator> applicable=new java.util.ArrayList<ActivityValidator>();
+                
+                for (int i=0; i < _activityValidators.size(); i++) {
+                    if (_activityValidators.get(i).isApplicable(cls, serviceType, operation)) {
+                        applicable.add(_activityValidators.get(i));
+                    }
+                }
+                
+                ret = (applicable.size() == 0 ? NONE
+                            : applicable.toArray(new ActivityValidator[applicable.size()]));
+                
+                // Bound the cache, in case of unexpectedly high numbers of services/operations
+                if (_cached.get() < MAX_CACHED_ENTRIES) {
+                    if (serviceIndex == null) {
+                        _applicable.putIfAbsent(cls,
+                                new ConcurrentHashMap<String,ConcurrentHashMap<String,ActivityValidator[]>>());
+                        serviceIndex = _applicable.get(cls);
+                    }
+                    
+                    if (operationIndex == null) {
+                        serviceIndex.putIfAbsent(serviceKey, new ConcurrentHashMap<String,ActivityValidator[]>());
+                        operationIndex = serviceIndex.get(serviceKey);
+                    }
+                    
+                    if (operationIndex.putIfAbsent(operationKey, ret) == null) {
+                        _cached.incrementAndGet();
+                    }
+                }
+            }
+            
+            return (ret);
         }
     }
 }
@@ -16,6 +16,7 @@
 package org.overlord.rtgov.activity.validator;
 
 import org.overlord.rtgov.activity.model.ActivityType;
+import org.overlord.rtgov.activity.model.soa.RPCActivityType;
 import org.overlord.rtgov.ep.EventProcessor;
 import org.overlord.rtgov.ep.Predicate;
 
@@ -31,6 +32,11 @@ public class ActivityValidator {
     private String _name=null;
     private String _version=null;
 
+    private java.util.List<String> _activityTypes=new java.util.ArrayList<String>();
+    private String _serviceType=null;
+    private String _operation=null;
+    private volatile java.util.Set<String> _activityTypeNames=null;
+    
     private Predicate _predicate=null;
     private EventProcessor _eventProcessor=null;
     
@@ -78,6 +84,71 @@ public class ActivityValidator {
         _version = version;
     }
     
+    /**
+     * This method sets the names of the activity types (either the
+     * simple or fully qualified class name) that the validator applies
+     * to. Subclasses of the named types are also applicable. If no
+     * types are defined, then all activity types are applicable.
+     * 
+     * @param activityTypes The activity type names
+     */
+    public void setActivityTypes(java.util.List<String> activityTypes) {
+        _activityTypes = activityTypes;
+        _activityTypeNames = null;
+    }
+    
+    /**
+     * This method gets the names of the activity types that the
+     * validator applies to.
+     * 
+     * @return The activity type names
+     */
+    public java.util.List<String> getActivityTypes() {
+        return (_activityTypes);
+    }
+    
+    /**
+     * This method sets the optional service type that the
+     * validator applies to. If defined, only RPC activity types
+     * with the same service type will be applicable.
+     * 
+     * @param serviceType The service type
+     */
+    public void setServiceType(String serviceType) {
+        _serviceType = serviceType;
+    }
+    
+    /**
+     * This method gets the optional service type that the
+     * validator applies to.
+     * 
+     * @return The service type, or null if not relevant
+     */
+    public String getServiceType() {
+        return (_serviceType);
+    }
+    
+    /**
+     * This method sets the optional operation that the
+     * validator applies to. If defined, only RPC activity types
+     * with the same operation will be applicable.
+     * 
+     * @param operation The operation
+     */
+    public void setOperation(String operation) {
+        _operation = operation;
+    }
+    
+    /**
+     * This method gets the optional operation that the
+     * validator applies to.
+     * 
+     * @return The operation, or null if not relevant
+     */
+    public String getOperation() {
+        return (_operation);
+    }
+    
     /**
      * This method sets the optional predicate that can be
      * used to assess whether a supplied activity is
@@ -139,6 +210,66 @@ public class ActivityValidator {
         }
     }
 
+    /**
+     * This method determines whether the validator is applicable to
+     * the supplied activity type details, based on the activity types,
+     * service type and operation associated with the validator. The
+     * optional predicate is not evaluated.
+     * 
+     * @param cls The activity type class
+     * @param serviceType The service type, or null if not a RPC activity type
+     * @param operation The operation, or null if not a RPC activity type
+     * @return Whether the validator is applicable
+     */
+    public boolean isApplicable(Class<?> cls, String serviceType, String operation) {
+        if (_serviceType != null && !_serviceType.equals(serviceType)) {
+            return (false);
+        }
+        
+        if (_operation != null && !_operation.equals(operation)) {
+            return (false);
+        }
+        
+        java.util.Set<String> names=_activityTypeNames;
+        
+        if (names == null && _activityTypes != null && _activityTypes.size() > 0) {
+            names = new java.util.HashSet<String>(_activityTypes);
+            _activityTypeNames = names;
+        }
+        
+        if (names != null) {
+            for (Class<?> c=cls; c != null && c != Object.class; c=c.getSuperclass()) {
+                if (names.contains(c.getSimpleName()) || names.contains(c.getName())) {
+                    return (true);
+                }
+            }
+            return (false);
+        }
+        
+        return (true);
+    }
+    
+    /**
+     * This method determines whether the validator is applicable to
+     * the supplied activity type, based on the activity types, service
+     * type and operation associated with the validator. The optional
+     * predicate is not evaluated.
+     * 
+     * @param actType The activity type
+     * @return Whether the validator is applicable
+     */
+    public boolean isApplicable(ActivityType actType) {
+        String serviceType=null;
+        String operation=null;
+        
+        if (actType instanceof RPCActivityType) {
+            serviceType = ((RPCActivityType)actType).getServiceType();
+            operation = ((RPCActivityType)actType).getOperation();
+        }
+        
+        return (isApplicable(actType.getClass(), serviceType, operation));
+    }
+    
     /**
      * This method validates the intercepted activity event.
      * 
@@ -148,7 +279,7 @@ public class ActivityValidator {
     public void validate(ActivityType actType) throws Exception {
         
         // Check if predicate defined and if so, the event is applicable
-        if (_predicate == null || _predicate.evaluate(actType)) {
+        if (isApplicable(actType) && (_predicate == null || _predicate.evaluate(actType))) {
             
             // Process the event
             _eventProcessor.process(null, actType, 0);
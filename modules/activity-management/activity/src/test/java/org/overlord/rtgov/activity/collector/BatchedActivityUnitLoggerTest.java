@@ -0,0 +1,176 @@
+/*
+ * 2014 Red Hat Inc. and/or its affiliates and other contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.overlord.rtgov.activity.collector;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+import org.overlord.rtgov.activity.model.ActivityUnit;
+
+public class BatchedActivityUnitLoggerTest {
+
+    @Test
+    public void testSendOnMaxUnitCount() {
+        TestBatchedLogger logger=new TestBatchedLogger();
+        logger.init();
+
+        logger.setMaxUnitCount(10);
+        logger.setMaxTimeInterval(60000);
+
+        try {
+            for (int i=0; i < 25; i++) {
+                logger.log(new ActivityUnit());
+            }
+
+            waitForUnits(logger, 22, 5000);
+
+            synchronized (logger) {
+                if (logger.getBatches().size() != 2) {
+                    fail("Should be 2 batches: "+logger.getBatches().size());
+                }
+
+                for (java.util.List<ActivityUnit> batch : logger.getBatches()) {
+                    if (batch.size() != 11) {
+                        fail("Batch should have 11 units: "+batch.size());
+                    }
+                }
+            }
+        } finally {
+            logger.close();
+        }
+
+        if (logger.getSentUnits() != 25) {
+            fail("Remaining units should be sent on close: "+logger.getSentUnits());
+        }
+    }
+
+    @Test
+    public void testSendOnMaxTimeInterval() {
+        TestBatchedLogger logger=new TestBatchedLogger();
+        logger.init();
+
+        logger.setMaxUnitCount(1000);
+        logger.setMaxTimeInterval(100);
+
+        try {
+            logger.log(new ActivityUnit());
+            logger.log(new ActivityUnit());
+
+            waitForUnits(logger, 2, 5000);
+
+            synchronized (logger) {
+                if (logger.getBatches().size() != 1) {
+                    fail("Should be 1 batch: "+logger.getBatches().size());
+                }
+            }
+        } finally {
+            logger.close();
+        }
+    }
+
+    @Test
+    public void testConcurrentLogging() throws Exception {
+        final TestBatchedLogger logger=new TestBatchedLogger();
+        logger.init();
+
+        logger.setMaxUnitCount(50);
+        logger.setMaxTimeInterval(50);
+
+        final int threadCount=8;
+        final int unitsPerThread=1000;
+
+        Thread[] threads=new Thread[threadCount];
+
+        for (int i=0; i < threadCount; i++) {
+            threads[i] = new Thread(new Runnable() {
+                public void run() {
+                    for (int j=0; j < unitsPerThread; j++) {
+                        logger.log(new ActivityUnit());
+                    }
+                }
+            });
+            threads[i].start();
+        }
+
+        for (int i=0; i < threadCount; i++) {
+            threads[i].join();
+        }
+
+        try {
+            waitForUnits(logger, threadCount*unitsPerThread, 10000);
+
+            synchronized (logger) {
+                for (java.util.List<ActivityUnit> batch : logger.getBatches()) {
+                    if (batch.size() > 51) {
+                        fail("Batch exceeds max unit count: "+batch.size());
+                    }
+                }
+            }
+        } finally {
+            logger.close();
+        }
+
+        if (logger.getBufferedActivityUnits() != 0) {
+            fail("Should be no buffered units: "+logger.getBufferedActivityUnits());
+        }
+    }
+
+    protected static void waitForUnits(TestBatchedLogger logger, int expected, long timeout) {
+        long end=System.currentTimeMillis()+timeout;
+
+        while (logger.getSentUnits() < expected && System.currentTimeMillis() < end) {
+            try {
+                Thread.sleep(10);
+            } catch (InterruptedException e) {
+                fail("Interrupted");
+            }
+        }
+
+        if (logger.getSentUnits() < expected) {
+            fail("Expecting "+expected+" units to be sent: "+logger.getSentUnits());
+        }
+    }
+
+    public class TestBatchedLogger extends BatchedActivityUnitLogger {
+
+        private java.util.List<ActivityUnit> _current=new java.util.ArrayList<ActivityUnit>();
+        private java.util.List<java.util.List<ActivityUnit>> _batches=
+                        new java.util.ArrayList<java.util.List<ActivityUnit>>();
+        private int _sentUnits=0;
+
+        @Override
+        protected void appendActivity(ActivityUnit act) throws Exception {
+            _current.add(act);
+        }
+
+        @Override
+        protected void sendMessage() throws Exception {
+            synchronized (this) {
+                _batches.add(_current);
+                _sentUnits += _current.size();
+            }
+            _current = new java.util.ArrayList<ActivityUnit>();
+        }
+
+        public java.util.List<java.util.List<ActivityUnit>> getBatches() {
+            return (_batches);
+        }
+
+        public synchronized int getSentUnits() {
+            return (_sentUnits);
+        }
+    }
+}
@@ -0,0 +1,157 @@
+/*
+ * 2014 Red Hat Inc. and/or its affiliates and other contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.overlord.rtgov.activity.collector;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+import org.overlord.rtgov.activity.model.ActivityUnit;
+import org.overlord.rtgov.activity.model.soa.RequestReceived;
+import org.overlord.rtgov.activity.model.soa.ResponseSent;
+
+public class RuleBasedActivityUnitSamplerTest {
+
+    private static final String SERVICE_TYPE="{urn:test}OrderService";
+
+    protected ActivityUnit createUnit(String serviceType, String operation, String fault, long latency) {
+        ActivityUnit ret=new ActivityUnit();
+
+        RequestReceived req=new RequestReceived();
+        req.setServiceType(serviceType);
+        req.setOperation(operation);
+        req.setMessageId("req");
+        req.setTimestamp(1000);
+        ret.getActivityTypes().add(req);
+
+        ResponseSent resp=new ResponseSent();
+        resp.setServiceType(serviceType);
+        resp.setOperation(operation);
+        resp.setReplyToId("req");
+        resp.setFault(fault);
+        resp.setTimestamp(1000+latency);
+        ret.getActivityTypes().add(resp);
+
+        return (ret);
+    }
+
+    protected int countRetained(ActivityUnitSampler sampler, String serviceType, String operation,
+                        int num, double load) {
+        int ret=0;
+
+        for (int i=0; i < num; i++) {
+            if (sampler.isRetained(createUnit(serviceType, operation, null, 10), load)) {
+                ret++;
+            }
+        }
+
+        return (ret);
+    }
+
+    @Test
+    public void testDefaultRetainsAll() {
+        RuleBasedActivityUnitSampler sampler=new RuleBasedActivityUnitSampler();
+
+        if (countRetained(sampler, SERVICE_TYPE, "op", 100, 0.0) != 100) {
+            fail("All units should be retained");
+        }
+    }
+
+    @Test
+    public void testServiceRate() {
+        RuleBasedActivityUnitSampler sampler=new RuleBasedActivityUnitSampler();
+        sampler.setRates(SERVICE_TYPE+"=10;"+SERVICE_TYPE+"#submit=5");
+
+        int retained=countRetained(sampler, SERVICE_TYPE, "lookup", 100, 0.0);
+
+        if (retained != 10) {
+            fail("Expecting 10 units retained for service rate: "+retained);
+        }
+
+        retained = countRetained(sampler, SERVICE_TYPE, "submit", 100, 0.0);
+
+        if (retained != 20) {
+            fail("Expecting 20 units retained for operation rate: "+retained);
+        }
+
+        retained = countRetained(sampler, "{urn:test}OtherService", "op", 100, 0.0);
+
+        if (retained != 100) {
+            fail("Expecting all units retained for other service: "+retained);
+        }
+    }
+
+    @Test
+    public void testRetainFaultsAndSlowCalls() {
+        RuleBasedActivityUnitSampler sampler=new RuleBasedActivityUnitSampler();
+        sampler.setDefaultRate(1000);
+        sampler.setLatencyThreshold(500);
+
+        // Consume the first (retained) sample
+        sampler.isRetained(createUnit(SERVICE_TYPE, "op", null, 10), 0.0);
+
+        if (sampler.isRetained(createUnit(SERVICE_TYPE, "op", null, 10), 0.0)) {
+            fail("Fast successful unit should not be retained");
+        }
+
+        if (!sampler.isRetained(createUnit(SERVICE_TYPE, "op", "Failed", 10), 0.0)) {
+            fail("Fault should be retained");
+        }
+
+        if (!sampler.isRetained(createUnit(SERVICE_TYPE, "op", null, 1000), 0.0)) {
+            fail("Slow unit should be retained");
+        }
+    }
+
+    @Test
+    public void testLoadFactor() {
+        RuleBasedActivityUnitSampler sampler=new RuleBasedActivityUnitSampler();
+        sampler.setLoadThresholds("0.5=2;0.9=10");
+
+        int retained=countRetained(sampler, SERVICE_TYPE, "op", 100, 0.6);
+
+        if (retained != 50) {
+            fail("Expecting 50 units retained at load 0.6: "+retained);
+        }
+
+        retained = countRetained(sampler, "{urn:test}OtherService", "op", 100, 0.95);
+
+        if (retained != 10) {
+            fail("Expecting 10 units retained at load 0.95: "+retained);
+        }
+    }
+
+    @Test
+    public void testCollectorSampling() {
+        AbstractActivityCollector ac=new AbstractActivityCollector() {};
+        AbstractActivityCollectorTest.TestActivityLogger al=new AbstractActivityCollectorTest().new TestActivityLogger();
+        AbstractActivityCollectorTest.TestCollectorContext cc=new AbstractActivityCollectorTest().new TestCollectorContext();
+
+        RuleBasedActivityUnitSampler sampler=new RuleBasedActivityUnitSampler();
+        sampler.setDefaultRate(2);
+
+        ac.setActivityUnitLogger(al);
+        ac.setCollectorContext(cc);
+        ac.setActivityUnitSampler(sampler);
+
+        for (int i=0; i < 10; i++) {
+            ac.record(new RequestReceived());
+        }
+
+        if (al.getActivityUnits().size() != 5) {
+            fail("Should be 5 activity units: "+al.getActivityUnits().size());
+        }
+    }
+}
@@ -18,6 +18,7 @@ package org.overlord.rtgov.activity.processor;
 import static org.junit.Assert.*;
 
 import org.junit.Test;
+import org.overlord.rtgov.activity.model.soa.RequestReceived;
 import org.overlord.rtgov.activity.processor.AbstractInformationProcessorManager;
 import org.overlord.rtgov.activity.processor.InformationProcessor;
 import org.overlord.rtgov.activity.processor.InformationProcessorManager;
@@ -25,6 +26,7 @@ import org.overlord.rtgov.activity.processor.InformationProcessorManager;
 public class AbstractInformationProcessorManagerTest {
 
     private static final String IP_NAME1 = "IPName1";
+    private static final String IP_NAME2 = "IPName2";
 
     @Test
     public void testRegister() {
@@ -205,4 +207,74 @@ public class AbstractInformationProcessorManagerTest {
         }
 
     }
+
+    protected InformationProcessor createInformationProcessor(String name, String version,
+                            String type, final String representation) {
+        InformationProcessor ret=new InformationProcessor();
+        ret.setName(name);
+        ret.setVersion(version);
+        
+        TypeProcessor tp=new TypeProcessor();
+        tp.setTransformer(new InformationTransformer() {
+            public String transform(Object information, java.util.Map<String, Object> headers,
+                                org.overlord.rtgov.activity.model.ActivityType activityType) {
+                return (representation);
+            }
+        });
+        
+        ret.getTypeProcessors().put(type, tp);
+        
+        return (ret);
+    }
+
+    @Test
+    public void testProcessByType() {
+        InformationProcessorManager ipm=new AbstractInformationProcessorManager(){};
+        
+        try {
+            ipm.register(createInformationProcessor(IP_NAME1, "1", "type1", "ip1"));
+            ipm.register(createInformationProcessor(IP_NAME2, "1", "type1", "ip2"));
+            ipm.register(createInformationProcessor(IP_NAME2+"b", "1", "type2", "ip3"));
+        } catch (Exception e) {
+            fail("Failed to register: "+e);
+        }
+        
+        String result=ipm.process(null, "type1", "info", null, new RequestReceived());
+        
+        if (!"ip1".equals(result)) {
+            fail("Expecting first registered processor: "+result);
+        }
+        
+        result = ipm.process(IP_NAME2, "type1", "info", null, new RequestReceived());
+        
+        if (!"ip2".equals(result)) {
+            fail("Expecting named processor: "+result);
+        }
+        
+        result = ipm.process(null, "type2", "info", null, new RequestReceived());
+        
+        if (!"ip3".equals(result)) {
+            fail("Expecting type2 processor: "+result);
+        }
+        
+        if (ipm.process(IP_NAME2, "type2", "info", null, new RequestReceived()) != null) {
+            fail("Named processor does not support type2");
+        }
+        
+        if (ipm.process("unknown", "type1", "info", null, new RequestReceived()) != null) {
+            fail("Unknown processor should return null");
+        }
+        
+        try {
+            ipm.unregister(ipm.getInformationProcessor(IP_NAME1));
+        } catch (Exception e) {
+            fail("Failed to unregister: "+e);
+        }
+        
+        result = ipm.process(null, "type1", "info", null, new RequestReceived());
+        
+        if (!"ip2".equals(result)) {
+            fail("Expecting remaining processor: "+result);
+        }
+    }
 }
@@ -25,6 +25,7 @@ import org.overlord.rtgov.activity.processor.TypeProcessor;
 import org.overlord.rtgov.activity.processor.TypeProcessor.ContextEvaluator;
 import org.overlord.rtgov.activity.processor.TypeProcessor.PropertyEvaluator;
 import org.overlord.rtgov.activity.processor.mvel.MVELExpressionEvaluator;
+import org.overlord.rtgov.activity.processor.xpath.XPathExpressionEvaluator;
 
 public class TypeProcessorTest {
 
@@ -376,6 +377,66 @@ public class TypeProcessorTest {
         
     }
 
+    @Test
+    public void testProcessXPathPropertiesShareParsedInformation() {
+        TypeProcessor processor=new TypeProcessor();
+
+        XPathExpressionEvaluator eval1=new XPathExpressionEvaluator();
+        eval1.setExpression("/order/@id");
+
+        PropertyEvaluator pe1=new PropertyEvaluator();
+        pe1.setName("id");
+        pe1.setEvaluator(eval1);
+
+        processor.getProperties().add(pe1);
+
+        XPathExpressionEvaluator eval2=new XPathExpressionEvaluator();
+        eval2.setExpression("/order/customer");
+
+        PropertyEvaluator pe2=new PropertyEvaluator();
+        pe2.setName("customer");
+        pe2.setEvaluator(eval2);
+
+        processor.getProperties().add(pe2);
+
+        try {
+            processor.init();
+        } catch (Exception e) {
+            fail("Failed to initialize: "+e);
+        }
+
+        RequestReceived rr=new RequestReceived();
+
+        processor.process("<order id=\"123\"><customer>Fred</customer></order>", null, rr);
+
+        if (!"123".equals(rr.getProperties().get("id"))) {
+            fail("Property 'id' value incorrect: "+rr.getProperties().get("id"));
+        }
+
+        if (!"Fred".equals(rr.getProperties().get("customer"))) {
+            fail("Property 'customer' value incorrect: "+rr.getProperties().get("customer"));
+        }
+    }
+
+    @Test
+    public void testEvaluationContextParsesOnce() throws Exception {
+        EvaluationContext context=new EvaluationContext("<order id=\"123\"/>");
+
+        if (context.isParsed()) {
+            fail("Should not be parsed yet");
+        }
+
+        org.w3c.dom.Node node=context.getNode();
+
+        if (node == null || !context.isParsed()) {
+            fail("Should be parsed");
+        }
+
+        if (context.getNode() != node) {
+            fail("Should return same node");
+        }
+    }
+
     public class TestObject {
         
         public String value1=null;
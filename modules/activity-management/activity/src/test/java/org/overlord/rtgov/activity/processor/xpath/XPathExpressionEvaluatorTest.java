@@ -20,6 +20,7 @@ import static org.junit.Assert.*;
 import javax.xml.soap.SOAPMessage;
 
 import org.junit.Test;
+import org.overlord.rtgov.activity.processor.EvaluationContext;
 import org.overlord.rtgov.activity.processor.xpath.XPathExpressionEvaluator;
 
 public class XPathExpressionEvaluatorTest {
@@ -814,6 +815,111 @@ public class XPathExpressionEvaluatorTest {
         }
     }
 
+    @Test
+    public void testEvaluateStringStreaming() {
+        String xml="<ns1:order xmlns:ns1=\"http://www.mynamespace\" id=\"1\">"
+                +"<ns1:item code=\"A\">first<!-- note -->part</ns1:item>"
+                +"<ns1:item code=\"B\"><name>Widget</name> mixed</ns1:item>"
+                +"<ns1:customer><name>Fred</name><name>Joe</name></ns1:customer>"
+                +"<ns1:empty/><ns1:total><![CDATA[10]]>.50</ns1:total></ns1:order>";
+        
+        String[] expressions={ "/ns2:order/@id", "/ns2:order/ns2:item", "/ns2:order/ns2:item/@code",
+                "/ns2:order/ns2:item/text()", "/ns2:order/ns2:customer/name", "/ns2:order/*/name",
+                "/ns2:order/ns2:item[2]/name", "ns2:customer/name/text()", "/ns2:order/ns2:empty",
+                "/ns2:order/ns2:total", "/ns2:order/ns2:missing", "/order/@id", "/ns2:order" };
+        
+        for (String expression : expressions) {
+            XPathExpressionEvaluator dom=new XPathExpressionEvaluator();
+            dom.setExpression(expression);
+            dom.getNamespaces().put("ns2", "http://www.mynamespace");
+            
+            XPathExpressionEvaluator streaming=new XPathExpressionEvaluator();
+            streaming.setExpression(expression);
+            streaming.getNamespaces().put("ns2", "http://www.mynamespace");
+            streaming.setStreaming(true);
+            
+            try {
+                dom.init();
+                streaming.init();
+            } catch(Exception e) {
+                fail("Failed to initialize: "+e);
+            }
+            
+            String expected=dom.evaluate(xml);
+            String result=streaming.evaluate(xml);
+            
+            if (expected == null ? result != null : !expected.equals(result)) {
+                fail("Expression '"+expression+"' expected '"+expected+"' but got '"+result+"'");
+            }
+        }
+    }
+
+    @Test
+    public void testEvaluateStreamingSharedScan() {
+        String xml="<order id=\"1\"><customer>Fred</customer></order>";
+        
+        XPathExpressionEvaluator eval1=new XPathExpressionEvaluator();
+        eval1.setExpression("/order/@id");
+        eval1.setStreaming(true);
+        
+        XPathExpressionEvaluator eval2=new XPathExpressionEvaluator();
+        eval2.setExpression("/order/customer");
+        eval2.setStreaming(true);
+        
+        try {
+            eval1.init();
+            eval2.init();
+        } catch(Exception e) {
+            fail("Failed to initialize: "+e);
+        }
+        
+        java.util.List<org.overlord.rtgov.activity.processor.ExpressionEvaluator> evaluators=
+                new java.util.ArrayList<org.overlord.rtgov.activity.processor.ExpressionEvaluator>();
+        evaluators.add(eval1);
+        evaluators.add(eval2);
+        
+        EvaluationContext context=new EvaluationContext(xml);
+        context.setEvaluators(evaluators);
+        
+        if (!"1".equals(eval1.evaluate(context))) {
+            fail("Incorrect id");
+        }
+        
+        if (!context.hasAttribute(eval2)) {
+            fail("Second expression should have been resolved in same scan");
+        }
+        
+        if (!"Fred".equals(eval2.evaluate(context))) {
+            fail("Incorrect customer");
+        }
+        
+        if (context.isParsed()) {
+            fail("Information should not have been parsed into a DOM");
+        }
+    }
+
+    @Test
+    public void testStreamingCompile() {
+        java.util.Map<String,String> namespaces=new java.util.HashMap<String,String>();
+        namespaces.put("ns1", "http://www.mynamespace");
+        
+        String[] supported={ "/a/b", "/ns1:a/*/@id", "a/b/text()", "/a/@ns1:id" };
+        String[] unsupported={ "/", "//a", "/a//b", "/a/b[1]", "/a/../b", "count(/a)",
+                "/ns3:a", "/a/@*", "/a/text()/b", "/a/" };
+        
+        for (String expression : supported) {
+            if (StreamingXPathMatcher.compile(expression, namespaces) == null) {
+                fail("Expression should be supported: "+expression);
+            }
+        }
+        
+        for (String expression : unsupported) {
+            if (StreamingXPathMatcher.compile(expression, namespaces) != null) {
+                fail("Expression should not be supported: "+expression);
+            }
+        }
+    }
+
     public static class Customer {
         private String _name;
         
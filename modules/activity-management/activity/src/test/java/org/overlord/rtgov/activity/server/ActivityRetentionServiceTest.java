@@ -0,0 +1,291 @@
+/*
+ * 2014 Red Hat Inc. and/or its affiliates and other contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.overlord.rtgov.activity.server;
+
+import static org.junit.Assert.*;
+
+import java.util.List;
+
+import javax.transaction.Status;
+import javax.transaction.UserTransaction;
+
+import org.junit.Test;
+import org.overlord.rtgov.activity.model.ActivityType;
+import org.overlord.rtgov.activity.model.ActivityUnit;
+import org.overlord.rtgov.activity.model.Context;
+
+public class ActivityRetentionServiceTest {
+
+    @Test
+    public void testPurgeInChunks() throws Exception {
+        TestStore store=new TestStore(25);
+
+        ActivityRetentionService service=new ActivityRetentionService(store);
+        service.setPeriod(60000);
+        service.setChunkSize(10);
+        service.setChunkPause(0);
+
+        long now=System.currentTimeMillis();
+
+        int count=service.purge();
+
+        if (count != 25) {
+            fail("Expecting 25 purged: "+count);
+        }
+
+        if (store.getInvocations() != 3) {
+            fail("Expecting 3 chunks: "+store.getInvocations());
+        }
+
+        if (store.getMaxUnits() != 10) {
+            fail("Expecting chunk size 10: "+store.getMaxUnits());
+        }
+
+        if (store.getBefore() > now-60000+1000 || store.getBefore() < now-60000-1000) {
+            fail("Cutoff should be based on retention period: "+store.getBefore());
+        }
+
+        if (service.getUnitsPurged() != 25 || service.getLastRunPurged() != 25) {
+            fail("Purged metrics incorrect: "+service.getUnitsPurged()+" "+service.getLastRunPurged());
+        }
+
+        if (service.getRuns() != 1 || service.getFailures() != 0) {
+            fail("Run metrics incorrect: "+service.getRuns()+" "+service.getFailures());
+        }
+    }
+
+    @Test
+    public void testPurgeFailure() throws Exception {
+        TestStore store=new TestStore(-1);
+
+        ActivityRetentionService service=new ActivityRetentionService(store);
+        service.setPeriod(60000);
+
+        try {
+            service.purge();
+            fail("Purge should fail");
+        } catch (Exception e) {
+            // Expected
+        }
+
+        if (service.getFailures() != 1 || service.getRuns() != 0) {
+            fail("Run metrics incorrect: "+service.getRuns()+" "+service.getFailures());
+        }
+    }
+
+    @Test
+    public void testPurgeChunkTransactions() throws Exception {
+        TestStore store=new TestStore(25);
+        TestTransaction tx=new TestTransaction();
+
+        ActivityRetentionService service=new ActivityRetentionService(store);
+        service.setUserTransaction(tx);
+        service.setPeriod(60000);
+        service.setChunkSize(10);
+        service.setChunkPause(0);
+
+        service.purge();
+
+        if (tx.getBegun() != 3 || tx.getCommitted() != 3 || tx.getRolledBack() != 0) {
+            fail("Expecting a transaction per chunk: "+tx.getBegun()+" "
+                        +tx.getCommitted()+" "+tx.getRolledBack());
+        }
+    }
+
+    @Test
+    public void testPurgeFailureRollback() throws Exception {
+        TestStore store=new TestStore(-1);
+        TestTransaction tx=new TestTransaction();
+
+        ActivityRetentionService service=new ActivityRetentionService(store);
+        service.setUserTransaction(tx);
+        service.setPeriod(60000);
+
+        try {
+            service.purge();
+            fail("Purge should fail");
+        } catch (Exception e) {
+            // Expected
+        }
+
+        if (tx.getBegun() != 1 || tx.getCommitted() != 0 || tx.getRolledBack() != 1) {
+            fail("Expecting transaction to be rolled back: "+tx.getBegun()+" "
+                        +tx.getCommitted()+" "+tx.getRolledBack());
+        }
+    }
+
+    @Test
+    public void testPurgeDisabled() throws Exception {
+        TestStore store=new TestStore(25);
+
+        ActivityRetentionService service=new ActivityRetentionService(store);
+        service.setPeriod(0);
+
+        service.init();
+
+        try {
+            if (service.purge() != 0) {
+                fail("Purge should be disabled");
+            }
+
+            if (store.getInvocations() != 0) {
+                fail("Store should not have been purged");
+            }
+        } finally {
+            service.close();
+        }
+    }
+
+    @Test
+    public void testScheduledPurge() throws Exception {
+        TestStore store=new TestStore(5);
+
+        ActivityRetentionService service=new ActivityRetentionService(store);
+        service.setPeriod(60000);
+        service.setInterval(50);
+
+        service.init();
+
+        try {
+            for (int i=0; i < 100 && service.getRuns() == 0; i++) {
+                Thread.sleep(20);
+            }
+
+            if (service.getUnitsPurged() != 5) {
+                fail("Expecting 5 purged: "+service.getUnitsPurged());
+            }
+        } finally {
+            service.close();
+        }
+    }
+
+    public static class TestTransaction implements UserTransaction {
+
+        private int _status=Status.STATUS_NO_TRANSACTION;
+        private int _begun=0;
+        private int _committed=0;
+        private int _rolledBack=0;
+
+        public int getBegun() {
+            return (_begun);
+        }
+
+        public int getCommitted() {
+            return (_committed);
+        }
+
+        public int getRolledBack() {
+            return (_rolledBack);
+        }
+
+        public void begin() {
+            if (_status != Status.STATUS_NO_TRANSACTION) {
+                throw new IllegalStateException("Transaction already active");
+            }
+            _status = Status.STATUS_ACTIVE;
+            _begun++;
+        }
+
+        public void commit() {
+            if (_status != Status.STATUS_ACTIVE) {
+                throw new IllegalStateException("Transaction not active");
+            }
+            _status = Status.STATUS_NO_TRANSACTION;
+            _committed++;
+        }
+
+        public void rollback() {
+            if (_status != Status.STATUS_ACTIVE) {
+                throw new IllegalStateException("Transaction not active");
+            }
+            _status = Status.STATUS_NO_TRANSACTION;
+            _rolledBack++;
+        }
+
+        public void setRollbackOnly() {
+        }
+
+        public int getStatus() {
+            return (_status);
+        }
+
+        public void setTransactionTimeout(int seconds) {
+        }
+    }
+
+    public static class TestStore implements ActivityStore, PurgeableActivityStore {
+
+        private int _remaining;
+        private int _invocations=0;
+        private long _before=0;
+        private int _maxUnits=0;
+
+        public TestStore(int remaining) {
+            _remaining = remaining;
+        }
+
+        public int getInvocations() {
+            return (_invocations);
+        }
+
+        public long getBefore() {
+            return (_before);
+        }
+
+        public int getMaxUnits() {
+            return (_maxUnits);
+        }
+
+        public synchronized int purge(long before, int maxUnits) throws Exception {
+            if (_remaining < 0) {
+                throw new Exception("Failed");
+            }
+
+            _invocations++;
+            _before = before;
+            _maxUnits = maxUnits;
+
+            int ret=Math.min(_remaining, maxUnits);
+            _remaining -= ret;
+
+            return (ret);
+        }
+
+        public void store(List<ActivityUnit> activities) throws Exception {
+        }
+
+        public ActivityUnit getActivityUnit(String id) throws Exception {
+            return (null);
+        }
+
+        public List<ActivityType> getActivityTypes(Context context) throws Exception {
+            return (null);
+        }
+
+        public List<ActivityType> getActivityTypes(Context context, long from, long to) throws Exception {
+            return (null);
+        }
+
+        public ActivityTypeCursor getActivityTypeCursor(Context context, long from, long to,
+                            int fetchSize, int limit) throws Exception {
+            return (new ActivityTypeListCursor(null, limit));
+        }
+
+        public List<ActivityType> query(QuerySpec query) throws Exception {
+            return (null);
+        }
+    }
+}
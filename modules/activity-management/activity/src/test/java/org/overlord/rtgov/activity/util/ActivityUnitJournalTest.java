@@ -0,0 +1,226 @@
+/*
+ * 2014 Red Hat Inc. and/or its affiliates and other contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.overlord.rtgov.activity.util;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+
+import org.junit.Test;
+import org.overlord.rtgov.activity.model.ActivityUnit;
+
+public class ActivityUnitJournalTest {
+
+    protected File createJournalDirectory() {
+        File ret=new File(System.getProperty("java.io.tmpdir"), "rtgov-journal-"+System.nanoTime());
+        ret.deleteOnExit();
+        return (ret);
+    }
+
+    protected java.util.List<ActivityUnit> createUnits(String prefix, int num) {
+        java.util.List<ActivityUnit> ret=new java.util.ArrayList<ActivityUnit>();
+
+        for (int i=0; i < num; i++) {
+            ActivityUnit au=new ActivityUnit();
+            au.setId(prefix+i);
+            ret.add(au);
+        }
+
+        return (ret);
+    }
+
+    @Test
+    public void testAppendAndReplay() throws Exception {
+        ActivityUnitJournal journal=new ActivityUnitJournal(createJournalDirectory(), 200);
+        journal.open();
+
+        journal.append(createUnits("a", 3));
+        journal.append(createUnits("b", 2));
+        journal.append(createUnits("c", 1));
+
+        if (journal.getDepth() != 3) {
+            fail("Depth should be 3: "+journal.getDepth());
+        }
+
+        if (journal.getSize() == 0) {
+            fail("Size should not be 0");
+        }
+
+        final java.util.List<String> ids=new java.util.ArrayList<String>();
+
+        ActivityUnitJournal.ReplayHandler handler=new ActivityUnitJournal.ReplayHandler() {
+            public void replay(java.util.List<ActivityUnit> units) throws Exception {
+                for (ActivityUnit au : units) {
+                    ids.add(au.getId());
+                }
+            }
+        };
+
+        while (journal.replay(handler) > 0) {
+            // Replay all segments
+        }
+
+        if (journal.getDepth() != 0) {
+            fail("Depth should be 0: "+journal.getDepth());
+        }
+
+        if (journal.getReplayLag() != 0) {
+            fail("Replay lag should be 0: "+journal.getReplayLag());
+        }
+
+        if (!ids.equals(java.util.Arrays.asList("a0", "a1", "a2", "b0", "b1", "c0"))) {
+            fail("Unexpected replayed ids: "+ids);
+        }
+
+        if (journal.getSegments().size() != 0) {
+            fail("Replayed segments should have been deleted: "+journal.getSegments());
+        }
+
+        journal.close();
+    }
+
+    @Test
+    public void testReplayResumesAfterFailure() throws Exception {
+        ActivityUnitJournal journal=new ActivityUnitJournal(createJournalDirectory(), 1024*1024);
+        journal.open();
+
+        journal.append(createUnits("a", 1));
+        journal.append(createUnits("b", 1));
+
+        final java.util.List<String> ids=new java.util.ArrayList<String>();
+
+        ActivityUnitJournal.ReplayHandler failing=new ActivityUnitJournal.ReplayHandler() {
+            public void replay(java.util.List<ActivityUnit> units) throws Exception {
+                if (units.get(0).getId().equals("b0")) {
+                    throw new Exception("Store unavailable");
+                }
+                ids.add(units.get(0).getId());
+            }
+        };
+
+        try {
+            journal.replay(failing);
+            fail("Replay should have failed");
+        } catch (Exception e) {
+            // Expected
+        }
+
+        if (journal.getDepth() != 1) {
+            fail("Depth should be 1: "+journal.getDepth());
+        }
+
+        ActivityUnitJournal.ReplayHandler handler=new ActivityUnitJournal.ReplayHandler() {
+            public void replay(java.util.List<ActivityUnit> units) throws Exception {
+                ids.add(units.get(0).getId());
+            }
+        };
+
+        journal.replay(handler);
+
+        if (!ids.equals(java.util.Arrays.asList("a0", "b0"))) {
+            fail("Unexpected replayed ids: "+ids);
+        }
+
+        journal.close();
+    }
+
+    @Test
+    public void testRecoverDepthOnOpen() throws Exception {
+        File dir=createJournalDirectory();
+
+        ActivityUnitJournal journal=new ActivityUnitJournal(dir, 100);
+        journal.open();
+
+        journal.append(createUnits("a", 2));
+        journal.append(createUnits("b", 2));
+        journal.close();
+
+        ActivityUnitJournal journal2=new ActivityUnitJournal(dir, 100);
+        journal2.open();
+
+        if (journal2.getDepth() != 2) {
+            fail("Depth should be 2: "+journal2.getDepth());
+        }
+
+        journal2.append(createUnits("c", 1));
+
+        final java.util.List<String> ids=new java.util.ArrayList<String>();
+
+        ActivityUnitJournal.ReplayHandler handler=new ActivityUnitJournal.ReplayHandler() {
+            public void replay(java.util.List<ActivityUnit> units) throws Exception {
+                ids.add(units.get(0).getId());
+            }
+        };
+
+        while (journal2.replay(handler) > 0) {
+            // Replay all segments
+        }
+
+        if (!ids.equals(java.util.Arrays.asList("a0", "b0", "c0"))) {
+            fail("Unexpected replayed ids: "+ids);
+        }
+
+        journal2.close();
+    }
+
+    @Test
+    public void testCorruptRecordLength() throws Exception {
+        File dir=createJournalDirectory();
+
+        ActivityUnitJournal journal=new ActivityUnitJournal(dir, 1024*1024);
+        journal.open();
+
+        journal.append(createUnits("a", 1));
+        journal.close();
+
+        // Append a record header with a length exceeding the segment
+        File segment=journal.getSegments().get(0);
+
+        java.io.DataOutputStream dos=new java.io.DataOutputStream(new java.io.FileOutputStream(segment, true));
+        dos.writeLong(System.currentTimeMillis());
+        dos.writeInt(Integer.MAX_VALUE);
+        dos.close();
+
+        ActivityUnitJournal journal2=new ActivityUnitJournal(dir, 1024*1024);
+        journal2.open();
+
+        if (journal2.getDepth() != 1) {
+            fail("Depth should be 1: "+journal2.getDepth());
+        }
+
+        final java.util.List<String> ids=new java.util.ArrayList<String>();
+
+        ActivityUnitJournal.ReplayHandler handler=new ActivityUnitJournal.ReplayHandler() {
+            public void replay(java.util.List<ActivityUnit> units) throws Exception {
+                ids.add(units.get(0).getId());
+            }
+        };
+
+        if (journal2.replay(handler) != 1) {
+            fail("Should have replayed 1 record");
+        }
+
+        if (!ids.equals(java.util.Arrays.asList("a0"))) {
+            fail("Unexpected replayed ids: "+ids);
+        }
+
+        if (journal2.getSegments().size() != 0) {
+            fail("Segment should have been deleted");
+        }
+
+        journal2.close();
+    }
+}
@@ -18,6 +18,7 @@ package org.overlord.rtgov.activity.util;
 import static org.junit.Assert.*;
 
 import org.junit.Test;
+import org.overlord.rtgov.activity.model.ActivityType;
 import org.overlord.rtgov.activity.model.ActivityUnit;
 import org.overlord.rtgov.activity.model.Context;
 import org.overlord.rtgov.activity.model.Origin;
@@ -190,4 +191,171 @@ public class ActivityUtilTest {
         }
     }
   
+    @Test
+    public void testBinaryActivityUnitList() {
+        java.util.List<ActivityUnit> acts=new java.util.ArrayList<ActivityUnit>();
+        acts.add(createTestActivityUnit("TestId1"));
+        acts.add(createTestActivityUnit("TestId2"));
+        
+        try {
+            byte[] b=ActivityUtil.serializeActivityUnitList(acts, ActivityUtil.BINARY_CONTENT_TYPE);
+            byte[] json=ActivityUtil.serializeActivityUnitList(acts);
+            
+            if (b.length >= json.length/2) {
+                fail("Binary representation should be less than half the JSON size: binary="
+                            +b.length+" json="+json.length);
+            }
+            
+            java.util.List<ActivityUnit> result=ActivityUtil.deserializeActivityUnitList(b,
+                            ActivityUtil.BINARY_CONTENT_TYPE);
+            
+            JsonNode node1=ActivityUtil.MAPPER.readTree(json);            
+            JsonNode node2=ActivityUtil.MAPPER.readTree(ActivityUtil.serializeActivityUnitList(result));
+
+            if (!node1.equals(node2)) {
+                fail("Representations are different: s1="+node1+" s2="+node2);
+            }
+        } catch(Exception e) {
+            e.printStackTrace();
+            fail("Failed to serialize: "+e);
+        }
+    }
+  
+    @Test
+    public void testDeserializeActivityUnitListDetectEncoding() throws Exception {
+        java.util.List<ActivityUnit> acts=new java.util.ArrayList<ActivityUnit>();
+        acts.add(createTestActivityUnit("TestId1"));
+        
+        java.util.List<ActivityUnit> result=ActivityUtil.deserializeActivityUnitList(
+                    ActivityUtil.serializeActivityUnitList(acts, ActivityUtil.BINARY_CONTENT_TYPE), null);
+        
+        if (result.size() != 1 || !result.get(0).getId().equals("TestId1")) {
+            fail("Binary list not decoded: "+result);
+        }
+        
+        result = ActivityUtil.deserializeActivityUnitList(
+                    ActivityUtil.serializeActivityUnitList(acts, ActivityUtil.JSON_CONTENT_TYPE), null);
+        
+        if (result.size() != 1 || !result.get(0).getId().equals("TestId1")) {
+            fail("JSON list not decoded: "+result);
+        }
+        
+        if (!ActivityUtil.isBinaryContentType(ActivityUtil.BINARY_CONTENT_TYPE+"; charset=binary")) {
+            fail("Content type parameters should be ignored");
+        }
+    }
+  
+    @Test
+    public void testBinaryUnsupportedVersion() throws Exception {
+        java.util.List<ActivityUnit> acts=new java.util.ArrayList<ActivityUnit>();
+        acts.add(createTestActivityUnit("TestId1"));
+        
+        byte[] b=ActivityUtil.serializeActivityUnitList(acts, ActivityUtil.BINARY_CONTENT_TYPE);
+        
+        b[1] = (byte)(BinaryActivityCodec.FORMAT_VERSION+1);
+        
+        try {
+            ActivityUtil.deserializeActivityUnitList(b, ActivityUtil.BINARY_CONTENT_TYPE);
+            
+            fail("Should have failed due to unsupported version");
+        } catch (java.io.IOException e) {
+            // Expected
+        }
+    }
+  
+    @Test
+    public void testBinaryRejectsUnknownClass() throws Exception {
+        byte[] name="java.util.Date".getBytes("UTF-8");
+        
+        java.io.ByteArrayOutputStream os=new java.io.ByteArrayOutputStream();
+        os.write(new byte[] { (byte)BinaryActivityCodec.MAGIC, (byte)BinaryActivityCodec.FORMAT_VERSION,
+                        2, 4, 1, (byte)name.length });
+        os.write(name);
+        
+        try {
+            ActivityUtil.deserializeActivityUnitList(os.toByteArray(), ActivityUtil.BINARY_CONTENT_TYPE);
+            
+            fail("Should have rejected class that is not an activity model class");
+        } catch (java.io.InvalidClassException e) {
+            // Expected
+        }
+    }
+  
+    @Test
+    public void testBinaryRejectsOversizedString() throws Exception {
+        byte[] b=new byte[] { (byte)BinaryActivityCodec.MAGIC, (byte)BinaryActivityCodec.FORMAT_VERSION,
+                        2, 4, 1, (byte)0xFF, (byte)0xFF, (byte)0xFF, (byte)0xFF, 0x0F };
+        
+        try {
+            ActivityUtil.deserializeActivityUnitList(b, ActivityUtil.BINARY_CONTENT_TYPE);
+            
+            fail("Should have rejected string length");
+        } catch (java.io.StreamCorruptedException e) {
+            // Expected
+        }
+    }
+  
+    @Test
+    public void testStreamActivityUnitList() throws Exception {
+        java.util.List<ActivityUnit> acts=new java.util.ArrayList<ActivityUnit>();
+        acts.add(createTestActivityUnit("TestId1"));
+        acts.add(createTestActivityUnit("TestId2"));
+        
+        for (String contentType : new String[] { ActivityUtil.BINARY_CONTENT_TYPE, ActivityUtil.JSON_CONTENT_TYPE }) {
+            java.io.ByteArrayOutputStream os=new java.io.ByteArrayOutputStream();
+            
+            ActivityUtil.serializeActivityUnitList(acts, contentType, os);
+            
+            // Trailing content after the list should be ignored
+            os.write(new byte[] { 1, 2 });
+            
+            java.io.InputStream is=new java.io.BufferedInputStream(
+                        new java.io.ByteArrayInputStream(os.toByteArray()));
+            
+            java.util.List<ActivityUnit> result=ActivityUtil.deserializeActivityUnitList(is, null);
+            
+            if (result.size() != 2 || !result.get(1).getId().equals("TestId2")) {
+                fail("Unexpected result for '"+contentType+"': "+result);
+            }
+        }
+    }
+  
+    @Test
+    public void testActivityTypeLines() throws Exception {
+        ActivityUnit act=createTestActivityUnit("TestId1");
+        
+        java.io.ByteArrayOutputStream os=new java.io.ByteArrayOutputStream();
+        
+        for (ActivityType at : act.getActivityTypes()) {
+            ActivityUtil.serializeActivityTypeLine(at, os);
+        }
+        
+        String text=os.toString("UTF-8");
+        
+        if (text.split("\n").length != 2 || !text.endsWith("\n")) {
+            fail("Expecting one activity type per line: "+text);
+        }
+        
+        java.util.Iterator<ActivityType> iter=ActivityUtil.deserializeActivityTypeLines(
+                    new java.io.ByteArrayInputStream(os.toByteArray()));
+        
+        java.util.List<ActivityType> result=new java.util.ArrayList<ActivityType>();
+        
+        while (iter.hasNext()) {
+            result.add(iter.next());
+        }
+        
+        if (result.size() != 2) {
+            fail("Expecting 2 activity types: "+result.size());
+        }
+        
+        if (!(result.get(0) instanceof RequestSent) || !(result.get(1) instanceof ResponseReceived)) {
+            fail("Activity types should retain their type: "+result);
+        }
+        
+        if (result.get(1).getTimestamp() != 2000) {
+            fail("Unexpected timestamp: "+result.get(1).getTimestamp());
+        }
+    }
+  
 }
@@ -0,0 +1,167 @@
+/*
+ * 2014 Red Hat Inc. and/or its affiliates and other contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.overlord.rtgov.activity.validator;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+import org.overlord.rtgov.activity.model.soa.RequestReceived;
+import org.overlord.rtgov.activity.model.soa.RequestSent;
+import org.overlord.rtgov.ep.EventProcessor;
+import org.overlord.rtgov.ep.Predicate;
+
+public class AbstractActivityValidatorManagerTest {
+
+    private static final String SERVICE_TYPE="{urn:test}OrderService";
+
+    protected ActivityValidator createValidator(String name, final AtomicInteger evaluations,
+                        final String failure, final long delay) {
+        ActivityValidator ret=new ActivityValidator();
+        ret.setName(name);
+        ret.setVersion("1");
+
+        ret.setPredicate(new Predicate() {
+            public boolean evaluate(Object event) {
+                evaluations.incrementAndGet();
+                return (true);
+            }
+        });
+
+        ret.setEventProcessor(new EventProcessor() {
+            public java.io.Serializable process(String source, java.io.Serializable event,
+                                    int retriesLeft) throws Exception {
+                if (delay > 0) {
+                    Thread.sleep(delay);
+                }
+                if (failure != null) {
+                    throw new Exception(failure);
+                }
+                return (null);
+            }
+        });
+
+        return (ret);
+    }
+
+    protected RequestReceived createRequest(String serviceType, String operation) {
+        RequestReceived ret=new RequestReceived();
+        ret.setServiceType(serviceType);
+        ret.setOperation(operation);
+        return (ret);
+    }
+
+    @Test
+    public void testValidateApplicable() throws Exception {
+        AbstractActivityValidatorManager avm=new AbstractActivityValidatorManager() {};
+
+        AtomicInteger count1=new AtomicInteger();
+        ActivityValidator av1=createValidator("av1", count1, null, 0);
+        av1.getActivityTypes().add("RequestReceived");
+        av1.setServiceType(SERVICE_TYPE);
+        av1.setOperation("submit");
+
+        AtomicInteger count2=new AtomicInteger();
+        ActivityValidator av2=createValidator("av2", count2, null, 0);
+        av2.getActivityTypes().add("org.overlord.rtgov.activity.model.soa.RPCActivityType");
+
+        AtomicInteger count3=new AtomicInteger();
+        ActivityValidator av3=createValidator("av3", count3, null, 0);
+
+        avm.register(av1);
+        avm.register(av2);
+        avm.register(av3);
+
+        for (int i=0; i < 2; i++) {
+            avm.validate(createRequest(SERVICE_TYPE, "submit"));
+            avm.validate(createRequest(SERVICE_TYPE, "lookup"));
+            avm.validate(createRequest("{urn:test}Other", "submit"));
+            avm.validate(new RequestSent());
+            avm.validate(new org.overlord.rtgov.activity.model.app.LogMessage());
+        }
+
+        if (count1.get() != 2) {
+            fail("Validator 1 should have been evaluated twice: "+count1.get());
+        }
+
+        if (count2.get() != 8) {
+            fail("Validator 2 should have been evaluated 8 times: "+count2.get());
+        }
+
+        if (count3.get() != 10) {
+            fail("Validator 3 should have been evaluated 10 times: "+count3.get());
+        }
+
+        avm.unregister(av3);
+
+        avm.validate(createRequest(SERVICE_TYPE, "submit"));
+
+        if (count3.get() != 10) {
+            fail("Unregistered validator should not have been evaluated: "+count3.get());
+        }
+    }
+
+    @Test
+    public void testValidateParallelFailure() throws Exception {
+        AbstractActivityValidatorManager avm=new AbstractActivityValidatorManager() {};
+        avm.setParallel(true);
+
+        AtomicInteger count=new AtomicInteger();
+
+        avm.register(createValidator("av1", count, null, 50));
+        avm.register(createValidator("av2", count, "Blocked", 0));
+        avm.register(createValidator("av3", count, "Also blocked", 0));
+
+        try {
+            avm.validate(createRequest(SERVICE_TYPE, "submit"));
+            fail("Validation should have failed");
+        } catch (Exception e) {
+            if (!e.getMessage().equals("Blocked")) {
+                fail("Expecting failure from first failing validator: "+e.getMessage());
+            }
+        } finally {
+            avm.close();
+        }
+    }
+
+    @Test
+    public void testValidateParallelLatencyBudget() throws Exception {
+        AbstractActivityValidatorManager avm=new AbstractActivityValidatorManager() {};
+        avm.setParallel(true);
+        avm.setLatencyBudget(100);
+
+        AtomicInteger count=new AtomicInteger();
+
+        avm.register(createValidator("av1", count, null, 0));
+        avm.register(createValidator("av2", count, null, 5000));
+
+        long start=System.currentTimeMillis();
+
+        try {
+            avm.validate(createRequest(SERVICE_TYPE, "submit"));
+            fail("Validation should have exceeded latency budget");
+        } catch (Exception e) {
+            // Expected
+        } finally {
+            avm.close();
+        }
+
+        if (System.currentTimeMillis()-start > 2000) {
+            fail("Validation should have been bounded by latency budget");
+        }
+    }
+}
@@ -32,6 +32,7 @@ import org.overlord.commons.services.ServiceRegistryUtil;
 import org.overlord.rtgov.activity.model.ActivityUnit;
 import org.overlord.rtgov.activity.server.ActivityServer;
 import org.overlord.rtgov.activity.collector.BatchedActivityUnitLogger;
+import org.overlord.rtgov.activity.util.ActivityUnitJournal;
 import org.overlord.rtgov.common.util.RTGovProperties;
 
 /**
@@ -50,6 +51,8 @@ public class ActivityServerLogger extends BatchedActivityUnitLogger
 
     private static final int FREE_ACTIVITY_LIST_QUEUE_SIZE = 100;
     private static final int ACTIVITY_LIST_QUEUE_SIZE = 10000;
+    private static final long JOURNAL_SEGMENT_SIZE = 10 * 1024 * 1024;
+    private static final long JOURNAL_REPLAY_INTERVAL = 1000;
 
     private Integer _durationBetweenFailureReports=DURATION_BETWEEN_FAILURE_REPORTS;
 
@@ -59,6 +62,16 @@ public class ActivityServerLogger extends BatchedActivityUnitLogger
     
     private Integer _activityListQueueSize=ACTIVITY_LIST_QUEUE_SIZE;
     
+    private String _journalDirectory=null;
+    
+    private Long _journalSegmentSize=JOURNAL_SEGMENT_SIZE;
+    
+    private Long _journalReplayInterval=JOURNAL_REPLAY_INTERVAL;
+    
+    private ActivityUnitJournal _journal=null;
+    
+    private Thread _replayer=null;
+    
     private java.util.concurrent.BlockingQueue<java.util.List<ActivityUnit>> _queue=null;    
     private java.util.concurrent.BlockingQueue<java.util.List<ActivityUnit>> _freeActivityLists=null;
 
@@ -99,6 +112,11 @@ public class ActivityServerLogger extends BatchedActivityUnitLogger
                 FREE_ACTIVITY_LIST_QUEUE_SIZE);
         _activityListQueueSize = RTGovProperties.getPropertyAsInteger("ActivityServerLogger.activityListQueueSize",
                 ACTIVITY_LIST_QUEUE_SIZE);
+        _journalDirectory = RTGovProperties.getProperty("ActivityServerLogger.journalDirectory");
+        _journalSegmentSize = RTGovProperties.getPropertyAsLong("ActivityServerLogger.journalSegmentSize",
+                JOURNAL_SEGMENT_SIZE);
+        _journalReplayInterval = RTGovProperties.getPropertyAsLong("ActivityServerLogger.journalReplayInterval",
+                JOURNAL_REPLAY_INTERVAL);
         
         _queue=new java.util.concurrent.ArrayBlockingQueue<java.util.List<ActivityUnit>>(_activityListQueueSize);
         
@@ -137,9 +155,70 @@ public class ActivityServerLogger extends BatchedActivityUnitLogger
             thread.start();
         }
         
+        if (_journalDirectory != null && _journalDirectory.trim().length() > 0) {
+            initJournal();
+        }
+        
         super.init();
     }
     
+    /**
+     * This method initializes the overflow journal, and starts the thread
+     * responsible for replaying journaled activity units back onto the
+     * queue when it has capacity.
+     */
+    protected void initJournal() {
+        _journal = new ActivityUnitJournal(new java.io.File(_journalDirectory), _journalSegmentSize);
+        
+        try {
+            _journal.open();
+        } catch (Exception e) {
+            LOG.log(Level.SEVERE, MessageFormat.format(java.util.PropertyResourceBundle.getBundle(
+                    "collector-activity-server.Messages").getString("COLLECTOR-ACTIVITY-SERVER-3"),
+                                _journalDirectory), e);
+            _journal = null;
+            return;
+        }
+        
+        final ActivityUnitJournal.ReplayHandler handler=new ActivityUnitJournal.ReplayHandler() {
+            public void replay(java.util.List<ActivityUnit> units) throws Exception {
+                
+                // Only replay when the queue has spare capacity, so that
+                // newly logged activity units are not forced into the journal
+                while (_queue.size() > _activityListQueueSize / 2) {
+                    Thread.sleep(_journalReplayInterval);
+                }
+                
+                _queue.put(units);
+            }
+        };
+        
+        _replayer = new Thread(new Runnable() {
+            public void run() {
+                while (!Thread.currentThread().isInterrupted()) {
+                    try {
+                        if (_journal.replay(handler) == 0) {
+                            Thread.sleep(_journalReplayInterval);
+                        }
+                    } catch (InterruptedException ie) {
+                        break;
+                    } catch (Exception e) {
+                        reportFailure(e);
+                        
+                        try {
+                            Thread.sleep(_journalReplayInterval);
+                        } catch (InterruptedException ie) {
+                            break;
+                        }
+                    }
+                }
+            }
+        }, "ActivityServerLogger-journal-replayer");
+        
+        _replayer.setDaemon(true);
+        _replayer.start();
+    }
+    
     /**
      * This method handles reporting failures.
      * 
@@ -201,6 +280,41 @@ public class ActivityServerLogger extends BatchedActivityUnitLogger
         return (_queue.size());
     }
     
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public double getLoadFactor() {
+        double ret=super.getLoadFactor();
+        
+        if (_queue != null && _activityListQueueSize > 0) {
+            ret = Math.max(ret, (double)_queue.size() / _activityListQueueSize);
+        }
+        
+        return (ret);
+    }
+    
+    /**
+     * {@inheritDoc}
+     */
+    public long getJournalDepth() {
+        return (_journal == null ? 0 : _journal.getDepth());
+    }
+    
+    /**
+     * {@inheritDoc}
+     */
+    public long getJournalSize() {
+        return (_journal == null ? 0 : _journal.getSize());
+    }
+    
+    /**
+     * {@inheritDoc}
+     */
+    public long getJournalReplayLag() {
+        return (_journal == null ? 0 : _journal.getReplayLag());
+    }
+    
     /**
      * {@inheritDoc}
      */
@@ -217,7 +331,24 @@ public class ActivityServerLogger extends BatchedActivityUnitLogger
     protected void sendMessage() throws Exception {        
         if (_activities != null) {
 
-            if (!_queue.offer(_activities, 500, TimeUnit.MILLISECONDS)) {
+            if (_journal != null) {
+                
+                // Overflow to the journal, rather than waiting for queue capacity
+                if (!_queue.offer(_activities)) {
+                    try {
+                        _journal.append(_activities);
+                        
+                        _activities.clear();
+                        
+                        return;
+                        
+                    } catch (Exception e) {
+                        LOG.log(Level.SEVERE, java.util.PropertyResourceBundle.getBundle(
+                                "collector-activity-server.Messages").getString("COLLECTOR-ACTIVITY-SERVER-4"), e);
+                    }
+                }
+                
+            } else if (!_queue.offer(_activities, 500, TimeUnit.MILLISECONDS)) {
                 LOG.warning("Failed to send message - queue is full");
             }
 
@@ -239,6 +370,15 @@ public class ActivityServerLogger extends BatchedActivityUnitLogger
             LOG.fine("Close Logger for Activity Server");
         }
         super.close();
+        
+        if (_replayer != null) {
+            _replayer.interrupt();
+            _replayer = null;
+        }
+        
+        if (_journal != null) {
+            _journal.close();
+        }
     }
 
     /**
@@ -40,4 +40,28 @@ public interface ActivityServerLoggerMBean extends BatchedActivityUnitLoggerMBea
      */
     public int getFailuresSinceLastSuccess();
     
+    /**
+     * This method returns the number of activity unit lists that have
+     * overflowed to the journal, and are awaiting replay.
+     * 
+     * @return The journal depth
+     */
+    public long getJournalDepth();
+    
+    /**
+     * This method returns the size, in bytes, of the journal segments
+     * awaiting replay.
+     * 
+     * @return The journal size
+     */
+    public long getJournalSize();
+    
+    /**
+     * This method returns the age, in milliseconds, of the oldest
+     * activity unit list awaiting replay from the journal.
+     * 
+     * @return The journal replay lag
+     */
+    public long getJournalReplayLag();
+    
 }
@@ -0,0 +1,129 @@
+/*
+ * 2014 Red Hat Inc. and/or its affiliates and other contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,  
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.overlord.rtgov.common.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This class provides the default id generator. Each id is made up of
+ * a 64 bit value, combining the current time in milliseconds with a
+ * sequence number, followed by a node id that is either configured
+ * using the 'IdGenerator.node' property or randomly chosen on startup.
+ * Both parts are encoded as fixed width, Crockford base32, so that
+ * ids generated by a node are monotonically increasing, and ids from
+ * all nodes sort approximately by creation time.
+ * <p>
+ * The generator does not take any locks, or use a secure random number
+ * generator after initialization.
+ *
+ */
+public class DefaultIdGenerator implements IdGenerator {
+
+    private static final char[] ENCODING="0123456789ABCDEFGHJKMNPQRSTVWXYZ".toCharArray();
+
+    private static final int SEQUENCE_BITS=16;
+    private static final int TIME_CHARS=13;
+    private static final int NODE_CHARS=8;
+    private static final long NODE_MASK=(1L << (NODE_CHARS*5))-1;
+
+    private final AtomicLong _last=new AtomicLong();
+    private final char[] _node;
+
+    /**
+     * The default constructor.
+     */
+    public DefaultIdGenerator() {
+        this(getDefaultNode());
+    }
+
+    /**
+     * This constructor initializes the node id.
+     * 
+     * @param node The node id
+     */
+    public DefaultIdGenerator(long node) {
+        _node = new char[NODE_CHARS];
+        encode(node & NODE_MASK, _node, 0, NODE_CHARS);
+    }
+
+    /**
+     * This method returns the node id to use if not explicitly
+     * provided.
+     * 
+     * @return The node id
+     */
+    protected static long getDefaultNode() {
+        Long ret=RTGovProperties.getPropertyAsLong("IdGenerator.node");
+
+        if (ret == null) {
+            ret = new java.security.SecureRandom().nextLong();
+        }
+
+        return (ret);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public String createId() {
+        long next=nextValue();
+
+        char[] id=new char[TIME_CHARS+NODE_CHARS];
+
+        encode(next, id, 0, TIME_CHARS);
+
+        System.arraycopy(_node, 0, id, TIME_CHARS, NODE_CHARS);
+
+        return (new String(id));
+    }
+
+    /**
+     * This method returns the next time ordered value. If more than
+     * 2^16 values are requested within a millisecond, the sequence
+     * carries into the time portion, so values remain unique
+     * and increasing.
+     * 
+     * @return The next value
+     */
+    protected long nextValue() {
+        long now=System.currentTimeMillis() << SEQUENCE_BITS;
+
+        while (true) {
+            long last=_last.get();
+            long next=(now > last ? now : last+1);
+
+            if (_last.compareAndSet(last, next)) {
+                return (next);
+            }
+        }
+    }
+
+    /**
+     * This method encodes the supplied value, as base32, into the
+     * character array.
+     * 
+     * @param value The value
+     * @param buf The buffer
+     * @param offset The offset into the buffer
+     * @param len The number of characters to encode
+     */
+    protected static void encode(long value, char[] buf, int offset, int len) {
+        for (int i=offset+len-1; i >= offset; i--) {
+            buf[i] = ENCODING[(int)(value & 0x1F)];
+            value >>>= 5;
+        }
+    }
+}
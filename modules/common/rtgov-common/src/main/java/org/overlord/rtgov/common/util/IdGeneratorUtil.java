@@ -0,0 +1,100 @@
+/*
+ * 2014 Red Hat Inc. and/or its affiliates and other contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,  
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.overlord.rtgov.common.util;
+
+import java.text.MessageFormat;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * This class provides access to the id generator used to create
+ * globally unique ids. The implementation can be set explicitly,
+ * or identified using the 'IdGenerator.class' property, otherwise
+ * the {@link DefaultIdGenerator} will be used.
+ *
+ */
+public final class IdGeneratorUtil {
+    
+    private static final Logger LOG=Logger.getLogger(IdGeneratorUtil.class.getName());
+    
+    private static volatile IdGenerator _generator=null;
+    
+    /**
+     * Make constructor private.
+     */
+    private IdGeneratorUtil() {
+    }
+
+    /**
+     * This method sets the id generator.
+     * 
+     * @param generator The id generator
+     */
+    public static void setIdGenerator(IdGenerator generator) {
+        _generator = generator;
+    }
+    
+    /**
+     * This method gets the id generator.
+     * 
+     * @return The id generator
+     */
+    public static IdGenerator getIdGenerator() {
+        IdGenerator ret=_generator;
+        
+        if (ret == null) {
+            synchronized (IdGeneratorUtil.class) {
+                if (_generator == null) {
+                    _generator = createIdGenerator();
+                }
+                ret = _generator;
+            }
+        }
+        
+        return (ret);
+    }
+    
+    /**
+     * This method creates a new globally unique id.
+     * 
+     * @return The id
+     */
+    public static String createId() {
+        return (getIdGenerator().createId());
+    }
+    
+    /**
+     * This method creates the configured id generator.
+     * 
+     * @return The id generator
+     */
+    private static IdGenerator createIdGenerator() {
+        String cls=RTGovProperties.getProperty("IdGenerator.class");
+        
+        if (cls != null) {
+            try {
+                return ((IdGenerator)Class.forName(cls, true,
+                        IdGeneratorUtil.class.getClassLoader()).newInstance());
+            } catch (Exception e) {
+                LOG.log(Level.SEVERE, MessageFormat.format(
+                        java.util.PropertyResourceBundle.getBundle(
+                        "rtgov-common.Messages").getString("RTGOV-COMMON-6"), cls), e);
+            }
+        }
+        
+        return (new DefaultIdGenerator());
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * 2014 Red Hat Inc. and/or its affiliates and other contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,  
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.overlord.rtgov.common.util;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class DefaultIdGeneratorTest {
+
+    @Test
+    public void testMonotonic() {
+        DefaultIdGenerator gen=new DefaultIdGenerator(1);
+        
+        String prev=gen.createId();
+        
+        for (int i=0; i < 100000; i++) {
+            String id=gen.createId();
+            
+            if (id.compareTo(prev) <= 0) {
+                fail("Id '"+id+"' should be greater than '"+prev+"'");
+            }
+            
+            prev = id;
+        }
+    }
+    
+    @Test
+    public void testNodeSuffix() {
+        String id1=new DefaultIdGenerator(1).createId();
+        String id2=new DefaultIdGenerator(2).createId();
+        
+        if (id1.length() != 21 || id2.length() != 21) {
+            fail("Ids should be 21 characters: "+id1+" "+id2);
+        }
+        
+        if (!id1.endsWith("00000001") || !id2.endsWith("00000002")) {
+            fail("Ids should end with node: "+id1+" "+id2);
+        }
+    }
+    
+    @Test
+    public void testConcurrentUniqueness() throws Exception {
+        final DefaultIdGenerator gen=new DefaultIdGenerator();
+        final java.util.Set<String> ids=java.util.Collections.newSetFromMap(
+                    new java.util.concurrent.ConcurrentHashMap<String,Boolean>());
+        
+        Thread[] threads=new Thread[8];
+        
+        for (int i=0; i < threads.length; i++) {
+            threads[i] = new Thread(new Runnable() {
+                public void run() {
+                    for (int j=0; j < 10000; j++) {
+                        ids.add(gen.createId());
+                    }
+                }
+            });
+            threads[i].start();
+        }
+        
+        for (int i=0; i < threads.length; i++) {
+            threads[i].join();
+        }
+        
+        if (ids.size() != 80000) {
+            fail("Expecting 80000 unique ids: "+ids.size());
+        }
+    }
+    
+    @Test
+    public void testIdGeneratorUtil() {
+        IdGenerator orig=IdGeneratorUtil.getIdGenerator();
+        
+        if (!(orig instanceof DefaultIdGenerator)) {
+            fail("Should be default id generator: "+orig);
+        }
+        
+        try {
+            IdGeneratorUtil.setIdGenerator(new IdGenerator() {
+                public String createId() {
+                    return ("fixed");
+                }
+            });
+            
+            if (!IdGeneratorUtil.createId().equals("fixed")) {
+                fail("Should use supplied id generator");
+            }
+        } finally {
+            IdGeneratorUtil.setIdGenerator(orig);
+        }
+    }
+}
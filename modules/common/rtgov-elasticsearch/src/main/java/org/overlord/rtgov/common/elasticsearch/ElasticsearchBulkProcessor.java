@@ -0,0 +1,400 @@
+/*
+ * 2014 Red Hat Inc. and/or its affiliates and other contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.overlord.rtgov.common.elasticsearch;
+
+import java.text.MessageFormat;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.elasticsearch.ExceptionsHelper;
+import org.elasticsearch.action.ActionRequest;
+import org.elasticsearch.action.bulk.BulkItemResponse;
+import org.elasticsearch.action.bulk.BulkProcessor;
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.common.unit.ByteSizeValue;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.common.util.concurrent.EsRejectedExecutionException;
+import org.elasticsearch.rest.RestStatus;
+
+/**
+ * This class batches index and delete requests into bulk requests that are
+ * sent to Elasticsearch asynchronously. A bulk request is sent when the number
+ * of queued requests, or their size, reaches a threshold, or when the flush
+ * interval expires. Up to the configured number of bulk requests can be in
+ * flight concurrently, and only once that limit is reached will a thread
+ * adding a request be blocked.
+ * <p>
+ * Requests rejected by Elasticsearch, because its bulk queue is full, are
+ * retried with an exponentially increasing delay. Requests that fail for any
+ * other reason, or exceed the maximum number of retries, are reported to the
+ * failure handler.
+ *
+ */
+@SuppressWarnings("rawtypes")
+public class ElasticsearchBulkProcessor {
+
+    private static final Logger LOG=Logger.getLogger(ElasticsearchBulkProcessor.class.getName());
+
+    private static final long CLOSE_TIMEOUT=30000;
+
+    private BulkProcessor _processor;
+    private FailureHandler _failureHandler;
+    private int _maxRetries;
+    private long _retryDelay;
+
+    private ScheduledExecutorService _scheduler;
+
+    private java.util.Map<ActionRequest, Integer> _retries=
+                    new java.util.IdentityHashMap<ActionRequest, Integer>();
+
+    private final Object _inFlightLock=new Object();
+    private int _inFlight=0;
+
+    private AtomicLong _submitted=new AtomicLong();
+    private AtomicLong _retried=new AtomicLong();
+    private AtomicLong _failed=new AtomicLong();
+
+    /**
+     * This constructor initializes the bulk processor.
+     *
+     * @param client The Elasticsearch client
+     * @param bulkActions The number of requests that triggers a bulk request
+     * @param bulkBytes The size (in bytes) of the requests that triggers a bulk request
+     * @param flushInterval The interval (in milliseconds) after which queued requests are sent
+     * @param concurrentRequests The maximum number of bulk requests in flight
+     * @param maxRetries The maximum number of times a rejected request is retried
+     * @param retryDelay The delay (in milliseconds) before the first retry, doubled for each subsequent retry
+     * @param failureHandler The handler informed of requests that could not be performed
+     */
+    public ElasticsearchBulkProcessor(Client client, int bulkActions, long bulkBytes, long flushInterval,
+                    int concurrentRequests, int maxRetries, long retryDelay, FailureHandler failureHandler) {
+        _failureHandler = failureHandler;
+        _maxRetries = maxRetries;
+        _retryDelay = retryDelay;
+
+        _scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread thread=new Thread(r, "ElasticsearchBulkProcessor-retry");
+                thread.setDaemon(true);
+                return (thread);
+            }
+        });
+
+        BulkProcessor.Builder builder=BulkProcessor.builder(client, new BulkProcessor.Listener() {
+
+            public void beforeBulk(long executionId, BulkRequest request) {
+                synchronized (_inFlightLock) {
+                    _inFlight++;
+                }
+            }
+
+            public void afterBulk(long executionId, BulkRequest request, BulkResponse response) {
+                try {
+                    handleResponse(request, response);
+                } finally {
+                    completed();
+                }
+            }
+
+            public void afterBulk(long executionId, BulkRequest request, Throwable failure) {
+                try {
+                    handleFailure(request, failure);
+                } finally {
+                    completed();
+                }
+            }
+        }).setBulkActions(bulkActions > 0 ? bulkActions : -1)
+                .setConcurrentRequests(concurrentRequests);
+
+        builder.setBulkSize(new ByteSizeValue(bulkBytes > 0 ? bulkBytes : -1));
+
+        if (flushInterval > 0) {
+            builder.setFlushInterval(TimeValue.timeValueMillis(flushInterval));
+        }
+
+        _processor = builder.build();
+    }
+
+    /**
+     * This method queues the supplied index or delete request.
+     *
+     * @param request The request
+     */
+    public void add(ActionRequest request) {
+        _submitted.incrementAndGet();
+        _processor.add(request);
+    }
+
+    /**
+     * This method sends any queued requests.
+     */
+    public void flush() {
+        _processor.flush();
+    }
+
+    /**
+     * This method returns the number of requests submitted.
+     *
+     * @return The number of requests
+     */
+    public long getSubmitted() {
+        return (_submitted.get());
+    }
+
+    /**
+     * This method returns the number of times requests have been
+     * retried after being rejected.
+     *
+     * @return The number of retries
+     */
+    public long getRetried() {
+        return (_retried.get());
+    }
+
+    /**
+     * This method returns the number of requests that could
+     * not be performed.
+     *
+     * @return The number of failed requests
+     */
+    public long getFailed() {
+        return (_failed.get());
+    }
+
+    /**
+     * This method returns the number of bulk requests in flight.
+     *
+     * @return The number of bulk requests in flight
+     */
+    public int getInFlight() {
+        synchronized (_inFlightLock) {
+            return (_inFlight);
+        }
+    }
+
+    /**
+     * This method records the completion of a bulk request.
+     */
+    protected void completed() {
+        synchronized (_inFlightLock) {
+            _inFlight--;
+            _inFlightLock.notifyAll();
+        }
+    }
+
+    /**
+     * This method handles the response to a bulk request, retrying
+     * any rejected requests and reporting any other failures.
+     *
+     * @param request The bulk request
+     * @param response The bulk response
+     */
+    protected void handleResponse(BulkRequest request, BulkResponse response) {
+        java.util.List<ActionRequest> requests=request.requests();
+
+        for (BulkItemResponse item : response.getItems()) {
+            ActionRequest itemRequest=requests.get(item.getItemId());
+
+            if (!item.isFailed()) {
+                retried(itemRequest);
+            } else if (item.getFailure().getStatus() == RestStatus.TOO_MANY_REQUESTS) {
+                retry(itemRequest, item.getFailureMessage());
+            } else {
+                retried(itemRequest);
+                failed(itemRequest, item.getFailureMessage());
+            }
+        }
+    }
+
+    /**
+     * This method handles the failure of a bulk request, retrying all of
+     * its requests if the bulk request was rejected.
+     *
+     * @param request The bulk request
+     * @param failure The failure
+     */
+    protected void handleFailure(BulkRequest request, Throwable failure) {
+        boolean rejected=(ExceptionsHelper.unwrapCause(failure) instanceof EsRejectedExecutionException);
+
+        java.util.List<ActionRequest> requests=request.requests();
+
+        for (int i=0; i < requests.size(); i++) {
+            if (rejected) {
+                retry(requests.get(i), failure.getMessage());
+            } else {
+                retried(requests.get(i));
+                failed(requests.get(i), failure.getMessage());
+            }
+        }
+    }
+
+    /**
+     * This method removes the retry count associated with the request.
+     *
+     * @param request The request
+     * @return The number of times the request has been retried
+     */
+    protected int retried(ActionRequest request) {
+        synchronized (_retries) {
+            Integer ret=_retries.remove(request);
+            return (ret == null ? 0 : ret.intValue());
+        }
+    }
+
+    /**
+     * This method schedules the rejected request to be retried, after
+     * a delay based on the number of previous attempts, unless the
+     * maximum number of retries has been reached.
+     *
+     * @param request The request
+     * @param reason The reason for the rejection
+     */
+    protected void retry(final ActionRequest request, String reason) {
+        int attempt=retried(request);
+
+        if (attempt >= _maxRetries) {
+            failed(request, reason);
+            return;
+        }
+
+        synchronized (_retries) {
+            _retries.put(request, attempt+1);
+        }
+
+        long delay=_retryDelay << Math.min(attempt, 20);
+
+        if (LOG.isLoggable(Level.FINE)) {
+            LOG.fine("Retry rejected bulk item (attempt "+(attempt+1)+") after "+delay+"ms: "+reason);
+        }
+
+        _retried.incrementAndGet();
+
+        try {
+            _scheduler.schedule(new Runnable() {
+                public void run() {
+                    try {
+                        _processor.add(request);
+                    } catch (Exception e) {
+                        retried(request);
+                        failed(request, e.getMessage());
+                    }
+                }
+            }, delay, TimeUnit.MILLISECONDS);
+        } catch (java.util.concurrent.RejectedExecutionException ree) {
+            // Processor has been closed
+            retried(request);
+            failed(request, reason);
+        }
+    }
+
+    /**
+     * This method reports the request that could not be performed.
+     *
+     * @param request The request
+     * @param reason The reason for the failure
+     */
+    protected void failed(ActionRequest request, String reason) {
+        _failed.incrementAndGet();
+
+        if (_failureHandler != null) {
+            try {
+                _failureHandler.failed(request, reason);
+            } catch (Throwable t) {
+                LOG.log(Level.SEVERE, MessageFormat.format(java.util.PropertyResourceBundle.getBundle(
+                        "rtgov-elasticsearch.Messages").getString("RTGOV-ELASTICSEARCH-7"), reason), t);
+            }
+        } else {
+            LOG.severe(MessageFormat.format(java.util.PropertyResourceBundle.getBundle(
+                    "rtgov-elasticsearch.Messages").getString("RTGOV-ELASTICSEARCH-7"), reason));
+        }
+    }
+
+    /**
+     * This method closes the bulk processor, sending any queued requests
+     * and waiting (subject to a timeout) for the bulk requests in flight
+     * to complete. Requests awaiting retry are abandoned.
+     */
+    public void close() {
+        _processor.close();
+
+        awaitCompletion(CLOSE_TIMEOUT);
+
+        _scheduler.shutdownNow();
+    }
+
+    /**
+     * This method waits until no bulk requests are in flight, and no
+     * requests are awaiting retry, or the timeout expires.
+     *
+     * @param timeout The timeout (in milliseconds)
+     * @return Whether all requests have completed
+     */
+    public boolean awaitCompletion(long timeout) {
+        long end=System.currentTimeMillis()+timeout;
+
+        synchronized (_inFlightLock) {
+            while (!isIdle() && System.currentTimeMillis() < end) {
+                try {
+                    _inFlightLock.wait(Math.max(1, Math.min(_retryDelay, end-System.currentTimeMillis())));
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+            return (isIdle());
+        }
+    }
+
+    /**
+     * This method determines whether any bulk requests are in flight,
+     * or requests are awaiting retry.
+     *
+     * @return Whether idle
+     */
+    protected boolean isIdle() {
+        synchronized (_retries) {
+            if (!_retries.isEmpty()) {
+                return (false);
+            }
+        }
+        synchronized (_inFlightLock) {
+            return (_inFlight == 0);
+        }
+    }
+
+    /**
+     * This interface is informed of requests that could not be performed.
+     *
+     */
+    public interface FailureHandler {
+
+        /**
+         * This method is called when the supplied request could not be
+         * performed.
+         *
+         * @param request The index or delete request
+         * @param reason The reason for the failure
+         */
+        public void failed(ActionRequest request, String reason);
+    }
+}
@@ -25,15 +25,19 @@ import org.elasticsearch.action.admin.indices.exists.indices.IndicesExistsRespon
 import org.elasticsearch.action.admin.indices.mapping.put.PutMappingRequestBuilder;
 import org.elasticsearch.action.admin.indices.mapping.put.PutMappingResponse;
 import org.elasticsearch.action.admin.indices.refresh.RefreshRequestBuilder;
-import org.elasticsearch.action.bulk.BulkRequestBuilder;
-import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.action.ActionRequest;
 import org.elasticsearch.action.delete.DeleteResponse;
 import org.elasticsearch.action.get.GetResponse;
+import org.elasticsearch.action.get.MultiGetItemResponse;
+import org.elasticsearch.action.get.MultiGetRequest;
+import org.elasticsearch.action.get.MultiGetRequestBuilder;
 import org.elasticsearch.action.index.IndexResponse;
+import org.elasticsearch.action.search.SearchRequestBuilder;
 import org.elasticsearch.client.Client;
 import org.elasticsearch.client.transport.TransportClient;
 import org.elasticsearch.common.transport.InetSocketTransportAddress;
 import org.elasticsearch.common.xcontent.XContentFactory;
+import org.elasticsearch.search.fetch.source.FetchSourceContext;
 import org.overlord.commons.services.ServiceRegistryUtil;
 import org.overlord.rtgov.common.util.RTGovProperties;
 
@@ -41,11 +45,6 @@ import java.io.InputStream;
 import java.text.MessageFormat;
 import java.util.Map;
 import java.util.Set;
-import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledFuture;
-import java.util.concurrent.Callable;
-import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -71,6 +70,26 @@ public class ElasticsearchClient {
      */
     public static final String ELASTICSEARCH_SCHEDULE = "Elasticsearch.schedule";
 
+    /**
+     * Elasticsearch bulk request size (in bytes) configuration.
+     */
+    public static final String ELASTICSEARCH_BULK_BYTES = "Elasticsearch.bulkBytes";
+
+    /**
+     * Elasticsearch concurrent bulk requests configuration.
+     */
+    public static final String ELASTICSEARCH_CONCURRENT_REQUESTS = "Elasticsearch.concurrentRequests";
+
+    /**
+     * Elasticsearch maximum bulk item retries configuration.
+     */
+    public static final String ELASTICSEARCH_MAX_RETRIES = "Elasticsearch.maxRetries";
+
+    /**
+     * Elasticsearch initial bulk item retry delay configuration.
+     */
+    public static final String ELASTICSEARCH_RETRY_DELAY = "Elasticsearch.retryDelay";
+
     /**
      * Settings for the index this store is related to.
      */
@@ -88,11 +107,17 @@ public class ElasticsearchClient {
 
     private static final Logger LOG = Logger.getLogger(ElasticsearchClient.class.getName());
 
+    private static final java.nio.charset.Charset UTF8 = java.nio.charset.Charset.forName("UTF-8");
+
     private Client _client;
 
     private String _index = null;
     private String _type = null;
 
+    private String _rollover = ElasticsearchIndexLifecycle.ROLLOVER_NONE;
+    private long _rolloverSkew = 0;
+    private ElasticsearchIndexLifecycle _lifecycle = null;
+
     private static final String ELASTICSEARCH_HOSTS_DEFAULT="embedded";
 
     private String _hosts = ELASTICSEARCH_HOSTS_DEFAULT;
@@ -102,11 +127,18 @@ public class ElasticsearchClient {
      */
     private int _bulkSize = 0;
 
-    private BulkRequestBuilder _bulkRequestBuilder;
+    private static final long ELASTICSEARCH_BULK_BYTES_DEFAULT = 5 * 1024 * 1024;
+    private static final int ELASTICSEARCH_CONCURRENT_REQUESTS_DEFAULT = 1;
+    private static final int ELASTICSEARCH_MAX_RETRIES_DEFAULT = 5;
+    private static final long ELASTICSEARCH_RETRY_DELAY_DEFAULT = 100;
 
-    private ScheduledFuture<BulkResponse> _scheduledFuture;
+    private long _bulkBytes = ELASTICSEARCH_BULK_BYTES_DEFAULT;
+    private int _concurrentRequests = ELASTICSEARCH_CONCURRENT_REQUESTS_DEFAULT;
+    private int _maxRetries = ELASTICSEARCH_MAX_RETRIES_DEFAULT;
+    private long _retryDelay = ELASTICSEARCH_RETRY_DELAY_DEFAULT;
 
-    private ScheduledExecutorService _scheduler;
+    private ElasticsearchBulkProcessor _bulkProcessor;
+    private ElasticsearchBulkProcessor.FailureHandler _bulkFailureHandler;
 
     private static final long ELASTICSEARCH_SCHEDULE_DEFAULT = 30000;
     
@@ -148,6 +180,36 @@ public class ElasticsearchClient {
                 _schedule = ELASTICSEARCH_SCHEDULE_DEFAULT;
             }
         }
+
+        _bulkBytes = getNumericProperty(ELASTICSEARCH_BULK_BYTES, ELASTICSEARCH_BULK_BYTES_DEFAULT);
+        _concurrentRequests = (int)getNumericProperty(ELASTICSEARCH_CONCURRENT_REQUESTS,
+                                    ELASTICSEARCH_CONCURRENT_REQUESTS_DEFAULT);
+        _maxRetries = (int)getNumericProperty(ELASTICSEARCH_MAX_RETRIES, ELASTICSEARCH_MAX_RETRIES_DEFAULT);
+        _retryDelay = getNumericProperty(ELASTICSEARCH_RETRY_DELAY, ELASTICSEARCH_RETRY_DELAY_DEFAULT);
+    }
+
+    /**
+     * This method returns the numeric value of the named property.
+     *
+     * @param name The property name
+     * @param def The default value
+     * @return The value
+     */
+    private static long getNumericProperty(String name, long def) {
+        String value = RTGovProperties.getProperty(name);
+
+        if (value != null) {
+            try {
+                return (Long.parseLong(value.trim()));
+            } catch (Exception e) {
+                LOG.log(Level.SEVERE, MessageFormat.format(
+                        java.util.PropertyResourceBundle.getBundle(
+                                "rtgov-elasticsearch.Messages").getString("RTGOV-ELASTICSEARCH-6"),
+                                name, value), e);
+            }
+        }
+
+        return (def);
     }
 
     /**
@@ -240,6 +302,154 @@ public class ElasticsearchClient {
         this._bulkSize = bulkSize;
     }
 
+    /**
+     * This method returns the size (in bytes) of the queued requests
+     * that triggers a bulk request.
+     *
+     * @return The bulk size in bytes
+     */
+    public long getBulkBytes() {
+        return _bulkBytes;
+    }
+
+    /**
+     * This method sets the size (in bytes) of the queued requests
+     * that triggers a bulk request.
+     *
+     * @param bulkBytes The bulk size in bytes
+     */
+    public void setBulkBytes(long bulkBytes) {
+        this._bulkBytes = bulkBytes;
+    }
+
+    /**
+     * This method returns the maximum number of bulk requests
+     * in flight concurrently.
+     *
+     * @return The number of concurrent requests
+     */
+    public int getConcurrentRequests() {
+        return _concurrentRequests;
+    }
+
+    /**
+     * This method sets the maximum number of bulk requests
+     * in flight concurrently.
+     *
+     * @param concurrentRequests The number of concurrent requests
+     */
+    public void setConcurrentRequests(int concurrentRequests) {
+        this._concurrentRequests = concurrentRequests;
+    }
+
+    /**
+     * This method returns the maximum number of times a bulk
+     * item, rejected by Elasticsearch, is retried.
+     *
+     * @return The maximum retries
+     */
+    public int getMaxRetries() {
+        return _maxRetries;
+    }
+
+    /**
+     * This method sets the maximum number of times a bulk
+     * item, rejected by Elasticsearch, is retried.
+     *
+     * @param maxRetries The maximum retries
+     */
+    public void setMaxRetries(int maxRetries) {
+        this._maxRetries = maxRetries;
+    }
+
+    /**
+     * This method returns the delay (in milliseconds) before a rejected
+     * bulk item is first retried. The delay is doubled for each
+     * subsequent retry.
+     *
+     * @return The retry delay
+     */
+    public long getRetryDelay() {
+        return _retryDelay;
+    }
+
+    /**
+     * This method sets the delay (in milliseconds) before a rejected
+     * bulk item is first retried. The delay is doubled for each
+     * subsequent retry.
+     *
+     * @param retryDelay The retry delay
+     */
+    public void setRetryDelay(long retryDelay) {
+        this._retryDelay = retryDelay;
+    }
+
+    /**
+     * This method sets the handler informed of bulk items that
+     * could not be performed. If not set, the failures are logged.
+     *
+     * @param handler The failure handler
+     */
+    public void setBulkFailureHandler(ElasticsearchBulkProcessor.FailureHandler handler) {
+        this._bulkFailureHandler = handler;
+    }
+
+    /**
+     * This method returns the bulk processor, used when the bulk
+     * size is greater than zero.
+     *
+     * @return The bulk processor, or null if not batching
+     */
+    public ElasticsearchBulkProcessor getBulkProcessor() {
+        return _bulkProcessor;
+    }
+
+    /**
+     * This method returns the index rollover period, which
+     * can be 'none', 'daily' or 'hourly'.
+     *
+     * @return The rollover period
+     */
+    public String getRollover() {
+        return _rollover;
+    }
+
+    /**
+     * This method sets the index rollover period, which
+     * can be 'none', 'daily' or 'hourly'. When a rollover
+     * period is defined, the documents are stored in a
+     * separate index per period.
+     *
+     * @param rollover The rollover period
+     */
+    public void setRollover(String rollover) {
+        this._rollover = rollover;
+    }
+
+    /**
+     * This method returns the rollover skew, i.e. the time (in
+     * milliseconds) beyond the end of its period for which an
+     * index may contain documents.
+     *
+     * @return The rollover skew
+     */
+    public long getRolloverSkew() {
+        return _rolloverSkew;
+    }
+
+    /**
+     * This method sets the rollover skew, i.e. the time (in
+     * milliseconds) beyond the end of its period for which an
+     * index may contain documents. Time range queries are
+     * widened by the skew, and indices are only dropped once
+     * the skew has elapsed after the end of their period.
+     *
+     * @param rolloverSkew The rollover skew
+     */
+    public void setRolloverSkew(long rolloverSkew) {
+        this._rolloverSkew = rolloverSkew;
+    }
+
     /**
      * Initialize the client.
      *
@@ -258,8 +468,12 @@ public class ElasticsearchClient {
         if (_type == null) {
             throw new IllegalArgumentException("Type property not set ");
         }
-        if (_bulkSize > 0) {
-            _scheduler = Executors.newScheduledThreadPool(1);
+
+        if (_rollover != null && !_rollover.equalsIgnoreCase(ElasticsearchIndexLifecycle.ROLLOVER_NONE)
+                && !ElasticsearchIndexLifecycle.isTimeBased(_rollover)) {
+            throw new IllegalArgumentException(MessageFormat.format(
+                    java.util.PropertyResourceBundle.getBundle(
+                    "rtgov-elasticsearch.Messages").getString("RTGOV-ELASTICSEARCH-4"), _rollover));
         }
 
         determineHostsAsProperty();
@@ -345,6 +559,14 @@ public class ElasticsearchClient {
     @SuppressWarnings("unchecked")
     protected void initClient(Client client) throws Exception {
         _client = client;
+
+        if (_bulkSize > 0) {
+            if (_bulkProcessor != null) {
+                _bulkProcessor.close();
+            }
+            _bulkProcessor = new ElasticsearchBulkProcessor(client, _bulkSize, _bulkBytes, _schedule,
+                                _concurrentRequests, _maxRetries, _retryDelay, _bulkFailureHandler);
+        }
         
         InputStream s = Thread.currentThread().getContextClassLoader().getResourceAsStream(_index + "-mapping.json");
         if (s == null) {
@@ -360,7 +582,16 @@ public class ElasticsearchClient {
 
                 Map<String, Object> dataMap = XContentFactory.xContent(jsonDefaultUserIndex).createParser(jsonDefaultUserIndex).mapAndClose();
 
-                if (prepareIndex((Map<String, Object>) dataMap.get(SETTINGS))) {
+                if (ElasticsearchIndexLifecycle.isTimeBased(_rollover)) {
+                    // Indices for each period are created from a template carrying the settings and mappings
+                    _lifecycle = new ElasticsearchIndexLifecycle(client, _index, _type, _rollover);
+                    _lifecycle.setSkew(_rolloverSkew);
+                    _lifecycle.installTemplate((Map<String, Object>) dataMap.get(SETTINGS),
+                                getTypeMappings((Map<String, Object>) dataMap.get(MAPPINGS)));
+
+                    LOG.info("Index rollover initialized, writing to " + _lifecycle.getWriteIndex());
+
+                } else if (prepareIndex((Map<String, Object>) dataMap.get(SETTINGS))) {
                     LOG.info("Index initialized");
                     // refresh index
                     RefreshRequestBuilder refreshRequestBuilder = getElasticsearchClient().admin().indices().prepareRefresh(getIndex());
@@ -369,13 +600,42 @@ public class ElasticsearchClient {
                     LOG.info("Index already initialized. Doing nothing.");
                 }
 
-                prepareMapping((Map<String, Object>) dataMap.get(MAPPINGS));
+                if (_lifecycle == null) {
+                    prepareMapping((Map<String, Object>) dataMap.get(MAPPINGS));
+                }
             }
         } else {
             LOG.warning("Could not locate " + _index + "-mapping.json index mapping file. Mapping file require to start elasticsearch store service");
         }
     }
 
+    /**
+     * This method returns the mappings for the configured type, and
+     * any child types that refer to it as their parent.
+     *
+     * @param defaultMappings The mappings for all types
+     * @return The mappings for the configured type and its children
+     */
+    @SuppressWarnings("unchecked")
+    private Map<String, Map<String, Object>> getTypeMappings(Map<String, Object> defaultMappings) {
+        Map<String, Map<String, Object>> ret=new java.util.LinkedHashMap<String, Map<String, Object>>();
+
+        Map<String, Object> mapping = (Map<String, Object>) defaultMappings.get(_type);
+        if (mapping == null) {
+            throw new RuntimeException("type mapping not defined");
+        }
+        ret.put(_type, mapping);
+
+        for (String s : defaultMappings.keySet()) {
+            Map<?, ?> childMap = (Map<?,?>) ((Map<?,?>) defaultMappings.get(s)).get("_parent");
+            if (childMap != null && childMap.get("type") != null && childMap.get("type").equals(_type)) {
+                ret.put(s, (Map<String, Object>) defaultMappings.get(s));
+            }
+        }
+
+        return (ret);
+    }
+
     /**
      * @param defaultMappings
      * @return true if the mapping was successful
@@ -462,75 +722,32 @@ public class ElasticsearchClient {
     }
 
     /**
+     * This method queues the document to be stored by the bulk processor.
+     *
      * @param id
      * @param document
-     * @param <V>
      */
-    protected synchronized <V> void addBulk(String id, String document) {
-
-        if (_bulkRequestBuilder == null) {
-            _bulkRequestBuilder = _client.prepareBulk();
-        }
-        _bulkRequestBuilder.add(_client.prepareIndex(_index, _type, id).setSource(document));
+    protected void addBulk(String id, byte[] document) {
+        enqueue(_client.prepareIndex(getWriteIndex(), _type, id).setSource(document).request());
 
         if (LOG.isLoggable(Level.FINEST)) {
             LOG.finest(" Document successfully added bulk item to index [" + _index + "/" + _type + "/" + id + "]");
         }
-
-        /**
-         * check if we need to persist now
-         */
-        if (_bulkRequestBuilder.numberOfActions() >= _bulkSize) {
-            if (LOG.isLoggable(Level.FINEST)) {
-                LOG.finest("bulk limit reach. storing " + _bulkSize + " items to  [" + _index + "/" + _type + "]");
-            }
-
-            /**
-             * cancel any scheduler thats running
-             */
-            if (_scheduledFuture != null) {
-                _scheduledFuture.cancel(true);
-            }
-
-            storeBulkItems();
-
-        } else {
-            /**
-             * if we have not exceeded the bulk. we create a task to dump this to elastic search after configured number of seconds
-             */
-            if (_scheduledFuture == null) {
-                _scheduledFuture = _scheduler.schedule(new Callable<BulkResponse>() {
-                    public BulkResponse call() throws Exception {
-                        if (LOG.isLoggable(Level.FINEST)) {
-                            LOG.finest("Executed scheduled persitence of bulk items " + _index + "/" + _type);
-                        }
-                        return (storeBulkItems());
-                    }
-                }, _schedule, TimeUnit.MILLISECONDS);
-            }
-
-        }
     }
 
-    private synchronized BulkResponse storeBulkItems() {
-        BulkResponse bulkItemResponses = _bulkRequestBuilder.execute().actionGet();
-
-        if (bulkItemResponses.hasFailures()) {
-            LOG.severe(" Bulk Documents{" + _bulkSize + "} could not be created for index [" + _index + "/" + _type + "/");
-
-            if (LOG.isLoggable(Level.FINEST)) {
-                LOG.finest("FAILED MESSAGES. " + bulkItemResponses.buildFailureMessage());
-            }
-        } else {
-            if (LOG.isLoggable(Level.FINEST)) {
-                LOG.finest("Success storing " + _bulkSize + " items to  [" + _index + "/" + _type + "]");
-            }
+    /**
+     * This method queues the supplied index or delete request, to be sent
+     * asynchronously as part of a bulk request. The calling thread is only
+     * blocked if the maximum number of concurrent bulk requests are in flight.
+     *
+     * @param request The request
+     */
+    @SuppressWarnings("rawtypes")
+    public void enqueue(ActionRequest request) {
+        if (_bulkProcessor == null) {
+            throw new IllegalStateException("Bulk processor not initialized for [" + _index + "/" + _type + "]");
         }
-
-        _bulkRequestBuilder = null;
-        _scheduledFuture = null;
-
-        return (bulkItemResponses);
+        _bulkProcessor.add(request);
     }
 
     /**
@@ -541,17 +758,26 @@ public class ElasticsearchClient {
      * @throws Exception Failed to add
      */
     public void add(String id, String document) throws Exception {
+        add(id, document.getBytes(UTF8));
+    }
+
+    /**
+     * This method adds a new document to ElasticSearch, supplied as
+     * UTF-8 encoded json (see {@link #convertTypeToBytes(Object)}).
+     *
+     * @param id       The id
+     * @param document The document
+     * @throws Exception Failed to add
+     */
+    public void add(String id, byte[] document) throws Exception {
         if (LOG.isLoggable(Level.FINEST)) {
-            LOG.finest(" Adding to elastich search id=" + id + ", doc=" + document);
-        }
-        if (LOG.isLoggable(Level.FINEST)) {
-            LOG.finest("Adding " + document.getClass().toString() + ". for id " + id);
+            LOG.finest(" Adding to elastich search id=" + id + ", doc=" + new String(document, UTF8));
         }
         if (getBulkSize() > 0) {
             addBulk(id, document);
         } else {
             try {
-                IndexResponse indexResponse = _client.prepareIndex(_index, _type, id).setSource(document).execute().actionGet();
+                IndexResponse indexResponse = _client.prepareIndex(getWriteIndex(), _type, id).setSource(document).execute().actionGet();
                 if (!indexResponse.isCreated()) {
                     if (LOG.isLoggable(Level.FINE)) {
                         LOG.fine(" Document could not be created for index ["
@@ -578,7 +804,14 @@ public class ElasticsearchClient {
      * @throws Exception Failed to remove document
      */
     public void remove(String id) throws Exception {
-        DeleteResponse response = _client.prepareDelete(_index, _type, id).setRouting(id)
+        String index = locate(id);
+
+        if (index == null) {
+            LOG.warning("Unable to find document [" + _index + "/" + _type + "/" + id + "] for removal");
+            return;
+        }
+
+        DeleteResponse response = _client.prepareDelete(index, _type, id).setRouting(id)
                 .execute()
                 .actionGet();
 
@@ -594,8 +827,22 @@ public class ElasticsearchClient {
      * @param document The document
      */
     public void update(String id, String document) {
+        update(id, document.getBytes(UTF8));
+    }
+
+    /**
+     * This method updates the supplied document, supplied as UTF-8
+     * encoded json (see {@link #convertTypeToBytes(Object)}).
+     *
+     * @param id The id
+     * @param document The document
+     */
+    public void update(String id, byte[] document) {
         try {
-            _client.prepareIndex(_index, _type, id).setSource(document).execute().actionGet();
+            String index = locate(id);
+
+            _client.prepareIndex(index == null ? getWriteIndex() : index, _type, id)
+                        .setSource(document).execute().actionGet();
             
             if (LOG.isLoggable(Level.FINE)) {
                 LOG.fine(" Document successfully updated for index [" + _index + "/" + _type + "/" + id + "]");
@@ -613,7 +860,13 @@ public class ElasticsearchClient {
      * @return Document as string.
      */
     public String get(String id) {
-        GetResponse response = _client.prepareGet(getIndex(), getType(), id).setRouting(id)
+        String index = locate(id);
+
+        if (index == null) {
+            return null;
+        }
+
+        GetResponse response = _client.prepareGet(index, getType(), id).setRouting(id)
                 .execute()
                 .actionGet();
         if (!response.isSourceEmpty()) {
@@ -666,6 +919,51 @@ public class ElasticsearchClient {
         }
     }
 
+    /**
+     * This method converts the supplied object to a UTF-8 encoded json
+     * document. Unlike {@link #convertTypeToJson(Object)}, no intermediate
+     * String is created, and the document can be passed directly to an
+     * index request without being re-encoded. Jackson recycles its output
+     * buffers on each thread, so the only allocation is the returned array.
+     *
+     * @param obj The object to convert
+     * @return The json document
+     */
+    public static byte[] convertTypeToBytes(Object obj) {
+        try {
+            if (LOG.isLoggable(Level.FINE)) {
+                LOG.fine("Converting to json bytes from Type [" + obj.getClass().getName() + "] ");
+            }
+            return MAPPER.writeValueAsBytes(obj);
+
+        } catch (Exception e) {
+            throw new RuntimeException("Failed to convert from object to json bytes [class:" + obj.getClass().getName() + "]", e);
+        }
+    }
+
+    /**
+     * This method converts the UTF-8 encoded json document, held within
+     * the supplied region of a byte array, to the requested type.
+     *
+     * @param json The byte array containing the json document
+     * @param offset The offset of the document
+     * @param length The length of the document
+     * @param type The type of the object to return
+     * @param <V>  type The object type
+     * @return The converted object
+     */
+    public static <V> V convertBytesToType(byte[] json, int offset, int length, Class<V> type) {
+        try {
+            if (LOG.isLoggable(Level.FINE)) {
+                LOG.fine("Converting from json bytes to Type [" + type.getName() + "] ");
+            }
+            return MAPPER.readValue(json, offset, length, type);
+
+        } catch (Exception e) {
+            throw new RuntimeException("Failed to convert to object from json bytes [class:" + type.getName() + "]", e);
+        }
+    }
+
     /**
      * sets hosts if the _hosts propertey is determined to be a property placeholder
      * Throws IllegalArgumentException argument exception when nothing found
@@ -682,6 +980,146 @@ public class ElasticsearchClient {
 
     }
 
+    /**
+     * This method returns the index to which new documents should be written.
+     * If index rollover is enabled, this will be the index for the current
+     * period, otherwise the configured index. Documents that must be
+     * co-located (e.g. parent and child documents) should be written to
+     * the index returned by a single call to this method.
+     *
+     * @return The index
+     */
+    public String getWriteIndex() {
+        if (_lifecycle != null) {
+            return (_lifecycle.getWriteIndex());
+        }
+        return (_index);
+    }
+
+    /**
+     * This method returns the index to which documents with the supplied
+     * timestamp should be written. If index rollover is enabled, this will
+     * be the index for the period containing the timestamp, otherwise the
+     * configured index. Documents that must be co-located (e.g. parent and
+     * child documents) should be written to the index for the earliest of
+     * their timestamps.
+     *
+     * @param timestamp The timestamp
+     * @return The index
+     */
+    public String getWriteIndex(long timestamp) {
+        if (_lifecycle != null) {
+            return (_lifecycle.getWriteIndex(timestamp));
+        }
+        return (_index);
+    }
+
+    /**
+     * This method returns the index (or alias) that should be used to
+     * query documents across all periods.
+     *
+     * @return The index or alias
+     */
+    public String getReadIndex() {
+        if (_lifecycle != null) {
+            return (_lifecycle.getReadAlias());
+        }
+        return (_index);
+    }
+
+    /**
+     * This method returns the indices that may contain documents within
+     * the supplied time range. If index rollover is enabled, some of the
+     * returned indices may not exist, so should be searched with lenient
+     * indices options.
+     *
+     * @param from The 'from' timestamp, or 0 if unbounded
+     * @param to The 'to' timestamp, or 0 for the current time
+     * @return The indices
+     */
+    public String[] getReadIndices(long from, long to) {
+        if (_lifecycle != null) {
+            return (_lifecycle.getReadIndices(from, to));
+        }
+        return (new String[]{_index});
+    }
+
+    /**
+     * This method determines the index containing the document with
+     * the supplied id.
+     *
+     * @param id The id
+     * @return The index, or null if index rollover is enabled and the document was not found
+     */
+    protected String locate(String id) {
+        if (_lifecycle == null) {
+            return (_index);
+        }
+
+        // Check the current period first, as most documents are expected to be there
+        String index = _lifecycle.getWriteIndex();
+
+        if (_client.prepareGet(index, _type, id).setRouting(id).setFetchSource(false)
+                        .execute().actionGet().isExists()) {
+            return (index);
+        }
+
+        // Use a realtime multi-get across the other periods, rather than a search,
+        // so that recently written documents are found without requiring a refresh
+        java.util.List<String> indices=_lifecycle.getIndices();
+
+        indices.remove(index);
+
+        if (indices.isEmpty()) {
+            return (null);
+        }
+
+        MultiGetRequestBuilder multiGet=_client.prepareMultiGet();
+        FetchSourceContext noSource=new FetchSourceContext(false);
+
+        for (int i=indices.size()-1; i >= 0; i--) {
+            multiGet.add(new MultiGetRequest.Item(indices.get(i), _type, id).routing(id)
+                        .fetchSourceContext(noSource));
+        }
+
+        for (MultiGetItemResponse item : multiGet.execute().actionGet()) {
+            if (!item.isFailed() && item.getResponse().isExists()) {
+                return (item.getIndex());
+            }
+        }
+
+        return (null);
+    }
+
+    /**
+     * This method deletes the indices for periods that ended before the
+     * supplied timestamp, if index rollover is enabled.
+     *
+     * @param before The timestamp
+     * @return The number of documents, of the configured type, removed
+     */
+    public long dropIndices(long before) {
+        if (_lifecycle != null) {
+            return (_lifecycle.drop(before, _type));
+        }
+        return (0);
+    }
+
+    /**
+     * This method performs the supplied search, returning a cursor that
+     * retrieves the results a page at a time.
+     *
+     * @param search The search
+     * @param pageSize The maximum number of hits retrieved per page
+     * @param converter The converter from hit to result
+     * @param <T> The result type
+     * @return The cursor
+     */
+    public <T> ElasticsearchCursor<T> scroll(SearchRequestBuilder search, int pageSize,
+                        ElasticsearchCursor.HitConverter<T> converter) {
+        return (new ElasticsearchCursor<T>(_client, search, pageSize, ElasticsearchCursor.KEEP_ALIVE, converter));
+    }
+
     /**
      * The Elasticsearch client.
      *
@@ -696,6 +1134,10 @@ public class ElasticsearchClient {
      * 
      */
     public void close() {
+        if (_bulkProcessor != null) {
+            _bulkProcessor.close();
+            _bulkProcessor = null;
+        }
         if (_listener != null) {
             ServiceRegistryUtil.removeServiceListener(_listener);
             _listener = null;
@@ -711,6 +1153,7 @@ public class ElasticsearchClient {
         return "ElasticsearchClient{"
                 + "index='" + _index + '\''
                 + ", type='" + _type + '\''
+                + ", rollover='" + _rollover + '\''
                 + ", hosts='" + _hosts + '\''
                 + '}';
     }
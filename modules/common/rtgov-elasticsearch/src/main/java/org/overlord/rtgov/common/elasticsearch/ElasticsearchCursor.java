@@ -0,0 +1,265 @@
+/*
+ * 2014 Red Hat Inc. and/or its affiliates and other contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.overlord.rtgov.common.elasticsearch;
+
+import java.util.NoSuchElementException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.elasticsearch.action.search.SearchRequestBuilder;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.search.SearchHit;
+
+/**
+ * This class provides an iterator over the results of an Elasticsearch search,
+ * retrieving the hits a page at a time using a scroll. Only a single page of
+ * hits is held in memory, so the cursor can be used to process result sets
+ * that are too large to retrieve in a single response.
+ * <p>
+ * The cursor should be closed if not fully consumed, to release the scroll
+ * held by the Elasticsearch cluster.
+ *
+ * @param <T> The result type
+ */
+public class ElasticsearchCursor<T> implements java.util.Iterator<T>, java.io.Closeable {
+
+    private static final Logger LOG=Logger.getLogger(ElasticsearchCursor.class.getName());
+
+    /**
+     * The default time (in milliseconds) that a scroll is kept alive between pages.
+     */
+    public static final long KEEP_ALIVE=60000;
+
+    private Client _client;
+    private TimeValue _keepAlive;
+    private HitConverter<T> _converter;
+
+    private String _scrollId=null;
+    private SearchHit[] _hits=null;
+    private int _index=0;
+    private long _totalHits=0;
+    private long _retrieved=0;
+    private boolean _timedOut=false;
+    private boolean _closed=false;
+
+    /**
+     * This constructor performs the supplied search, retrieving the first
+     * page of hits.
+     *
+     * @param client The Elasticsearch client
+     * @param search The search
+     * @param pageSize The maximum number of hits retrieved per page
+     * @param keepAlive The time (in milliseconds) the scroll is kept alive between pages
+     * @param converter The converter from hit to result
+     */
+    public ElasticsearchCursor(Client client, SearchRequestBuilder search, int pageSize,
+                        long keepAlive, HitConverter<T> converter) {
+        _client = client;
+        _keepAlive = TimeValue.timeValueMillis(keepAlive);
+        _converter = converter;
+
+        SearchResponse response=search.setSize(Math.max(1, pageSize))
+                        .setScroll(_keepAlive).execute().actionGet();
+
+        _totalHits = response.getHits().getTotalHits();
+
+        page(response);
+    }
+
+    /**
+     * This method records the page of hits contained in the supplied response,
+     * releasing the scroll if all hits have been retrieved.
+     *
+     * @param response The search response
+     */
+    protected void page(SearchResponse response) {
+        _scrollId = response.getScrollId();
+        _hits = response.getHits().getHits();
+        _index = 0;
+        _retrieved += _hits.length;
+
+        if (response.isTimedOut()) {
+            _timedOut = true;
+        }
+
+        if (_hits.length == 0 || _retrieved >= _totalHits) {
+            close();
+        }
+    }
+
+    /**
+     * This method returns the total number of hits matching the search.
+     *
+     * @return The total number of hits
+     */
+    public long getTotalHits() {
+        return (_totalHits);
+    }
+
+    /**
+     * This method determines whether the retrieval of any page
+     * of hits timed out, in which case the results may be incomplete.
+     *
+     * @return Whether a page timed out
+     */
+    public boolean isTimedOut() {
+        return (_timedOut);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean hasNext() {
+        if (_index < _hits.length) {
+            return (true);
+        }
+
+        if (_closed) {
+            return (false);
+        }
+
+        if (LOG.isLoggable(Level.FINEST)) {
+            LOG.finest("Retrieve next page for scroll: "+_scrollId);
+        }
+
+        page(_client.prepareSearchScroll(_scrollId).setScroll(_keepAlive).execute().actionGet());
+
+        return (_index < _hits.length);
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The result will be null if the converter was unable to convert
+     * the hit.
+     */
+    public T next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+
+        return (_converter.convert(_hits[_index++]));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void remove() {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * This method returns the remaining results as a list, excluding
+     * any hits that could not be converted, and closes the cursor.
+     *
+     * @return The list of results
+     */
+    public java.util.List<T> toList() {
+        java.util.List<T> ret=new java.util.ArrayList<T>();
+
+        try {
+            while (hasNext()) {
+                T result=next();
+
+                if (result != null) {
+                    ret.add(result);
+                }
+            }
+        } finally {
+            close();
+        }
+
+        return (ret);
+    }
+
+    /**
+     * This method closes the cursor, releasing the scroll if
+     * not all hits have been retrieved.
+     */
+    public void close() {
+        if (_closed) {
+            return;
+        }
+
+        _closed = true;
+
+        if (_scrollId != null && _retrieved < _totalHits) {
+            try {
+                _client.prepareClearScroll().addScrollId(_scrollId).execute().actionGet();
+            } catch (Exception e) {
+                if (LOG.isLoggable(Level.FINE)) {
+                    LOG.log(Level.FINE, "Failed to clear scroll: "+_scrollId, e);
+                }
+            }
+        }
+    }
+
+    /**
+     * This interface converts a search hit into a result.
+     *
+     * @param <T> The result type
+     */
+    public static interface HitConverter<T> {
+
+        /**
+         * This method converts the supplied hit.
+         *
+         * @param hit The search hit
+         * @return The result, or null if the hit could not be converted
+         */
+        public T convert(SearchHit hit);
+
+    }
+
+    /**
+     * This class converts the source of a hit, using the
+     * JSON representation of the supplied type.
+     *
+     * @param <T> The result type
+     */
+    public static class SourceConverter<T> implements HitConverter<T> {
+
+        private Class<T> _type;
+
+        /**
+         * This constructor initializes the result type.
+         *
+         * @param type The result type
+         */
+        public SourceConverter(Class<T> type) {
+            _type = type;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public T convert(SearchHit hit) {
+            BytesReference source=hit.getSourceRef();
+
+            if (source.hasArray()) {
+                return (ElasticsearchClient.convertBytesToType(source.array(), source.arrayOffset(),
+                                source.length(), _type));
+            }
+
+            byte[] bytes=source.toBytes();
+
+            return (ElasticsearchClient.convertBytesToType(bytes, 0, bytes.length, _type));
+        }
+    }
+}
@@ -0,0 +1,423 @@
+/*
+ * 2014 Red Hat Inc. and/or its affiliates and other contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.overlord.rtgov.common.elasticsearch;
+
+import java.text.MessageFormat;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.elasticsearch.action.admin.indices.alias.Alias;
+import org.elasticsearch.action.admin.indices.alias.IndicesAliasesRequestBuilder;
+import org.elasticsearch.action.admin.indices.template.put.PutIndexTemplateRequestBuilder;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.cluster.metadata.AliasMetaData;
+import org.elasticsearch.common.collect.ImmutableOpenMap;
+import org.elasticsearch.indices.IndexAlreadyExistsException;
+
+/**
+ * This class manages a set of time based indices, used to store the documents
+ * of a particular type. Each period (hour or day) is stored in a separate index,
+ * named '&lt;index&gt;-&lt;type&gt;-&lt;period&gt;', created from an index
+ * template that carries the settings and mappings for the type.
+ * <p>
+ * A write alias ('&lt;index&gt;-&lt;type&gt;-write') refers to the index for the
+ * current period, and is moved when a new period begins. Every index is also
+ * associated with a read alias ('&lt;index&gt;-&lt;type&gt;') spanning all periods.
+ * Queries constrained by a time range can instead be directed to just the indices
+ * for the periods within the range, and expired periods can be removed by
+ * deleting their indices.
+ * <p>
+ * Documents should be written to the index for the period containing their own
+ * timestamp, so that documents received late are found by time range queries.
+ * Where related documents with different timestamps must be co-located (e.g.
+ * parent and child documents), they are stored in the index for the earliest
+ * timestamp, and the skew defines how far beyond the end of its period such an
+ * index may contain documents. Time range queries are widened by the skew, and
+ * an index is only dropped once the skew has also elapsed.
+ *
+ */
+public class ElasticsearchIndexLifecycle {
+
+    private static final Logger LOG=Logger.getLogger(ElasticsearchIndexLifecycle.class.getName());
+
+    /**
+     * Documents are stored in a single index.
+     */
+    public static final String ROLLOVER_NONE="none";
+
+    /**
+     * Documents are stored in an index per day.
+     */
+    public static final String ROLLOVER_DAILY="daily";
+
+    /**
+     * Documents are stored in an index per hour.
+     */
+    public static final String ROLLOVER_HOURLY="hourly";
+
+    private static final long HOUR=3600000L;
+    private static final long DAY=24*HOUR;
+
+    private static final int MAX_READ_INDICES=100;
+
+    private static final String WRITE_ALIAS_SUFFIX="-write";
+
+    private Client _client;
+    private String _prefix;
+    private String _pattern;
+    private long _periodLength;
+    private long _skew=0;
+
+    private long _currentPeriod=-1;
+    private String _writeIndex=null;
+    private java.util.Set<String> _created=new java.util.HashSet<String>();
+
+    /**
+     * This constructor initializes the index lifecycle.
+     *
+     * @param client The Elasticsearch client
+     * @param index The base index name
+     * @param type The document type
+     * @param rollover The rollover period, either 'daily' or 'hourly'
+     */
+    public ElasticsearchIndexLifecycle(Client client, String index, String type, String rollover) {
+        _client = client;
+        _prefix = index.toLowerCase()+"-"+type.toLowerCase();
+
+        if (ROLLOVER_HOURLY.equalsIgnoreCase(rollover)) {
+            _pattern = "yyyy.MM.dd.HH";
+            _periodLength = HOUR;
+        } else if (ROLLOVER_DAILY.equalsIgnoreCase(rollover)) {
+            _pattern = "yyyy.MM.dd";
+            _periodLength = DAY;
+        } else {
+            throw new IllegalArgumentException(MessageFormat.format(
+                    java.util.PropertyResourceBundle.getBundle(
+                    "rtgov-elasticsearch.Messages").getString("RTGOV-ELASTICSEARCH-4"), rollover));
+        }
+    }
+
+    /**
+     * This method determines whether the supplied rollover period
+     * requires time based indices.
+     *
+     * @param rollover The rollover period
+     * @return Whether time based indices are required
+     */
+    public static boolean isTimeBased(String rollover) {
+        return (ROLLOVER_DAILY.equalsIgnoreCase(rollover) || ROLLOVER_HOURLY.equalsIgnoreCase(rollover));
+    }
+
+    /**
+     * This method returns the skew, i.e. the time (in milliseconds) beyond
+     * the end of its period for which an index may contain documents.
+     *
+     * @return The skew
+     */
+    public long getSkew() {
+        return (_skew);
+    }
+
+    /**
+     * This method sets the skew, i.e. the time (in milliseconds) beyond
+     * the end of its period for which an index may contain documents.
+     *
+     * @param skew The skew
+     */
+    public void setSkew(long skew) {
+        _skew = Math.max(0, skew);
+    }
+
+    /**
+     * This method returns the alias spanning the indices for all periods.
+     *
+     * @return The read alias
+     */
+    public String getReadAlias() {
+        return (_prefix);
+    }
+
+    /**
+     * This method returns the alias referring to the index for
+     * the current period.
+     *
+     * @return The write alias
+     */
+    public String getWriteAlias() {
+        return (_prefix+WRITE_ALIAS_SUFFIX);
+    }
+
+    /**
+     * This method returns the name of the index for the period
+     * containing the supplied timestamp.
+     *
+     * @param timestamp The timestamp
+     * @return The index name
+     */
+    public String getIndex(long timestamp) {
+        return (_prefix+"-"+getFormat().format(new java.util.Date(timestamp)));
+    }
+
+    /**
+     * This method returns the start of the period associated with
+     * the supplied index name.
+     *
+     * @param index The index name
+     * @return The start of the period, or -1 if not an index managed by this lifecycle
+     */
+    protected long getPeriodStart(String index) {
+        if (index.length() != _prefix.length()+1+_pattern.length() || !index.startsWith(_prefix+"-")) {
+            return (-1);
+        }
+
+        try {
+            return (getFormat().parse(index.substring(_prefix.length()+1)).getTime());
+        } catch (ParseException pe) {
+            return (-1);
+        }
+    }
+
+    /**
+     * This method returns the date format used to name the indices.
+     *
+     * @return The date format
+     */
+    protected SimpleDateFormat getFormat() {
+        SimpleDateFormat ret=new SimpleDateFormat(_pattern);
+        ret.setTimeZone(TimeZone.getTimeZone("UTC"));
+        return (ret);
+    }
+
+    /**
+     * This method installs the index template used to create the index for each
+     * period, with the supplied settings and mappings, and associates each index
+     * with the read alias.
+     *
+     * @param settings The index settings
+     * @param mappings The type mappings
+     */
+    public void installTemplate(Map<String, Object> settings, Map<String, Map<String, Object>> mappings) {
+        PutIndexTemplateRequestBuilder template=_client.admin().indices().preparePutTemplate(_prefix)
+                    .setTemplate(_prefix+"-*")
+                    .addAlias(new Alias(getReadAlias()));
+
+        if (settings != null) {
+            template.setSettings(settings);
+        }
+
+        for (Map.Entry<String, Map<String, Object>> entry : mappings.entrySet()) {
+            template.addMapping(entry.getKey(), entry.getValue());
+        }
+
+        if (!template.execute().actionGet().isAcknowledged()) {
+            LOG.warning(MessageFormat.format(java.util.PropertyResourceBundle.getBundle(
+                    "rtgov-elasticsearch.Messages").getString("RTGOV-ELASTICSEARCH-5"), _prefix));
+        }
+    }
+
+    /**
+     * This method returns the index for the current period, creating the index
+     * and moving the write alias if a new period has started. Documents that
+     * must be co-located (e.g. parent and child documents) should be written to
+     * the index returned by a single call to this method.
+     *
+     * @return The index for the current period
+     */
+    public synchronized String getWriteIndex() {
+        long period=System.currentTimeMillis()/_periodLength;
+
+        if (period != _currentPeriod) {
+            String index=getIndex(period*_periodLength);
+
+            if (LOG.isLoggable(Level.FINE)) {
+                LOG.fine("Rollover to index: "+index);
+            }
+
+            createIndex(index);
+
+            // Move the write alias to the new index
+            IndicesAliasesRequestBuilder aliases=_client.admin().indices().prepareAliases();
+
+            ImmutableOpenMap<String, List<AliasMetaData>> current=_client.admin().indices()
+                        .prepareGetAliases(getWriteAlias()).execute().actionGet().getAliases();
+
+            for (java.util.Iterator<String> iter=current.keysIt(); iter.hasNext(); ) {
+                String existing=iter.next();
+
+                if (!existing.equals(index)) {
+                    aliases.removeAlias(existing, getWriteAlias());
+                }
+            }
+
+            aliases.addAlias(index, getWriteAlias()).execute().actionGet();
+
+            _writeIndex = index;
+            _currentPeriod = period;
+        }
+
+        return (_writeIndex);
+    }
+
+    /**
+     * This method returns the index for the period containing the supplied
+     * timestamp, creating the index if necessary. Documents that must be
+     * co-located (e.g. parent and child documents) should be written to the
+     * index for the earliest of their timestamps.
+     *
+     * @param timestamp The timestamp of the document(s) to be written
+     * @return The index for the period containing the timestamp
+     */
+    public synchronized String getWriteIndex(long timestamp) {
+        String current=getWriteIndex();
+
+        if (timestamp/_periodLength == _currentPeriod) {
+            return (current);
+        }
+
+        String index=getIndex(timestamp);
+
+        if (LOG.isLoggable(Level.FINEST)) {
+            LOG.finest("Writing to index '"+index+"' for timestamp: "+timestamp);
+        }
+
+        createIndex(index);
+
+        return (index);
+    }
+
+    /**
+     * This method creates the supplied index, if it has not already
+     * been created by this lifecycle.
+     *
+     * @param index The index
+     */
+    protected synchronized void createIndex(String index) {
+        if (_created.contains(index)) {
+            return;
+        }
+
+        try {
+            _client.admin().indices().prepareCreate(index).execute().actionGet();
+        } catch (IndexAlreadyExistsException iaee) {
+            // Created by another client
+            if (LOG.isLoggable(Level.FINEST)) {
+                LOG.finest("Index already exists: "+index);
+            }
+        }
+
+        _created.add(index);
+    }
+
+    /**
+     * This method returns the indices that may contain documents within the
+     * supplied time range. The start of the range is widened by the skew, to
+     * include indices that may contain documents co-located with earlier
+     * documents. If the range is unbounded, or spans a large number of periods,
+     * then the read alias will be returned. Some of the returned indices may
+     * not exist, so should be searched leniently.
+     *
+     * @param from The 'from' timestamp, or 0 if unbounded
+     * @param to The 'to' timestamp, or 0 for the current time
+     * @return The indices
+     */
+    public String[] getReadIndices(long from, long to) {
+        if (to == 0) {
+            to = System.currentTimeMillis();
+        }
+
+        if (from <= 0 || to < from) {
+            return (new String[]{getReadAlias()});
+        }
+
+        from = Math.max(1, from-_skew);
+
+        if ((to/_periodLength - from/_periodLength) >= MAX_READ_INDICES) {
+            return (new String[]{getReadAlias()});
+        }
+
+        java.util.List<String> ret=new java.util.ArrayList<String>();
+
+        for (long period=from/_periodLength; period <= to/_periodLength; period++) {
+            ret.add(getIndex(period*_periodLength));
+        }
+
+        return (ret.toArray(new String[ret.size()]));
+    }
+
+    /**
+     * This method returns the existing indices managed by this lifecycle.
+     *
+     * @return The indices
+     */
+    public java.util.List<String> getIndices() {
+        java.util.List<String> ret=new java.util.ArrayList<String>();
+
+        ImmutableOpenMap<String, List<AliasMetaData>> indices=_client.admin().indices()
+                        .prepareGetAliases(getReadAlias()).execute().actionGet().getAliases();
+
+        for (java.util.Iterator<String> iter=indices.keysIt(); iter.hasNext(); ) {
+            String index=iter.next();
+
+            if (getPeriodStart(index) != -1) {
+                ret.add(index);
+            }
+        }
+
+        java.util.Collections.sort(ret);
+
+        return (ret);
+    }
+
+    /**
+     * This method deletes the indices for the periods that ended (including
+     * the skew) before the supplied timestamp, returning the number of
+     * documents of the specified type that they contained.
+     *
+     * @param before The timestamp
+     * @param type The document type to count
+     * @return The number of documents of the type removed
+     */
+    public long drop(long before, String type) {
+        long ret=0;
+
+        java.util.List<String> indices=getIndices();
+
+        for (int i=0; i < indices.size(); i++) {
+            String index=indices.get(i);
+
+            if (getPeriodStart(index)+_periodLength+_skew <= before && !index.equals(_writeIndex)) {
+                ret += _client.prepareCount(index).setTypes(type).execute().actionGet().getCount();
+
+                _client.admin().indices().prepareDelete(index).execute().actionGet();
+
+                synchronized (this) {
+                    _created.remove(index);
+                }
+
+                if (LOG.isLoggable(Level.FINE)) {
+                    LOG.fine("Dropped expired index: "+index);
+                }
+            }
+        }
+
+        return (ret);
+    }
+}
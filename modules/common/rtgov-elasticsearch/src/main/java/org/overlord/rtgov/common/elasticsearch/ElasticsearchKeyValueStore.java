@@ -124,6 +124,25 @@ public class ElasticsearchKeyValueStore extends KeyValueStore {
         _client.setBulkSize(bulkSize);
     }
 
+    /**
+     * This method returns the index rollover period.
+     *
+     * @return The rollover period
+     */
+    public String getRollover() {
+        return _client.getRollover();
+    }
+
+    /**
+     * This method sets the index rollover period, which
+     * can be 'none', 'daily' or 'hourly'.
+     *
+     * @param rollover The rollover period
+     */
+    public void setRollover(String rollover) {
+        _client.setRollover(rollover);
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -133,7 +152,7 @@ public class ElasticsearchKeyValueStore extends KeyValueStore {
 
     @Override
     public <V> void add(String id, V document) throws Exception {
-        _client.add(id, ElasticsearchClient.convertTypeToJson(document));
+        _client.add(id, ElasticsearchClient.convertTypeToBytes(document));
     }
 
     @Override
@@ -143,7 +162,7 @@ public class ElasticsearchKeyValueStore extends KeyValueStore {
 
     @Override
     public <V> void update(String id, V document) {
-        _client.update(id, ElasticsearchClient.convertTypeToJson(document));
+        _client.update(id, ElasticsearchClient.convertTypeToBytes(document));
     }
 
     /**
@@ -0,0 +1,156 @@
+/*
+ * 2014 Red Hat Inc. and/or its affiliates and other contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.overlord.rtgov.common.elasticsearch;
+
+import static org.junit.Assert.*;
+
+import org.elasticsearch.action.ActionRequest;
+import org.elasticsearch.action.bulk.BulkItemResponse;
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.common.util.concurrent.EsRejectedExecutionException;
+import org.elasticsearch.rest.RestStatus;
+import org.junit.Test;
+
+@SuppressWarnings("rawtypes")
+public class ElasticsearchBulkProcessorTest {
+
+    private static final long RETRY_DELAY=10000;
+
+    @Test
+    public void testRetryThenItemFailure() {
+        TestFailureHandler handler=new TestFailureHandler();
+
+        // Requests are not sent, as the bulk actions and flush interval thresholds are not reached
+        ElasticsearchBulkProcessor processor=new ElasticsearchBulkProcessor(null, 1000, 0, 0,
+                        1, 5, RETRY_DELAY, handler);
+
+        try {
+            IndexRequest request=new IndexRequest("index", "type", "1").source("{}");
+            BulkRequest bulk=new BulkRequest().add(request);
+
+            processor.handleResponse(bulk, createResponse(RestStatus.TOO_MANY_REQUESTS));
+
+            if (processor.getRetried() != 1) {
+                fail("Expecting 1 retry: "+processor.getRetried());
+            }
+
+            if (processor.isIdle()) {
+                fail("Processor should not be idle while request awaits retry");
+            }
+
+            processor.handleResponse(bulk, createResponse(RestStatus.BAD_REQUEST));
+
+            if (handler.getFailures().size() != 1) {
+                fail("Expecting 1 failure: "+handler.getFailures());
+            }
+
+            if (!processor.isIdle()) {
+                fail("Processor should be idle after retried request failed");
+            }
+
+            if (!processor.awaitCompletion(1000)) {
+                fail("Processor should have completed");
+            }
+        } finally {
+            processor.close();
+        }
+    }
+
+    @Test
+    public void testRetryThenBulkFailure() {
+        TestFailureHandler handler=new TestFailureHandler();
+
+        ElasticsearchBulkProcessor processor=new ElasticsearchBulkProcessor(null, 1000, 0, 0,
+                        1, 5, RETRY_DELAY, handler);
+
+        try {
+            IndexRequest request=new IndexRequest("index", "type", "1").source("{}");
+            BulkRequest bulk=new BulkRequest().add(request);
+
+            processor.handleFailure(bulk, new EsRejectedExecutionException("Rejected"));
+
+            if (processor.getRetried() != 1 || processor.isIdle()) {
+                fail("Expecting request to await retry: "+processor.getRetried());
+            }
+
+            processor.handleFailure(bulk, new RuntimeException("Failed"));
+
+            if (handler.getFailures().size() != 1) {
+                fail("Expecting 1 failure: "+handler.getFailures());
+            }
+
+            if (!processor.isIdle()) {
+                fail("Processor should be idle after retried request failed");
+            }
+        } finally {
+            processor.close();
+        }
+    }
+
+    @Test
+    public void testMaxRetries() {
+        TestFailureHandler handler=new TestFailureHandler();
+
+        ElasticsearchBulkProcessor processor=new ElasticsearchBulkProcessor(null, 1000, 0, 0,
+                        1, 2, RETRY_DELAY, handler);
+
+        try {
+            IndexRequest request=new IndexRequest("index", "type", "1").source("{}");
+            BulkRequest bulk=new BulkRequest().add(request);
+
+            for (int i=0; i < 3; i++) {
+                processor.handleResponse(bulk, createResponse(RestStatus.TOO_MANY_REQUESTS));
+            }
+
+            if (processor.getRetried() != 2) {
+                fail("Expecting 2 retries: "+processor.getRetried());
+            }
+
+            if (handler.getFailures().size() != 1) {
+                fail("Expecting 1 failure: "+handler.getFailures());
+            }
+
+            if (!processor.isIdle()) {
+                fail("Processor should be idle after maximum retries");
+            }
+        } finally {
+            processor.close();
+        }
+    }
+
+    protected static BulkResponse createResponse(RestStatus status) {
+        BulkItemResponse item=new BulkItemResponse(0, "index",
+                    new BulkItemResponse.Failure("index", "type", "1", status.name(), status));
+
+        return (new BulkResponse(new BulkItemResponse[]{item}, 1));
+    }
+
+    public static class TestFailureHandler implements ElasticsearchBulkProcessor.FailureHandler {
+
+        private java.util.List<String> _failures=java.util.Collections.synchronizedList(
+                                new java.util.ArrayList<String>());
+
+        public java.util.List<String> getFailures() {
+            return (_failures);
+        }
+
+        public void failed(ActionRequest request, String reason) {
+            _failures.add(reason);
+        }
+    }
+}
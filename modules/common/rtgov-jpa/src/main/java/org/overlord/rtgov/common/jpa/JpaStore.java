@@ -50,6 +50,8 @@ public class JpaStore {
 
     private String _jndiProperty;
 
+    private Properties _defaults;
+
     private SessionFactory _sessionFactory;
 
     @Deprecated
@@ -69,8 +71,24 @@ public class JpaStore {
      *            The jndi name
      */
     public JpaStore(URL configXml, String jndiProperty) {
+        this(configXml, jndiProperty, null);
+    }
+
+    /**
+     * The constructor.
+     * 
+     * @param configXml
+     *            The hibernate.cfg.xml URL
+     * @param jndiProperty
+     *            The jndi name
+     * @param defaults
+     *            Default hibernate properties, used if not defined in the
+     *            hibernate.cfg.xml or RTGov properties
+     */
+    public JpaStore(URL configXml, String jndiProperty, Properties defaults) {
         _configXml = configXml;
         _jndiProperty = jndiProperty;
+        _defaults = defaults;
     }
 
     /**
@@ -117,6 +135,13 @@ public class JpaStore {
         if (_persistenceUnit == null) {
             if (_sessionFactory == null) {
                 final Configuration cfg = new Configuration().configure(_configXml);
+                if (_defaults != null) {
+                    for (String key : _defaults.stringPropertyNames()) {
+                        if (cfg.getProperty(key) == null) {
+                            cfg.setProperty(key, _defaults.getProperty(key));
+                        }
+                    }
+                }
                 final Properties properties = RTGovProperties.getProperties();
                 if (_jndiProperty != null) {
                     String prop=RTGovProperties.getProperty(_jndiProperty);
@@ -192,6 +217,51 @@ public class JpaStore {
         }
     }
 
+    /**
+     * This method opens a Session for work that extends beyond a single
+     * method invocation, such as iterating over a scrollable result. The
+     * Session must be released using {@link #closeSession(Session)}.
+     * 
+     * @return The Session
+     */
+    public Session openSession() {
+        final Session s = getSession();
+        if (!_isJta) {
+            s.getTransaction().begin();
+        }
+        return s;
+    }
+
+    /**
+     * This method closes a Session obtained from {@link #openSession()}.
+     * 
+     * @param s
+     *            The Session
+     */
+    public void closeSession(Session s) {
+        try {
+            if (!_isJta && s.getTransaction().isActive()) {
+                s.getTransaction().commit();
+            }
+        } finally {
+            s.close();
+        }
+    }
+
+    /**
+     * This method closes the session factory, releasing its resources.
+     */
+    public void close() {
+        if (_sessionFactory != null) {
+            _sessionFactory.close();
+            _sessionFactory = null;
+        }
+        if (_entityManagerFactory != null) {
+            _entityManagerFactory.close();
+            _entityManagerFactory = null;
+        }
+    }
+
     /**
      * Perform work using a provided Hibernate Session.
      * 
@@ -17,12 +17,12 @@ package org.overlord.rtgov.ep.keyvaluestore;
 
 import org.mvel2.MVEL;
 import org.overlord.rtgov.common.service.KeyValueStore;
+import org.overlord.rtgov.common.util.IdGeneratorUtil;
 import org.overlord.rtgov.ep.EventProcessor;
 import org.overlord.rtgov.internal.ep.DefaultEPContext;
 
 import java.io.Serializable;
 import java.text.MessageFormat;
-import java.util.UUID;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -165,11 +165,11 @@ public class KeyValueStoreEventProcessor extends EventProcessor {
     }
 
     /**
-     * This method generates a random string.
+     * This method generates a unique id.
      *
-     * @return The random string
+     * @return The unique id
      */
     protected String getRandom() {
-        return (UUID.randomUUID().toString());
+        return (IdGeneratorUtil.createId());
     }
 }
@@ -22,6 +22,8 @@ import org.overlord.rtgov.activity.model.ActivityType;
 import org.overlord.rtgov.activity.model.ActivityUnit;
 import org.overlord.rtgov.activity.model.Context;
 import org.overlord.rtgov.activity.server.ActivityStore;
+import org.overlord.rtgov.activity.server.ActivityTypeCursor;
+import org.overlord.rtgov.activity.server.ActivityTypeListCursor;
 import org.overlord.rtgov.activity.server.QuerySpec;
 
 public class TestActivityStore implements ActivityStore {
@@ -85,6 +87,14 @@ public class TestActivityStore implements ActivityStore {
         return null;
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    public ActivityTypeCursor getActivityTypeCursor(Context context, long from,
+            long to, int fetchSize, int limit) throws Exception {
+        return (new ActivityTypeListCursor(getActivityTypes(context, from, to), limit));
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -43,6 +43,7 @@ import org.overlord.rtgov.activity.model.soa.RPCActivityType;
 import org.overlord.rtgov.activity.server.ActivityServer;
 import org.overlord.rtgov.activity.server.ActivityStore;
 import org.overlord.rtgov.activity.server.ActivityStoreFactory;
+import org.overlord.rtgov.activity.server.ActivityTypeCursor;
 import org.overlord.rtgov.activity.server.QuerySpec;
 import org.overlord.rtgov.analytics.situation.Situation;
 import org.overlord.rtgov.ui.client.model.ResolutionState;
@@ -983,6 +984,15 @@ public class RTGovSituationsProvider implements SituationsProvider, ActiveChange
 			return (_activityStore.getActivityTypes(context, from, to));
 		}
 
+    	/**
+    	 * {@inheritDoc}
+    	 */
+		@Override
+		public ActivityTypeCursor getActivityTypeCursor(Context context, long from,
+				long to, int fetchSize, int limit) throws Exception {
+			return (_activityStore.getActivityTypeCursor(context, from, to, fetchSize, limit));
+		}
+
     	/**
     	 * {@inheritDoc}
     	 */